@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import android.opengl.GLES20;
+
+import com.supermercerbros.gameengine.Schooner3D;
+import com.supermercerbros.gameengine.engine.shaders.Program;
+import com.supermercerbros.gameengine.engine.shaders.ShaderLib;
+import com.supermercerbros.gameengine.render.RecordingBackend;
+import com.supermercerbros.gameengine.render.RenderBackend;
+
+/**
+ * Records frames through a {@link RecordingBackend}: CommandBuffers are passed
+ * to a GameRenderer through its DataPipe, as the Engine does, and the calls
+ * that the GameRenderer replays them as are checked.
+ */
+public class GameRendererTest extends TestCase {
+	private static final String VERT = "uniform mat4 u_model;\n"
+			+ "attribute vec3 a_pos;\n" + "void main() {\n"
+			+ "	gl_Position = u_model * vec4(a_pos, 1.0);\n" + "}\n";
+	private static final String FRAG = "precision mediump float;\n"
+			+ "uniform vec4 u_color;\n" + "void main() {\n"
+			+ "	gl_FragColor = u_color;\n" + "}\n";
+
+	private RenderBackend oldBackend;
+	private int oldDebugMode;
+	private RecordingBackend gl;
+	private DataPipe pipe;
+	private GameRenderer renderer;
+	private Program program;
+	private int modelSlot, colorSlot, posSlot;
+
+	@Override
+	protected void setUp() throws Exception {
+		oldBackend = Schooner3D.renderBackend;
+		gl = new RecordingBackend();
+		Schooner3D.renderBackend = gl;
+		oldDebugMode = GLDebug.getMode();
+		GLDebug.setMode(GLDebug.MODE_OFF);
+
+		pipe = new DataPipe();
+		renderer = new GameRenderer(pipe, 1.0f, 100.0f);
+		renderer.onSurfaceCreated(null, null);
+		renderer.onSurfaceChanged(null, 640, 480);
+
+		modelSlot = ShaderLib.getSlot("u_model");
+		colorSlot = ShaderLib.getSlot("u_color");
+		posSlot = ShaderLib.getSlot("a_pos");
+		program = new Program(VERT, FRAG);
+		gl.setLogging(true);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		pipe.close();
+		GLDebug.setMode(oldDebugMode);
+		Schooner3D.renderBackend = oldBackend;
+	}
+
+	/**
+	 * Passes the given data to the GameRenderer on another thread, as the
+	 * Engine does, and draws a frame with it.
+	 */
+	private void drawFrame(final RenderData data) throws InterruptedException {
+		final Thread engine = new Thread("GameRendererTest") {
+			@Override
+			public void run() {
+				pipe.putData(null, data);
+			}
+		};
+		engine.start();
+		gl.reset();
+		renderer.onDrawFrame(null);
+		engine.join();
+	}
+
+	/**
+	 * @return The calls logged from the first call to the given method on,
+	 *         without their arguments or error checks.
+	 */
+	private List<String> callsFrom(String first) {
+		final ArrayList<String> calls = new ArrayList<String>();
+		for (String call : gl.getLog()) {
+			final String name = call.substring(0, call.indexOf('('));
+			if (name.equals("glGetError")
+					|| (calls.isEmpty() && !name.equals(first))) {
+				continue;
+			}
+			calls.add(name);
+		}
+		return calls;
+	}
+
+	/**
+	 * @return The first call logged to the given method, with its arguments.
+	 */
+	private String findCall(String name) {
+		for (String call : gl.getLog()) {
+			if (call.startsWith(name + "(")) {
+				return call;
+			}
+		}
+		fail(name + " was not called");
+		return null;
+	}
+
+	public void testReplaysCommandsInOrder() throws InterruptedException {
+		final RenderData data = new RenderData(0, 64, 64);
+		final CommandBuffer commands = data.commands;
+		final float[] model = new float[16];
+		android.opengl.Matrix.setIdentityM(model, 0);
+		commands.useProgram(program);
+		commands.enable(GLES20.GL_DEPTH_TEST);
+		commands.uniformMatrix4(modelSlot, 1, model, 0);
+		commands.uniform(colorSlot, 1.0f, 0.5f, 0.25f, 1.0f);
+		commands.attribPointer(posSlot, 3, GLES20.GL_FLOAT, 12, 0);
+		commands.drawElements(GLES20.GL_TRIANGLES, 36, 0);
+		commands.depthMask(false);
+		commands.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+		commands.drawElements(GLES20.GL_TRIANGLES, 6, 72);
+		commands.depthMask(true);
+		commands.disable(GLES20.GL_BLEND);
+
+		drawFrame(data);
+		assertEquals(1, gl.getFrameCount());
+		assertEquals(2, gl.getDrawCalls());
+
+		// The Program is linked the first time it is used
+		final List<String> calls = callsFrom("glUseProgram");
+		final String[] expected = { "glUseProgram", "glEnable",
+				"glGetUniformLocation", "glUniformMatrix4fv",
+				"glGetUniformLocation", "glUniform4fv",
+				"glGetAttribLocation", "glEnableVertexAttribArray",
+				"glVertexAttribPointer", "glDrawElements", "glDepthMask",
+				"glBlendFunc", "glDrawElements", "glDepthMask", "glDisable" };
+		assertTrue(calls.toString(), calls.size() >= expected.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(calls.toString(), expected[i], calls.get(i));
+		}
+		assertEquals(1, gl.getCallCount("glLinkProgram"));
+		assertEquals("glDrawElements(" + GLES20.GL_TRIANGLES + ", 36, "
+				+ GLES20.GL_UNSIGNED_SHORT + ", 0)", findCall("glDrawElements"));
+		assertEquals("glVertexAttribPointer(0, 3, " + GLES20.GL_FLOAT
+				+ ", false, 12, 0)", findCall("glVertexAttribPointer"));
+
+		// Locations are cached, and the Program stays linked
+		drawFrame(data);
+		assertEquals(0, gl.getCallCount("glLinkProgram"));
+		assertEquals(0, gl.getCallCount("glGetUniformLocation"));
+		assertEquals(0, gl.getCallCount("glGetAttribLocation"));
+		assertEquals(2, gl.getDrawCalls());
+	}
+
+	public void testUploadsDirtyRanges() throws InterruptedException {
+		final RenderData data = new RenderData(0, 64, 64);
+		data.vboRange.include(6, 18);
+		data.iboRange.include(0, 12);
+
+		drawFrame(data);
+		// Offsets and sizes are in bytes
+		final List<String> uploads = new ArrayList<String>();
+		for (String call : gl.getLog()) {
+			if (call.startsWith("glBufferSubData(")) {
+				uploads.add(call);
+			}
+		}
+		assertEquals(uploads.toString(), 2, uploads.size());
+		assertTrue(uploads.get(0), uploads.get(0).startsWith("glBufferSubData("
+				+ GLES20.GL_ARRAY_BUFFER + ", 24, 48, "));
+		assertTrue(uploads.get(1), uploads.get(1).startsWith("glBufferSubData("
+				+ GLES20.GL_ELEMENT_ARRAY_BUFFER + ", 0, 24, "));
+		assertEquals(0, gl.getDrawCalls());
+
+		// The ranges are cleared once uploaded
+		drawFrame(data);
+		assertEquals(0, gl.getCallCount("glBufferSubData"));
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+import android.util.Log;
+
+/**
+ * Checks {@link Welds#find(float[], int, short[])} against the brute-force
+ * search it replaced, on random meshes whose positions are built to trip up a
+ * hash: values one ulp apart, both zeros, NaNs, permuted coordinates, and
+ * values on either side of multiples of a grid step.
+ */
+public class WeldsTest extends TestCase {
+	private static final String TAG = "WeldsTest";
+
+	/**
+	 * The O(n^2) search that Sch3D used to run, which compares every pair of
+	 * vertices that are not sharp. <code>sharps</code> must be sorted.
+	 */
+	private static short[][] bruteForce(float[] verts, int vertCount,
+			short[] sharps) {
+		final ArrayList<Short> pairs = new ArrayList<Short>();
+		int sharp1 = 0;
+		for (int v1 = 0; v1 < vertCount - 1; v1++) {
+			if (sharp1 < sharps.length && sharps[sharp1] == v1) {
+				sharp1++;
+				continue;
+			}
+			int sharp2 = sharp1;
+			for (int v2 = v1 + 1; v2 < vertCount; v2++) {
+				if (sharp2 < sharps.length && sharps[sharp2] == v2) {
+					sharp2++;
+					continue;
+				}
+				if (verts[v1 * 3] == verts[v2 * 3]
+						&& verts[v1 * 3 + 1] == verts[v2 * 3 + 1]
+						&& verts[v1 * 3 + 2] == verts[v2 * 3 + 2]) {
+					pairs.add((short) v1);
+					pairs.add((short) v2);
+				}
+			}
+		}
+		final short[][] doubles = new short[2][pairs.size() / 2];
+		for (int i = 0; i < doubles[0].length; i++) {
+			doubles[0][i] = pairs.get(i * 2);
+			doubles[1][i] = pairs.get(i * 2 + 1);
+		}
+		return doubles;
+	}
+
+	/**
+	 * @return A pool of coordinates that are equal, nearly equal, or equal but
+	 *         for their sign bit.
+	 */
+	private static float[] coordinates(Random random) {
+		final float step = 0.1f;
+		final float[] pool = new float[32];
+		int i = 0;
+		pool[i++] = 0.0f;
+		pool[i++] = -0.0f;
+		pool[i++] = Float.NaN;
+		pool[i++] = Float.MIN_VALUE;
+		pool[i++] = -Float.MIN_VALUE;
+		pool[i++] = 1.0f;
+		pool[i++] = Math.nextUp(1.0f);
+		pool[i++] = Math.nextAfter(1.0f, 0.0);
+		while (i < pool.length) {
+			// A multiple of the step, or just to one side of it
+			final float center = (random.nextInt(41) - 20) * step;
+			switch (random.nextInt(3)) {
+			case 0:
+				pool[i++] = center;
+				break;
+			case 1:
+				pool[i++] = Math.nextUp(center);
+				break;
+			default:
+				pool[i++] = Math.nextAfter(center, Double.NEGATIVE_INFINITY);
+				break;
+			}
+		}
+		return pool;
+	}
+
+	private static float[] mesh(Random random, int vertCount, int distinct) {
+		final float[] pool = coordinates(random);
+		final float[] positions = new float[distinct * 3];
+		for (int i = 0; i < distinct; i++) {
+			final float x = pool[random.nextInt(pool.length)];
+			final float y = pool[random.nextInt(pool.length)];
+			final float z = pool[random.nextInt(pool.length)];
+			positions[i * 3] = x;
+			positions[i * 3 + 1] = y;
+			positions[i * 3 + 2] = z;
+			if (i + 1 < distinct && random.nextInt(4) == 0) {
+				// The same coordinates in another order
+				i++;
+				positions[i * 3] = z;
+				positions[i * 3 + 1] = x;
+				positions[i * 3 + 2] = y;
+			}
+		}
+		final float[] verts = new float[vertCount * 3];
+		for (int v = 0; v < vertCount; v++) {
+			System.arraycopy(positions, random.nextInt(distinct) * 3, verts,
+					v * 3, 3);
+		}
+		return verts;
+	}
+
+	private static short[] sharps(Random random, int vertCount) {
+		final TreeSet<Short> set = new TreeSet<Short>();
+		final int count = random.nextInt(vertCount / 4 + 1);
+		for (int i = 0; i < count; i++) {
+			set.add((short) random.nextInt(vertCount));
+		}
+		final short[] sharps = new short[set.size()];
+		int i = 0;
+		for (short s : set) {
+			sharps[i++] = s;
+		}
+		return sharps;
+	}
+
+	private static void assertSamePairs(String message, short[][] expected,
+			short[][] actual) {
+		assertTrue(message + ": first vertices",
+				Arrays.equals(expected[0], actual[0]));
+		assertTrue(message + ": second vertices",
+				Arrays.equals(expected[1], actual[1]));
+	}
+
+	public void testMatchesBruteForce() {
+		final Random random = new Random(44);
+		for (int trial = 0; trial < 300; trial++) {
+			final int vertCount = 1 + random.nextInt(500);
+			final float[] verts = mesh(random, vertCount,
+					1 + random.nextInt(vertCount));
+			final short[] sharps = trial % 3 == 0 ? new short[0] : sharps(
+					random, vertCount);
+			assertSamePairs("Trial " + trial,
+					bruteForce(verts, vertCount, sharps),
+					Welds.find(verts, vertCount, sharps));
+		}
+	}
+
+	public void testSignedZerosAreWelded() {
+		final float[] verts = { 0.0f, 0.0f, 0.0f, -0.0f, 0.0f, -0.0f };
+		final short[][] doubles = Welds.find(verts, 2, null);
+		assertEquals(1, doubles[0].length);
+		assertEquals(0, doubles[0][0]);
+		assertEquals(1, doubles[1][0]);
+	}
+
+	public void testNearlyEqualPositionsAreNotWelded() {
+		final float x = 0.3f;
+		final float[] verts = { x, 1.0f, 2.0f, Math.nextUp(x), 1.0f, 2.0f,
+				Float.NaN, 1.0f, 2.0f, Float.NaN, 1.0f, 2.0f };
+		assertEquals(0, Welds.find(verts, 4, null)[0].length);
+	}
+
+	public void testUnsignedIndices() {
+		// Vertices past 32767 are stored in shorts as negative numbers
+		final int vertCount = 40000;
+		final float[] verts = new float[vertCount * 3];
+		for (int v = 0; v < vertCount; v++) {
+			verts[v * 3] = v;
+		}
+		verts[39999 * 3] = 1.0f;
+		final short[][] doubles = Welds.find(verts, vertCount,
+				new short[] { (short) 39000 });
+		assertEquals(1, doubles[0].length);
+		assertEquals(1, doubles[0][0]);
+		assertEquals(39999, doubles[1][0] & 0xFFFF);
+	}
+
+	/**
+	 * Logs the time each search takes as the mesh grows. The brute-force
+	 * search grows with the square of the vertex count.
+	 */
+	public void testScaling() {
+		final Random random = new Random(65535);
+		for (int vertCount = 2000; vertCount <= 16000; vertCount *= 2) {
+			final float[] verts = mesh(random, vertCount, vertCount * 3 / 4);
+			final short[] sharps = sharps(random, vertCount);
+
+			long start = System.nanoTime();
+			final short[][] expected = bruteForce(verts, vertCount, sharps);
+			final long bruteForce = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			final short[][] actual = Welds.find(verts, vertCount, sharps);
+			final long hashed = System.nanoTime() - start;
+
+			assertSamePairs(vertCount + " vertices", expected, actual);
+			Log.i(TAG, vertCount + " vertices, " + actual[0].length
+					+ " pairs: brute force " + bruteForce / 1000000
+					+ " ms, hashed " + hashed / 1000 + " us");
+		}
+
+		final int vertCount = 65535;
+		final float[] verts = mesh(random, vertCount, 50000);
+		final long start = System.nanoTime();
+		Welds.find(verts, vertCount, sharps(random, vertCount));
+		Log.i(TAG, vertCount + " vertices: hashed "
+				+ (System.nanoTime() - start) / 1000 + " us");
+	}
+}
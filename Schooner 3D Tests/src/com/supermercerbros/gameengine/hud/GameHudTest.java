@@ -0,0 +1,211 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.hud;
+
+import java.nio.Buffer;
+
+import junit.framework.TestCase;
+import android.graphics.Bitmap;
+import android.graphics.Typeface;
+import android.opengl.GLES20;
+import android.view.MotionEvent;
+
+import com.supermercerbros.gameengine.Schooner3D;
+import com.supermercerbros.gameengine.engine.shaders.Program;
+import com.supermercerbros.gameengine.render.NullBackend;
+import com.supermercerbros.gameengine.render.RecordingBackend;
+import com.supermercerbros.gameengine.render.RenderBackend;
+
+/**
+ * Loads and draws HUDs with more geometry than the default buffer sizes hold,
+ * through a {@link RecordingBackend}, and checks that the buffers are sized
+ * to fit it.
+ */
+public class GameHudTest extends TestCase {
+	private static final String VERT = "attribute vec2 a_pos;\n"
+			+ "attribute vec2 a_uv;\n" + "varying vec2 v_uv;\n"
+			+ "void main() {\n" + "	v_uv = a_uv;\n"
+			+ "	gl_Position = vec4(a_pos, 0.0, 1.0);\n" + "}\n";
+	private static final String FRAG = "precision mediump float;\n"
+			+ "uniform sampler2D " + GameHud.ATLAS_SAMPLER_NAME + ";\n"
+			+ "varying vec2 v_uv;\n" + "void main() {\n"
+			+ "	gl_FragColor = texture2D(" + GameHud.ATLAS_SAMPLER_NAME
+			+ ", v_uv);\n" + "}\n";
+
+	/**
+	 * Records the size of every buffer upload, and checks that each fits in
+	 * the data it is uploaded from.
+	 */
+	private static class BufferBackend extends NullBackend {
+		int arrayBytes = 0;
+		int elementBytes = 0;
+
+		@Override
+		public void glBufferData(int target, int size, Buffer data, int usage) {
+			assertTrue("Uploaded " + size + " bytes from a buffer of "
+					+ data.capacity(), size <= data.capacity());
+			if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+				elementBytes = size;
+			} else if (usage == GLES20.GL_STATIC_DRAW) {
+				arrayBytes = size;
+			}
+		}
+	}
+
+	/**
+	 * A static sprite, drawn as the default quad.
+	 */
+	private static class Sprite extends HudElement {
+		private final Bitmap bitmap;
+
+		Sprite(Program program, Bitmap bitmap, float x) {
+			super(program, x, x + 0.01f, 0.5f, 0.49f);
+			this.bitmap = bitmap;
+		}
+
+		@Override
+		protected Bitmap getSprite() {
+			return bitmap;
+		}
+
+		@Override
+		protected void onRender() {
+		}
+
+		@Override
+		protected void onLoadProgram() {
+		}
+
+		@Override
+		protected boolean onTouchEvent(MotionEvent event,
+				CoordsConverter converter) {
+			return false;
+		}
+	}
+
+	private RenderBackend oldBackend;
+	private BufferBackend buffers;
+	private RecordingBackend recorder;
+	private Program program;
+	private GlyphAtlas font;
+
+	@Override
+	protected void setUp() throws Exception {
+		oldBackend = Schooner3D.renderBackend;
+		buffers = new BufferBackend();
+		recorder = new RecordingBackend(buffers);
+		recorder.setLogging(true);
+		Schooner3D.renderBackend = recorder;
+		program = new Program(VERT, FRAG);
+		font = new GlyphAtlas(Typeface.DEFAULT, 24.0f, GlyphAtlas.ASCII);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Schooner3D.renderBackend = oldBackend;
+	}
+
+	/**
+	 * @return The index count of the last draw call.
+	 */
+	private int lastDrawCount() {
+		for (int i = recorder.getLog().size() - 1; i >= 0; i--) {
+			final String call = recorder.getLog().get(i);
+			if (call.startsWith("glDrawElements(")) {
+				return Integer.parseInt(call.split(", ")[1]);
+			}
+		}
+		fail("Nothing was drawn");
+		return 0;
+	}
+
+	public void testSeveralLabels() {
+		final GameHud hud = new GameHud();
+		final String[] labels = { "Score", "FPS", "Ammo", "Health", "Time",
+				"Lap", "Position", "Best" };
+		final TextElement[] elements = new TextElement[labels.length];
+		for (int i = 0; i < labels.length; i++) {
+			final float top = 1.0f - i * 0.1f;
+			elements[i] = new TextElement(program, font, -1.0f, 0.0f, top,
+					top - 0.08f, 32);
+			elements[i].setText(labels[i] + ": 0");
+			hud.addElement(elements[i]);
+		}
+		hud.setDimensions(1280, 720);
+		hud.load();
+		// 8 labels of 32 characters need 1536 indices, more than 2400 bytes
+		assertTrue(buffers.elementBytes >= labels.length * 32 * 6 * 2);
+
+		recorder.beginFrame();
+		hud.render();
+		assertEquals(1, recorder.getDrawCalls());
+		assertEquals(labels.length * 32 * 6, lastDrawCount());
+
+		elements[1].setNumber(60);
+		recorder.beginFrame();
+		hud.render();
+		assertEquals(1, recorder.getDrawCalls());
+		assertTrue(recorder.getCallCount("glBufferSubData") > 0);
+		hud.unload();
+	}
+
+	public void testLongestLabels() {
+		final GameHud hud = new GameHud();
+		final int count = 40;
+		for (int i = 0; i < count; i++) {
+			final TextElement element = new TextElement(program, font, -1.0f,
+					1.0f, 0.5f, 0.45f, TextElement.MAX_CHARS);
+			element.setNumber(i);
+			hud.addElement(element);
+		}
+		hud.load();
+		recorder.beginFrame();
+		hud.render();
+		assertEquals(1, recorder.getDrawCalls());
+		assertEquals(count * TextElement.MAX_CHARS * 6, lastDrawCount());
+		hud.unload();
+	}
+
+	public void testManyStaticSprites() {
+		final GameHud hud = new GameHud();
+		final Bitmap bitmap = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+		final int count = 300;
+		for (int i = 0; i < count; i++) {
+			hud.addElement(new Sprite(program, bitmap, -1.0f + i * 0.005f));
+		}
+		hud.load();
+		// 300 quads of 16-byte verts, more than 8000 bytes
+		assertTrue(buffers.arrayBytes >= count * 4 * 16);
+		assertTrue(buffers.elementBytes >= count * 6 * 2);
+
+		recorder.beginFrame();
+		hud.render();
+		assertEquals(1, recorder.getDrawCalls());
+		assertEquals(count * 6, lastDrawCount());
+		hud.unload();
+	}
+
+	public void testSizesAreMinimums() {
+		final GameHud hud = new GameHud(100000, 50000);
+		hud.addElement(new TextElement(program, font, -1.0f, 1.0f, 0.5f,
+				0.45f, 8));
+		hud.load();
+		assertEquals(100000, buffers.arrayBytes);
+		assertEquals(50000, buffers.elementBytes);
+		hud.unload();
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.parsers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs many load, load, bake chains through the AssetLoader's dependency graph
+ * on pools of one and two threads. A bake that starts before its loads are
+ * done would block a pool thread waiting for them, which deadlocks a pool
+ * this small.
+ */
+public class AssetLoaderTest extends TestCase {
+	private static final int CHAINS = 20000;
+	private static final long TIMEOUT = 30;
+
+	private final AtomicInteger earlyStarts = new AtomicInteger();
+
+	@Override
+	protected void tearDown() throws Exception {
+		AssetLoader.setPool(null);
+	}
+
+	private static void usePool(int threads) {
+		AssetLoader.setPool(Executors.newFixedThreadPool(threads,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						final Thread t = new Thread(r, "AssetLoaderTest");
+						t.setDaemon(true);
+						return t;
+					}
+				}));
+	}
+
+	private static Future<Integer> load(final int value) {
+		return AssetLoader.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return value;
+			}
+		});
+	}
+
+	/**
+	 * @return A Task that adds the results of the given Tasks, and counts the
+	 *         times it started before they were done.
+	 */
+	private Future<Integer> bake(final Future<Integer> a,
+			final Future<Integer> b) {
+		return AssetLoader.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				if (!a.isDone() || !b.isDone()) {
+					earlyStarts.incrementAndGet();
+				}
+				return a.get() + b.get();
+			}
+		}, a, b);
+	}
+
+	public void testChainsOnOneThread() throws Exception {
+		usePool(1);
+		final ArrayList<Future<Integer>> bakes = new ArrayList<Future<Integer>>(
+				CHAINS);
+		for (int i = 0; i < CHAINS; i++) {
+			final Future<Integer> mesh = load(i);
+			final Future<Integer> skeleton = load(i * 2);
+			// A second bake depends on the first, to make the chain deeper
+			bakes.add(bake(bake(mesh, skeleton), skeleton));
+		}
+		for (int i = 0; i < CHAINS; i++) {
+			try {
+				assertEquals(i * 5,
+						bakes.get(i).get(TIMEOUT, TimeUnit.SECONDS).intValue());
+			} catch (TimeoutException e) {
+				fail("Chain " + i + " deadlocked");
+			}
+		}
+		assertEquals("Bakes started before their loads were done", 0,
+				earlyStarts.get());
+	}
+
+	/**
+	 * Every bake depends on a mesh, which the second thread loads while the
+	 * bake is being registered with it, and on a skeleton that is held back
+	 * until every bake has been registered, so a bake that starts early is
+	 * always caught.
+	 */
+	public void testChainsOnTwoThreads() throws Exception {
+		usePool(2);
+		final CountDownLatch gate = new CountDownLatch(1);
+		final Future<Integer> skeleton = AssetLoader.submit(
+				new Callable<Integer>() {
+					@Override
+					public Integer call() throws InterruptedException {
+						gate.await(); // Holds the first thread
+						return 0;
+					}
+				});
+		final ArrayList<Future<Integer>> bakes = new ArrayList<Future<Integer>>(
+				CHAINS);
+		for (int i = 0; i < CHAINS; i++) {
+			bakes.add(bake(load(i), skeleton));
+		}
+		gate.countDown();
+		for (int i = 0; i < CHAINS; i++) {
+			try {
+				assertEquals(i,
+						bakes.get(i).get(TIMEOUT, TimeUnit.SECONDS).intValue());
+			} catch (TimeoutException e) {
+				fail("Chain " + i + " deadlocked");
+			}
+		}
+		assertEquals("Bakes started before their loads were done", 0,
+				earlyStarts.get());
+	}
+
+	public void testFailurePropagates() throws Exception {
+		usePool(2);
+		final Future<Integer> failed = AssetLoader.submit(
+				new Callable<Integer>() {
+					@Override
+					public Integer call() throws IOException {
+						throw new IOException("missing.sch3Dmesh");
+					}
+				});
+		final Future<Integer> baked = bake(failed, load(1));
+		try {
+			baked.get(TIMEOUT, TimeUnit.SECONDS);
+			fail("The bake succeeded without its mesh");
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			assertTrue(cause.toString(), cause instanceof ExecutionException);
+			assertTrue(cause.getCause() instanceof IOException);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.parsers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import junit.framework.TestCase;
+
+/**
+ * Decodes containers written by hand, with their blocks stored uncompressed,
+ * and checks that corrupt ones fail with an IOException before anything is
+ * allocated from their headers.
+ */
+public class CompressedAssetTest extends TestCase {
+	private static final int RAW = 0x80000000;
+
+	private static DataOutputStream header(ByteArrayOutputStream bytes,
+			int blockSize, int length) throws IOException {
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(CompressedAsset.MAGIC);
+		out.writeInt(CompressedAsset.VERSION);
+		out.writeInt(blockSize);
+		out.writeInt(length);
+		return out;
+	}
+
+	/**
+	 * @return A container of the given file, with every block stored
+	 *         uncompressed.
+	 */
+	private static byte[] container(byte[] file, int blockSize)
+			throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = header(bytes, blockSize, file.length);
+		for (int offset = 0; offset < file.length; offset += blockSize) {
+			final int length = Math.min(blockSize, file.length - offset);
+			final CRC32 crc = new CRC32();
+			crc.update(file, offset, length);
+			out.writeInt(length | RAW);
+			out.writeInt((int) crc.getValue());
+			out.write(file, offset, length);
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[1000];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	private static void assertCorrupt(String message, byte[] container) {
+		try {
+			CompressedAsset.decode(ByteBuffer.wrap(container));
+			fail(message + " decoded from a buffer");
+		} catch (IOException e) {
+			// Expected
+		}
+		try {
+			readAll(CompressedAsset.open(new ByteArrayInputStream(container)));
+			fail(message + " decoded from a stream");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	public void testDecodesRawBlocks() throws IOException {
+		final byte[] file = new byte[10000];
+		new Random(49).nextBytes(file);
+		for (int blockSize : new int[] { 1000, 3000, 10000, 65536 }) {
+			final byte[] container = container(file, blockSize);
+			final ByteBuffer decoded = CompressedAsset.decode(ByteBuffer
+					.wrap(container));
+			assertTrue(Arrays.equals(file, decoded.array()));
+			assertTrue(Arrays.equals(file, readAll(CompressedAsset
+					.open(new ByteArrayInputStream(container)))));
+		}
+	}
+
+	public void testHugeLengthWithoutBlocks() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		header(bytes, CompressedAsset.MAX_BLOCK_SIZE, Integer.MAX_VALUE)
+				.close();
+		assertCorrupt("A header alone", bytes.toByteArray());
+	}
+
+	public void testHugeLengthWithFewBlocks() throws IOException {
+		final byte[] container = container(new byte[100], 100);
+		// Claims many more blocks than the container holds
+		ByteBuffer.wrap(container).putInt(12, Integer.MAX_VALUE - 100);
+		assertCorrupt("A container missing most of its blocks", container);
+	}
+
+	public void testBlockThatExpandsTooFar() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = header(bytes,
+				CompressedAsset.MAX_BLOCK_SIZE, CompressedAsset.MAX_BLOCK_SIZE);
+		// Eight compressed bytes cannot decode to 4 MB
+		out.writeInt(8);
+		out.writeInt(0);
+		out.writeLong(0);
+		out.close();
+		assertCorrupt("An 8 byte block", bytes.toByteArray());
+	}
+
+	public void testTruncatedBlock() throws IOException {
+		final byte[] container = container(new byte[5000], 1000);
+		assertCorrupt("A truncated container",
+				Arrays.copyOf(container, container.length - 1));
+	}
+
+	public void testBadChecksum() throws IOException {
+		final byte[] container = container(new byte[5000], 1000);
+		container[container.length - 1] ^= 1;
+		assertCorrupt("A damaged block", container);
+	}
+}
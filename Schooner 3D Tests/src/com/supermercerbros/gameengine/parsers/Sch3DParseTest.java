@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.parsers;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import android.util.Log;
+
+import com.supermercerbros.gameengine.engine.Welds;
+
+/**
+ * Parses a multi-megabyte version 1 mesh with {@link Sch3D} and with a
+ * reference parser that reads one element at a time from a DataInputStream,
+ * as Sch3D did before it used BufferedDataReader, and checks that they agree.
+ * {@link #testParseSpeed()} logs how long each takes.
+ */
+public class Sch3DParseTest extends TestCase {
+	private static final String TAG = "Sch3DParseTest";
+
+	private static final int VERT_COUNT = 65535;
+	private static final int FACE_COUNT = 65535;
+	private static final int RUNS = 5;
+
+	private static byte[] mesh;
+
+	@Override
+	protected void setUp() throws Exception {
+		if (mesh == null) {
+			mesh = writeMesh(new Random(7));
+		}
+	}
+
+	/**
+	 * Writes a textured, armature-indexed quad mesh in version 1 of the
+	 * format. Every fourth vertex repeats an earlier position, so the mesh has
+	 * welds.
+	 */
+	private static byte[] writeMesh(Random random) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(1);
+		out.writeByte(0x06); // textured, armature-indexed quads
+		out.writeShort(FACE_COUNT);
+		out.writeShort(VERT_COUNT);
+		for (int i = 0; i < FACE_COUNT * 4; i++) {
+			out.writeShort(random.nextInt(VERT_COUNT));
+		}
+		final float[] verts = new float[VERT_COUNT * 3];
+		for (int i = 0; i < VERT_COUNT; i++) {
+			if (i % 4 == 3) {
+				System.arraycopy(verts, random.nextInt(i) * 3, verts, i * 3, 3);
+			} else {
+				verts[i * 3] = random.nextFloat() * 20.0f - 10.0f;
+				verts[i * 3 + 1] = random.nextFloat() * 20.0f - 10.0f;
+				verts[i * 3 + 2] = random.nextFloat() * 20.0f - 10.0f;
+			}
+		}
+		for (float f : verts) {
+			out.writeFloat(f);
+		}
+		final int sharpCount = 1000;
+		out.writeShort(sharpCount);
+		for (int i = 0; i < sharpCount; i++) {
+			out.writeShort(i * (VERT_COUNT / sharpCount));
+		}
+		for (int i = 0; i < VERT_COUNT * 2; i++) {
+			out.writeFloat(random.nextFloat());
+		}
+		for (int i = 0; i < VERT_COUNT; i++) {
+			final int boneCount = random.nextInt(4);
+			out.writeByte(boneCount);
+			for (int j = 0; j < boneCount; j++) {
+				out.writeByte(random.nextInt(64));
+			}
+			for (int j = 0; j < boneCount; j++) {
+				out.writeFloat(random.nextFloat());
+			}
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Parses a textured, armature-indexed quad mesh one element at a time.
+	 */
+	private static PreObjectData parseReference(byte[] file)
+			throws IOException {
+		final DataInputStream data = new DataInputStream(
+				new BufferedInputStream(new ByteArrayInputStream(file)));
+		assertEquals(1, data.readInt());
+		assertEquals(0x06, data.readByte());
+		final int faceCount = data.readShort() & 0xFFFF;
+		final int vertCount = data.readShort() & 0xFFFF;
+
+		final short[] indices = new short[faceCount * 6];
+		for (int i = 0; i < faceCount; i++) {
+			final short a = data.readShort();
+			final short b = data.readShort();
+			final short c = data.readShort();
+			final short d = data.readShort();
+			indices[i * 6] = a;
+			indices[i * 6 + 1] = b;
+			indices[i * 6 + 2] = c;
+			indices[i * 6 + 3] = a;
+			indices[i * 6 + 4] = c;
+			indices[i * 6 + 5] = d;
+		}
+
+		final float[] verts = new float[vertCount * 3];
+		for (int i = 0; i < verts.length; i++) {
+			verts[i] = data.readFloat();
+		}
+		final short[] sharpVerts = new short[data.readShort() & 0xFFFF];
+		for (int i = 0; i < sharpVerts.length; i++) {
+			sharpVerts[i] = data.readShort();
+		}
+		final float[] uvs = new float[vertCount * 2];
+		for (int i = 0; i < uvs.length; i++) {
+			uvs[i] = data.readFloat();
+		}
+
+		final byte[][] boneIndices = new byte[vertCount][];
+		final float[][] boneWeights = new float[vertCount][];
+		for (int i = 0; i < vertCount; i++) {
+			final byte boneCount = data.readByte();
+			boneIndices[i] = new byte[boneCount];
+			boneWeights[i] = new float[boneCount];
+			for (int j = 0; j < boneCount; j++) {
+				boneIndices[i][j] = data.readByte();
+			}
+			for (int j = 0; j < boneCount; j++) {
+				boneWeights[i][j] = data.readFloat();
+			}
+		}
+		assertEquals(-1, data.read());
+		data.close();
+		return new PreObjectData(verts, indices, uvs, Welds.find(verts,
+				vertCount, sharpVerts), boneIndices, boneWeights);
+	}
+
+	private static void assertSameMesh(PreObjectData expected,
+			PreObjectData actual) {
+		assertTrue("indices", Arrays.equals(expected.indices, actual.indices));
+		assertTrue("verts", Arrays.equals(expected.verts, actual.verts));
+		assertTrue("uvs", Arrays.equals(expected.uvs, actual.uvs));
+		assertTrue("doubles",
+				Arrays.deepEquals(expected.doubles, actual.doubles));
+		assertTrue("boneIndices",
+				Arrays.deepEquals(expected.boneIndices, actual.boneIndices));
+		assertTrue("boneWeights",
+				Arrays.deepEquals(expected.boneWeights, actual.boneWeights));
+	}
+
+	public void testMatchesElementReads() throws IOException {
+		assertTrue("The mesh is only " + mesh.length + " bytes",
+				mesh.length > 2 * 1024 * 1024);
+		final PreObjectData expected = parseReference(mesh);
+		assertTrue("The mesh has no welds", expected.doubles[0].length > 0);
+		assertSameMesh(expected,
+				Sch3D.parseMesh(new ByteArrayInputStream(mesh)));
+		assertSameMesh(expected, Sch3D.parseMesh(ByteBuffer.wrap(mesh)));
+	}
+
+	/**
+	 * Logs the best of {@link #RUNS} parse times of the reference parser and
+	 * of Sch3D, from a stream and from a buffer. The weld search is included
+	 * in all three.
+	 */
+	public void testParseSpeed() throws IOException {
+		long reference = Long.MAX_VALUE;
+		long stream = Long.MAX_VALUE;
+		long buffer = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			parseReference(mesh);
+			reference = Math.min(reference, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			Sch3D.parseMesh(new ByteArrayInputStream(mesh));
+			stream = Math.min(stream, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			Sch3D.parseMesh(ByteBuffer.wrap(mesh));
+			buffer = Math.min(buffer, System.nanoTime() - start);
+		}
+		Log.i(TAG, "Parsed " + mesh.length / 1024 + " KB: DataInputStream "
+				+ reference / 1000000 + " ms, BufferedDataReader stream "
+				+ stream / 1000000 + " ms, buffer " + buffer / 1000000 + " ms");
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.render;
+
+import java.lang.ref.WeakReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the order the ResourceManager evicts resources in, and that it does
+ * not keep dropped resources alive.
+ */
+public class ResourceManagerTest extends TestCase {
+	private static final int SIZE = 1000;
+
+	/**
+	 * A resource that is resident until it is evicted, and reloads when it is
+	 * bound.
+	 */
+	private static class FakeResource implements GpuResource {
+		private final ResourceManager.Usage resourceUsage = new ResourceManager.Usage();
+		boolean resident = false;
+
+		void bind() {
+			resident = true;
+			ResourceManager.touch(this);
+		}
+
+		@Override
+		public int getResourceType() {
+			return TYPE_BUFFER;
+		}
+
+		@Override
+		public int getGpuBytes() {
+			return SIZE;
+		}
+
+		@Override
+		public boolean isResident() {
+			return resident;
+		}
+
+		@Override
+		public void evict() {
+			resident = false;
+		}
+
+		@Override
+		public ResourceManager.Usage getUsage() {
+			return resourceUsage;
+		}
+	}
+
+	private long oldBudget;
+
+	@Override
+	protected void setUp() throws Exception {
+		oldBudget = ResourceManager.getBudget();
+		// Evict what earlier tests left behind
+		ResourceManager.setBudget(0);
+		ResourceManager.trim();
+		ResourceManager.trim();
+		ResourceManager.setBudget(Long.MAX_VALUE);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		ResourceManager.setBudget(oldBudget);
+	}
+
+	public void testEvictsLeastRecentlyUsed() {
+		final FakeResource[] resources = new FakeResource[4];
+		for (int i = 0; i < resources.length; i++) {
+			resources[i] = new FakeResource();
+		}
+		// Used in the order 2, 0, 3, 1, one per frame
+		for (int i : new int[] { 2, 0, 3, 1 }) {
+			resources[i].bind();
+			ResourceManager.trim();
+		}
+		final long base = ResourceManager.getResidentBytes()
+				- resources.length * SIZE;
+
+		ResourceManager.setBudget(base + 2 * SIZE);
+		ResourceManager.trim();
+		assertFalse(resources[2].isResident());
+		assertFalse(resources[0].isResident());
+		assertTrue(resources[3].isResident());
+		assertTrue(resources[1].isResident());
+	}
+
+	public void testKeepsReferencedAndCurrent() {
+		final FakeResource retained = new FakeResource();
+		final FakeResource current = new FakeResource();
+		final FakeResource old = new FakeResource();
+		ResourceManager.retain(retained);
+		retained.bind();
+		old.bind();
+		ResourceManager.trim();
+
+		current.bind();
+		ResourceManager.setBudget(0);
+		ResourceManager.trim();
+		assertTrue(retained.isResident());
+		assertTrue(current.isResident());
+		assertFalse(old.isResident());
+
+		ResourceManager.release(retained);
+		assertFalse(retained.isResident());
+	}
+
+	public void testReloadsAreCounted() {
+		final FakeResource resource = new FakeResource();
+		resource.bind();
+		ResourceManager.trim();
+		ResourceManager.setBudget(0);
+		ResourceManager.trim();
+		assertFalse(resource.isResident());
+
+		final int reloads = ResourceManager.getReloads();
+		resource.bind();
+		ResourceManager.trim();
+		assertEquals(reloads + 1, ResourceManager.getReloads());
+	}
+
+	/**
+	 * Runs the garbage collector until the given reference is cleared, and
+	 * lets the ResourceManager forget what it collected.
+	 */
+	private static void collect(WeakReference<?> ref)
+			throws InterruptedException {
+		for (int i = 0; i < 50 && ref.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		Thread.sleep(10); // Let the collector enqueue the records
+		ResourceManager.trim();
+	}
+
+	public void testDroppedResourcesAreForgotten() throws InterruptedException {
+		// Forget resources that earlier tests dropped
+		collect(new WeakReference<Object>(new Object()));
+		final int count = ResourceManager.getResourceCount();
+		final long bytes = ResourceManager.getResidentBytes();
+
+		FakeResource resource = new FakeResource();
+		resource.bind();
+		ResourceManager.trim();
+		assertEquals(count + 1, ResourceManager.getResourceCount());
+		assertEquals(bytes + SIZE, ResourceManager.getResidentBytes());
+
+		final WeakReference<FakeResource> ref = new WeakReference<FakeResource>(
+				resource);
+		resource = null;
+		collect(ref);
+		assertNull("The ResourceManager kept a dropped resource alive",
+				ref.get());
+		assertEquals(count, ResourceManager.getResourceCount());
+		assertEquals(bytes, ResourceManager.getResidentBytes());
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.texture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Parses PKM and KTX files written by hand, in the layouts that the ETC1Tool
+ * writes, and checks that truncated or oversized ones fail with an
+ * IOException.
+ */
+public class ETC1ContainerTest extends TestCase {
+	private static final byte[] KTX_MAGIC = { (byte) 0xAB, 'K', 'T', 'X', ' ',
+			'1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n' };
+	private static final int GL_RGB = 0x1907;
+
+	/** The sizes of a complete mip chain for a 10x6 image. */
+	private static final int[][] SIZES = { { 10, 6 }, { 5, 3 }, { 2, 1 },
+			{ 1, 1 } };
+
+	/**
+	 * @return Random "encoded" data for each level of {@link #SIZES}.
+	 */
+	private static byte[][] levels() {
+		final Random random = new Random(36);
+		final byte[][] levels = new byte[SIZES.length][];
+		for (int i = 0; i < SIZES.length; i++) {
+			levels[i] = new byte[ETC1Container.getEncodedDataSize(SIZES[i][0],
+					SIZES[i][1])];
+			random.nextBytes(levels[i]);
+		}
+		return levels;
+	}
+
+	/**
+	 * @return The levels as consecutive PKM images, as ETC1Writer.writePKM
+	 *         writes them.
+	 */
+	private static byte[] pkm(byte[][] levels) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		for (int i = 0; i < levels.length; i++) {
+			final int width = SIZES[i][0];
+			final int height = SIZES[i][1];
+			out.writeBytes("PKM 10");
+			out.writeShort(0); // ETC1_RGB_NO_MIPMAPS
+			out.writeShort((width + 3) & ~3);
+			out.writeShort((height + 3) & ~3);
+			out.writeShort(width);
+			out.writeShort(height);
+			out.write(levels[i]);
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @return The levels as a KTX file in the given byte order, with some
+	 *         key/value data.
+	 */
+	private static byte[] ktx(byte[][] levels, ByteOrder order) {
+		final byte[] keyValues = new byte[12];
+		int length = 64 + keyValues.length;
+		for (byte[] level : levels) {
+			length += 4 + level.length;
+		}
+		final ByteBuffer buf = ByteBuffer.allocate(length).order(order);
+		buf.put(KTX_MAGIC);
+		buf.putInt(0x04030201); // endianness
+		buf.putInt(0); // glType
+		buf.putInt(1); // glTypeSize
+		buf.putInt(0); // glFormat
+		buf.putInt(ETC1Container.GL_ETC1_RGB8_OES);
+		buf.putInt(GL_RGB);
+		buf.putInt(SIZES[0][0]);
+		buf.putInt(SIZES[0][1]);
+		buf.putInt(0); // pixelDepth
+		buf.putInt(0); // numberOfArrayElements
+		buf.putInt(1); // numberOfFaces
+		buf.putInt(levels.length);
+		buf.putInt(keyValues.length);
+		buf.put(keyValues);
+		for (byte[] level : levels) {
+			buf.putInt(level.length);
+			buf.put(level);
+		}
+		return buf.array();
+	}
+
+	private static void assertLevels(byte[][] levels, ETC1Container container) {
+		assertEquals(levels.length, container.getLevelCount());
+		assertTrue(container.hasCompleteMipChain());
+		for (int i = 0; i < levels.length; i++) {
+			assertEquals(SIZES[i][0], container.getWidth(i));
+			assertEquals(SIZES[i][1], container.getHeight(i));
+			assertEquals(levels[i].length, container.getDataSize(i));
+			final byte[] data = new byte[container.getDataSize(i)];
+			container.getData(i).get(data);
+			assertTrue("Level " + i + " differs", Arrays.equals(levels[i], data));
+		}
+	}
+
+	private static void assertInvalid(String message, byte[] file) {
+		try {
+			ETC1Container.parse(ByteBuffer.wrap(file));
+			fail(message + " was parsed");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	public void testPKMRoundTrip() throws IOException {
+		final byte[][] levels = levels();
+		final byte[] file = pkm(levels);
+		assertLevels(levels, ETC1Container.parse(ByteBuffer.wrap(file)));
+		assertLevels(levels, ETC1Container.parsePKM(ByteBuffer.wrap(file)));
+
+		// Through a stream and a direct buffer, as textures are loaded
+		final ByteBuffer direct = ETC1Container
+				.readFully(new ByteArrayInputStream(file));
+		assertLevels(levels, ETC1Container.parse(direct));
+	}
+
+	public void testPKMSingleLevel() throws IOException {
+		final byte[][] levels = levels();
+		final ETC1Container container = ETC1Container.parse(ByteBuffer
+				.wrap(pkm(new byte[][] { levels[0] })));
+		assertEquals(1, container.getLevelCount());
+		assertFalse(container.hasCompleteMipChain());
+	}
+
+	public void testKTXLittleEndian() throws IOException {
+		final byte[][] levels = levels();
+		assertLevels(levels, ETC1Container.parse(ByteBuffer.wrap(ktx(levels,
+				ByteOrder.LITTLE_ENDIAN))));
+	}
+
+	public void testKTXBigEndian() throws IOException {
+		final byte[][] levels = levels();
+		assertLevels(levels, ETC1Container.parse(ByteBuffer.wrap(ktx(levels,
+				ByteOrder.BIG_ENDIAN))));
+	}
+
+	public void testTruncatedFiles() throws IOException {
+		final byte[][] levels = levels();
+		final byte[] pkm = pkm(levels);
+		final byte[] ktx = ktx(levels, ByteOrder.LITTLE_ENDIAN);
+		assertInvalid("An empty file", new byte[0]);
+		assertInvalid("A PKM header", Arrays.copyOf(pkm, 10));
+		assertInvalid("A truncated PKM file",
+				Arrays.copyOf(pkm, pkm.length - 1));
+		assertInvalid("A KTX header", Arrays.copyOf(ktx, 40));
+		assertInvalid("A KTX file without levels", Arrays.copyOf(ktx, 64 + 12));
+		assertInvalid("A truncated KTX file",
+				Arrays.copyOf(ktx, ktx.length - 1));
+	}
+
+	public void testOversizedHeaders() throws IOException {
+		final byte[][] levels = levels();
+
+		final byte[] pkm = pkm(levels);
+		// The largest image a PKM header can describe, without its data
+		ByteBuffer.wrap(pkm).putShort(8, (short) 65532)
+				.putShort(10, (short) 65532).putShort(12, (short) 65532)
+				.putShort(14, (short) 65532);
+		assertInvalid("A PKM file claiming 65532x65532", pkm);
+
+		final ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+		byte[] ktx = ktx(levels, order);
+		ByteBuffer.wrap(ktx).order(order).putInt(60, Integer.MAX_VALUE);
+		assertInvalid("Oversized KTX key/value data", ktx);
+
+		ktx = ktx(levels, order);
+		ByteBuffer.wrap(ktx).order(order).putInt(56, Integer.MAX_VALUE);
+		assertInvalid("A KTX file claiming too many levels", ktx);
+
+		ktx = ktx(levels, order);
+		ByteBuffer.wrap(ktx).order(order).putInt(64 + 12, Integer.MAX_VALUE);
+		assertInvalid("An oversized KTX level", ktx);
+
+		// A size that overflows, with an image size that matches it
+		ktx = ktx(levels, order);
+		final int width = 65536;
+		final int height = 65536;
+		ByteBuffer.wrap(ktx).order(order).putInt(36, width).putInt(40, height)
+				.putInt(64 + 12,
+						ETC1Container.getEncodedDataSize(width, height));
+		assertInvalid("A KTX file claiming " + width + "x" + height, ktx);
+	}
+}
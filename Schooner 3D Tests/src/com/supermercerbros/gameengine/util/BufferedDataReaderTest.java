@@ -0,0 +1,215 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that BufferedDataReader reads what DataOutputStream writes, with
+ * chunk sizes small enough that values and arrays straddle chunk boundaries.
+ */
+public class BufferedDataReaderTest extends TestCase {
+	private static final int[] CHUNK_SIZES = { 8, 13, 64, 1000,
+			BufferedDataReader.DEFAULT_CHUNK_SIZE };
+
+	private static final String[] STRINGS = { "", "Bone.001", "Gr\u00fcn",
+			"\u65e5\u672c\u8a9e", "\ud83d\ude80 rocket" };
+
+	private static final int BYTE = 0, SHORT = 1, INT = 2, FLOAT = 3,
+			BYTES = 4, SHORTS = 5, FLOATS = 6, STRING = 7;
+
+	/**
+	 * A file of random values, and the values written to it.
+	 */
+	private static class Sample {
+		final ArrayList<Object> values = new ArrayList<Object>();
+		final ArrayList<Integer> types = new ArrayList<Integer>();
+		byte[] file;
+	}
+
+	private static Sample write(Random random, int count) throws IOException {
+		final Sample sample = new Sample();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		for (int i = 0; i < count; i++) {
+			final int type = random.nextInt(8);
+			final Object value;
+			switch (type) {
+			case BYTE:
+				value = (byte) random.nextInt();
+				out.writeByte((Byte) value);
+				break;
+			case SHORT:
+				value = (short) random.nextInt();
+				out.writeShort((Short) value);
+				break;
+			case INT:
+				value = random.nextInt();
+				out.writeInt((Integer) value);
+				break;
+			case FLOAT:
+				value = Float.intBitsToFloat(random.nextInt());
+				out.writeFloat((Float) value);
+				break;
+			case BYTES: {
+				final byte[] array = new byte[random.nextInt(3000)];
+				random.nextBytes(array);
+				out.write(array);
+				value = array;
+				break;
+			}
+			case SHORTS: {
+				final short[] array = new short[random.nextInt(3000)];
+				for (int j = 0; j < array.length; j++) {
+					array[j] = (short) random.nextInt();
+					out.writeShort(array[j]);
+				}
+				value = array;
+				break;
+			}
+			case FLOATS: {
+				final float[] array = new float[random.nextInt(3000)];
+				for (int j = 0; j < array.length; j++) {
+					array[j] = random.nextFloat() * 200.0f - 100.0f;
+					out.writeFloat(array[j]);
+				}
+				value = array;
+				break;
+			}
+			case STRING: {
+				final String string = STRINGS[random.nextInt(STRINGS.length)];
+				out.write(string.getBytes("UTF-8"));
+				out.writeByte(0);
+				value = string;
+				break;
+			}
+			default:
+				throw new AssertionError(type);
+			}
+			sample.types.add(type);
+			sample.values.add(value);
+		}
+		out.close();
+		sample.file = bytes.toByteArray();
+		return sample;
+	}
+
+	private static void check(Sample sample, BufferedDataReader reader)
+			throws IOException {
+		for (int i = 0; i < sample.values.size(); i++) {
+			final Object expected = sample.values.get(i);
+			final String message = "value " + i;
+			switch (sample.types.get(i)) {
+			case BYTE:
+				assertEquals(message, expected, reader.readByte());
+				break;
+			case SHORT:
+				assertEquals(message, expected, reader.readShort());
+				break;
+			case INT:
+				assertEquals(message, expected, reader.readInt());
+				break;
+			case FLOAT:
+				// DataOutputStream writes every NaN as the canonical NaN
+				assertEquals(message, Float.floatToIntBits((Float) expected),
+						Float.floatToIntBits(reader.readFloat()));
+				break;
+			case BYTES: {
+				final byte[] array = new byte[((byte[]) expected).length];
+				reader.readByteArray(array, 0, array.length);
+				assertTrue(message, Arrays.equals((byte[]) expected, array));
+				break;
+			}
+			case SHORTS: {
+				final short[] array = new short[((short[]) expected).length];
+				reader.readShortArray(array, 0, array.length);
+				assertTrue(message, Arrays.equals((short[]) expected, array));
+				break;
+			}
+			case FLOATS: {
+				final float[] array = new float[((float[]) expected).length];
+				reader.readFloatArray(array, 0, array.length);
+				assertTrue(message, Arrays.equals((float[]) expected, array));
+				break;
+			}
+			case STRING:
+				assertEquals(message, expected, reader.readString());
+				break;
+			}
+		}
+		assertFalse(reader.hasNext());
+	}
+
+	public void testReadsWhatDataOutputStreamWrites() throws IOException {
+		final Random random = new Random(41);
+		for (int trial = 0; trial < 20; trial++) {
+			final Sample sample = write(random, 200);
+			for (int chunkSize : CHUNK_SIZES) {
+				check(sample, new BufferedDataReader(new ByteArrayInputStream(
+						sample.file), chunkSize));
+			}
+			check(sample, new BufferedDataReader(ByteBuffer.wrap(sample.file)));
+		}
+	}
+
+	public void testStringLongerThanChunk() throws IOException {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			builder.append("\u00e9\u65e5");
+		}
+		final String string = builder.toString();
+		final byte[] utf8 = string.getBytes("UTF-8");
+		final byte[] file = Arrays.copyOf(utf8, utf8.length + 1);
+		for (int chunkSize : CHUNK_SIZES) {
+			final BufferedDataReader reader = new BufferedDataReader(
+					new ByteArrayInputStream(file), chunkSize);
+			assertEquals(string, reader.readString());
+			assertFalse(reader.hasNext());
+		}
+	}
+
+	public void testTruncatedArrayThrowsEOFException() throws IOException {
+		final byte[] file = new byte[4 * 100 + 2];
+		for (int chunkSize : CHUNK_SIZES) {
+			final BufferedDataReader reader = new BufferedDataReader(
+					new ByteArrayInputStream(file), chunkSize);
+			try {
+				reader.readFloatArray(new float[101], 0, 101);
+				fail("Read past the end with a chunk of " + chunkSize);
+			} catch (EOFException e) {
+				// Expected
+			}
+		}
+		try {
+			new BufferedDataReader(ByteBuffer.wrap(file)).readFloatArray(
+					new float[101], 0, 101);
+			fail("Read past the end of a buffer");
+		} catch (EOFException e) {
+			// Expected
+		}
+	}
+}
@@ -16,6 +16,9 @@
 
 package com.supermercerbros.gameengine;
 
+import com.supermercerbros.gameengine.render.GLES2Backend;
+import com.supermercerbros.gameengine.render.RenderBackend;
+
 public class Schooner3D {
 	/**
 	 * The default maximum number of objects.
@@ -47,6 +50,10 @@ public class Schooner3D {
 	 * The default maximum number of light.
 	 */
 	public static final int DEFAULT_MAX_LIGHTS = 10;
+	/**
+	 * The default maximum number of lights that affect a single object.
+	 */
+	public static final int DEFAULT_LIGHTS_PER_OBJECT = 4;
 	
 	/**
 	 * The render backgroundColor color.
@@ -64,4 +71,31 @@ public class Schooner3D {
 	 * The maximum number of objects to allow.
 	 */
 	public static int maxObjects = DEFAULT_MAX_OBJECTS;
+	/**
+	 * The maximum number of lights in a scene.
+	 */
+	public static int maxLights = DEFAULT_MAX_LIGHTS;
+	/**
+	 * The maximum number of lights that affect a single object. Lit Materials
+	 * compile one program variant per light count up to this number, so it
+	 * should be set before any Materials are created.
+	 */
+	public static int lightsPerObject = DEFAULT_LIGHTS_PER_OBJECT;
+	/**
+	 * Whether meshes are reordered for the vertex cache when they are loaded,
+	 * with {@link com.supermercerbros.gameengine.parsers.MeshOptimizer}.
+	 * Meshes that the exporter has already optimized do not need it.
+	 */
+	public static boolean optimizeMeshes = false;
+	/**
+	 * Whether the curves of Actions and movements are quantized to 16 bits
+	 * when they are loaded, halving their memory at a small cost in precision.
+	 * See {@link com.supermercerbros.gameengine.math.PackedClip}.
+	 */
+	public static boolean quantizeClips = false;
+	/**
+	 * The RenderBackend that all rendering calls go through. This should only
+	 * be changed before the GameRenderer is created.
+	 */
+	public static RenderBackend renderBackend = new GLES2Backend();
 }
@@ -29,7 +29,7 @@ import com.supermercerbros.gameengine.engine.Camera;
 import com.supermercerbros.gameengine.engine.Engine;
 import com.supermercerbros.gameengine.material.TexturedMaterial;
 import com.supermercerbros.gameengine.objects.GameObject;
-import com.supermercerbros.gameengine.texture.BitmapTexture;
+import com.supermercerbros.gameengine.render.ResourceManager;
 import com.supermercerbros.gameengine.texture.Texture;
 
 public class TestActivity extends GameActivity {
@@ -64,7 +64,8 @@ public class TestActivity extends GameActivity {
 	}
 
 	protected GameObject getObject() {
-		final Texture testTexture2 = new BitmapTexture(getResources(), R.drawable.test_texture2);
+		final Texture testTexture2 = ResourceManager.acquireBitmapTexture(
+				getResources(), R.drawable.test_texture2, true);
 		return TestObjects.cube(new TexturedMaterial(testTexture2));
 		
 	}
@@ -18,19 +18,36 @@ package com.supermercerbros.gameengine.armature;
 
 import java.util.Iterator;
 
-import android.util.SparseArray;
-
-import com.supermercerbros.gameengine.math.Curve;
+import com.supermercerbros.gameengine.math.PackedClip;
 import com.supermercerbros.gameengine.motion.Movement;
 
 public class Action {
-	private final SparseArray<Curve> boneCurves;
+	/**
+	 * The rotation curves of the bones, as channels <code>i*4</code> to
+	 * <code>i*4 + 3</code> for bone <code>i</code>.
+	 */
+	private final PackedClip clip;
 	public final Movement movement;
+	/**
+	 * Holds a sampled rotation. Actions are only updated on the Engine thread.
+	 */
+	private final float[] rotation = new float[4];
 	
-	public Action(Movement movement, SparseArray<Curve> curves) {
-		this.boneCurves = curves;
+	public Action(Movement movement, PackedClip clip) {
+		this.clip = clip;
 		this.movement = movement;
 	}
+	
+	/**
+	 * @return The PackedClip storing the rotation curves of this Action.
+	 */
+	public PackedClip getClip() {
+		return clip;
+	}
+	
+	private boolean hasBone(int offset) {
+		return offset < clip.getChannelCount() && clip.hasChannel(offset);
+	}
 
 	public void update(ActionData data, Skeleton skeleton, long time) {		
 		if (time < data.startTime) {
@@ -47,15 +64,11 @@ public class Action {
 				final float sz = data.callState.boneStates[offset + 3];
 				
 				final float fw, fx, fy, fz;
-				Curve wCurve = boneCurves.get(offset    );
-				if (wCurve != null) {
-					Curve xCurve = boneCurves.get(offset + 1);
-					Curve yCurve = boneCurves.get(offset + 2);
-					Curve zCurve = boneCurves.get(offset + 3);
-					fw = wCurve.getStartValue();
-					fx = xCurve.getStartValue();
-					fy = yCurve.getStartValue();
-					fz = zCurve.getStartValue();
+				if (hasBone(offset)) {
+					fw = clip.getStartValue(offset    );
+					fx = clip.getStartValue(offset + 1);
+					fy = clip.getStartValue(offset + 2);
+					fz = clip.getStartValue(offset + 3);
 				} else {
 					fw = 1.0f;
 					fx = 0.0f;
@@ -77,22 +90,15 @@ public class Action {
 				return; // Don't animate.
 			}
 			
+			final float[] rotation = this.rotation;
 			final Iterator<Bone> iter = skeleton.bones.iterator();
 			for (int i = 0; iter.hasNext(); i++) {
 				final int offset = i*4;
 				final Bone bone = iter.next();
 				
-				Curve wCurve = boneCurves.get(offset    );
-				if (wCurve != null) {
-					Curve xCurve = boneCurves.get(offset + 1);
-					Curve yCurve = boneCurves.get(offset + 2);
-					Curve zCurve = boneCurves.get(offset + 3);
-					
-					final float w = wCurve.getInterpolation(framePoint);
-					final float x = xCurve.getInterpolation(framePoint);
-					final float y = yCurve.getInterpolation(framePoint);
-					final float z = zCurve.getInterpolation(framePoint);
-					bone.setRotation(w, x, y, z);
+				if (hasBone(offset)) {
+					clip.sample(offset, 4, framePoint, rotation, 0);
+					bone.setRotation(rotation[0], rotation[1], rotation[2], rotation[3]);
 				} 
 			}
 		}
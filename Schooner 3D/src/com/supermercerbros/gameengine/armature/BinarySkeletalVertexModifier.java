@@ -21,6 +21,7 @@ import android.opengl.GLES20;
 
 import com.supermercerbros.gameengine.engine.shaders.Material;
 import com.supermercerbros.gameengine.engine.shaders.Program;
+import com.supermercerbros.gameengine.engine.shaders.ShaderLib;
 import com.supermercerbros.gameengine.engine.shaders.VertexModifier;
 import com.supermercerbros.gameengine.objects.BonedObject;
 import com.supermercerbros.gameengine.objects.GameObject;
@@ -44,9 +45,9 @@ public class BinarySkeletalVertexModifier extends VertexModifier {
 			"vec3 mod_normal = (u_matrices[int(a_index)] * a_normal4).xyz;\n";
 	
 	
-	private final int boneCount;
+	private static final int SLOT_A_INDEX = ShaderLib.getSlot("a_index");
 	
-	private int a_index = -1;
+	private final int boneCount;
 	
 	/**
 	 * Constructs a new BinarySkeletalVertexModifier
@@ -63,10 +64,7 @@ public class BinarySkeletalVertexModifier extends VertexModifier {
 	
 	@Override
 	public void onAttachAttribs(Material mtl, Program program) {
-		if (a_index == -1) {
-			a_index = program.getAttribLocation("a_index");
-		}
-		mtl.attachAttrib(a_index, 1, GLES20.GL_BYTE);
+		mtl.attachAttrib(SLOT_A_INDEX, 1, GLES20.GL_BYTE);
 	}
 	
 	// Getters =================================
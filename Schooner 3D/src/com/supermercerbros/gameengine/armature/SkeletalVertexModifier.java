@@ -22,6 +22,7 @@ import android.opengl.GLES20;
 
 import com.supermercerbros.gameengine.engine.shaders.Material;
 import com.supermercerbros.gameengine.engine.shaders.Program;
+import com.supermercerbros.gameengine.engine.shaders.ShaderLib;
 import com.supermercerbros.gameengine.engine.shaders.VertexModifier;
 import com.supermercerbros.gameengine.objects.BonedObject;
 import com.supermercerbros.gameengine.objects.GameObject;
@@ -53,12 +54,13 @@ public class SkeletalVertexModifier extends VertexModifier {
 	// STRIDE
 	private static final int STRIDE = 5;
 	
+	// SLOTS
+	private static final int SLOT_A_WEIGHTS = ShaderLib.getSlot("a_weights");
+	private static final int SLOT_A_INDICES = ShaderLib.getSlot("a_indices");
+	
 	private final int bonesPerVertex;
 	private final int boneCount;
 	
-	private int a_weights = -2;
-	private int a_indices;
-	
 	public SkeletalVertexModifier(int bonesPerVertex, int boneCount) {
 		this.boneCount = boneCount;
 		this.bonesPerVertex = bonesPerVertex;
@@ -73,12 +75,8 @@ public class SkeletalVertexModifier extends VertexModifier {
 	
 	@Override
 	public void onAttachAttribs(Material mtl, Program program) {
-		if (a_weights == -2) {
-			a_weights = program.getAttribLocation("a_weights");
-			a_indices = program.getAttribLocation("a_indices");
-		}
-		mtl.attachAttrib(a_weights, bonesPerVertex);
-		mtl.attachAttrib(a_indices, bonesPerVertex, GLES20.GL_BYTE); 
+		mtl.attachAttrib(SLOT_A_WEIGHTS, bonesPerVertex);
+		mtl.attachAttrib(SLOT_A_INDICES, bonesPerVertex, GLES20.GL_BYTE); 
 	}
 
 	@Override
@@ -0,0 +1,567 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.engine;
+
+import java.util.Arrays;
+
+import com.supermercerbros.gameengine.engine.shaders.Program;
+import com.supermercerbros.gameengine.engine.shaders.ShaderLib;
+import com.supermercerbros.gameengine.texture.Texture;
+import com.supermercerbros.gameengine.texture.TextureStreamer;
+
+/**
+ * A compact stream of rendering commands. The Engine records one of these per
+ * frame (it lives in {@link RenderData}) and the {@link GameRenderer} replays
+ * it. Commands are stored as an <code>int</code> opcode stream, with float
+ * arguments (matrices, uniform values) in a parallel <code>float</code> array
+ * and object arguments (Programs, Textures) in a reference table.
+ *
+ * <p>
+ * Uniforms and attributes are referred to by their {@link ShaderLib} slot,
+ * not by their location, so that a CommandBuffer can be recorded without a GL
+ * context. The arrays only grow, so once a CommandBuffer has reached the size
+ * of a typical frame, recording does not allocate.
+ * </p>
+ */
+public class CommandBuffer {
+	/** <code>OP_USE_PROGRAM, ref</code> */
+	public static final int OP_USE_PROGRAM = 1;
+	/** <code>OP_UNIFORM_MATRIX4, slot, count, floatIndex</code> */
+	public static final int OP_UNIFORM_MATRIX4 = 2;
+	/** <code>OP_UNIFORM_FLOAT, slot, size, floatIndex</code> */
+	public static final int OP_UNIFORM_FLOAT = 3;
+	/** <code>OP_BIND_TEXTURE, unit, ref, samplerSlot</code> */
+	public static final int OP_BIND_TEXTURE = 4;
+	/** <code>OP_ATTRIB_POINTER, slot, size, glType, stride, offset</code> */
+	public static final int OP_ATTRIB_POINTER = 5;
+	/** <code>OP_ATTRIB_CONSTANT, slot, size, floatIndex</code> */
+	public static final int OP_ATTRIB_CONSTANT = 6;
+	/** <code>OP_DRAW_ELEMENTS, mode, count, offset</code> */
+	public static final int OP_DRAW_ELEMENTS = 7;
+	/** <code>OP_ENABLE, cap</code> */
+	public static final int OP_ENABLE = 8;
+	/** <code>OP_DISABLE, cap</code> */
+	public static final int OP_DISABLE = 9;
+	/** <code>OP_UNIFORM_FLOAT_ARRAY, slot, size, count, floatIndex</code> */
+	public static final int OP_UNIFORM_FLOAT_ARRAY = 10;
+	/** <code>OP_DEPTH_MASK, flag</code> (1 for true, 0 for false) */
+	public static final int OP_DEPTH_MASK = 11;
+	/** <code>OP_BLEND_FUNC, sfactor, dfactor</code> */
+	public static final int OP_BLEND_FUNC = 12;
+
+	private static final int DEFAULT_OPS_CAPACITY = 1024;
+	private static final int DEFAULT_FLOATS_CAPACITY = 2048;
+	private static final int DEFAULT_REFS_CAPACITY = 64;
+
+	int[] ops;
+	int opCount;
+	float[] floats;
+	int floatCount;
+	Object[] refs;
+	int refCount;
+
+	/**
+	 * The Program used by the last {@link #useProgram(Program)} command, or
+	 * null if none has been recorded since the last {@link #reset()}.
+	 */
+	private Program currentProgram;
+
+	/**
+	 * The on-screen size of the draw being recorded, in pixels, or 0 if it is
+	 * not known.
+	 */
+	private float screenSize;
+
+	/**
+	 * Constructs a new, empty CommandBuffer.
+	 */
+	public CommandBuffer() {
+		ops = new int[DEFAULT_OPS_CAPACITY];
+		floats = new float[DEFAULT_FLOATS_CAPACITY];
+		refs = new Object[DEFAULT_REFS_CAPACITY];
+	}
+
+	/**
+	 * Clears this CommandBuffer so that a new frame can be recorded. The
+	 * backing arrays are kept.
+	 */
+	public void reset() {
+		Arrays.fill(refs, 0, refCount, null);
+		opCount = 0;
+		floatCount = 0;
+		refCount = 0;
+		currentProgram = null;
+		screenSize = 0;
+	}
+
+	/**
+	 * Sets the on-screen size of the draw being recorded. Textures bound by
+	 * {@link #bindTexture(int, Texture, int)} report it to the
+	 * {@link TextureStreamer}.
+	 *
+	 * @param pixels
+	 *            The projected diameter of the draw, in pixels, or 0 if it is
+	 *            not known.
+	 */
+	public void setScreenSize(float pixels) {
+		screenSize = pixels;
+	}
+
+	/**
+	 * Records a program switch. Does nothing if the given Program is already
+	 * the current one.
+	 *
+	 * @param program
+	 *            The Program to use.
+	 * @return true if the command was recorded, false if <code>program</code>
+	 *         was already in use.
+	 */
+	public boolean useProgram(Program program) {
+		if (program == currentProgram) {
+			return false;
+		}
+		currentProgram = program;
+		ensureOps(2);
+		ops[opCount++] = OP_USE_PROGRAM;
+		ops[opCount++] = addRef(program);
+		return true;
+	}
+
+	/**
+	 * @return The Program used by the last recorded program switch.
+	 */
+	public Program getCurrentProgram() {
+		return currentProgram;
+	}
+
+	/**
+	 * Records a mat4 uniform upload.
+	 *
+	 * @param slot
+	 *            The ShaderLib slot of the uniform.
+	 * @param count
+	 *            The number of matrices to upload.
+	 * @param matrices
+	 *            The array containing the matrices.
+	 * @param offset
+	 *            The offset into <code>matrices</code> of the first matrix.
+	 */
+	public void uniformMatrix4(int slot, int count, float[] matrices, int offset) {
+		ensureOps(4);
+		ops[opCount++] = OP_UNIFORM_MATRIX4;
+		ops[opCount++] = slot;
+		ops[opCount++] = count;
+		ops[opCount++] = addFloats(matrices, offset, count * 16);
+	}
+
+	/**
+	 * Records a float, vec2, vec3 or vec4 uniform upload.
+	 *
+	 * @param slot
+	 *            The ShaderLib slot of the uniform.
+	 * @param values
+	 *            The values of the uniform. Must be 1 to 4 values.
+	 */
+	public void uniform(int slot, float... values) {
+		uniform(slot, values, 0, values.length);
+	}
+
+	/**
+	 * Records a float, vec2, vec3 or vec4 uniform upload.
+	 *
+	 * @param slot
+	 *            The ShaderLib slot of the uniform.
+	 * @param values
+	 *            The array containing the values of the uniform.
+	 * @param offset
+	 *            The offset into <code>values</code>.
+	 * @param size
+	 *            The number of components, 1 to 4.
+	 */
+	public void uniform(int slot, float[] values, int offset, int size) {
+		if (size < 1 || size > 4) {
+			throw new IllegalArgumentException("size must be 1 to 4.");
+		}
+		ensureOps(4);
+		ops[opCount++] = OP_UNIFORM_FLOAT;
+		ops[opCount++] = slot;
+		ops[opCount++] = size;
+		ops[opCount++] = addFloats(values, offset, size);
+	}
+
+	/**
+	 * Records an upload of an array of float, vec2, vec3 or vec4 uniforms.
+	 *
+	 * @param slot
+	 *            The ShaderLib slot of the uniform array.
+	 * @param size
+	 *            The number of components of each element, 1 to 4.
+	 * @param count
+	 *            The number of elements to upload.
+	 * @param values
+	 *            The array containing the values of the uniform.
+	 * @param offset
+	 *            The offset into <code>values</code>.
+	 */
+	public void uniformArray(int slot, int size, int count, float[] values,
+			int offset) {
+		if (size < 1 || size > 4) {
+			throw new IllegalArgumentException("size must be 1 to 4.");
+		}
+		ensureOps(5);
+		ops[opCount++] = OP_UNIFORM_FLOAT_ARRAY;
+		ops[opCount++] = slot;
+		ops[opCount++] = size;
+		ops[opCount++] = count;
+		ops[opCount++] = addFloats(values, offset, size * count);
+	}
+
+	/**
+	 * Records a vec3 uniform upload.
+	 */
+	public void uniform3(int slot, float x, float y, float z) {
+		ensureFloats(3);
+		final int index = floatCount;
+		floats[floatCount++] = x;
+		floats[floatCount++] = y;
+		floats[floatCount++] = z;
+
+		ensureOps(4);
+		ops[opCount++] = OP_UNIFORM_FLOAT;
+		ops[opCount++] = slot;
+		ops[opCount++] = 3;
+		ops[opCount++] = index;
+	}
+
+	/**
+	 * Records a texture binding.
+	 *
+	 * @param unit
+	 *            The texture unit to bind to (0 for GL_TEXTURE0, etc.)
+	 * @param texture
+	 *            The Texture to bind.
+	 * @param samplerSlot
+	 *            The ShaderLib slot of the sampler uniform.
+	 */
+	public void bindTexture(int unit, Texture texture, int samplerSlot) {
+		ensureOps(4);
+		ops[opCount++] = OP_BIND_TEXTURE;
+		ops[opCount++] = unit;
+		ops[opCount++] = addRef(texture);
+		ops[opCount++] = samplerSlot;
+		if (screenSize > 0) {
+			TextureStreamer.requestSize(texture, screenSize);
+		}
+	}
+
+	/**
+	 * Records a vertex attribute pointer into the currently bound VBO.
+	 *
+	 * @param slot
+	 *            The ShaderLib slot of the attribute.
+	 * @param size
+	 *            The number of components of the attribute.
+	 * @param glType
+	 *            The GL_ enum describing the data type.
+	 * @param stride
+	 *            The stride, in bytes.
+	 * @param offset
+	 *            The offset into the VBO, in bytes.
+	 */
+	public void attribPointer(int slot, int size, int glType, int stride,
+			int offset) {
+		ensureOps(6);
+		ops[opCount++] = OP_ATTRIB_POINTER;
+		ops[opCount++] = slot;
+		ops[opCount++] = size;
+		ops[opCount++] = glType;
+		ops[opCount++] = stride;
+		ops[opCount++] = offset;
+	}
+
+	/**
+	 * Records a generic (constant) vertex attribute.
+	 *
+	 * @param slot
+	 *            The ShaderLib slot of the attribute.
+	 * @param values
+	 *            The value of the attribute. Must be 1 to 4 values.
+	 */
+	public void attribConstant(int slot, float[] values) {
+		ensureOps(4);
+		ops[opCount++] = OP_ATTRIB_CONSTANT;
+		ops[opCount++] = slot;
+		ops[opCount++] = values.length;
+		ops[opCount++] = addFloats(values, 0, values.length);
+	}
+
+	/**
+	 * Records an indexed draw call using unsigned short indices from the
+	 * currently bound IBO.
+	 *
+	 * @param mode
+	 *            The geometry type, e.g. GL_TRIANGLES
+	 * @param count
+	 *            The number of indices to draw.
+	 * @param offset
+	 *            The offset into the IBO, in bytes.
+	 */
+	public void drawElements(int mode, int count, int offset) {
+		ensureOps(4);
+		ops[opCount++] = OP_DRAW_ELEMENTS;
+		ops[opCount++] = mode;
+		ops[opCount++] = count;
+		ops[opCount++] = offset;
+	}
+
+	/**
+	 * Records a glEnable call.
+	 */
+	public void enable(int cap) {
+		ensureOps(2);
+		ops[opCount++] = OP_ENABLE;
+		ops[opCount++] = cap;
+	}
+
+	/**
+	 * Records a glDisable call.
+	 */
+	public void disable(int cap) {
+		ensureOps(2);
+		ops[opCount++] = OP_DISABLE;
+		ops[opCount++] = cap;
+	}
+
+	/**
+	 * Records a glDepthMask call.
+	 */
+	public void depthMask(boolean flag) {
+		ensureOps(2);
+		ops[opCount++] = OP_DEPTH_MASK;
+		ops[opCount++] = flag ? 1 : 0;
+	}
+
+	/**
+	 * Records a glBlendFunc call.
+	 */
+	public void blendFunc(int sfactor, int dfactor) {
+		ensureOps(3);
+		ops[opCount++] = OP_BLEND_FUNC;
+		ops[opCount++] = sfactor;
+		ops[opCount++] = dfactor;
+	}
+
+	// ============================
+	// INSPECTION
+	// ============================
+
+	/**
+	 * @return The number of ints in the opcode stream.
+	 */
+	public int size() {
+		return opCount;
+	}
+
+	/**
+	 * @return The int at the given position in the opcode stream.
+	 */
+	public int getOp(int index) {
+		if (index >= opCount) {
+			throw new IndexOutOfBoundsException("index >= size()");
+		}
+		return ops[index];
+	}
+
+	/**
+	 * @return The float at the given position in the float stream.
+	 */
+	public float getFloat(int index) {
+		if (index >= floatCount) {
+			throw new IndexOutOfBoundsException("index >= float count");
+		}
+		return floats[index];
+	}
+
+	/**
+	 * @return The object at the given position in the reference table.
+	 */
+	public Object getRef(int index) {
+		if (index >= refCount) {
+			throw new IndexOutOfBoundsException("index >= ref count");
+		}
+		return refs[index];
+	}
+
+	/**
+	 * Counts the occurrences of the given opcode in the stream.
+	 *
+	 * @param op
+	 *            One of the <code>OP_</code> constants.
+	 * @return The number of commands with the given opcode.
+	 */
+	public int count(int op) {
+		int count = 0;
+		for (int i = 0; i < opCount; i += getLength(ops[i])) {
+			if (ops[i] == op) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of ints taken up by a command with the given opcode,
+	 * including the opcode itself.
+	 *
+	 * @param op
+	 *            One of the <code>OP_</code> constants.
+	 * @return The length of the command.
+	 */
+	public static int getLength(int op) {
+		switch (op) {
+		case OP_USE_PROGRAM:
+		case OP_ENABLE:
+		case OP_DISABLE:
+		case OP_DEPTH_MASK:
+			return 2;
+		case OP_BLEND_FUNC:
+			return 3;
+		case OP_UNIFORM_MATRIX4:
+		case OP_UNIFORM_FLOAT:
+		case OP_BIND_TEXTURE:
+		case OP_ATTRIB_CONSTANT:
+		case OP_DRAW_ELEMENTS:
+			return 4;
+		case OP_UNIFORM_FLOAT_ARRAY:
+			return 5;
+		case OP_ATTRIB_POINTER:
+			return 6;
+		default:
+			throw new IllegalArgumentException("Unknown opcode: " + op);
+		}
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < opCount; i += getLength(ops[i])) {
+			switch (ops[i]) {
+			case OP_USE_PROGRAM:
+				sb.append("USE_PROGRAM ").append(refs[ops[i + 1]]);
+				break;
+			case OP_UNIFORM_MATRIX4:
+				sb.append("UNIFORM_MATRIX4 ")
+						.append(ShaderLib.getSlotName(ops[i + 1]))
+						.append(" x").append(ops[i + 2]);
+				break;
+			case OP_UNIFORM_FLOAT:
+				sb.append("UNIFORM_FLOAT ")
+						.append(ShaderLib.getSlotName(ops[i + 1])).append(" ");
+				appendFloats(sb, ops[i + 3], ops[i + 2]);
+				break;
+			case OP_UNIFORM_FLOAT_ARRAY:
+				sb.append("UNIFORM_FLOAT_ARRAY ")
+						.append(ShaderLib.getSlotName(ops[i + 1])).append(" x")
+						.append(ops[i + 3]).append(" ");
+				appendFloats(sb, ops[i + 4], ops[i + 2] * ops[i + 3]);
+				break;
+			case OP_BIND_TEXTURE:
+				sb.append("BIND_TEXTURE ").append(ops[i + 1]).append(" ")
+						.append(refs[ops[i + 2]]).append(" ")
+						.append(ShaderLib.getSlotName(ops[i + 3]));
+				break;
+			case OP_ATTRIB_POINTER:
+				sb.append("ATTRIB_POINTER ")
+						.append(ShaderLib.getSlotName(ops[i + 1]))
+						.append(" size=").append(ops[i + 2])
+						.append(" type=0x").append(Integer.toHexString(ops[i + 3]))
+						.append(" stride=").append(ops[i + 4])
+						.append(" offset=").append(ops[i + 5]);
+				break;
+			case OP_ATTRIB_CONSTANT:
+				sb.append("ATTRIB_CONSTANT ")
+						.append(ShaderLib.getSlotName(ops[i + 1])).append(" ");
+				appendFloats(sb, ops[i + 3], ops[i + 2]);
+				break;
+			case OP_DRAW_ELEMENTS:
+				sb.append("DRAW_ELEMENTS mode=0x")
+						.append(Integer.toHexString(ops[i + 1]))
+						.append(" count=").append(ops[i + 2])
+						.append(" offset=").append(ops[i + 3]);
+				break;
+			case OP_ENABLE:
+				sb.append("ENABLE 0x").append(Integer.toHexString(ops[i + 1]));
+				break;
+			case OP_DISABLE:
+				sb.append("DISABLE 0x").append(Integer.toHexString(ops[i + 1]));
+				break;
+			case OP_DEPTH_MASK:
+				sb.append("DEPTH_MASK ").append(ops[i + 1] != 0);
+				break;
+			case OP_BLEND_FUNC:
+				sb.append("BLEND_FUNC 0x").append(Integer.toHexString(ops[i + 1]))
+						.append(" 0x").append(Integer.toHexString(ops[i + 2]));
+				break;
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	// ============================
+	// PRIVATE METHODS
+	// ============================
+
+	private void appendFloats(StringBuilder sb, int index, int count) {
+		sb.append("[");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(floats[index + i]);
+		}
+		sb.append("]");
+	}
+
+	private int addRef(Object ref) {
+		if (refCount == refs.length) {
+			refs = Arrays.copyOf(refs, refs.length * 2);
+		}
+		refs[refCount] = ref;
+		return refCount++;
+	}
+
+	private int addFloats(float[] src, int offset, int length) {
+		ensureFloats(length);
+		final int index = floatCount;
+		System.arraycopy(src, offset, floats, index, length);
+		floatCount += length;
+		return index;
+	}
+
+	private void ensureOps(int length) {
+		if (opCount + length > ops.length) {
+			ops = Arrays.copyOf(ops, Math.max(ops.length * 2, opCount + length));
+		}
+	}
+
+	private void ensureFloats(int length) {
+		if (floatCount + length > floats.length) {
+			floats = Arrays.copyOf(floats,
+					Math.max(floats.length * 2, floatCount + length));
+		}
+	}
+}
@@ -35,6 +35,10 @@ public class DataPipe {
 	private RenderData data;
 	private long lastReadTime;
 	private boolean hasData = false;
+	
+	// Written by the renderer thread, read by the Engine thread
+	private final float[] projMatrix = new float[16];
+	private int viewportHeight;
 
 	/**
 	 * Constructs a new DataPipe. This also initializes <code>ShaderLib</code>
@@ -76,6 +80,46 @@ public class DataPipe {
 		return lastReadTime + (1000/30);
 	}
 
+	/**
+	 * Called by the renderer thread to publish the projection matrix, which
+	 * the Engine uses when recording each frame.
+	 * 
+	 * @param matrix
+	 *            The projection matrix.
+	 * @param viewportHeight
+	 *            The height of the viewport, in pixels.
+	 */
+	void setProjection(float[] matrix, int viewportHeight) {
+		synchronized (projMatrix) {
+			System.arraycopy(matrix, 0, projMatrix, 0, 16);
+			this.viewportHeight = viewportHeight;
+		}
+	}
+	
+	/**
+	 * Called by the Engine thread to read the most recent projection matrix.
+	 * 
+	 * @param out
+	 *            The array to copy the projection matrix to.
+	 */
+	void getProjection(float[] out) {
+		synchronized (projMatrix) {
+			System.arraycopy(projMatrix, 0, out, 0, 16);
+		}
+	}
+	
+	/**
+	 * Called by the Engine thread to read the height of the viewport that the
+	 * projection matrix was made for.
+	 * 
+	 * @return The height of the viewport, in pixels.
+	 */
+	int getViewportHeight() {
+		synchronized (projMatrix) {
+			return viewportHeight;
+		}
+	}
+
 	public synchronized RenderData retrieveData() {
 		while (!hasData) {
 			try {
@@ -16,35 +16,47 @@
 
 package com.supermercerbros.gameengine.engine;
 
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
 
+/**
+ * Notifies GL objects when the GL context has been lost, so that they can
+ * reload themselves. Listeners are held weakly, and each is only notified
+ * once, so listeners that are added again on every reload, or that are no
+ * longer used, do not accumulate.
+ */
 public class EGLContextLostHandler{
 	public interface EGLContextLostListener {
 		public void onContextLost();
 	}
 	
-	private static LinkedList<EGLContextLostListener> listeners;
+	private static final Set<EGLContextLostListener> listeners = Collections
+			.newSetFromMap(new WeakHashMap<EGLContextLostListener, Boolean>());
 	
-	public static void addListener(EGLContextLostListener listener) {
-		if (listeners == null){
-			listeners = new LinkedList<EGLContextLostListener>();
-		}
+	public static synchronized void addListener(EGLContextLostListener listener) {
 		listeners.add(listener);
 	}
 	
+	public static synchronized void removeListener(
+			EGLContextLostListener listener) {
+		listeners.remove(listener);
+	}
+	
 	static void contextLost(){
-		if (listeners == null) {
-			return;
+		final EGLContextLostListener[] current;
+		synchronized (EGLContextLostHandler.class) {
+			current = listeners.toArray(new EGLContextLostListener[listeners
+					.size()]);
 		}
-		for (EGLContextLostListener listener : listeners){
-			listener.onContextLost();
+		for (EGLContextLostListener listener : current){
+			if (listener != null) {
+				listener.onContextLost();
+			}
 		}
 	}
 	
-	static void clear() {
-		if (listeners != null) {
-			listeners.clear();
-			listeners = null;		
-		}
+	static synchronized void clear() {
+		listeners.clear();
 	}
 }
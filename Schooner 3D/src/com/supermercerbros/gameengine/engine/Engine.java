@@ -16,18 +16,25 @@
 
 package com.supermercerbros.gameengine.engine;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 
+import android.opengl.GLES20;
+import android.opengl.Matrix;
 import android.util.FloatMath;
 import android.util.Log;
 
+import com.supermercerbros.gameengine.Schooner3D;
 import com.supermercerbros.gameengine.collision.CollisionDetector;
 import com.supermercerbros.gameengine.collision.OnCollisionCheckFinishedListener;
 import com.supermercerbros.gameengine.engine.shaders.Material;
+import com.supermercerbros.gameengine.engine.shaders.Program;
+import com.supermercerbros.gameengine.engine.shaders.ShaderLib;
 import com.supermercerbros.gameengine.objects.GameObject;
 import com.supermercerbros.gameengine.objects.Metadata;
+import com.supermercerbros.gameengine.texture.TextureStreamer;
 import com.supermercerbros.gameengine.util.LoopingThread;
 import com.supermercerbros.gameengine.util.Toggle;
 
@@ -51,6 +58,8 @@ public class Engine extends LoopingThread {
 	private final Toggle cdIsFinished = new Toggle(false);
 	// Be careful to always synchronize access of these fields:
 	private final Light light = new Light();
+	private boolean hasLight = false;
+	private final ArrayList<Light> lights = new ArrayList<Light>();
 	
 	private Scene newScene;
 	
@@ -59,6 +68,22 @@ public class Engine extends LoopingThread {
 	
 	private final DataPipe pipe;
 	
+	// Scratch matrices used while recording commands
+	private final float[] projMatrix = new float[16];
+	private final float[] viewProjMatrix = new float[16];
+	private int viewportHeight;
+	
+	// Scratch data used while culling lights
+	private final LightCuller lightCuller = new LightCuller(Schooner3D.lightsPerObject);
+	private final float[] sphere = new float[4];
+	private final float[] lightPositions = new float[4 * Schooner3D.lightsPerObject];
+	private final float[] lightColors = new float[4 * Schooner3D.lightsPerObject];
+	
+	// Draws collected each frame, one queue per Material render queue
+	private final RenderQueue opaqueQueue = new RenderQueue();
+	private final RenderQueue alphaTestQueue = new RenderQueue();
+	private final RenderQueue transparentQueue = new RenderQueue();
+	
 	private Scene scene;
 	private long time;
 
@@ -159,7 +184,7 @@ public class Engine extends LoopingThread {
 	}
 	
 	/**
-	 * Sets the directional light of the scene. The given xyz coordinates do not need to be normalized.
+	 * Sets the main directional light of the scene. The given xyz coordinates do not need to be normalized.
 	 * 
 	 * @param x
 	 *            The x-coordinate of the light vector
@@ -186,6 +211,45 @@ public class Engine extends LoopingThread {
 			light.r = r;
 			light.g = g;
 			light.b = b;
+			hasLight = true;
+		}
+	}
+	
+	/**
+	 * Adds a light to the scene, in addition to the main light set by
+	 * {@link #setLight(float, float, float, float, float, float)}. Each object
+	 * is lit by the (at most) {@link Schooner3D#lightsPerObject} lights that
+	 * affect it most. The given Light is copied every frame, so it may be
+	 * modified later, as long as it is synchronized on.
+	 * 
+	 * @param light
+	 *            The Light to add.
+	 * @throws IllegalStateException
+	 *             if the scene already has {@link Schooner3D#maxLights} lights.
+	 */
+	public void addLight(Light light) {
+		if (light == null) {
+			throw new NullPointerException("light == null");
+		}
+		synchronized (this.light) {
+			final int count = lights.size() + (hasLight ? 1 : 0);
+			if (count >= Schooner3D.maxLights) {
+				throw new IllegalStateException("Cannot have more than "
+						+ Schooner3D.maxLights + " lights.");
+			}
+			lights.add(light);
+		}
+	}
+	
+	/**
+	 * Removes a light that was added with {@link #addLight(Light)}.
+	 * 
+	 * @param light
+	 *            The Light to remove.
+	 */
+	public void removeLight(Light light) {
+		synchronized (this.light) {
+			lights.remove(light);
 		}
 	}
 	
@@ -232,7 +296,9 @@ public class Engine extends LoopingThread {
 		// While collision detection is running
 		scene.onBeginFrame(time);
 		for (GameObject object : objects) {
-			object.drawVerts(time);
+			if (!object.isStatic()) {
+				object.drawVerts(time);
+			}
 		}
 		cam.update(time);
 		
@@ -241,7 +307,9 @@ public class Engine extends LoopingThread {
 		// After collision detection has finished
 		scene.onCollisionDetectorFinished();
 		for (GameObject object : objects) {
-			object.drawMatrix(time);
+			if (!object.isStatic()) {
+				object.drawMatrix(time);
+			}
 		}
 		
 		// Swap RenderData
@@ -254,17 +322,48 @@ public class Engine extends LoopingThread {
 		
 		// Update pipe
 		final int outIndexOffset = out.index * 2;
-		out.primitives.clear();
 		
+		cam.writeToArray(out.viewMatrix, 0);
+		pipe.getProjection(projMatrix);
+		viewportHeight = pipe.getViewportHeight();
+		Matrix.multiplyMM(viewProjMatrix, 0, projMatrix, 0, out.viewMatrix, 0);
+		
+		synchronized (light) {
+			final Light[] outLights = out.lights;
+			int lightCount = 0;
+			if (hasLight) {
+				light.copyTo(outLights[lightCount++]);
+			}
+			final int size = lights.size();
+			for (int i = 0; i < size && lightCount < outLights.length; i++) {
+				final Light l = lights.get(i);
+				synchronized (l) {
+					l.copyTo(outLights[lightCount++]);
+				}
+			}
+			out.lightCount = lightCount;
+			out.hasMainLight = hasLight;
+		}
+		
+		final CommandBuffer commands = out.commands;
+		commands.reset();
+		
+		final float[] view = out.viewMatrix;
 		final Iterator<float[]> matrixIter = out.modelMatrices.iterator();
 		int vOffset = 0, iOffset = 0;
 		for (GameObject object : objects) {
 			final Metadata objData = object.info;
 			final int[] objBufferLocations = objData.bufferLocations;
 			final Material objMaterial = objData.mtl;
+			final float[] matrices = matrixIter.next();
 			
 			synchronized (object) {
 				if (object.isVisible()) {
+					// Without a Material, the object can be neither loaded nor drawn
+					if (objMaterial == null) {
+						Log.e(TAG, "primitive.mtl == null");
+						continue;
+					}
 					final boolean vertsAreDirty = objBufferLocations[outIndexOffset] == -1;
 					final boolean indicesAreDirty = objBufferLocations[outIndexOffset + 1] == -1;
 					
@@ -297,24 +396,176 @@ public class Engine extends LoopingThread {
 					}
 					
 					// Load matrices
-					object.writeMatrices(matrixIter.next());
+					object.writeMatrices(matrices);
 					
-					out.primitives.add(objData);
+					// Queue the draw, keyed by its depth along the view direction
+					object.getBoundingSphere(sphere);
+					final float depth = -(view[2] * sphere[0] + view[6]
+							* sphere[1] + view[10] * sphere[2] + view[14]);
+					final RenderQueue queue;
+					switch (objMaterial.getRenderQueue()) {
+					case Material.QUEUE_ALPHA_TEST:
+						queue = alphaTestQueue;
+						break;
+					case Material.QUEUE_TRANSPARENT:
+						queue = transparentQueue;
+						break;
+					default:
+						queue = opaqueQueue;
+						break;
+					}
+					queue.add(object, matrices, objBufferLocations[outIndexOffset],
+							objBufferLocations[outIndexOffset + 1], sphere, depth);
 				}
 			}
 		}
 		
-		cam.writeToArray(out.viewMatrix, 0);
+		// Record commands. Opaque and alpha-tested draws go front to back, so
+		// that hidden fragments fail the depth test early; transparent draws go
+		// back to front, so that they blend correctly.
+		opaqueQueue.sort(false);
+		alphaTestQueue.sort(false);
+		transparentQueue.sort(true);
 		
-		synchronized (light) {
-			light.copyTo(out.light);
+		commands.enable(GLES20.GL_DEPTH_TEST);
+		commands.disable(GLES20.GL_BLEND);
+		recordQueue(commands, opaqueQueue, out);
+		recordQueue(commands, alphaTestQueue, out);
+		if (transparentQueue.size() > 0) {
+			commands.enable(GLES20.GL_BLEND);
+			commands.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+			commands.depthMask(false);
+			recordQueue(commands, transparentQueue, out);
+			// Depth writes must be on for glClear to clear the depth buffer
+			commands.depthMask(true);
+			commands.disable(GLES20.GL_BLEND);
 		}
+		opaqueQueue.clear();
+		alphaTestQueue.clear();
+		transparentQueue.clear();
+		
+		TextureStreamer.endFrame();
 		
 		time = pipe.putData(this, out);
 		aBufs = !aBufs;
 //		LoopLog.i(TAG, "Engine is switching to RD " + (aBufs ? 0 : 1));
 	}
 	
+	/**
+	 * Records the commands that render every draw in a RenderQueue, in sorted
+	 * order.
+	 * 
+	 * @param commands
+	 *            The CommandBuffer to record to.
+	 * @param queue
+	 *            The sorted RenderQueue.
+	 * @param out
+	 *            The RenderData being recorded, which holds the lights.
+	 */
+	private void recordQueue(CommandBuffer commands, RenderQueue queue,
+			RenderData out) {
+		final int size = queue.size();
+		for (int n = 0; n < size; n++) {
+			recordPrimitive(commands, queue, queue.getIndex(n), out);
+		}
+	}
+	
+	/**
+	 * Records the commands that render one primitive.
+	 * 
+	 * @param commands
+	 *            The CommandBuffer to record to.
+	 * @param queue
+	 *            The RenderQueue that holds the draw.
+	 * @param index
+	 *            The index of the draw in <code>queue</code>.
+	 * @param out
+	 *            The RenderData being recorded, which holds the lights.
+	 */
+	private void recordPrimitive(CommandBuffer commands, RenderQueue queue,
+			int index, RenderData out) {
+		final Metadata primitive = queue.getObject(index).info;
+		final Material material = primitive.mtl;
+		
+		// Find the lights that affect this primitive
+		int lightCount = 0;
+		final int maxLights = material.getMaxLights();
+		if (maxLights > 0) {
+			queue.getSphere(index, sphere);
+			lightCount = lightCuller.cull(out.lights, out.lightCount, sphere,
+					maxLights);
+		}
+		
+		final Program program = material.getProgram(lightCount);
+		if (program == null) {
+			Log.e(TAG, "program == null");
+			return;
+		}
+		
+		// Per-program uniforms only need to be set when the program changes
+		if (commands.useProgram(program)) {
+			commands.uniformMatrix4(ShaderLib.SLOT_U_VIEWPROJ, 1, viewProjMatrix, 0);
+			if (maxLights == 0 && out.hasMainLight) {
+				// Materials that do not use the light arrays get the main light,
+				// which is always directional
+				final Light light = out.lights[0];
+				commands.uniform3(ShaderLib.SLOT_U_LIGHTVEC, light.x, light.y, light.z);
+				commands.uniform3(ShaderLib.SLOT_U_LIGHTCOLOR, light.r, light.g, light.b);
+			}
+		}
+		
+		if (lightCount > 0) {
+			for (int i = 0; i < lightCount; i++) {
+				final Light light = out.lights[lightCuller.getIndex(i)];
+				final int offset = i * 4;
+				final boolean isPoint = light.type == Light.POINT;
+				lightPositions[offset] = light.x;
+				lightPositions[offset + 1] = light.y;
+				lightPositions[offset + 2] = light.z;
+				lightPositions[offset + 3] = isPoint ? 1.0f : 0.0f;
+				lightColors[offset] = light.r;
+				lightColors[offset + 1] = light.g;
+				lightColors[offset + 2] = light.b;
+				lightColors[offset + 3] = isPoint ? 1.0f / light.radius : 0.0f;
+			}
+			commands.uniformArray(ShaderLib.SLOT_U_LIGHT_POSITIONS, 4,
+					lightCount, lightPositions, 0);
+			commands.uniformArray(ShaderLib.SLOT_U_LIGHT_COLORS, 4,
+					lightCount, lightColors, 0);
+		}
+		
+		// Report the draw's size on screen to the Textures it binds
+		if (TextureStreamer.isEnabled()) {
+			if (maxLights == 0) {
+				queue.getSphere(index, sphere);
+			}
+			commands.setScreenSize(getScreenSize(sphere[3],
+					queue.getDepth(index)));
+		}
+		
+		material.attachAttribs(commands, primitive,
+				queue.getVboLocation(index) * 4, queue.getMatrices(index));
+		commands.drawElements(material.getGeometryType(), primitive.size,
+				queue.getIboLocation(index) * 2);
+	}
+	
+	/**
+	 * Estimates the on-screen size of a bounding sphere.
+	 * 
+	 * @param radius
+	 *            The radius of the sphere.
+	 * @param depth
+	 *            The depth of the sphere's center along the view direction.
+	 * @return The projected diameter of the sphere, in pixels.
+	 */
+	private float getScreenSize(float radius, float depth) {
+		if (depth <= radius) {
+			return Float.MAX_VALUE; // The camera is inside the sphere
+		}
+		// projMatrix[5] is the cotangent of half the vertical field of view
+		return radius * projMatrix[5] * viewportHeight / depth;
+	}
+	
 	@Override
 	protected void onBegin() {
 		scene.onBegin();
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.engine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.opengl.GLES20;
+import android.opengl.GLU;
+import android.util.Log;
+
+import com.supermercerbros.gameengine.BuildConfig;
+import com.supermercerbros.gameengine.Schooner3D;
+
+/**
+ * Controls how often OpenGL errors are checked for. <code>glGetError</code>
+ * forces a pipeline sync on many drivers, so it should not be called after
+ * every GL call in release builds.
+ *
+ * <ul>
+ * <li>{@link #MODE_OFF}: errors are never checked for.</li>
+ * <li>{@link #MODE_SAMPLED}: errors are checked for at the end of every
+ * <i>n</i>th frame (see {@link #setSampleInterval(int)}). This is the default
+ * for debug builds.</li>
+ * <li>{@link #MODE_STRICT}: errors are checked for after every call site that
+ * calls {@link #check(String)}, so they can be attributed to the call that
+ * caused them.</li>
+ * </ul>
+ *
+ * Errors are counted per call site. In sampled mode, errors are attributed to
+ * {@link #SITE_FRAME}.
+ */
+public class GLDebug {
+	private static final String TAG = "OpenGL";
+
+	/**
+	 * Errors are never checked for. This is the default for release builds.
+	 */
+	public static final int MODE_OFF = 0;
+	/**
+	 * Errors are checked for once every few frames.
+	 */
+	public static final int MODE_SAMPLED = 1;
+	/**
+	 * Errors are checked for after every call site.
+	 */
+	public static final int MODE_STRICT = 2;
+
+	/**
+	 * The call site that errors found by sampling are counted under.
+	 */
+	public static final String SITE_FRAME = "frame";
+
+	private static volatile int mode = BuildConfig.DEBUG ? MODE_SAMPLED
+			: MODE_OFF;
+	private static volatile int sampleInterval = 60;
+	private static int framesSinceSample = 0;
+
+	private static final HashMap<String, int[]> errorCounts = new HashMap<String, int[]>();
+
+	/**
+	 * Sets the error checking mode.
+	 *
+	 * @param mode
+	 *            One of {@link #MODE_OFF}, {@link #MODE_SAMPLED}, or
+	 *            {@link #MODE_STRICT}.
+	 */
+	public static void setMode(int mode) {
+		if (mode < MODE_OFF || mode > MODE_STRICT) {
+			throw new IllegalArgumentException("Invalid mode: " + mode);
+		}
+		GLDebug.mode = mode;
+	}
+
+	/**
+	 * @return The current error checking mode.
+	 */
+	public static int getMode() {
+		return mode;
+	}
+
+	/**
+	 * Sets how often errors are checked for in {@link #MODE_SAMPLED}.
+	 *
+	 * @param frames
+	 *            The number of frames between checks. 1 checks at the end of
+	 *            every frame.
+	 */
+	public static void setSampleInterval(int frames) {
+		if (frames < 1) {
+			throw new IllegalArgumentException("frames < 1");
+		}
+		sampleInterval = frames;
+	}
+
+	/**
+	 * Checks for errors if the mode is {@link #MODE_STRICT}. This should be
+	 * called after GL calls that may fail; it costs nothing in the other modes.
+	 *
+	 * @param site
+	 *            A constant string that names the just-called method.
+	 * @return The first GL error code found, or {@link GLES20#GL_NO_ERROR}.
+	 */
+	public static int check(String site) {
+		if (mode != MODE_STRICT) {
+			return GLES20.GL_NO_ERROR;
+		}
+		return drainErrors(site);
+	}
+
+	/**
+	 * Checks for errors regardless of the mode. Use this only when an error is
+	 * already known to have occurred, for example when a create call returns
+	 * 0.
+	 *
+	 * @param site
+	 *            A string that names the just-called method.
+	 * @return The first GL error code found, or {@link GLES20#GL_NO_ERROR}.
+	 */
+	public static int checkNow(String site) {
+		return drainErrors(site);
+	}
+
+	/**
+	 * Called by the GameRenderer at the end of every frame.
+	 */
+	static void endFrame() {
+		if (mode != MODE_SAMPLED) {
+			return;
+		}
+		if (++framesSinceSample >= sampleInterval) {
+			framesSinceSample = 0;
+			drainErrors(SITE_FRAME);
+		}
+	}
+
+	/**
+	 * Calls glGetError until it returns GL_NO_ERROR, logging and counting each
+	 * error under the given site.
+	 */
+	private static int drainErrors(String site) {
+		int first = GLES20.GL_NO_ERROR;
+		int error;
+		while ((error = Schooner3D.renderBackend.glGetError()) != GLES20.GL_NO_ERROR) {
+			if (first == GLES20.GL_NO_ERROR) {
+				first = error;
+			}
+			final int count;
+			synchronized (errorCounts) {
+				int[] siteCount = errorCounts.get(site);
+				if (siteCount == null) {
+					siteCount = new int[1];
+					errorCounts.put(site, siteCount);
+				}
+				count = ++siteCount[0];
+			}
+			Log.e(TAG, site + ": " + GLU.gluErrorString(error)
+					+ " (error code 0x" + Integer.toHexString(error) + ", #"
+					+ count + " at this site)");
+		}
+		return first;
+	}
+
+	/**
+	 * @param site
+	 *            The call site.
+	 * @return The number of errors found at the given call site.
+	 */
+	public static int getErrorCount(String site) {
+		synchronized (errorCounts) {
+			final int[] count = errorCounts.get(site);
+			return count == null ? 0 : count[0];
+		}
+	}
+
+	/**
+	 * @return A copy of the error counts, keyed by call site.
+	 */
+	public static Map<String, Integer> getErrorCounts() {
+		final HashMap<String, Integer> copy = new HashMap<String, Integer>();
+		synchronized (errorCounts) {
+			for (Map.Entry<String, int[]> entry : errorCounts.entrySet()) {
+				copy.put(entry.getKey(), entry.getValue()[0]);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Logs the error counts for every call site that has had errors.
+	 */
+	public static void logErrorCounts() {
+		synchronized (errorCounts) {
+			for (Map.Entry<String, int[]> entry : errorCounts.entrySet()) {
+				Log.i(TAG, entry.getKey() + ": " + entry.getValue()[0]
+						+ " error(s)");
+			}
+		}
+	}
+
+	/**
+	 * Clears the error counts.
+	 */
+	public static void resetErrorCounts() {
+		synchronized (errorCounts) {
+			errorCounts.clear();
+		}
+	}
+}
@@ -20,8 +20,6 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
-import java.util.Iterator;
-import java.util.LinkedList;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -29,52 +27,48 @@ import javax.microedition.khronos.opengles.GL10;
 import android.opengl.GLES20;
 import android.opengl.GLException;
 import android.opengl.GLSurfaceView.Renderer;
-import android.opengl.GLU;
 import android.opengl.Matrix;
 import android.util.Log;
 
 import com.supermercerbros.gameengine.Schooner3D;
-import com.supermercerbros.gameengine.engine.shaders.Material;
 import com.supermercerbros.gameengine.engine.shaders.Program;
-import com.supermercerbros.gameengine.engine.shaders.ShaderLib;
 import com.supermercerbros.gameengine.hud.GameHud;
-import com.supermercerbros.gameengine.objects.Metadata;
+import com.supermercerbros.gameengine.parsers.AssetLoader;
 import com.supermercerbros.gameengine.render.Compositor;
-import com.supermercerbros.gameengine.util.GLES2;
+import com.supermercerbros.gameengine.render.CompositorChain;
+import com.supermercerbros.gameengine.render.GpuBuffer;
+import com.supermercerbros.gameengine.render.RenderBackend;
+import com.supermercerbros.gameengine.render.ResourceManager;
+import com.supermercerbros.gameengine.texture.Texture;
+import com.supermercerbros.gameengine.texture.TextureLoader;
+import com.supermercerbros.gameengine.texture.TextureStreamer;
 import com.supermercerbros.gameengine.util.Utils;
 
 public class GameRenderer implements Renderer {
 	private static final String TAG = GameRenderer.class.getName();
-	private static final boolean CHECK_ERRORS = true;
 
 	/**
+	 * Checks for GL errors, depending on the current {@link GLDebug} mode.
+	 * 
 	 * @param location
-	 *            A string that names the just-called method.
-	 * @return The GL_ code of the error.
+	 *            A constant string that names the just-called method.
+	 * @return The GL_ code of the error, or GL_NO_ERROR if there was no error
+	 *         or errors are not being checked for.
+	 * @see GLDebug#check(String)
 	 */
 	public static int logError(String location) {
-		final int error = GLES20.glGetError();
-		if (CHECK_ERRORS && error != GLES20.GL_NO_ERROR) {
-			Log.e("OpenGL", location + ": " + GLU.gluErrorString(error) + " (error code 0x" + Integer.toHexString(error) + ")");			
-		}
-		return error;
+		return GLDebug.check(location);
 	}
 
 	private final DataPipe pipe;
 	private final FloatBuffer vbo; // Vertex Buffer Object
 	private final ShortBuffer ibo; // Index Buffer Object
 
-	private int arrayBuffer;
-	private int elementBuffer;
+	private final GpuBuffer arrayBuffer;
+	private final GpuBuffer elementBuffer;
 
-	private float[] wvpMatrix = new float[16];
 	private float[] projMatrix = new float[16];
 
-	// Shader variable handles
-	private int u_viewProj = -1;
-	private int u_lightVec = -1;
-	private int u_lightColor = -1;
-
 	private float near, far;
 	private float aspect;
 
@@ -83,9 +77,7 @@ public class GameRenderer implements Renderer {
 	private boolean hasHud = false;
 	private boolean isHudLoaded = false;
 	
-	private Compositor compositor;
-	private boolean hasCompositor = false;
-	private boolean isCompositorLoaded = false;
+	private final CompositorChain compositors = new CompositorChain();
 
 	private long frameCount = 0;
 	private long lastCalcTime;
@@ -106,12 +98,17 @@ public class GameRenderer implements Renderer {
 		this.pipe = pipe;
 
 		Matrix.setIdentityM(projMatrix, 0);
-		Matrix.setIdentityM(wvpMatrix, 0);
 
 		vbo = ByteBuffer.allocateDirect(pipe.VBO_capacity)
 				.order(ByteOrder.nativeOrder()).asFloatBuffer();
 		ibo = ByteBuffer.allocateDirect(pipe.IBO_capacity)
 				.order(ByteOrder.nativeOrder()).asShortBuffer();
+		arrayBuffer = new GpuBuffer(GLES20.GL_ARRAY_BUFFER, pipe.VBO_capacity,
+				vbo, GLES20.GL_DYNAMIC_DRAW);
+		elementBuffer = new GpuBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER,
+				pipe.IBO_capacity, ibo, GLES20.GL_DYNAMIC_DRAW);
+		ResourceManager.retain(arrayBuffer);
+		ResourceManager.retain(elementBuffer);
 
 		this.near = near;
 		this.far = far;
@@ -120,22 +117,34 @@ public class GameRenderer implements Renderer {
 
 	@Override
 	public void onDrawFrame(GL10 unused) {
-		GLES20.glClearColor(Schooner3D.backgroundColor[0],
+		final long frameStart = System.nanoTime();
+		final RenderBackend gl = Schooner3D.renderBackend;
+		gl.beginFrame();
+		gl.glClearColor(Schooner3D.backgroundColor[0],
 				Schooner3D.backgroundColor[1], Schooner3D.backgroundColor[2],
 				Schooner3D.backgroundColor[3]);
 
-		// Setup compositor
-		if (hasCompositor && isCompositorLoaded) {
-			compositor.preDraw();
+		// Setup compositors
+		final boolean composite = compositors.preDraw();
+		if (composite) {
 			logError("compositor preDraw");
 		}
-		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+		gl.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 		
+		final long waitStart = System.nanoTime();
 		final RenderData in = pipe.retrieveData();
+		final long waitTime = System.nanoTime() - waitStart;
+
+		// Compile programs and start texture decodes for loaded assets
+		AssetLoader.update();
+
+		// Upload textures that finished decoding, within the frame's budget
+		TextureLoader.update();
+		TextureStreamer.update();
 
 		// Bind buffers
-		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, arrayBuffer);
-		GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, elementBuffer);
+		arrayBuffer.bind();
+		elementBuffer.bind();
 		
 		// Load VBO data
 		if (in.vboRange.needsToBeUpdated()) {
@@ -144,7 +153,7 @@ public class GameRenderer implements Renderer {
 			vbo.position(start);
 			vbo.put(in.vbo, start, length);
 			vbo.position(start);
-			GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, start * 4, length * 4,
+			gl.glBufferSubData(GLES20.GL_ARRAY_BUFFER, start * 4, length * 4,
 					vbo);
 			in.vboRange.reset();
 		}
@@ -156,84 +165,17 @@ public class GameRenderer implements Renderer {
 			ibo.position(start);
 			ibo.put(in.ibo, start, length);
 			ibo.position(start);
-			GLES20.glBufferSubData(GLES20.GL_ELEMENT_ARRAY_BUFFER, start * 2,
+			gl.glBufferSubData(GLES20.GL_ELEMENT_ARRAY_BUFFER, start * 2,
 					length * 2, ibo);
 			in.iboRange.reset();
 		}
 
-		// Render each primitive
-		Iterator<float[]> matrixIter = in.modelMatrices.iterator();
-		final LinkedList<Metadata> primitives = in.primitives;
-		final int inIndexOffset = in.index * 2;
-		for (final Metadata primitive : primitives) {
-			// Ensure depth test is enabled
-			GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-			logError("glEnable (DEPTH)");
-			
-			// Error checks
-			if (primitive == null) {
-				Log.e(TAG, "primitive == null");
-				continue;
-			}
-			final Material material = primitive.mtl;
-			if (material == null) {
-				Log.e(TAG, "primitive.mtl == null");
-				continue;
-			}
-			final Program program = material.getProgram();
-			if (program == null) {
-				Log.e(TAG, "program == null");
-				continue;
-			}
-			
-			// Load program
-			try {
-				program.load();
-			} catch (GLException e) {
-				Log.e(TAG, "Program could not be loaded.", e);
-				throw new RuntimeException(e); // TODO: remove after debug?
-//					continue; // Is there something better to do here?
-			}
-			GLES20.glUseProgram(program.getHandle());
-			
-			// Load uniforms
-			u_viewProj = program.getUniformLocation(ShaderLib.U_VIEWPROJ);
-			u_lightVec = program.getUniformLocation(ShaderLib.U_LIGHTVEC);
-			u_lightColor = program
-					.getUniformLocation(ShaderLib.U_LIGHTCOLOR);
-
-			// Load World View-Projection matrix
-			Matrix.multiplyMM(wvpMatrix, 0, projMatrix, 0, in.viewMatrix, 0);
-			GLES20.glUniformMatrix4fv(u_viewProj, 1, false, wvpMatrix, 0);
-			logError("glUniformMatrix4fv (wvpMatrix)");
-
-			// Load directional light
-			final Light light = in.light;
-			if (u_lightVec != -1) {
-				GLES20.glUniform3f(u_lightVec, light.x, light.y, light.z);
-				logError("glUniform3fv (light vector)");
-			}
-			if (u_lightColor != -1) {
-				GLES20.glUniform3f(u_lightColor, light.r, light.g, light.b);
-				logError("glUniform3fv (light color)");
-			}
-
-			// Material-specific stuff
-			final int[] bufferLocations = primitive.bufferLocations;
-			material.attachAttribs(primitive,
-					bufferLocations[inIndexOffset] * 4,
-					matrixIter.next());
-
-			// Render primitive!
-			GLES2.glDrawElements(material.getGeometryType(), primitive.size,
-					GLES20.GL_UNSIGNED_SHORT,
-					bufferLocations[inIndexOffset + 1] * 2);
-			logError("DrawElements");
-		}
+		// Render primitives
+		replay(in.commands);
 
-		// Render Compositor
-		if (hasCompositor && isCompositorLoaded) {
-			compositor.postDraw();
+		// Render compositors
+		if (composite) {
+			compositors.postDraw();
 			logError("compositor postDraw");
 		}
 
@@ -242,10 +184,23 @@ public class GameRenderer implements Renderer {
 			if (hasHud) {
 				if (!isHudLoaded) {
 					hud.load();
+					isHudLoaded = true;
 				}
 				hud.render();
 			}
 		}
+		GLDebug.endFrame();
+		ResourceManager.trim();
+		
+		// Render time, for dynamic resolution: the time spent in this method,
+		// less the wait for the Engine's data. Waiting for vsync happens after
+		// this method returns, so it is not counted. GL calls return before
+		// the GPU has run them, so this is CPU time only, unless GLDebug is in
+		// strict mode, where the GPU is waited for as well.
+		if (GLDebug.getMode() == GLDebug.MODE_STRICT) {
+			gl.glFinish();
+		}
+		compositors.onFrameFinished(System.nanoTime() - frameStart - waitTime);
 
 		// FPS calculation
 		frameCount++;
@@ -259,16 +214,160 @@ public class GameRenderer implements Renderer {
 		}
 	}
 
+	/**
+	 * Executes the commands in the given CommandBuffer.
+	 * 
+	 * @param commands
+	 *            The CommandBuffer recorded by the Engine.
+	 */
+	private void replay(CommandBuffer commands) {
+		final int[] ops = commands.ops;
+		final float[] floats = commands.floats;
+		final Object[] refs = commands.refs;
+		final int opCount = commands.opCount;
+		final RenderBackend gl = Schooner3D.renderBackend;
+		
+		Program program = null;
+		int i = 0;
+		while (i < opCount) {
+			switch (ops[i]) {
+			case CommandBuffer.OP_USE_PROGRAM: {
+				program = (Program) refs[ops[i + 1]];
+				try {
+					program.load();
+				} catch (GLException e) {
+					Log.e(TAG, "Program could not be loaded.", e);
+					throw new RuntimeException(e); // TODO: remove after debug?
+				}
+				gl.glUseProgram(program.getHandle());
+				break;
+			}
+			case CommandBuffer.OP_UNIFORM_MATRIX4: {
+				final int location = program.getUniformLocation(ops[i + 1]);
+				if (location != -1) {
+					gl.glUniformMatrix4fv(location, ops[i + 2], false,
+							floats, ops[i + 3]);
+					logError("glUniformMatrix4fv");
+				}
+				break;
+			}
+			case CommandBuffer.OP_UNIFORM_FLOAT: {
+				final int location = program.getUniformLocation(ops[i + 1]);
+				if (location != -1) {
+					final int offset = ops[i + 3];
+					switch (ops[i + 2]) {
+					case 1:
+						gl.glUniform1fv(location, 1, floats, offset);
+						break;
+					case 2:
+						gl.glUniform2fv(location, 1, floats, offset);
+						break;
+					case 3:
+						gl.glUniform3fv(location, 1, floats, offset);
+						break;
+					case 4:
+						gl.glUniform4fv(location, 1, floats, offset);
+						break;
+					}
+					logError("glUniform*fv");
+				}
+				break;
+			}
+			case CommandBuffer.OP_UNIFORM_FLOAT_ARRAY: {
+				final int location = program.getUniformLocation(ops[i + 1]);
+				if (location != -1) {
+					final int count = ops[i + 3];
+					final int offset = ops[i + 4];
+					switch (ops[i + 2]) {
+					case 1:
+						gl.glUniform1fv(location, count, floats, offset);
+						break;
+					case 2:
+						gl.glUniform2fv(location, count, floats, offset);
+						break;
+					case 3:
+						gl.glUniform3fv(location, count, floats, offset);
+						break;
+					case 4:
+						gl.glUniform4fv(location, count, floats, offset);
+						break;
+					}
+					logError("glUniform*fv (array)");
+				}
+				break;
+			}
+			case CommandBuffer.OP_BIND_TEXTURE: {
+				final Texture texture = (Texture) refs[ops[i + 2]];
+				texture.use(ops[i + 1], program.getUniformLocation(ops[i + 3]));
+				break;
+			}
+			case CommandBuffer.OP_ATTRIB_POINTER: {
+				final int location = program.getAttribLocation(ops[i + 1]);
+				if (location != -1) {
+					gl.glEnableVertexAttribArray(location);
+					gl.glVertexAttribPointer(location, ops[i + 2],
+							ops[i + 3], false, ops[i + 4], ops[i + 5]);
+				}
+				break;
+			}
+			case CommandBuffer.OP_ATTRIB_CONSTANT: {
+				final int location = program.getAttribLocation(ops[i + 1]);
+				if (location != -1) {
+					final int offset = ops[i + 3];
+					gl.glDisableVertexAttribArray(location);
+					switch (ops[i + 2]) {
+					case 1:
+						gl.glVertexAttrib1fv(location, floats, offset);
+						break;
+					case 2:
+						gl.glVertexAttrib2fv(location, floats, offset);
+						break;
+					case 3:
+						gl.glVertexAttrib3fv(location, floats, offset);
+						break;
+					case 4:
+						gl.glVertexAttrib4fv(location, floats, offset);
+						break;
+					}
+				}
+				break;
+			}
+			case CommandBuffer.OP_DRAW_ELEMENTS:
+				gl.glDrawElements(ops[i + 1], ops[i + 2],
+						GLES20.GL_UNSIGNED_SHORT, ops[i + 3]);
+				logError("DrawElements");
+				break;
+			case CommandBuffer.OP_ENABLE:
+				gl.glEnable(ops[i + 1]);
+				logError("glEnable");
+				break;
+			case CommandBuffer.OP_DISABLE:
+				gl.glDisable(ops[i + 1]);
+				logError("glDisable");
+				break;
+			case CommandBuffer.OP_DEPTH_MASK:
+				gl.glDepthMask(ops[i + 1] != 0);
+				logError("glDepthMask");
+				break;
+			case CommandBuffer.OP_BLEND_FUNC:
+				gl.glBlendFunc(ops[i + 1], ops[i + 2]);
+				logError("glBlendFunc");
+				break;
+			default:
+				throw new IllegalStateException("Unknown opcode: " + ops[i]);
+			}
+			i += CommandBuffer.getLength(ops[i]);
+		}
+	}
+
 	@Override
 	public void onSurfaceChanged(GL10 unused, int width, int height) {
-		GLES20.glViewport(0, 0, width, height);
+		Schooner3D.renderBackend.glViewport(0, 0, width, height);
 		aspect = width / (float) height;
 		projMatrix(projMatrix);
+		pipe.setProjection(projMatrix, height);
 
-		if (hasCompositor) {
-			compositor.onSurfaceChanged(width, height);
-			isCompositorLoaded = true;
-		}
+		compositors.onSurfaceChanged(width, height);
 
 		frameCount = 0;
 		lastCalcTime = System.currentTimeMillis();
@@ -284,31 +383,21 @@ public class GameRenderer implements Renderer {
 	@Override
 	public void onSurfaceCreated(GL10 unused, EGLConfig config) {
 		EGLContextLostHandler.contextLost();
+		TextureLoader.onContextLost();
+		ResourceManager.onContextLost();
 
-		// Generate buffers
-		final int[] buffers = new int[2];
-		GLES20.glGenBuffers(2, buffers, 0);
-		final int localArrayBuffer = buffers[0];
-		final int localElementBuffer = buffers[1];
-
-		// Bind buffers
-		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, localArrayBuffer);
-		GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, localElementBuffer);
+		// Create buffers, from the client-side copies if the context was lost
+		arrayBuffer.bind();
+		elementBuffer.bind();
 
-		// Initialize buffers
-		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, pipe.VBO_capacity, vbo,
-				GLES20.GL_DYNAMIC_DRAW);
-		GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, pipe.IBO_capacity,
-				ibo, GLES20.GL_DYNAMIC_DRAW);
-
-		// Store handles as fields
-		arrayBuffer = localArrayBuffer;
-		elementBuffer = localElementBuffer;
-
-		// Initialize HUD
+		// Initialize HUD. Its buffers are gone if the context was lost.
 		synchronized (this) {
-			if (hasHud && !isHudLoaded) {
+			if (hasHud) {
+				if (isHudLoaded) {
+					hud.onContextLost();
+				}
 				hud.load();
+				isHudLoaded = true;
 			}
 		}
 	}
@@ -327,13 +416,28 @@ public class GameRenderer implements Renderer {
 		this.isHudLoaded = false;
 	}
 
+	/**
+	 * Replaces all of this GameRenderer's Compositors with the given one.
+	 * 
+	 * @param c
+	 *            The Compositor to use, or null to remove all Compositors.
+	 * @see #getCompositors()
+	 */
 	public void setCompositor(Compositor c) {
-		if (compositor != null) {
-			throw new IllegalStateException("A Compositor has already been set");
-		} else {
-			compositor = c;
-			hasCompositor = true;
+		synchronized (compositors) {
+			compositors.clear();
+			if (c != null) {
+				compositors.add(c);
+			}
 		}
 	}
+	
+	/**
+	 * @return The CompositorChain that post-processes the scene. Use this to
+	 *         add Compositors or to change the render scale.
+	 */
+	public CompositorChain getCompositors() {
+		return compositors;
+	}
 
 }
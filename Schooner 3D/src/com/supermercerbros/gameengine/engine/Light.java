@@ -16,23 +16,94 @@
 
 package com.supermercerbros.gameengine.engine;
 
+/**
+ * A light source. A Light is either {@link #DIRECTIONAL}, in which case
+ * <code>(x, y, z)</code> is the (normalized) vector pointing towards the light,
+ * or {@link #POINT}, in which case <code>(x, y, z)</code> is the position of
+ * the light and {@link #radius} is the distance at which its contribution falls
+ * to zero.
+ */
 public class Light {
+	/**
+	 * A light that is infinitely far away, such as the sun.
+	 */
+	public static final int DIRECTIONAL = 0;
+	/**
+	 * A light at a position in world space, with a limited range.
+	 */
+	public static final int POINT = 1;
+
+	public int type = DIRECTIONAL;
 	public float x;
 	public float y;
 	public float z;
 	public float r;
 	public float g;
 	public float b;
+	/**
+	 * The range of a {@link #POINT} light. Ignored for directional lights.
+	 */
+	public float radius;
+
+	/**
+	 * Constructs a new, black directional Light.
+	 */
+	public Light() {
+	}
+
+	/**
+	 * Constructs a new Light.
+	 * 
+	 * @param type
+	 *            {@link #DIRECTIONAL} or {@link #POINT}
+	 * @param x
+	 *            The x-coordinate of the light vector or position
+	 * @param y
+	 *            The y-coordinate of the light vector or position
+	 * @param z
+	 *            The z-coordinate of the light vector or position
+	 * @param r
+	 *            The red value of the light's color
+	 * @param g
+	 *            The green value of the light's color
+	 * @param b
+	 *            The blue value of the light's color
+	 * @param radius
+	 *            The range of a point light
+	 */
+	public Light(int type, float x, float y, float z, float r, float g,
+			float b, float radius) {
+		if (type != DIRECTIONAL && type != POINT) {
+			throw new IllegalArgumentException("Invalid light type: " + type);
+		}
+		this.type = type;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.r = r;
+		this.g = g;
+		this.b = b;
+		this.radius = radius;
+	}
+
+	/**
+	 * @return The perceived brightness of this light's color.
+	 */
+	public float getLuminance() {
+		return 0.299f * r + 0.587f * g + 0.114f * b;
+	}
 
 	public void copyTo(Light light) {
 		if (light == this) {
 			return;
 		}
+		light.type = type;
 		light.x = x;
 		light.y = y;
 		light.z = z;
 		light.r = r;
 		light.g = g;
 		light.b = b;
+		light.radius = radius;
 	}
 }
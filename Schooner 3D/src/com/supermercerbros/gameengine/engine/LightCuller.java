@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.engine;
+
+import android.util.FloatMath;
+
+/**
+ * Picks the lights that affect an object. Point lights whose range does not
+ * reach the object's bounding sphere are culled; the remaining lights are
+ * ranked by their brightness at the nearest point of the sphere, and the
+ * brightest ones are kept. Directional lights are never culled.
+ *
+ * <p>
+ * A LightCuller does not allocate after construction, and is not thread-safe.
+ * </p>
+ */
+public class LightCuller {
+	private final int[] indices;
+	private final float[] scores;
+
+	/**
+	 * Constructs a new LightCuller.
+	 *
+	 * @param maxLightsPerObject
+	 *            The maximum number of lights that will be requested per
+	 *            object.
+	 */
+	public LightCuller(int maxLightsPerObject) {
+		indices = new int[maxLightsPerObject];
+		scores = new float[maxLightsPerObject];
+	}
+
+	/**
+	 * Finds the most relevant lights for the given bounding sphere.
+	 *
+	 * @param lights
+	 *            The lights in the scene.
+	 * @param lightCount
+	 *            The number of lights in <code>lights</code>.
+	 * @param sphere
+	 *            The object's world-space bounding sphere, as
+	 *            <code>{ x, y, z, radius }</code>.
+	 * @param maxLights
+	 *            The maximum number of lights to return. Must not be greater
+	 *            than the number given to the constructor.
+	 * @return The number of lights found. Their indices are available from
+	 *         {@link #getIndex(int)}, brightest first.
+	 */
+	public int cull(Light[] lights, int lightCount, float[] sphere,
+			int maxLights) {
+		if (maxLights > indices.length) {
+			throw new IllegalArgumentException("maxLights > "
+					+ indices.length);
+		}
+		if (maxLights <= 0) {
+			return 0;
+		}
+		int found = 0;
+		for (int i = 0; i < lightCount; i++) {
+			final float score = score(lights[i], sphere);
+			if (score <= 0.0f) {
+				continue;
+			}
+
+			// Insert into the sorted list, dropping the dimmest if full
+			int pos = found;
+			if (found == maxLights) {
+				if (score <= scores[found - 1]) {
+					continue;
+				}
+				pos--;
+			} else {
+				found++;
+			}
+			while (pos > 0 && scores[pos - 1] < score) {
+				scores[pos] = scores[pos - 1];
+				indices[pos] = indices[pos - 1];
+				pos--;
+			}
+			scores[pos] = score;
+			indices[pos] = i;
+		}
+		return found;
+	}
+
+	/**
+	 * @param n
+	 *            The rank of the light, less than the value returned by the
+	 *            last call to {@link #cull(Light[], int, float[], int)}.
+	 * @return The index of the <code>n</code>th most relevant light.
+	 */
+	public int getIndex(int n) {
+		return indices[n];
+	}
+
+	/**
+	 * Calculates how much the given light contributes to the given bounding
+	 * sphere.
+	 *
+	 * @return The relevance of the light, or 0 if it does not reach the
+	 *         sphere.
+	 */
+	static float score(Light light, float[] sphere) {
+		final float luminance = light.getLuminance();
+		if (light.type == Light.DIRECTIONAL) {
+			return luminance;
+		}
+		if (light.radius <= 0.0f) {
+			return 0.0f;
+		}
+		final float dx = light.x - sphere[0];
+		final float dy = light.y - sphere[1];
+		final float dz = light.z - sphere[2];
+		final float distance = FloatMath.sqrt(dx * dx + dy * dy + dz * dz)
+				- sphere[3];
+		if (distance >= light.radius) {
+			return 0.0f;
+		}
+		final float falloff = 1.0f - Math.max(distance, 0.0f) / light.radius;
+		return luminance * falloff * falloff;
+	}
+}
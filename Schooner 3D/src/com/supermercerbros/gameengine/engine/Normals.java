@@ -26,12 +26,25 @@ public class Normals {
 	public static void calculate(GameObject object) {
 		if (object.normals == null || object.normals.length != object.verts.length) {
 			throw new IllegalStateException("object.normals is not equal in length to object.verts");
-		} else {
-			Arrays.fill(object.normals, 0.0f);
 		}
-		final float[] normals = object.normals, verts = object.verts;
-		final short[] indices = object.indices;
-		final short[][] doubles = object.doubles;
+		calculate(object.normals, object.verts, object.indices, object.doubles);
+	}
+
+	/**
+	 * Calculates the normals of a mesh that is not (yet) a GameObject.
+	 * 
+	 * @param normals
+	 *            The array to write the normals to, the same length as verts.
+	 * @param verts
+	 *            The vertex positions.
+	 * @param indices
+	 *            The triangle indices.
+	 * @param doubles
+	 *            The pairs of vertices to weld, or null.
+	 */
+	public static void calculate(float[] normals, float[] verts,
+			short[] indices, short[][] doubles) {
+		Arrays.fill(normals, 0.0f);
 
 		final float[] vectors = new float[9];
 
@@ -16,12 +16,11 @@
 
 package com.supermercerbros.gameengine.engine;
 
-import java.util.LinkedList;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import android.util.Log;
 
-import com.supermercerbros.gameengine.objects.Metadata;
+import com.supermercerbros.gameengine.Schooner3D;
 
 public class RenderData {
 	/**
@@ -57,7 +56,10 @@ public class RenderData {
 
 	public final int index;
 	
-	public final LinkedList<Metadata> primitives;
+	/**
+	 * The commands that render this frame, recorded by the Engine.
+	 */
+	public final CommandBuffer commands;
 	public final float[] vbo;
 	public final Range vboRange = new Range();
 	public final short[] ibo;
@@ -65,7 +67,17 @@ public class RenderData {
 
 	public CopyOnWriteArrayList<float[]> modelMatrices;
 	public float[] viewMatrix = new float[16];
-	public Light light = new Light();
+	/**
+	 * The lights of this frame. Only the first {@link #lightCount} are valid.
+	 */
+	public final Light[] lights;
+	public int lightCount;
+	/**
+	 * Whether <code>lights[0]</code> is the main light, which is only the case
+	 * if one was set with
+	 * {@link Engine#setLight(float, float, float, float, float, float)}.
+	 */
+	public boolean hasMainLight;
 
 	
 	public RenderData(int index, final int vboLength, final int iboLength) {
@@ -73,7 +85,12 @@ public class RenderData {
 		
 		vbo = new float[vboLength];
 		ibo = new short[iboLength];
-		primitives = new LinkedList<Metadata>();
+		commands = new CommandBuffer();
 		modelMatrices = new CopyOnWriteArrayList<float[]>();
+		
+		lights = new Light[Schooner3D.maxLights];
+		for (int i = 0; i < lights.length; i++) {
+			lights[i] = new Light();
+		}
 	}
 }
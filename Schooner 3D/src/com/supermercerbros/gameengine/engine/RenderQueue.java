@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.engine;
+
+import java.util.Arrays;
+
+import com.supermercerbros.gameengine.objects.GameObject;
+
+/**
+ * A list of draws that are recorded together, sorted by view depth. The Engine
+ * keeps one RenderQueue per {@link com.supermercerbros.gameengine.engine.shaders.Material}
+ * render queue.
+ *
+ * <p>
+ * Sorting is stable, so draws at the same depth keep the order they were added
+ * in. The arrays only grow, so once a RenderQueue has reached the size of a
+ * typical frame, adding and sorting do not allocate.
+ * </p>
+ */
+public class RenderQueue {
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private GameObject[] objects;
+	private float[][] matrices;
+	private int[] vboLocations;
+	private int[] iboLocations;
+	private float[] spheres;
+	private float[] depths;
+	private int[] order;
+	private int[] scratch;
+	private int count;
+
+	/**
+	 * Constructs a new, empty RenderQueue.
+	 */
+	public RenderQueue() {
+		objects = new GameObject[DEFAULT_CAPACITY];
+		matrices = new float[DEFAULT_CAPACITY][];
+		vboLocations = new int[DEFAULT_CAPACITY];
+		iboLocations = new int[DEFAULT_CAPACITY];
+		spheres = new float[DEFAULT_CAPACITY * 4];
+		depths = new float[DEFAULT_CAPACITY];
+		order = new int[DEFAULT_CAPACITY];
+		scratch = new int[DEFAULT_CAPACITY];
+	}
+
+	/**
+	 * Removes all draws from this RenderQueue.
+	 */
+	public void clear() {
+		Arrays.fill(objects, 0, count, null);
+		Arrays.fill(matrices, 0, count, null);
+		count = 0;
+	}
+
+	/**
+	 * Adds a draw to this RenderQueue.
+	 *
+	 * @param object
+	 *            The GameObject to draw.
+	 * @param objMatrices
+	 *            The GameObject's matrices, starting with the model matrix.
+	 * @param vboLocation
+	 *            The location of the object's vertex data in the VBO, in
+	 *            floats.
+	 * @param iboLocation
+	 *            The location of the object's indices in the IBO, in shorts.
+	 * @param sphere
+	 *            The object's world-space bounding sphere, as
+	 *            <code>{ x, y, z, radius }</code>.
+	 * @param depth
+	 *            The distance from the camera to the object, along the view
+	 *            direction.
+	 */
+	public void add(GameObject object, float[] objMatrices, int vboLocation,
+			int iboLocation, float[] sphere, float depth) {
+		if (count == objects.length) {
+			grow();
+		}
+		objects[count] = object;
+		matrices[count] = objMatrices;
+		vboLocations[count] = vboLocation;
+		iboLocations[count] = iboLocation;
+		System.arraycopy(sphere, 0, spheres, count * 4, 4);
+		depths[count] = depth;
+		order[count] = count;
+		count++;
+	}
+
+	/**
+	 * Sorts the draws in this RenderQueue by depth. The sort is stable.
+	 *
+	 * @param backToFront
+	 *            true to sort the farthest draws first, false to sort the
+	 *            nearest draws first.
+	 */
+	public void sort(boolean backToFront) {
+		// Bottom-up merge sort of the draw indices
+		int[] src = order;
+		int[] dst = scratch;
+		for (int width = 1; width < count; width *= 2) {
+			for (int lo = 0; lo < count; lo += 2 * width) {
+				final int mid = Math.min(lo + width, count);
+				final int hi = Math.min(lo + 2 * width, count);
+				merge(src, dst, lo, mid, hi, backToFront);
+			}
+			final int[] temp = src;
+			src = dst;
+			dst = temp;
+		}
+		if (src != order) {
+			System.arraycopy(src, 0, order, 0, count);
+		}
+	}
+
+	private void merge(int[] src, int[] dst, int lo, int mid, int hi,
+			boolean backToFront) {
+		final float[] depths = this.depths;
+		int i = lo, j = mid;
+		for (int k = lo; k < hi; k++) {
+			// Take from the right run only if it is strictly before the left
+			if (i < mid
+					&& (j >= hi || !(backToFront ? depths[src[j]] > depths[src[i]]
+							: depths[src[j]] < depths[src[i]]))) {
+				dst[k] = src[i++];
+			} else {
+				dst[k] = src[j++];
+			}
+		}
+	}
+
+	/**
+	 * @return The number of draws in this RenderQueue.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @param n
+	 *            The position in sorted order.
+	 * @return The index of the <code>n</code>th draw, to be passed to the
+	 *         other getters.
+	 */
+	public int getIndex(int n) {
+		return order[n];
+	}
+
+	public GameObject getObject(int index) {
+		return objects[index];
+	}
+
+	public float[] getMatrices(int index) {
+		return matrices[index];
+	}
+
+	public int getVboLocation(int index) {
+		return vboLocations[index];
+	}
+
+	public int getIboLocation(int index) {
+		return iboLocations[index];
+	}
+
+	public float getDepth(int index) {
+		return depths[index];
+	}
+
+	/**
+	 * Copies the bounding sphere of a draw to the given array.
+	 */
+	public void getSphere(int index, float[] sphere) {
+		System.arraycopy(spheres, index * 4, sphere, 0, 4);
+	}
+
+	private void grow() {
+		final int capacity = objects.length * 2;
+		objects = Arrays.copyOf(objects, capacity);
+		matrices = Arrays.copyOf(matrices, capacity);
+		vboLocations = Arrays.copyOf(vboLocations, capacity);
+		iboLocations = Arrays.copyOf(iboLocations, capacity);
+		spheres = Arrays.copyOf(spheres, capacity * 4);
+		depths = Arrays.copyOf(depths, capacity);
+		order = Arrays.copyOf(order, capacity);
+		scratch = new int[capacity];
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.engine;
+
+import java.util.Arrays;
+
+/**
+ * Finds the coincident vertices of a mesh, which {@link Normals} welds
+ * together so that seams in the uv coordinates do not show in the shading.
+ */
+public class Welds {
+
+	/**
+	 * Finds every pair of vertices with equal positions, other than sharp
+	 * vertices. Positions are grouped with an open-addressing hash table on
+	 * their exact values, so this takes linear time in the number of vertices
+	 * plus the number of pairs.
+	 *
+	 * @param verts
+	 *            The vertex positions, three floats per vertex.
+	 * @param vertCount
+	 *            The number of vertices.
+	 * @param sharps
+	 *            The indices of the sharp vertices, which are never welded, or
+	 *            null.
+	 * @return The pairs, as <code>doubles[0][i]</code> and
+	 *         <code>doubles[1][i]</code>, with the first vertex less than the
+	 *         second. Pairs are sorted by first vertex, then second vertex.
+	 */
+	public static short[][] find(float[] verts, int vertCount, short[] sharps) {
+		final boolean[] sharp = new boolean[vertCount];
+		if (sharps != null) {
+			for (short s : sharps) {
+				final int index = s & 0x0000FFFF;
+				if (index < vertCount) {
+					sharp[index] = true;
+				}
+			}
+		}
+
+		int capacity = 2;
+		while (capacity < vertCount * 2) {
+			capacity <<= 1;
+		}
+		final int mask = capacity - 1;
+
+		// The first vertex of each group, by hash
+		final int[] table = new int[capacity];
+		Arrays.fill(table, -1);
+		// The next vertex in the same group, in ascending order
+		final int[] next = new int[vertCount];
+		Arrays.fill(next, -1);
+		// The last vertex and size of each group, by first vertex
+		final int[] last = new int[vertCount];
+		final int[] size = new int[vertCount];
+
+		long pairCount = 0;
+		for (int v = 0; v < vertCount; v++) {
+			final float x = verts[v * 3], y = verts[v * 3 + 1], z = verts[v * 3 + 2];
+			if (sharp[v] || x != x || y != y || z != z) {
+				continue; // NaN is never equal to anything
+			}
+
+			int slot = hash(x, y, z) & mask;
+			int first;
+			while ((first = table[slot]) != -1
+					&& !(verts[first * 3] == x && verts[first * 3 + 1] == y
+					&& verts[first * 3 + 2] == z)) {
+				slot = (slot + 1) & mask;
+			}
+			if (first == -1) {
+				table[slot] = v;
+				last[v] = v;
+				size[v] = 1;
+			} else {
+				next[last[first]] = v;
+				last[first] = v;
+				pairCount += size[first]++;
+			}
+		}
+		if (pairCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many coincident vertices");
+		}
+
+		final short[][] doubles = new short[2][(int) pairCount];
+		int pair = 0;
+		for (int v = 0; v < vertCount; v++) {
+			for (int w = next[v]; w != -1; w = next[w]) {
+				doubles[0][pair] = (short) v;
+				doubles[1][pair] = (short) w;
+				pair++;
+			}
+		}
+		return doubles;
+	}
+
+	/**
+	 * Hashes a position so that equal positions have equal hashes. Since
+	 * <code>0.0f == -0.0f</code>, both zeros hash the same.
+	 */
+	private static int hash(float x, float y, float z) {
+		int h = bits(x) * 73856093 ^ bits(y) * 19349663 ^ bits(z) * 83492791;
+		return h ^ (h >>> 16);
+	}
+
+	private static int bits(float f) {
+		return f == 0 ? 0 : Float.floatToRawIntBits(f);
+	}
+}
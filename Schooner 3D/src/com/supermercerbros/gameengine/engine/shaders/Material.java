@@ -21,10 +21,12 @@ import java.nio.ByteOrder;
 import android.opengl.GLES20;
 import android.util.Log;
 
+import com.supermercerbros.gameengine.Schooner3D;
+import com.supermercerbros.gameengine.engine.CommandBuffer;
 import com.supermercerbros.gameengine.objects.GameObject;
 import com.supermercerbros.gameengine.objects.Metadata;
 import com.supermercerbros.gameengine.shaders.ProgramSource;
-import com.supermercerbros.gameengine.util.GLES2;
+import com.supermercerbros.gameengine.texture.Texture;
 
 /**
  * Superclass for materials to be used when rendering 3D objects.
@@ -42,44 +44,66 @@ public abstract class Material {
 			+ "uniform vec3 u_lightColor;\n";
 	
 	/**
-	 * Contains the OpenGL shader program used by this Material.
+	 * Render queue for opaque Materials. Drawn first, front to back.
 	 */
-	protected Program program;
+	public static final int QUEUE_OPAQUE = 0;
+	/**
+	 * Render queue for Materials that discard fragments, but do not blend.
+	 * Drawn after the opaque queue, front to back.
+	 */
+	public static final int QUEUE_ALPHA_TEST = 1;
+	/**
+	 * Render queue for alpha-blended Materials. Drawn last, back to front,
+	 * with blending enabled and depth writes disabled.
+	 */
+	public static final int QUEUE_TRANSPARENT = 2;
 	
 	/**
-	 * Contains the handle to the <code>a_pos</code> attribute in the shader,
-	 * the attribute used to store vertex position. This handle is initialized
-	 * during {@link #attachAttribs(Metadata, int, float[])}.
+	 * Vertex layout character for a position (three floats).
 	 */
-	protected int a_pos = -2;
+	public static final char ATTRIB_POSITION = 'p';
 	/**
-	 * Contains the handle to the <code>a_normal</code> attribute in the shader,
-	 * the attribute used to store vertex normals. This handle is initialized
-	 * during {@link #attachAttribs(Metadata, int, float[])}.
+	 * Vertex layout character for a normal (three floats).
 	 */
-	protected int a_normal;
+	public static final char ATTRIB_NORMAL = 'n';
 	/**
-	 * Contains the handle to the <code>a_mtl</code> attribute in the shader,
-	 * the attribute used to store vertex-specific material data, such as colors
-	 * or uv-coordinates. This handle is initialized during
-	 * {@link #attachAttribs(Metadata, int, float[])}.
+	 * Vertex layout character for uv-coordinates (two floats).
 	 */
-	protected int a_mtl;
+	public static final char ATTRIB_UV = 't';
 	
 	/**
-	 * Contains the handle to the <code>u_model</code> uniform in the shader,
-	 * the uniform used to store the object-specific tranformation matrix. This
-	 * handle is initialized during
-	 * {@link #attachAttribs(Metadata, int, float[])}.
+	 * Contains the OpenGL shader program used by this Material. For lit
+	 * Materials, this is the variant with the most lights.
+	 */
+	protected Program program;
+	/**
+	 * The program variants of a lit Material, indexed by light count, or null
+	 * if this Material's shaders do not use {@link ShaderLib#LIGHT_COUNT}.
+	 */
+	private Program[] variants;
+	
+	/**
+	 * Contains the {@link ShaderLib} slot of the <code>a_pos</code> attribute
+	 * in the shader, the attribute used to store vertex position.
+	 */
+	protected final int a_pos = ShaderLib.SLOT_A_POS;
+	/**
+	 * Contains the {@link ShaderLib} slot of the <code>a_normal</code>
+	 * attribute in the shader, the attribute used to store vertex normals.
 	 */
-	private int u_model;
+	protected final int a_normal = ShaderLib.SLOT_A_NORMAL;
 	/**
-	 * Contains the handle to the <code>u_matrices</code> uniform in the shader,
-	 * which is the uniform used to store extra matrices for the object. This
-	 * handle is initialized during
-	 * {@link #attachAttribs(Metadata, int, float[])}.
+	 * Contains the {@link ShaderLib} slot of the <code>a_mtl</code> attribute
+	 * in the shader, the attribute used to store vertex-specific material
+	 * data, such as colors or uv-coordinates.
 	 */
-	private int u_matrices;
+	protected final int a_mtl = ShaderLib.SLOT_A_MTL;
+	
+	/**
+	 * The CommandBuffer being recorded to during
+	 * {@link #attachAttribs(CommandBuffer, Metadata, int, float[])}.
+	 */
+	private CommandBuffer commands;
 	
 	/**
 	 * The loading offset for the VBO.
@@ -169,37 +193,43 @@ public abstract class Material {
 		
 //		Log.d("Vertex Shader", vertex);
 //		Log.d("Fragment Shader", fragment);
-		this.program = ShaderLib.newProgram(vertex, fragment);
+		if (vertex.contains(ShaderLib.LIGHT_COUNT)
+				|| fragment.contains(ShaderLib.LIGHT_COUNT)) {
+			final int maxLights = Schooner3D.lightsPerObject;
+			variants = new Program[maxLights + 1];
+			for (int i = 0; i <= maxLights; i++) {
+				variants[i] = ShaderLib.newProgram(vertex, fragment, i);
+			}
+			this.program = variants[maxLights];
+		} else {
+			this.program = ShaderLib.newProgram(vertex, fragment);
+		}
 	}
 	
 	/**
-	 * Called by the renderer to attach the vertex attributes.
+	 * Called by the Engine thread to record the commands that attach the
+	 * vertex attributes and uniforms of a primitive. The program switch has
+	 * already been recorded.
 	 * 
+	 * @param commands
+	 *            The CommandBuffer to record to
 	 * @param primitive
 	 *            The Metadata about the primitive to load
 	 * @param vboOffset
-	 *            The offset into the VBO where the vertex data is stored
+	 *            The offset into the VBO where the vertex data is stored, in
+	 *            bytes
 	 * @param matrices
 	 *            A float array containing the matrices for this primitve,
 	 *            starting with the model matrix.
 	 */
-	public void attachAttribs(Metadata primitive, int vboOffset,
-			float[] matrices) {
-		if (a_pos == -2) {
-			a_pos = program.getAttribLocation(ShaderLib.A_POS);
-			a_normal = program.getAttribLocation(ShaderLib.A_NORMAL);
-			a_mtl = program.getAttribLocation(ShaderLib.A_MTL);
-			u_model = program.getUniformLocation(ShaderLib.U_MODEL);
-			u_matrices = program.getUniformLocation(ShaderLib.U_MATRICES);
-		}
-		
-		if (u_model != -1) {
-			GLES20.glUniformMatrix4fv(u_model, 1, false, matrices, 0);
-		}
+	public void attachAttribs(CommandBuffer commands, Metadata primitive,
+			int vboOffset, float[] matrices) {
+		this.commands = commands;
 		
-		if (u_matrices != -1 && matrices.length != 16) {
-			GLES20.glUniformMatrix4fv(u_matrices, (matrices.length - 16) / 16,
-					false, matrices, 16);
+		commands.uniformMatrix4(ShaderLib.SLOT_U_MODEL, 1, matrices, 0);
+		if (matrices.length != 16) {
+			commands.uniformMatrix4(ShaderLib.SLOT_U_MATRICES,
+					(matrices.length - 16) / 16, matrices, 16);
 		}
 		
 		outPos = vboOffset;
@@ -208,6 +238,7 @@ public abstract class Material {
 		if (modifier != null) {
 			modifier.onAttachAttribs(this, program);
 		}
+		this.commands = null;
 	}
 	
 	/**
@@ -218,6 +249,16 @@ public abstract class Material {
 		return GLES20.GL_TRIANGLES;
 	}
 	
+	/**
+	 * @return The render queue of this Material: {@link #QUEUE_OPAQUE},
+	 *         {@link #QUEUE_ALPHA_TEST}, or {@link #QUEUE_TRANSPARENT}. The
+	 *         default is {@link #QUEUE_OPAQUE}. Override this to draw
+	 *         transparent objects.
+	 */
+	public int getRenderQueue() {
+		return QUEUE_OPAQUE;
+	}
+	
 	/**
 	 * @return The number of floats per vertex
 	 */
@@ -240,6 +281,14 @@ public abstract class Material {
 	public int loadObjectToVBO(GameObject obj, float[] vbo, int offset) {
 		inPos = offset;
 		final int vertCount = obj.info.count;
+		final String layout = getVertexLayout();
+		if (modifier == null && layout != null && obj.vertexBlock != null
+				&& layout.equals(obj.vertexLayout)) {
+			// The mesh was interleaved for this layout when it was exported
+			System.arraycopy(obj.vertexBlock, 0, vbo, offset, vertCount
+					* stride);
+			return vertCount * stride;
+		}
 		onLoadObject(obj, vbo, vertCount);
 		if (modifier != null) {
 			modifier.onLoadObject(this, obj, vbo);
@@ -251,9 +300,24 @@ public abstract class Material {
 			int vertCount);
 	
 	/**
-	 * Called by {@link #attachAttribs(Metadata, int, float[])} to set
-	 * material-specific attributes. The <code>u_model</code> and
-	 * <code>a_matrices</code> attributes have already been set.
+	 * @return The vertex layout that {@link #onLoadObject(GameObject, float[],
+	 *         int)} loads, one <code>ATTRIB_</code> character per attribute
+	 *         in the order they are interleaved, or null if it loads anything
+	 *         else. A GameObject with a pre-interleaved vertex block in the
+	 *         same layout is copied to the VBO in one piece. The default is
+	 *         null.
+	 */
+	public String getVertexLayout() {
+		return null;
+	}
+	
+	/**
+	 * Called by {@link #attachAttribs(CommandBuffer, Metadata, int, float[])}
+	 * to set material-specific attributes. The <code>u_model</code> and
+	 * <code>a_matrices</code> attributes have already been set. Use the
+	 * <code>attachAttrib</code>, <code>setUniform</code> and
+	 * {@link #bindTexture(int, Texture, int)} methods, which record to the
+	 * current CommandBuffer.
 	 */
 	protected abstract void onAttachAttribs();
 	
@@ -327,14 +391,13 @@ public abstract class Material {
 	 * Attaches the given float attribute to the GPU.
 	 * 
 	 * @param attrib
-	 *            The index of the attribute to attach.
+	 *            The {@link ShaderLib} slot of the attribute to attach.
 	 * @param size
 	 *            The size of the attribute.
 	 */
 	public void attachAttrib(int attrib, int size) {
-		GLES2.glEnableVertexAttribArray(attrib);
-		GLES2.glVertexAttribPointer(attrib, size, GLES20.GL_FLOAT, false,
-				byteStride, outPos);
+		commands.attribPointer(attrib, size, GLES20.GL_FLOAT, byteStride,
+				outPos);
 		outPos += size * 4;
 	}
 	
@@ -342,16 +405,14 @@ public abstract class Material {
 	 * Attaches the given attribute to the GPU.
 	 * 
 	 * @param attrib
-	 *            The index of the attribute to attach.
+	 *            The {@link ShaderLib} slot of the attribute to attach.
 	 * @param size
 	 *            The number of elements in the attribute.
 	 * @param glType
 	 *            the GL_ enum describing the data type
 	 */
 	public void attachAttrib(int attrib, int size, int glType) {
-		GLES2.glEnableVertexAttribArray(attrib);
-		GLES2.glVertexAttribPointer(attrib, size, glType, false, byteStride,
-				outPos);
+		commands.attribPointer(attrib, size, glType, byteStride, outPos);
 		if (glType == GLES20.GL_BYTE || glType == GLES20.GL_UNSIGNED_BYTE) {
 			size = (size + 3) / 4;
 		} else if (glType == GLES20.GL_SHORT
@@ -365,7 +426,7 @@ public abstract class Material {
 	 * Attaches a generic (constant) vertex attribute.
 	 * 
 	 * @param attrib
-	 *            The index of the attribute.
+	 *            The {@link ShaderLib} slot of the attribute.
 	 * @param value
 	 *            The value(s) of the attribute. Must be 1 to 4 values.
 	 */
@@ -381,44 +442,59 @@ public abstract class Material {
 					"Cannot attach more than 4 values.");
 		}
 		
-		GLES2.glDisableVertexAttribArray(attrib);
-		switch (value.length) {
-		case 1:
-			GLES2.glVertexAttrib1fv(attrib, value, 0);
-			break;
-		case 2:
-			GLES2.glVertexAttrib2fv(attrib, value, 0);
-			break;
-		case 3:
-			GLES2.glVertexAttrib3fv(attrib, value, 0);
-			break;
-		case 4:
-			GLES2.glVertexAttrib4fv(attrib, value, 0);
-			break;
-		default:
-		}
+		commands.attribConstant(attrib, value);
 	}
 	
-	protected void setUniform(int location, float... args) {
-		if (args.length == 1) {
-			GLES2.glUniform1fv(location, 1, args, 0);
-		} else if (args.length == 2) {
-			GLES2.glUniform2fv(location, 1, args, 0);
-		} else if (args.length == 3) {
-			GLES2.glUniform3fv(location, 1, args, 0);
-		} else if (args.length == 4) {
-			GLES2.glUniform4fv(location, 1, args, 0);
-		} else {
+	/**
+	 * Binds the given Texture to the given texture unit and points the given
+	 * sampler uniform at it.
+	 * 
+	 * @param unit
+	 *            The index of the GL texture unit to bind to.
+	 * @param texture
+	 *            The Texture to bind.
+	 * @param samplerSlot
+	 *            The {@link ShaderLib} slot of the sampler uniform.
+	 */
+	protected void bindTexture(int unit, Texture texture, int samplerSlot) {
+		commands.bindTexture(unit, texture, samplerSlot);
+	}
+	
+	protected void setUniform(int slot, float... args) {
+		if (args.length < 1 || args.length > 4) {
 			throw new UnsupportedOperationException(
 					"args must have 1 to 4 elements.");
 		}
+		commands.uniform(slot, args);
 	}
 	
 	protected void setUniform(String name, float... args) {
-		setUniform(program.getUniformLocation(name), args);
+		setUniform(ShaderLib.getSlot(name), args);
 	}
 	
 	public Program getProgram() {
 		return program;
 	}
+	
+	/**
+	 * @param lightCount
+	 *            The number of lights affecting the primitive, no more than
+	 *            {@link #getMaxLights()}.
+	 * @return The program variant that handles the given number of lights, or
+	 *         the only program if this Material is not lit.
+	 */
+	public Program getProgram(int lightCount) {
+		if (variants == null) {
+			return program;
+		}
+		return variants[lightCount];
+	}
+	
+	/**
+	 * @return The maximum number of lights this Material can be rendered with,
+	 *         or 0 if it is not lit.
+	 */
+	public int getMaxLights() {
+		return variants == null ? 0 : variants.length - 1;
+	}
 }
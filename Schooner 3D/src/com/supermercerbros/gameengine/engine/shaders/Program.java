@@ -16,9 +16,14 @@
 
 package com.supermercerbros.gameengine.engine.shaders;
 
+import com.supermercerbros.gameengine.Schooner3D;
 import com.supermercerbros.gameengine.engine.EGLContextLostHandler;
+import com.supermercerbros.gameengine.engine.GLDebug;
 import com.supermercerbros.gameengine.engine.GameRenderer;
 import com.supermercerbros.gameengine.engine.EGLContextLostHandler.EGLContextLostListener;
+import com.supermercerbros.gameengine.render.GpuResource;
+import com.supermercerbros.gameengine.render.RenderBackend;
+import com.supermercerbros.gameengine.render.ResourceManager;
 
 import android.opengl.GLES20;
 import android.opengl.GLException;
@@ -26,9 +31,16 @@ import android.util.Log;
 
 /**
  * Represents a GLSL program, consisting of a vertex shader and a fragment
- * shader. Obtained from {@link ShaderLib}.
+ * shader. Obtained from {@link ShaderLib}, or from
+ * {@link ResourceManager#acquireProgram(String, String)}.
  */
-public class Program implements EGLContextLostListener {
+public class Program implements EGLContextLostListener, GpuResource {
+	/**
+	 * A rough estimate of the driver memory used per character of shader
+	 * source, for {@link #getGpuBytes()}.
+	 */
+	private static final int BYTES_PER_SOURCE_CHAR = 4;
+
 	private static final String TAG = "com.supermercerbros.gameengine.engine.Program";
 	public final Shader vertex;
 	public final Shader fragment;
@@ -36,6 +48,12 @@ public class Program implements EGLContextLostListener {
 	private int handle;
 
 	private boolean loaded;
+	private int linkCount = 0;
+	private final ResourceManager.Usage resourceUsage = new ResourceManager.Usage();
+	
+	// Slot-indexed location caches, filled lazily on the GL thread.
+	private int[] uniformLocations = new int[0];
+	private int[] attribLocations = new int[0];
 
 	public Program(Shader vertexShader, Shader fragmentShader) {
 		vertex = vertexShader;
@@ -53,40 +71,50 @@ public class Program implements EGLContextLostListener {
 
 	public int load() throws GLException {
 		if (loaded) {
+			ResourceManager.touch(this);
 			return handle;
 		}
+		final RenderBackend gl = Schooner3D.renderBackend;
 
 		int vHandle = vertex.load(GLES20.GL_VERTEX_SHADER);
 		int fHandle = fragment.load(GLES20.GL_FRAGMENT_SHADER);
 
-		handle = GLES20.glCreateProgram();
+		handle = gl.glCreateProgram();
 		if (handle == 0) {
-			int error = GameRenderer.logError("glCreateProgram");
+			int error = GLDebug.checkNow("glCreateProgram");
 			throw new GLException(error, "Error Creating program");
 		}
 
 		// Attach shaders
-		GLES20.glAttachShader(handle, vHandle);
+		gl.glAttachShader(handle, vHandle);
 		GameRenderer.logError("glAttachShader(handle, vertex.handle)");
-		GLES20.glAttachShader(handle, fHandle);
+		gl.glAttachShader(handle, fHandle);
 		GameRenderer.logError("glAttachShader(handle, fragment.handle)");
 
 		// Link program
-		GLES20.glLinkProgram(handle);
+		gl.glLinkProgram(handle);
 
 		// Check link status
 		int[] status = { 0 };
-		GLES20.glGetProgramiv(handle, GLES20.GL_LINK_STATUS, status, 0);
+		gl.glGetProgramiv(handle, GLES20.GL_LINK_STATUS, status, 0);
 		if (status[0] != GLES20.GL_TRUE) { // If there is an error...
-			String infoLog = GLES20.glGetProgramInfoLog(handle);
-			GLES20.glDeleteProgram(handle);
+			String infoLog = gl.glGetProgramInfoLog(handle);
+			gl.glDeleteProgram(handle);
 			handle = 0;
 			Log.e(TAG, infoLog);
 			throw new GLException(0, "Error linking program.");
 		}
 
+		// The shaders are freed along with the program
+		gl.glDeleteShader(vHandle);
+		gl.glDeleteShader(fHandle);
+
 		Log.d(TAG, "Program successfully created and linked!");
+		uniformLocations = new int[0];
+		attribLocations = new int[0];
 		loaded = true;
+		linkCount++;
+		ResourceManager.touch(this);
 		return handle;
 	}
 
@@ -94,14 +122,65 @@ public class Program implements EGLContextLostListener {
 		if (!loaded) {
 			throw new IllegalStateException("Program is not loaded");
 		}
-		return GLES20.glGetAttribLocation(handle, name);
+		return Schooner3D.renderBackend.glGetAttribLocation(handle, name);
 	}
 
 	public int getUniformLocation(String name) {
 		if (!loaded) {
 			throw new IllegalStateException("Program is not loaded");
 		}
-		return GLES20.glGetUniformLocation(handle, name);
+		return Schooner3D.renderBackend.glGetUniformLocation(handle, name);
+	}
+
+	/**
+	 * Returns the location of the uniform with the given {@link ShaderLib}
+	 * slot. The location is looked up once and cached.
+	 * 
+	 * @param slot
+	 *            The slot of the uniform.
+	 * @return The location of the uniform, or -1 if this Program does not
+	 *         use it.
+	 */
+	public int getUniformLocation(int slot) {
+		if (slot >= uniformLocations.length) {
+			uniformLocations = growLocations(uniformLocations, slot);
+		}
+		int location = uniformLocations[slot];
+		if (location == Integer.MIN_VALUE) {
+			location = getUniformLocation(ShaderLib.getSlotName(slot));
+			uniformLocations[slot] = location;
+		}
+		return location;
+	}
+
+	/**
+	 * Returns the location of the attribute with the given {@link ShaderLib}
+	 * slot. The location is looked up once and cached.
+	 * 
+	 * @param slot
+	 *            The slot of the attribute.
+	 * @return The location of the attribute, or -1 if this Program does not
+	 *         use it.
+	 */
+	public int getAttribLocation(int slot) {
+		if (slot >= attribLocations.length) {
+			attribLocations = growLocations(attribLocations, slot);
+		}
+		int location = attribLocations[slot];
+		if (location == Integer.MIN_VALUE) {
+			location = getAttribLocation(ShaderLib.getSlotName(slot));
+			attribLocations[slot] = location;
+		}
+		return location;
+	}
+
+	private static int[] growLocations(int[] locations, int slot) {
+		final int[] grown = new int[Math.max(slot + 1, ShaderLib.getSlotCount())];
+		System.arraycopy(locations, 0, grown, 0, locations.length);
+		for (int i = locations.length; i < grown.length; i++) {
+			grown[i] = Integer.MIN_VALUE;
+		}
+		return grown;
 	}
 
 	public boolean isLoaded() {
@@ -112,10 +191,54 @@ public class Program implements EGLContextLostListener {
 		return handle;
 	}
 
+	/**
+	 * @return The number of times this Program has been linked. Uniforms set
+	 *         on it are lost whenever this changes, even if GL gives the new
+	 *         program the same handle as the old one.
+	 */
+	public int getLinkCount() {
+		return linkCount;
+	}
+
+	@Override
+	public ResourceManager.Usage getUsage() {
+		return resourceUsage;
+	}
+
+	@Override
+	public int getResourceType() {
+		return TYPE_PROGRAM;
+	}
+
+	@Override
+	public int getGpuBytes() {
+		return (vertex.source.length() + fragment.source.length())
+				* BYTES_PER_SOURCE_CHAR;
+	}
+
+	@Override
+	public boolean isResident() {
+		return loaded;
+	}
+
+	/**
+	 * Deletes this Program. It is linked again the next time it is loaded.
+	 */
+	@Override
+	public void evict() {
+		if (loaded) {
+			Schooner3D.renderBackend.glDeleteProgram(handle);
+			loaded = false;
+			handle = -1;
+			vertex.reset();
+			fragment.reset();
+		}
+	}
+
 	@Override
 	public void onContextLost() {
 //		Log.d("Program", "received context lost notification");
-		if (!GLES20.glIsProgram(handle)){
+		if (!Schooner3D.renderBackend.glIsProgram(handle)){
 //			Log.d("Program", "handle is not a program.");
 			loaded = false;
 			handle = -1;
@@ -16,7 +16,10 @@
 
 package com.supermercerbros.gameengine.engine.shaders;
 
+import com.supermercerbros.gameengine.Schooner3D;
+import com.supermercerbros.gameengine.engine.GLDebug;
 import com.supermercerbros.gameengine.engine.GameRenderer;
+import com.supermercerbros.gameengine.render.RenderBackend;
 
 import android.opengl.GLES20;
 import android.opengl.GLException;
@@ -36,23 +39,24 @@ public class Shader {
 		if (loaded) {
 			return handle;
 		}
-		handle = GLES20.glCreateShader(type);
+		final RenderBackend gl = Schooner3D.renderBackend;
+		handle = gl.glCreateShader(type);
 		if (handle == 0) {
-			int error = GameRenderer.logError("glCreateShader(" + type + ")");
+			int error = GLDebug.checkNow("glCreateShader(" + type + ")");
 			throw new GLException(error, "CreateShader failed");
 		}
-		GLES20.glShaderSource(handle, source);
+		gl.glShaderSource(handle, source);
 		GameRenderer.logError("glShaderSource(handle, source)");
-		GLES20.glCompileShader(handle);
+		gl.glCompileShader(handle);
 		
 		// Check compile status
 		int[] compiled = { 0 };
-		GLES20.glGetShaderiv(handle, GLES20.GL_COMPILE_STATUS, compiled, 0);
+		gl.glGetShaderiv(handle, GLES20.GL_COMPILE_STATUS, compiled, 0);
 		if (compiled[0] != GLES20.GL_TRUE) {
-			Log.e(TAG, "Error compiling shader. \n" + GLES20.glGetShaderInfoLog(handle));
+			Log.e(TAG, "Error compiling shader. \n" + gl.glGetShaderInfoLog(handle));
 			
 			// Undo the shader
-			GLES20.glDeleteShader(handle);
+			gl.glDeleteShader(handle);
 			return 0;
 		}
 		
@@ -16,6 +16,7 @@
 
 package com.supermercerbros.gameengine.engine.shaders;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 
 import android.util.Log;
@@ -34,12 +35,115 @@ public class ShaderLib {
 	public static final String U_LIGHTCOLOR = "u_lightColor";
 	public static final String U_VIEWPROJ = "u_viewProj";
 	
+	public static final String U_LIGHT_POSITIONS = "u_lightPositions";
+	public static final String U_LIGHT_COLORS = "u_lightColors";
+	
+	/**
+	 * The name of the preprocessor macro that holds the number of lights a
+	 * program variant was compiled for. Materials whose shaders contain this
+	 * token get one program variant per light count.
+	 */
+	public static final String LIGHT_COUNT = "LIGHT_COUNT";
+	
+	/**
+	 * GLSL declarations of the light uniform arrays and of the function
+	 * <code>vec3 computeLighting(vec3 worldPos, vec3 worldNormal)</code>, which
+	 * returns the summed (half-Lambert) diffuse light at a point. Include this
+	 * in the vertex variables of a lit Material.
+	 * 
+	 * <p>
+	 * <code>u_lightPositions[i].xyz</code> is the light vector of a
+	 * directional light (<code>w == 0</code>) or the position of a point light
+	 * (<code>w == 1</code>). <code>u_lightColors[i].rgb</code> is the light's
+	 * color and <code>u_lightColors[i].a</code> is the inverse of its range
+	 * (0 for directional lights).
+	 * </p>
+	 */
+	public static final String LIGHTING_FUNCTIONS = "\n" +
+			"#if LIGHT_COUNT > 0\n" +
+			"uniform vec4 u_lightPositions[LIGHT_COUNT];\n" +
+			"uniform vec4 u_lightColors[LIGHT_COUNT];\n" +
+			"#endif\n" +
+			"vec3 computeLighting(vec3 worldPos, vec3 worldNormal) {\n" +
+			"  vec3 color = vec3(0.0);\n" +
+			"#if LIGHT_COUNT > 0\n" +
+			"  for (int i = 0; i < LIGHT_COUNT; i++) {\n" +
+			"    vec3 toLight = u_lightPositions[i].xyz - worldPos * u_lightPositions[i].w;\n" +
+			"    float dist = length(toLight);\n" +
+			"    float falloff = 1.0 - clamp(dist * u_lightColors[i].a, 0.0, 1.0);\n" +
+			"    float diffuse = (dot(worldNormal, toLight / dist) + 1.0) / 2.0;\n" +
+			"    color += u_lightColors[i].rgb * (diffuse * falloff * falloff);\n" +
+			"  }\n" +
+			"#endif\n" +
+			"  return color;\n" +
+			"}\n";
+	
 	public static final String S_BASEMAP = "s_baseMap";
 	
+	private static final ArrayList<String> slotNames = new ArrayList<String>();
+	
+	public static final int SLOT_A_POS = getSlot(A_POS);
+	public static final int SLOT_A_NORMAL = getSlot(A_NORMAL);
+	public static final int SLOT_A_MTL = getSlot(A_MTL);
+	
+	public static final int SLOT_U_MODEL = getSlot(U_MODEL);
+	public static final int SLOT_U_MATRICES = getSlot(U_MATRICES);
+	
+	public static final int SLOT_U_LIGHTVEC = getSlot(U_LIGHTVEC);
+	public static final int SLOT_U_LIGHTCOLOR = getSlot(U_LIGHTCOLOR);
+	public static final int SLOT_U_VIEWPROJ = getSlot(U_VIEWPROJ);
+	
+	public static final int SLOT_U_LIGHT_POSITIONS = getSlot(U_LIGHT_POSITIONS);
+	public static final int SLOT_U_LIGHT_COLORS = getSlot(U_LIGHT_COLORS);
+	
+	public static final int SLOT_S_BASEMAP = getSlot(S_BASEMAP);
+	
 	private static LinkedList<Program> programs;
 	private static LinkedList<Shader> shaders;
 	private static boolean initialized = false;
 	
+	/**
+	 * Returns the slot for the given uniform or attribute name, registering
+	 * the name if necessary. Slots are small, stable integers that stand in
+	 * for a variable name when recording a
+	 * {@link com.supermercerbros.gameengine.engine.CommandBuffer}; each
+	 * {@link Program} maps slots to its own locations.
+	 * 
+	 * @param name
+	 *            The name of the uniform or attribute.
+	 * @return The slot for the given name.
+	 */
+	public static int getSlot(String name) {
+		synchronized (slotNames) {
+			int slot = slotNames.indexOf(name);
+			if (slot == -1) {
+				slot = slotNames.size();
+				slotNames.add(name);
+			}
+			return slot;
+		}
+	}
+	
+	/**
+	 * @param slot
+	 *            A slot returned by {@link #getSlot(String)}.
+	 * @return The name of the uniform or attribute for the given slot.
+	 */
+	public static String getSlotName(int slot) {
+		synchronized (slotNames) {
+			return slotNames.get(slot);
+		}
+	}
+	
+	/**
+	 * @return The number of slots that have been registered.
+	 */
+	public static int getSlotCount() {
+		synchronized (slotNames) {
+			return slotNames.size();
+		}
+	}
+	
 	/**
 	 * Initializes the ShaderLib.
 	 */
@@ -66,6 +170,23 @@ public class ShaderLib {
 		}
 	}
 	
+	/**
+	 * Returns the variant of the program with the given shaders that handles
+	 * the given number of lights, by defining {@link #LIGHT_COUNT} at the top
+	 * of both shaders.
+	 * 
+	 * @param vertShader
+	 * @param fragShader
+	 * @param lightCount
+	 *            The number of lights in the variant.
+	 * @return
+	 */
+	public static Program newProgram(String vertShader, String fragShader,
+			int lightCount) {
+		final String define = "#define " + LIGHT_COUNT + " " + lightCount + "\n";
+		return newProgram(define + vertShader, define + fragShader);
+	}
+	
 	/**
 	 * Returns an OpenGL program with the given shaders. If a matching program
 	 * already exists, returns that one instead.
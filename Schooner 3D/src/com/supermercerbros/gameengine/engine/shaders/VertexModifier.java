@@ -24,6 +24,11 @@ import com.supermercerbros.gameengine.objects.GameObject;
 public abstract class VertexModifier {
 	public abstract void onLoadObject(Material mtl, GameObject object, float[] vbo);
 	
+	/**
+	 * Called on the Engine thread while a primitive's commands are being
+	 * recorded. Implementations should call <code>mtl.attachAttrib(...)</code>
+	 * with the {@link ShaderLib} slots of their attributes.
+	 */
 	public abstract void onAttachAttribs(Material mtl, Program program);
 	
 	/**
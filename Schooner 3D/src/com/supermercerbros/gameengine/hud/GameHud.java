@@ -17,22 +17,68 @@ package com.supermercerbros.gameengine.hud;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import android.graphics.Bitmap;
 import android.opengl.GLES20;
 import android.view.MotionEvent;
 
+import com.supermercerbros.gameengine.Schooner3D;
+import com.supermercerbros.gameengine.render.RenderBackend;
+
 /**
  * Represents the Heads-Up-Display-style UI of a game.
+ * 
+ * <p>
+ * When the GameHud is loaded, the images of sprite elements (see
+ * {@link HudElement#getSprite()}) are packed into a texture atlas, and runs of
+ * sprites that share a Program and layer are merged, so that each run is drawn
+ * with one draw call. Elements are drawn in order of layer, and in the order
+ * they were added within a layer.
+ * </p>
+ * 
+ * <p>
+ * Static elements are written once to a static buffer. Dynamic elements (see
+ * {@link HudElement#setDynamic(boolean)}) are written to a ring of
+ * {@link #DYNAMIC_RING_SIZE} dynamic buffers, drawing from a different one
+ * each frame, so that an update never waits for the GPU to finish reading
+ * the previous frame. Only the ranges of invalidated elements are uploaded.
+ * </p>
  */
 public class GameHud {
+	/**
+	 * The name of the sampler uniform that the sprite atlas is bound to.
+	 */
+	public static final String ATLAS_SAMPLER_NAME = "us_atlas";
+	
+	/**
+	 * The number of dynamic buffers that are cycled through.
+	 */
+	public static final int DYNAMIC_RING_SIZE = 3;
+	
 	// Constants
 	private static final int DEFAULT_VBO_SIZE = 8000; // 400 verts
-	private static final int DEFAULT_IBO_SIZE = 2400; // 800 faces
+	private static final int DEFAULT_IBO_SIZE = 2400; // 1200 indices
 
 	private final int vboSize;
 	private final int iboSize;
-	private final LinkedList<HudElement> elements;
+	private final CopyOnWriteArrayList<HudElement> elements;
+	
+	// Built by load()
+	private HudBatch[] batches = new HudBatch[0];
+	private HudElement[] dynamicElements = new HudElement[0];
+	private final SpriteAtlas atlas = new SpriteAtlas();
+	private ByteBuffer dynamicStaging;
+	private final int[] dynamicBuffers = new int[DYNAMIC_RING_SIZE];
+	private int dynamicIndex = 0;
+	
+	// Metrics
+	private volatile int drawCalls = 0;
+	private volatile int elementsDrawn = 0;
+	private volatile int uploadBytes = 0;
 
 	// Coordinate converter
 	private CoordsConverter converter;
@@ -47,19 +93,22 @@ public class GameHud {
 	 * Constructs a new GameHud.
 	 */
 	public GameHud() {
-		this.elements = new LinkedList<HudElement>();
+		this.elements = new CopyOnWriteArrayList<HudElement>();
 		this.vboSize = DEFAULT_VBO_SIZE;
 		this.iboSize = DEFAULT_IBO_SIZE;
 	}
 
 	/**
-	 * Constructs a new GameHud.
+	 * Constructs a new GameHud. The static buffers are always made large
+	 * enough for the elements, so the given sizes are only minimums.
 	 * 
 	 * @param vboSize
+	 *            The minimum size of the static vertex buffer, in bytes.
 	 * @param iboSize
+	 *            The minimum size of the index buffer, in bytes.
 	 */
 	public GameHud(int vboSize, int iboSize) {
-		this.elements = new LinkedList<HudElement>();
+		this.elements = new CopyOnWriteArrayList<HudElement>();
 		this.vboSize = vboSize;
 		this.iboSize = iboSize;
 	}
@@ -75,64 +124,175 @@ public class GameHud {
 			throw new IllegalStateException(
 					"Cannot addElement to gameHud that is currently in use");
 		}
-		final LinkedList<HudElement> localElements = this.elements;
-		synchronized (localElements) {
-			localElements.add(element);
-		}
+		elements.add(element);
 	}
 
 	/**
 	 * Called by GameRenderer
 	 */
 	public void render() {
+		final RenderBackend gl = Schooner3D.renderBackend;
 		// GL Buffer stuff
-		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, arrayBuffer);
-		GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, elementBuffer);
+		gl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, elementBuffer);
+		final int dynamicBuffer = dynamicElements.length > 0 ? updateDynamicBuffer(gl) : -1;
+		gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, arrayBuffer);
+		int boundBuffer = arrayBuffer;
 
 		// Disable depth test and face culling
-		GLES20.glDisable(GLES20.GL_DEPTH_TEST);
-		GLES20.glDisable(GLES20.GL_CULL_FACE); // TODO delete this line
-
-		// Render elements
-		final LinkedList<HudElement> localElements = this.elements;
-		synchronized (localElements) {
-			for (HudElement element : localElements) {
-				element.render();
+		gl.glDisable(GLES20.GL_DEPTH_TEST);
+		gl.glDisable(GLES20.GL_CULL_FACE); // TODO delete this line
+
+		// Render batches. The batches do not change while the HUD is loaded,
+		// so they can be read without locking.
+		final HudBatch[] localBatches = this.batches;
+		final int atlasTexture = atlas.getTexture();
+		int elementCount = 0;
+		for (HudBatch batch : localBatches) {
+			final int buffer = batch.isDynamic() ? dynamicBuffer : arrayBuffer;
+			if (buffer != boundBuffer) {
+				gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+				boundBuffer = buffer;
 			}
+			batch.render(atlasTexture);
+			elementCount += batch.size();
 		}
+		drawCalls = localBatches.length;
+		elementsDrawn = elementCount;
+	}
+	
+	/**
+	 * Advances to the next dynamic buffer and uploads the ranges of the
+	 * dynamic elements that have changed since it was last drawn from.
+	 * Adjacent ranges are uploaded together.
+	 * 
+	 * @return The dynamic buffer to draw from.
+	 */
+	private int updateDynamicBuffer(RenderBackend gl) {
+		dynamicIndex = (dynamicIndex + 1) % DYNAMIC_RING_SIZE;
+		final int buffer = dynamicBuffers[dynamicIndex];
+		gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+		
+		final ByteBuffer staging = dynamicStaging;
+		int start = -1, end = -1, bytes = 0;
+		for (HudElement element : dynamicElements) {
+			if (!element.prepareUpload(staging, DYNAMIC_RING_SIZE)) {
+				continue;
+			}
+			final int offset = element.getDynamicOffset();
+			if (offset != end) {
+				if (start != -1) {
+					bytes += upload(gl, staging, start, end);
+				}
+				start = offset;
+			}
+			end = offset + element.getDynamicBytes();
+		}
+		if (start != -1) {
+			bytes += upload(gl, staging, start, end);
+		}
+		uploadBytes = bytes;
+		return buffer;
+	}
+	
+	private static int upload(RenderBackend gl, ByteBuffer staging, int start, int end) {
+		staging.position(start);
+		gl.glBufferSubData(GLES20.GL_ARRAY_BUFFER, start, end - start, staging);
+		return end - start;
+	}
+	
+	/**
+	 * @return The number of draw calls made by the last HUD frame.
+	 */
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+	
+	/**
+	 * @return The number of elements drawn by the last HUD frame. Without
+	 *         batching, this would be the number of draw calls.
+	 */
+	public int getElementsDrawn() {
+		return elementsDrawn;
+	}
+	
+	/**
+	 * @return The number of bytes of dynamic vertex data uploaded by the last
+	 *         HUD frame.
+	 */
+	public int getUploadBytes() {
+		return uploadBytes;
 	}
 
 	/**
 	 * Called by GameRenderer
 	 */
 	public void load() {
+		final RenderBackend gl = Schooner3D.renderBackend;
 		isInUse = true;
 		
 		// Generate buffers
 		final int[] buffers = new int[2];
-		GLES20.glGenBuffers(2, buffers, 0);
+		gl.glGenBuffers(2, buffers, 0);
 		final int localArrayBuffer = buffers[0];
 		final int localElementBuffer = buffers[1];
 		arrayBuffer = localArrayBuffer;
 		elementBuffer = localElementBuffer;
 
 		// Bind buffers
-		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, localArrayBuffer);
-		GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, localElementBuffer);
+		gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, localArrayBuffer);
+		gl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, localElementBuffer);
 
-		// Construct ByteBuffers
-		final ByteBuffer vbo = ByteBuffer.allocateDirect(vboSize).order(
+		// Sort by layer. The sort is stable, so insertion order is kept.
+		final ArrayList<HudElement> drawOrder = new ArrayList<HudElement>(elements);
+		Collections.sort(drawOrder, new Comparator<HudElement>() {
+			@Override
+			public int compare(HudElement lhs, HudElement rhs) {
+				final int l = lhs.getLayer(), r = rhs.getLayer();
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+		
+		// Load Programs, pack the atlas, and merge runs of sprites
+		final ArrayList<Bitmap> sprites = new ArrayList<Bitmap>();
+		final ArrayList<HudBatch> localBatches = new ArrayList<HudBatch>();
+		HudBatch batch = null;
+		for (HudElement element : drawOrder) {
+			element.loadProgram();
+			final boolean batchable = element.isBatchable();
+			if (batchable) {
+				sprites.add(element.getSprite());
+			}
+			if (batch == null || !batchable || !batch.tryAdd(element)) {
+				batch = new HudBatch(element, batchable);
+				localBatches.add(batch);
+			}
+		}
+		atlas.pack(sprites);
+		atlas.upload();
+		
+		// Size and fill buffers
+		int staticSize = 0, dynamicSize = 0, indexSize = 0;
+		for (HudBatch b : localBatches) {
+			if (b.isDynamic()) {
+				dynamicSize += b.getVertexBytes();
+			} else {
+				staticSize += b.getVertexBytes();
+			}
+			indexSize += b.getIndexBytes();
+		}
+		final int localVboSize = Math.max(vboSize, staticSize);
+		final int localIboSize = Math.max(iboSize, indexSize);
+		final ByteBuffer vbo = ByteBuffer.allocateDirect(localVboSize).order(
 				ByteOrder.nativeOrder());
-		final ByteBuffer ibo = ByteBuffer.allocateDirect(iboSize).order(
+		final ByteBuffer ibo = ByteBuffer.allocateDirect(localIboSize).order(
 				ByteOrder.nativeOrder());
-
-		// Fill Buffers and load Programs
-		final LinkedList<HudElement> localElements = this.elements;
-		synchronized (localElements) {
-			for (HudElement element : localElements) {
-				element.loadProgram();
-				element.writeIndicesToBuffer(ibo);
-				element.writeVertsToBuffer(vbo);
+		final ByteBuffer dynamicVbo = ByteBuffer.allocateDirect(dynamicSize)
+				.order(ByteOrder.nativeOrder());
+		final ArrayList<HudElement> localDynamicElements = new ArrayList<HudElement>();
+		for (HudBatch b : localBatches) {
+			b.write(vbo, dynamicVbo, ibo, atlas);
+			if (b.isDynamic()) {
+				b.getElements(localDynamicElements);
 			}
 		}
 
@@ -140,18 +300,59 @@ public class GameHud {
 		ibo.rewind();
 
 		// Initialize buffers
-		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vboSize, vbo,
+		gl.glBufferData(GLES20.GL_ARRAY_BUFFER, localVboSize, vbo,
 				GLES20.GL_STATIC_DRAW);
-		GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, iboSize, ibo,
+		gl.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, localIboSize, ibo,
 				GLES20.GL_STATIC_DRAW);
+		if (dynamicSize > 0) {
+			gl.glGenBuffers(DYNAMIC_RING_SIZE, dynamicBuffers, 0);
+			for (int buffer : dynamicBuffers) {
+				dynamicVbo.rewind();
+				gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+				gl.glBufferData(GLES20.GL_ARRAY_BUFFER, dynamicSize, dynamicVbo,
+						GLES20.GL_DYNAMIC_DRAW);
+			}
+		}
+		
+		dynamicStaging = dynamicVbo;
+		dynamicElements = localDynamicElements
+				.toArray(new HudElement[localDynamicElements.size()]);
+		batches = localBatches.toArray(new HudBatch[localBatches.size()]);
 	}
 	
 	/**
 	 * Called by GameRenderer
 	 */
 	public void unload() {
-		GLES20.glDeleteBuffers(2, new int[]{arrayBuffer, elementBuffer}, 0);
+		final RenderBackend gl = Schooner3D.renderBackend;
+		gl.glDeleteBuffers(2, new int[]{arrayBuffer, elementBuffer}, 0);
 		// TODO: check this against documentation
+		if (dynamicElements.length > 0) {
+			gl.glDeleteBuffers(DYNAMIC_RING_SIZE, dynamicBuffers, 0);
+		}
+		atlas.unload();
+		reset();
+	}
+	
+	/**
+	 * Called by GameRenderer when the GL context is lost. The buffers and
+	 * atlas texture are forgotten without being deleted, since their names may
+	 * already belong to objects in the new context, and the state built by
+	 * {@link #load()} is cleared so it can be built again.
+	 */
+	public void onContextLost() {
+		atlas.onContextLost();
+		reset();
+	}
+	
+	/**
+	 * Clears the state built by {@link #load()}.
+	 */
+	private void reset() {
+		batches = new HudBatch[0];
+		dynamicElements = new HudElement[0];
+		dynamicStaging = null;
+		dynamicIndex = 0;
 		
 		arrayBuffer = -1;
 		elementBuffer = -1;
@@ -181,5 +382,8 @@ public class GameHud {
 	 */
 	public void setDimensions(int width, int height) {
 		this.converter = new CoordsConverter(width, height);
+		for (HudElement element : elements) {
+			element.onDimensionsChanged(width, height);
+		}
 	}
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.hud;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+/**
+ * A bitmap font: a fixed set of characters, rasterized once into a Bitmap.
+ * {@link TextElement}s that use a GlyphAtlas are sprites, so the Bitmap is
+ * packed into their {@link GameHud}'s sprite atlas, and any number of
+ * TextElements can be drawn with one draw call.
+ *
+ * <p>
+ * Glyphs are drawn in white, so a Program can tint them by multiplying by a
+ * color.
+ * </p>
+ */
+public class GlyphAtlas {
+	/**
+	 * The printable ASCII characters.
+	 */
+	public static final String ASCII = " !\"#$%&'()*+,-./0123456789:;<=>?@"
+			+ "ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\]^_`abcdefghijklmnopqrstuvwxyz{|}~";
+	/**
+	 * The characters needed to draw numbers.
+	 */
+	public static final String NUMERIC = " +-.,:%0123456789";
+
+	private static final int PADDING = 1;
+	private static final int MAX_WIDTH = 512;
+
+	private final Bitmap bitmap;
+	private final int lineHeight;
+
+	// Glyphs, indexed by character
+	private final int[] glyphs;
+	private final int fallback;
+	private final int[] widths;
+	private final float[] uvs;
+
+	/**
+	 * Rasterizes a new GlyphAtlas.
+	 *
+	 * @param typeface
+	 *            The typeface to use.
+	 * @param textSize
+	 *            The height of the text, in pixels. Glyphs are drawn scaled
+	 *            to the height of their {@link TextElement}s, so this should
+	 *            be about the largest height they are shown at.
+	 * @param chars
+	 *            The characters to rasterize. Characters that are not in the
+	 *            atlas are drawn as '?' if it is in the atlas, or else as the
+	 *            first character.
+	 */
+	public GlyphAtlas(Typeface typeface, float textSize, String chars) {
+		if (chars.length() == 0) {
+			throw new IllegalArgumentException("chars is empty");
+		}
+		final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		paint.setTypeface(typeface);
+		paint.setTextSize(textSize);
+		paint.setColor(Color.WHITE);
+		final Paint.FontMetrics metrics = paint.getFontMetrics();
+		lineHeight = (int) Math.ceil(metrics.descent - metrics.ascent);
+
+		// Measure glyphs and lay them out in rows
+		final int count = chars.length();
+		int maxChar = 0;
+		for (int i = 0; i < count; i++) {
+			maxChar = Math.max(maxChar, chars.charAt(i));
+		}
+		glyphs = new int[maxChar + 1];
+		for (int i = 0; i < glyphs.length; i++) {
+			glyphs[i] = -1;
+		}
+		widths = new int[count];
+		final int[] positions = new int[count * 2];
+		final char[] c = new char[1];
+		int x = 0, y = 0;
+		for (int i = 0; i < count; i++) {
+			c[0] = chars.charAt(i);
+			glyphs[c[0]] = i;
+			final int width = (int) Math.ceil(paint.measureText(c, 0, 1));
+			if (x + width + PADDING > MAX_WIDTH) {
+				x = 0;
+				y += lineHeight + PADDING;
+			}
+			widths[i] = width;
+			positions[i * 2] = x;
+			positions[i * 2 + 1] = y;
+			x += width + PADDING;
+		}
+		final int atlasWidth = y == 0 ? Math.max(x, 1) : MAX_WIDTH;
+		final int atlasHeight = y + lineHeight;
+
+		// Draw glyphs
+		bitmap = Bitmap.createBitmap(atlasWidth, atlasHeight,
+				Bitmap.Config.ARGB_8888);
+		bitmap.eraseColor(Color.TRANSPARENT);
+		final Canvas canvas = new Canvas(bitmap);
+		uvs = new float[count * 4];
+		for (int i = 0; i < count; i++) {
+			final int gx = positions[i * 2];
+			final int gy = positions[i * 2 + 1];
+			canvas.drawText(chars.substring(i, i + 1), gx, gy - metrics.ascent,
+					paint);
+			uvs[i * 4] = gx / (float) atlasWidth;
+			uvs[i * 4 + 1] = gy / (float) atlasHeight;
+			uvs[i * 4 + 2] = (gx + widths[i]) / (float) atlasWidth;
+			uvs[i * 4 + 3] = (gy + lineHeight) / (float) atlasHeight;
+		}
+
+		final int question = '?' < glyphs.length ? glyphs['?'] : -1;
+		fallback = question != -1 ? question : 0;
+	}
+
+	/**
+	 * @param c
+	 *            A character.
+	 * @return The index of the character's glyph, or of the fallback glyph if
+	 *         the character is not in this atlas.
+	 */
+	public int getGlyph(char c) {
+		if (c < glyphs.length) {
+			final int glyph = glyphs[c];
+			if (glyph != -1) {
+				return glyph;
+			}
+		}
+		return fallback;
+	}
+
+	/**
+	 * @return The width of the given glyph, in pixels.
+	 */
+	public int getWidth(int glyph) {
+		return widths[glyph];
+	}
+
+	/**
+	 * Copies the UVs of the given glyph, as <code>{ u0, v0, u1, v1 }</code>
+	 * where v0 is the top edge, to the given array.
+	 */
+	public void getUVs(int glyph, float[] out, int offset) {
+		System.arraycopy(uvs, glyph * 4, out, offset, 4);
+	}
+
+	/**
+	 * @return The height of a line of text, in pixels.
+	 */
+	public int getLineHeight() {
+		return lineHeight;
+	}
+
+	/**
+	 * @return The Bitmap that holds the glyphs.
+	 */
+	public Bitmap getBitmap() {
+		return bitmap;
+	}
+}
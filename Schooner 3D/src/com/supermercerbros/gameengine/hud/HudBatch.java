@@ -0,0 +1,227 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.hud;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import android.opengl.GLES20;
+
+import com.supermercerbros.gameengine.Schooner3D;
+import com.supermercerbros.gameengine.engine.shaders.Program;
+import com.supermercerbros.gameengine.render.RenderBackend;
+import com.supermercerbros.gameengine.render.ResourceManager;
+
+/**
+ * One draw call of a {@link GameHud}: either a single {@link HudElement} that
+ * draws itself, or a run of sprites that share a Program and layer, merged
+ * into one vertex stream. The verts of a batch are in the static buffer, or
+ * in the dynamic buffer if its elements are dynamic.
+ */
+class HudBatch {
+	/**
+	 * The most vertices a batch can hold, since batches use unsigned short
+	 * indices.
+	 */
+	static final int MAX_VERTS = 65536;
+
+	private final ArrayList<HudElement> elements = new ArrayList<HudElement>();
+	private final boolean batched;
+	private final boolean dynamic;
+	private final Program program;
+	private final int layer;
+
+	private int vertCount;
+	private int vboOffset;
+	private int iboOffset;
+	private int indexCount;
+
+	// Handles
+	private int programHandle;
+	private int a_pos;
+	private int a_uv;
+	private int samplerLocation;
+
+	/**
+	 * Constructs a new HudBatch.
+	 *
+	 * @param first
+	 *            The first element of the batch.
+	 * @param batched
+	 *            true if <code>first</code> is a sprite that other sprites can
+	 *            be merged with.
+	 */
+	HudBatch(HudElement first, boolean batched) {
+		this.batched = batched;
+		this.program = first.getProgram();
+		this.layer = first.getLayer();
+		this.dynamic = first.isDynamic();
+		elements.add(first);
+		vertCount = first.getVerts().length / 2;
+	}
+
+	/**
+	 * Adds the given element to this batch, if it can be merged with it.
+	 *
+	 * @return true if the element was added.
+	 */
+	boolean tryAdd(HudElement element) {
+		if (!batched || element.getProgram() != program
+				|| element.getLayer() != layer
+				|| element.isDynamic() != dynamic) {
+			return false;
+		}
+		final int verts = element.getVerts().length / 2;
+		if (vertCount + verts > MAX_VERTS) {
+			return false;
+		}
+		elements.add(element);
+		vertCount += verts;
+		return true;
+	}
+
+	/**
+	 * @return The size of this batch's vertex data, in bytes.
+	 */
+	int getVertexBytes() {
+		if (!batched) {
+			return elements.get(0).getVertexBytes();
+		}
+		return vertCount * 16;
+	}
+
+	/**
+	 * @return The most bytes of index data this batch writes, including the
+	 *         padding that aligns batched indices.
+	 */
+	int getIndexBytes() {
+		if (!batched) {
+			return elements.get(0).getIndices().length;
+		}
+		int count = 0;
+		for (HudElement element : elements) {
+			count += element.getBatchedIndexCount();
+		}
+		return count * 2 + 1;
+	}
+
+	/**
+	 * Writes the vertices and indices of this batch, and gets its attribute
+	 * locations. Must be called on the GL thread, after the elements' programs
+	 * have been loaded.
+	 *
+	 * @param staticVbo
+	 *            The buffer to write static verts to.
+	 * @param dynamicVbo
+	 *            The buffer to write dynamic verts to.
+	 */
+	void write(ByteBuffer staticVbo, ByteBuffer dynamicVbo, ByteBuffer ibo,
+			SpriteAtlas atlas) {
+		final ByteBuffer vbo = dynamic ? dynamicVbo : staticVbo;
+		if (!batched) {
+			final HudElement element = elements.get(0);
+			final int start = vbo.position();
+			element.writeIndicesToBuffer(ibo);
+			element.writeVertsToBuffer(vbo);
+			if (dynamic) {
+				element.setDynamicRange(start, vbo.position() - start, null);
+			}
+			return;
+		}
+
+		// Short indices must be 2-byte aligned
+		if ((ibo.position() & 1) != 0) {
+			ibo.put((byte) 0);
+		}
+		vboOffset = vbo.position();
+		iboOffset = ibo.position();
+		int baseVertex = 0;
+		indexCount = 0;
+		for (HudElement element : elements) {
+			final float[] region = atlas.getRegion(element.getSprite());
+			final int start = vbo.position();
+			indexCount += element.writeBatchedIndicesToBuffer(ibo, baseVertex);
+			baseVertex += element.writeBatchedVertsToBuffer(vbo, region);
+			if (dynamic) {
+				element.setDynamicRange(start, vbo.position() - start, region);
+			}
+		}
+
+		programHandle = program.load();
+		a_pos = program.getAttribLocation("a_pos");
+		a_uv = program.getAttribLocation("a_uv");
+		samplerLocation = program.getUniformLocation(GameHud.ATLAS_SAMPLER_NAME);
+	}
+
+	/**
+	 * Draws this batch.
+	 *
+	 * @param atlasTexture
+	 *            The handle of the sprite atlas.
+	 */
+	void render(int atlasTexture) {
+		if (!batched) {
+			elements.get(0).render();
+			return;
+		}
+		final RenderBackend gl = Schooner3D.renderBackend;
+		gl.glUseProgram(programHandle);
+		ResourceManager.touch(program); // Keep it from being evicted
+
+		// Attach vertex coordinate and UV attribs
+		gl.glEnableVertexAttribArray(a_pos);
+		gl.glVertexAttribPointer(a_pos, 2, GLES20.GL_FLOAT, false, 16,
+				vboOffset);
+		gl.glEnableVertexAttribArray(a_uv);
+		gl.glVertexAttribPointer(a_uv, 2, GLES20.GL_FLOAT, false, 16,
+				vboOffset + 8);
+
+		// Bind atlas
+		gl.glActiveTexture(GLES20.GL_TEXTURE0);
+		gl.glBindTexture(GLES20.GL_TEXTURE_2D, atlasTexture);
+		if (samplerLocation != -1) {
+			gl.glUniform1i(samplerLocation, 0);
+		}
+
+		final HudElement first = elements.get(0);
+		synchronized (first) {
+			first.onRender();
+		}
+		gl.glDrawElements(GLES20.GL_TRIANGLES, indexCount,
+				GLES20.GL_UNSIGNED_SHORT, iboOffset);
+	}
+
+	/**
+	 * @return true if the verts of this batch are in the dynamic buffer.
+	 */
+	boolean isDynamic() {
+		return dynamic;
+	}
+
+	/**
+	 * Adds the elements of this batch to the given list.
+	 */
+	void getElements(ArrayList<HudElement> out) {
+		out.addAll(elements);
+	}
+
+	/**
+	 * @return The number of elements drawn by this batch.
+	 */
+	int size() {
+		return elements.size();
+	}
+}
@@ -17,16 +17,33 @@ package com.supermercerbros.gameengine.hud;
 
 import java.nio.ByteBuffer;
 
+import android.graphics.Bitmap;
 import android.opengl.GLES20;
 import android.view.MotionEvent;
 
+import com.supermercerbros.gameengine.Schooner3D;
 import com.supermercerbros.gameengine.engine.shaders.Program;
-import com.supermercerbros.gameengine.util.GLES2;
+import com.supermercerbros.gameengine.render.RenderBackend;
+import com.supermercerbros.gameengine.render.ResourceManager;
 
 /**
  * Represents an element of a {@link GameHud}. Subclasses can override
  * {@link #getIndices()}, {@link #getUVs()}, and {@link #getVerts()} to change
  * the default setup.
+ * 
+ * <p>
+ * Elements that return a Bitmap from {@link #getSprite()} are sprites. Sprites
+ * are packed into a texture atlas when the GameHud is loaded, and adjacent
+ * sprites in the same layer that share a Program are drawn with a single draw
+ * call.
+ * </p>
+ * 
+ * <p>
+ * Elements whose geometry changes while the HUD is shown, such as health bars
+ * and counters, should be made dynamic with {@link #setDynamic(boolean)}.
+ * Calling {@link #invalidate()} on a dynamic element causes its verts and UVs
+ * to be read again and streamed to the GPU before the next HUD frame.
+ * </p>
  */
 public abstract class HudElement {
 	private final Program program;
@@ -45,6 +62,16 @@ public abstract class HudElement {
 	private int iboOffset;
 	private int indexCount;
 	
+	private int layer = 0;
+	
+	// Dynamic geometry
+	private boolean dynamic = false;
+	private volatile boolean dirty = false;
+	private int dynamicOffset;
+	private int dynamicBytes;
+	private float[] atlasRegion;
+	private int pendingUploads = 0;
+	
 	// Protected fields
 	/**
 	 * This HudElement's OpenGL primitive type
@@ -83,8 +110,6 @@ public abstract class HudElement {
 		this.right = right;
 		this.top = top;
 		this.bottom = bottom;
-		
-		this.indexCount = getIndices().length;
 	}
 	
 	// ============================
@@ -146,6 +171,30 @@ public abstract class HudElement {
 		return new float[] { 0.0f, 1.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f };
 	}
 	
+	/**
+	 * Returns the image of this element, if it is a sprite. The image is
+	 * packed into the GameHud's atlas, and the UVs returned by
+	 * {@link #getUVs()} are mapped from the image to its region of the atlas.
+	 * The atlas is bound to texture unit 0, and to the sampler named
+	 * {@link GameHud#ATLAS_SAMPLER_NAME} if the Program has one.
+	 * 
+	 * <p>
+	 * Sprites are drawn in batches, and {@link #onRender()} is only called on
+	 * the first sprite of each batch, so a sprite must not depend on
+	 * <code>onRender()</code> to set up anything of its own. The Program must
+	 * have an <code>a_uv</code> attribute, and the primitive type must be
+	 * <code>GL_TRIANGLES</code>, <code>GL_TRIANGLE_STRIP</code>, or
+	 * <code>GL_TRIANGLE_FAN</code>; other sprites are drawn on their own.
+	 * </p>
+	 * 
+	 * By default, this returns null, which means this element is not a sprite.
+	 * 
+	 * @return The sprite's image, or null.
+	 */
+	protected Bitmap getSprite() {
+		return null;
+	}
+	
 	/**
 	 * Called immediately before the element is drawn. Any custom OpenGL stuff
 	 * should be done here. This method is called while synchronized on this
@@ -157,25 +206,93 @@ public abstract class HudElement {
 	// OTHER METHODS
 	// ============================
 	
+	/**
+	 * Sets the layer of this element. Elements are drawn in order of layer,
+	 * and in the order they were added within a layer. This has no effect once
+	 * the GameHud is loaded.
+	 * 
+	 * @param layer
+	 *            The layer. The default is 0.
+	 */
+	public void setLayer(int layer) {
+		this.layer = layer;
+	}
+	
+	/**
+	 * @return The layer of this element.
+	 */
+	public int getLayer() {
+		return layer;
+	}
+	
+	/**
+	 * Makes this element dynamic or static. The geometry of a dynamic element
+	 * is kept in a separate buffer, which is updated when the element is
+	 * {@link #invalidate() invalidated}. This has no effect once the GameHud
+	 * is loaded.
+	 * 
+	 * @param dynamic
+	 *            true to make this element dynamic. The default is false.
+	 */
+	public void setDynamic(boolean dynamic) {
+		this.dynamic = dynamic;
+	}
+	
+	/**
+	 * @return true if this element is dynamic.
+	 */
+	public boolean isDynamic() {
+		return dynamic;
+	}
+	
+	/**
+	 * Marks the geometry of this dynamic element as changed. Its verts and UVs
+	 * are read again before the next HUD frame. The number of verts must not
+	 * change. This can be called from any thread.
+	 */
+	public void invalidate() {
+		dirty = true;
+	}
+	
+	/** Called by the {@link GameHud}. */
+	Program getProgram() {
+		return program;
+	}
+	
+	/**
+	 * Called by the {@link GameHud}, after {@link #loadProgram()}.
+	 * 
+	 * @return true if this element can be drawn in a batch.
+	 */
+	boolean isBatchable() {
+		return hasUVs
+				&& getSprite() != null
+				&& (primitiveType == GLES20.GL_TRIANGLES
+						|| primitiveType == GLES20.GL_TRIANGLE_STRIP
+						|| primitiveType == GLES20.GL_TRIANGLE_FAN);
+	}
+	
 	/** Called by the {@link GameHud}. */
 	synchronized void render() {
-		GLES20.glUseProgram(programHandle);
+		final RenderBackend gl = Schooner3D.renderBackend;
+		gl.glUseProgram(programHandle);
+		ResourceManager.touch(program); // Keep it from being evicted
 		
 		// Attach vertex coordinate attribs
-		final int stride = hasUVs ? 4 : 0;
-		GLES20.glEnableVertexAttribArray(a_pos);
-		GLES2.glVertexAttribPointer(a_pos, 2, GLES20.GL_FLOAT, false, stride,
+		final int stride = hasUVs ? 16 : 0;
+		gl.glEnableVertexAttribArray(a_pos);
+		gl.glVertexAttribPointer(a_pos, 2, GLES20.GL_FLOAT, false, stride,
 				vboOffset);
 		
 		// Attach UV attribs
 		if (hasUVs) {
-			GLES20.glEnableVertexAttribArray(a_uv);
-			GLES2.glVertexAttribPointer(a_uv, 2, GLES20.GL_FLOAT, false, 4,
-					vboOffset + 2);
+			gl.glEnableVertexAttribArray(a_uv);
+			gl.glVertexAttribPointer(a_uv, 2, GLES20.GL_FLOAT, false, stride,
+					vboOffset + 8);
 		}
 		
 		onRender();
-		GLES2.glDrawElements(primitiveType, indexCount,
+		gl.glDrawElements(primitiveType, indexCount,
 				GLES20.GL_UNSIGNED_BYTE, iboOffset);
 	}
 	
@@ -183,6 +300,7 @@ public abstract class HudElement {
 	synchronized void writeIndicesToBuffer(ByteBuffer ibo) {
 		iboOffset = ibo.position();
 		final byte[] indices = getIndices();
+		indexCount = indices.length;
 		ibo.put(indices);
 	}
 	
@@ -212,6 +330,150 @@ public abstract class HudElement {
 		}
 	}
 	
+	/**
+	 * Called by the {@link GameHud}. Writes this sprite's verts to a batch,
+	 * with its UVs mapped to the given region of the atlas.
+	 * 
+	 * @param region
+	 *            The sprite's region of the atlas, as
+	 *            <code>{ u0, v0, u1, v1 }</code>.
+	 * @return The number of vertices written.
+	 */
+	synchronized int writeBatchedVertsToBuffer(ByteBuffer vbo, float[] region) {
+		final float[] verts = getVerts();
+		final float[] uvs = getUVs();
+		final float uScale = region[2] - region[0];
+		final float vScale = region[3] - region[1];
+		final int count = verts.length;
+		for (int i = 0; i < count; i += 2) {
+			vbo.putFloat(verts[i]);
+			vbo.putFloat(verts[i + 1]);
+			vbo.putFloat(region[0] + uvs[i] * uScale);
+			vbo.putFloat(region[1] + uvs[i + 1] * vScale);
+		}
+		return count / 2;
+	}
+	
+	/**
+	 * Called by the {@link GameHud}. Writes this sprite's indices to a batch
+	 * as a triangle list of unsigned shorts.
+	 * 
+	 * @param baseVertex
+	 *            The index of this sprite's first vertex in the batch.
+	 * @return The number of indices written.
+	 */
+	synchronized int writeBatchedIndicesToBuffer(ByteBuffer ibo, int baseVertex) {
+		final byte[] indices = getIndices();
+		final int count = indices.length;
+		int written = 0;
+		if (primitiveType == GLES20.GL_TRIANGLES) {
+			for (int i = 0; i < count; i++) {
+				ibo.putShort((short) (baseVertex + (indices[i] & 0xFF)));
+			}
+			return count;
+		}
+		for (int i = 2; i < count; i++) {
+			final int a, b;
+			if (primitiveType == GLES20.GL_TRIANGLE_FAN) {
+				a = indices[0];
+				b = indices[i - 1];
+			} else if ((i & 1) == 0) {
+				a = indices[i - 2];
+				b = indices[i - 1];
+			} else {
+				// Odd strip triangles are flipped to keep their winding
+				a = indices[i - 1];
+				b = indices[i - 2];
+			}
+			ibo.putShort((short) (baseVertex + (a & 0xFF)));
+			ibo.putShort((short) (baseVertex + (b & 0xFF)));
+			ibo.putShort((short) (baseVertex + (indices[i] & 0xFF)));
+			written += 3;
+		}
+		return written;
+	}
+	
+	/**
+	 * Called by the {@link GameHud}.
+	 * 
+	 * @return The number of indices that
+	 *         {@link #writeBatchedIndicesToBuffer(ByteBuffer, int)} writes.
+	 */
+	synchronized int getBatchedIndexCount() {
+		final int count = getIndices().length;
+		if (primitiveType == GLES20.GL_TRIANGLES) {
+			return count;
+		}
+		return Math.max(count - 2, 0) * 3;
+	}
+	
+	/**
+	 * Called by the {@link GameHud}.
+	 * 
+	 * @return The size of this element's interleaved vertex data, in bytes.
+	 */
+	int getVertexBytes() {
+		return getVerts().length * (hasUVs ? 8 : 4);
+	}
+	
+	/**
+	 * Called by the {@link GameHud} after this dynamic element's verts have
+	 * been written to the dynamic buffer for the first time.
+	 * 
+	 * @param offset
+	 *            The byte offset of the verts in the dynamic buffer.
+	 * @param bytes
+	 *            The size of the verts, in bytes.
+	 * @param region
+	 *            The element's atlas region if it is batched, or null.
+	 */
+	void setDynamicRange(int offset, int bytes, float[] region) {
+		dynamicOffset = offset;
+		dynamicBytes = bytes;
+		atlasRegion = region;
+		dirty = false;
+		pendingUploads = 0;
+	}
+	
+	/**
+	 * Called by the {@link GameHud} once per frame, with the dynamic buffer
+	 * that will be drawn from. If this element has been invalidated, its verts
+	 * are rewritten to <code>staging</code>, and they are uploaded to each of
+	 * the <code>ringSize</code> dynamic buffers in turn.
+	 * 
+	 * @return true if this element's range of <code>staging</code> must be
+	 *         uploaded to the current dynamic buffer.
+	 */
+	boolean prepareUpload(ByteBuffer staging, int ringSize) {
+		if (dirty) {
+			dirty = false;
+			staging.position(dynamicOffset);
+			if (atlasRegion != null) {
+				writeBatchedVertsToBuffer(staging, atlasRegion);
+			} else {
+				writeVertsToBuffer(staging);
+			}
+			if (staging.position() - dynamicOffset != dynamicBytes) {
+				throw new IllegalStateException(
+						"A dynamic HudElement changed its number of verts");
+			}
+			pendingUploads = ringSize;
+		}
+		if (pendingUploads > 0) {
+			pendingUploads--;
+			return true;
+		}
+		return false;
+	}
+	
+	int getDynamicOffset() {
+		return dynamicOffset;
+	}
+	
+	int getDynamicBytes() {
+		return dynamicBytes;
+	}
+	
 	/** Called by the {@link GameHud}. */
 	synchronized void loadProgram() {
 		// Load program
@@ -243,6 +505,20 @@ public abstract class HudElement {
 	protected abstract boolean onTouchEvent(MotionEvent event,
 			CoordsConverter converter);
 	
+	/**
+	 * Called when the size of the screen is set or changes. Elements whose
+	 * geometry depends on the aspect ratio of the screen can override this to
+	 * update it. The default implementation does nothing.
+	 * 
+	 * @param width
+	 *            The width of the screen, in pixels.
+	 * @param height
+	 *            The height of the screen, in pixels.
+	 */
+	protected void onDimensionsChanged(int width, int height) {
+		// Nothing by default
+	}
+	
 	/**
 	 * Tests whether the given coordinates are within this HudElement.
 	 * 
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.hud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import com.supermercerbros.gameengine.Schooner3D;
+import com.supermercerbros.gameengine.render.RenderBackend;
+
+/**
+ * Packs the sprites of a {@link GameHud} into a single texture, so that sprite
+ * elements can be drawn together.
+ *
+ * <p>
+ * Sprites are packed into shelves, tallest first, with one pixel of padding
+ * between them. The atlas is the smallest power-of-two square that fits them,
+ * up to {@link #MAX_SIZE}.
+ * </p>
+ */
+class SpriteAtlas {
+	private static final String TAG = "SpriteAtlas";
+
+	/**
+	 * The largest atlas size, in pixels. 2048 is supported by all OpenGL ES
+	 * 2.0 devices in practice.
+	 */
+	static final int MAX_SIZE = 2048;
+	private static final int MIN_SIZE = 64;
+	private static final int PADDING = 1;
+
+	private final IdentityHashMap<Bitmap, float[]> regions = new IdentityHashMap<Bitmap, float[]>();
+	private int size;
+	private int texture = -1;
+	
+	// Kept from pack() until upload()
+	private Bitmap[] sortedSprites;
+	private int[] spritePositions;
+
+	/**
+	 * Packs the given sprites. A sprite may appear more than once; it is only
+	 * packed once.
+	 *
+	 * @param sprites
+	 *            The sprites to pack.
+	 * @throws IllegalStateException
+	 *             If the sprites do not fit in a {@link #MAX_SIZE} atlas.
+	 */
+	void pack(ArrayList<Bitmap> sprites) {
+		regions.clear();
+		final ArrayList<Bitmap> unique = new ArrayList<Bitmap>();
+		for (Bitmap sprite : sprites) {
+			if (!regions.containsKey(sprite)) {
+				regions.put(sprite, new float[4]);
+				unique.add(sprite);
+			}
+		}
+		if (unique.isEmpty()) {
+			size = 0;
+			return;
+		}
+
+		// Pack tallest first, which keeps shelves tight
+		final Bitmap[] sorted = unique.toArray(new Bitmap[unique.size()]);
+		Arrays.sort(sorted, new Comparator<Bitmap>() {
+			@Override
+			public int compare(Bitmap lhs, Bitmap rhs) {
+				return rhs.getHeight() - lhs.getHeight();
+			}
+		});
+
+		final int[] positions = new int[sorted.length * 2];
+		for (size = MIN_SIZE; size <= MAX_SIZE; size *= 2) {
+			if (tryPack(sorted, positions, size)) {
+				break;
+			}
+		}
+		if (size > MAX_SIZE) {
+			throw new IllegalStateException("HUD sprites do not fit in a "
+					+ MAX_SIZE + "x" + MAX_SIZE + " atlas");
+		}
+
+		// Store regions as { u0, v0, u1, v1 }
+		final float scale = 1.0f / size;
+		for (int i = 0; i < sorted.length; i++) {
+			final Bitmap sprite = sorted[i];
+			final float[] region = regions.get(sprite);
+			region[0] = positions[i * 2] * scale;
+			region[1] = positions[i * 2 + 1] * scale;
+			region[2] = (positions[i * 2] + sprite.getWidth()) * scale;
+			region[3] = (positions[i * 2 + 1] + sprite.getHeight()) * scale;
+		}
+		this.sortedSprites = sorted;
+		this.spritePositions = positions;
+		Log.d(TAG, "Packed " + sorted.length + " sprites into a " + size + "x"
+				+ size + " atlas");
+	}
+
+	private static boolean tryPack(Bitmap[] sprites, int[] positions, int size) {
+		int x = 0, y = 0, shelfHeight = 0;
+		for (int i = 0; i < sprites.length; i++) {
+			final int w = sprites[i].getWidth() + PADDING;
+			final int h = sprites[i].getHeight() + PADDING;
+			if (w > size) {
+				return false;
+			}
+			if (x + w > size) {
+				// Start a new shelf
+				y += shelfHeight;
+				x = 0;
+				shelfHeight = 0;
+			}
+			if (y + h > size) {
+				return false;
+			}
+			positions[i * 2] = x;
+			positions[i * 2 + 1] = y;
+			x += w;
+			shelfHeight = Math.max(shelfHeight, h);
+		}
+		return true;
+	}
+
+	/**
+	 * Draws the packed sprites into a Bitmap and uploads it. Must be called
+	 * on the GL thread, after {@link #pack(ArrayList)}.
+	 */
+	void upload() {
+		if (size == 0) {
+			return;
+		}
+		final Bitmap atlas = Bitmap.createBitmap(size, size,
+				Bitmap.Config.ARGB_8888);
+		atlas.eraseColor(0);
+		final Canvas canvas = new Canvas(atlas);
+		for (int i = 0; i < sortedSprites.length; i++) {
+			canvas.drawBitmap(sortedSprites[i], spritePositions[i * 2],
+					spritePositions[i * 2 + 1], null);
+		}
+		sortedSprites = null;
+		spritePositions = null;
+
+		final RenderBackend gl = Schooner3D.renderBackend;
+		final int[] handle = new int[1];
+		gl.glGenTextures(1, handle, 0);
+		texture = handle[0];
+		gl.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+		gl.texImage2D(GLES20.GL_TEXTURE_2D, 0, atlas, 0);
+		gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+				GLES20.GL_LINEAR);
+		gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+				GLES20.GL_LINEAR);
+		gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+				GLES20.GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+				GLES20.GL_CLAMP_TO_EDGE);
+		atlas.recycle();
+	}
+
+	/**
+	 * Deletes the atlas texture.
+	 */
+	void unload() {
+		if (texture != -1) {
+			Schooner3D.renderBackend.glDeleteTextures(1, new int[] { texture }, 0);
+			texture = -1;
+		}
+	}
+
+	/**
+	 * Forgets the atlas texture of a lost GL context, without deleting it.
+	 */
+	void onContextLost() {
+		texture = -1;
+	}
+
+	/**
+	 * @param sprite
+	 *            A packed sprite.
+	 * @return The sprite's region of the atlas, as
+	 *         <code>{ u0, v0, u1, v1 }</code>, where v0 is the top edge.
+	 */
+	float[] getRegion(Bitmap sprite) {
+		return regions.get(sprite);
+	}
+
+	/**
+	 * @return The handle of the atlas texture, or -1 if it is not uploaded.
+	 */
+	int getTexture() {
+		return texture;
+	}
+
+	/**
+	 * @return The width and height of the atlas, in pixels.
+	 */
+	int getSize() {
+		return size;
+	}
+}
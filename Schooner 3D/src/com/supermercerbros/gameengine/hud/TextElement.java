@@ -0,0 +1,304 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.hud;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.view.MotionEvent;
+
+import com.supermercerbros.gameengine.engine.shaders.Program;
+
+/**
+ * A single line of text, drawn with a {@link GlyphAtlas}. The text is scaled
+ * to the height of the element, and aligned within its width.
+ *
+ * <p>
+ * A TextElement is a dynamic sprite with room for a fixed number of
+ * characters, so TextElements that share a Program and layer are drawn with
+ * one draw call. Setting the same text again does nothing; setting new text
+ * only rewrites this element's glyph quads. Neither allocates.
+ * </p>
+ */
+public class TextElement extends HudElement {
+	/**
+	 * The most characters a TextElement can hold, since HudElement indices
+	 * are bytes.
+	 */
+	public static final int MAX_CHARS = 64;
+
+	public static final int ALIGN_LEFT = 0;
+	public static final int ALIGN_CENTER = 1;
+	public static final int ALIGN_RIGHT = 2;
+
+	private static final int MAX_DIGITS = 11; // "-2147483648"
+
+	private final GlyphAtlas font;
+	private final int maxChars;
+	private final char[] text;
+	private int length = 0;
+	private int align = ALIGN_LEFT;
+	private float pixelAspect = 1.0f;
+
+	// Layout
+	private final float[] verts;
+	private final float[] uvs;
+	private final byte[] indices;
+	private final char[] digits = new char[MAX_DIGITS];
+
+	/**
+	 * Constructs a new, empty TextElement. Coordinates are given in the range
+	 * [-1, 1].
+	 *
+	 * @param program
+	 *            The Program used to render this TextElement. It must have an
+	 *            <code>a_uv</code> attribute, and sample the glyphs from the
+	 *            {@link GameHud#ATLAS_SAMPLER_NAME} sampler.
+	 * @param font
+	 *            The GlyphAtlas to draw the text with.
+	 * @param left
+	 *            The x-coordinate of the left edge of the element.
+	 * @param right
+	 *            The x-coordinate of the right edge of the element.
+	 * @param top
+	 *            The y-coordinate of the top edge of the text.
+	 * @param bottom
+	 *            The y-coordinate of the bottom edge of the text.
+	 * @param maxChars
+	 *            The most characters that this TextElement will show. Longer
+	 *            text is cut off.
+	 */
+	public TextElement(Program program, GlyphAtlas font, float left,
+			float right, float top, float bottom, int maxChars) {
+		super(program, left, right, top, bottom);
+		if (font == null) {
+			throw new NullPointerException("font == null");
+		}
+		if (maxChars < 1 || maxChars > MAX_CHARS) {
+			throw new IllegalArgumentException("maxChars must be in [1, "
+					+ MAX_CHARS + "]");
+		}
+		this.font = font;
+		this.maxChars = maxChars;
+		this.text = new char[maxChars];
+		this.verts = new float[maxChars * 8];
+		this.uvs = new float[maxChars * 8];
+		this.indices = new byte[maxChars * 6];
+		for (int i = 0; i < maxChars; i++) {
+			final int v = i * 4, n = i * 6;
+			indices[n] = (byte) v;
+			indices[n + 1] = (byte) (v + 1);
+			indices[n + 2] = (byte) (v + 2);
+			indices[n + 3] = (byte) (v + 2);
+			indices[n + 4] = (byte) (v + 1);
+			indices[n + 5] = (byte) (v + 3);
+		}
+		primitiveType = GLES20.GL_TRIANGLES;
+		setDynamic(true);
+		layout();
+	}
+
+	/**
+	 * Sets the text of this element. If the text has not changed, this does
+	 * nothing.
+	 *
+	 * @param s
+	 *            The new text.
+	 * @return true if the text changed.
+	 */
+	public synchronized boolean setText(CharSequence s) {
+		final int newLength = Math.min(s.length(), maxChars);
+		boolean changed = newLength != length;
+		for (int i = 0; i < newLength && !changed; i++) {
+			changed = text[i] != s.charAt(i);
+		}
+		if (!changed) {
+			return false;
+		}
+		for (int i = 0; i < newLength; i++) {
+			text[i] = s.charAt(i);
+		}
+		length = newLength;
+		layout();
+		invalidate();
+		return true;
+	}
+
+	/**
+	 * Sets the text of this element to the given number, without allocating.
+	 * If the text has not changed, this does nothing.
+	 *
+	 * @param value
+	 *            The number to show.
+	 * @return true if the text changed.
+	 */
+	public synchronized boolean setNumber(int value) {
+		// Write digits from the end of the buffer
+		int pos = MAX_DIGITS;
+		long v = Math.abs((long) value);
+		do {
+			digits[--pos] = (char) ('0' + (v % 10));
+			v /= 10;
+		} while (v != 0);
+		if (value < 0) {
+			digits[--pos] = '-';
+		}
+
+		final int newLength = Math.min(MAX_DIGITS - pos, maxChars);
+		boolean changed = newLength != length;
+		for (int i = 0; i < newLength && !changed; i++) {
+			changed = text[i] != digits[pos + i];
+		}
+		if (!changed) {
+			return false;
+		}
+		System.arraycopy(digits, pos, text, 0, newLength);
+		length = newLength;
+		layout();
+		invalidate();
+		return true;
+	}
+
+	/**
+	 * Sets how the text is aligned within the width of this element.
+	 *
+	 * @param align
+	 *            {@link #ALIGN_LEFT}, {@link #ALIGN_CENTER}, or
+	 *            {@link #ALIGN_RIGHT}.
+	 */
+	public synchronized void setAlignment(int align) {
+		if (align < ALIGN_LEFT || align > ALIGN_RIGHT) {
+			throw new IllegalArgumentException("Invalid alignment: " + align);
+		}
+		if (this.align != align) {
+			this.align = align;
+			layout();
+			invalidate();
+		}
+	}
+
+	/**
+	 * @return The number of characters shown.
+	 */
+	public synchronized int length() {
+		return length;
+	}
+
+	/**
+	 * Writes the glyph quads for the current text. Unused quads are collapsed
+	 * to a point, so they draw nothing.
+	 */
+	private void layout() {
+		// One font pixel, in HUD units
+		final float yScale = (top - bottom) / font.getLineHeight();
+		final float xScale = yScale * pixelAspect;
+
+		float width = 0.0f;
+		for (int i = 0; i < length; i++) {
+			width += font.getWidth(font.getGlyph(text[i])) * xScale;
+		}
+		float x;
+		switch (align) {
+		case ALIGN_RIGHT:
+			x = right - width;
+			break;
+		case ALIGN_CENTER:
+			x = (left + right - width) * 0.5f;
+			break;
+		default:
+			x = left;
+			break;
+		}
+
+		for (int i = 0; i < maxChars; i++) {
+			final int n = i * 8;
+			if (i < length) {
+				final int glyph = font.getGlyph(text[i]);
+				final float x1 = x + font.getWidth(glyph) * xScale;
+
+				// Same vertex order as HudElement: TL, BL, TR, BR
+				verts[n] = x;
+				verts[n + 1] = top;
+				verts[n + 2] = x;
+				verts[n + 3] = bottom;
+				verts[n + 4] = x1;
+				verts[n + 5] = top;
+				verts[n + 6] = x1;
+				verts[n + 7] = bottom;
+
+				font.getUVs(glyph, uvs, n);
+				final float u0 = uvs[n], v0 = uvs[n + 1];
+				final float u1 = uvs[n + 2], v1 = uvs[n + 3];
+				uvs[n + 2] = u0;
+				uvs[n + 3] = v1;
+				uvs[n + 4] = u1;
+				uvs[n + 5] = v0;
+				uvs[n + 6] = u1;
+				uvs[n + 7] = v1;
+				x = x1;
+			} else {
+				for (int j = 0; j < 8; j += 2) {
+					verts[n + j] = left;
+					verts[n + j + 1] = bottom;
+					uvs[n + j] = 0.0f;
+					uvs[n + j + 1] = 0.0f;
+				}
+			}
+		}
+	}
+
+	@Override
+	protected synchronized void onDimensionsChanged(int width, int height) {
+		// Keep glyphs at the font's aspect ratio on screen
+		pixelAspect = height / (float) width;
+		layout();
+		invalidate();
+	}
+
+	@Override
+	protected byte[] getIndices() {
+		return indices;
+	}
+
+	@Override
+	protected float[] getVerts() {
+		return verts;
+	}
+
+	@Override
+	protected float[] getUVs() {
+		return uvs;
+	}
+
+	@Override
+	protected Bitmap getSprite() {
+		return font.getBitmap();
+	}
+
+	@Override
+	protected void onRender() {
+		// Nothing to do; the atlas is bound by the GameHud
+	}
+
+	@Override
+	protected void onLoadProgram() {
+		// Nothing to do
+	}
+
+	@Override
+	protected boolean onTouchEvent(MotionEvent event, CoordsConverter converter) {
+		return false;
+	}
+}
@@ -36,23 +36,24 @@ public class CelShadedMaterial extends Material {
 					
 			"uniform mat4 u_viewProj;" +
 			"uniform mat4 u_model;" + 
-			"uniform vec3 u_lightVec;";
+			ShaderLib.LIGHTING_FUNCTIONS;
 	
 	private static final String VERT_MAIN =
-			"gl_Position = (u_viewProj * u_model) * vec4(a_pos, 1.0);" +
+			"vec4 worldPos = u_model * vec4(a_pos, 1.0);" +
+			"gl_Position = u_viewProj * worldPos;" +
 			
 			"v_tc = vec2(a_mtl.x, 1.0 - a_mtl.y);" +
 			
-			"vec3 normal = mat3(u_model) * a_normal;" +
-			"v_brightness = (dot(normal, u_lightVec) + 1.0) / 2.0;";
+			"vec3 normal = normalize((u_model * vec4(a_normal, 0.0)).xyz);" +
+			"vec3 light = computeLighting(worldPos.xyz, normal);" +
+			"v_brightness = dot(light, vec3(0.299, 0.587, 0.114));";
 	
 	private static final String VARYINGS =
 			"varying vec2 v_tc;" +
 			"varying float v_brightness;";
 	
 	private static final String FRAG_VARS =
-			"uniform sampler2D s_baseMap;" +
-			"uniform vec3 u_lightColor;";
+			"uniform sampler2D s_baseMap;";
 	
 	private static final String FRAG_MAIN =
 			"vec3 texColor = texture2D(s_baseMap, v_tc).rgb;" +
@@ -78,8 +79,7 @@ public class CelShadedMaterial extends Material {
 		attachAttrib(a_normal, 3);
 		attachAttrib(a_mtl, 2);
 		
-		texture.use(0, ShaderLib.S_BASEMAP,
-				this.program.getHandle());
+		bindTexture(0, texture, ShaderLib.SLOT_S_BASEMAP);
 	}
 	
 	@Override
@@ -89,6 +89,11 @@ public class CelShadedMaterial extends Material {
 		loadArrayToVbo(obj.mtl, vbo, 2, vertCount);
 	}
 	
+	@Override
+	public String getVertexLayout() {
+		return "pnt";
+	}
+	
 	@Override
 	public void makeProgram() {
 		final ProgramSource prog = new ProgramSource(VARYINGS, null, VERT_VARS,
@@ -35,17 +35,15 @@ public class TexturedMaterial extends Material {
 			"attribute vec2 a_mtl;\n" + // Stores UV coords
 					
 			"uniform mat4 u_viewProj;\n" +
-			"uniform vec3 u_lightVec;\n" +
-			"uniform vec3 u_lightColor;\n" + 
-			"uniform mat4 u_model;\n";
+			"uniform mat4 u_model;\n" +
+			ShaderLib.LIGHTING_FUNCTIONS;
 	
 	private static final String VERT_MAIN =
-			"mat4 transform = (u_viewProj * u_model);" +
-			"gl_Position = transform * vec4(a_pos, 1.0);\n" +
+			"vec4 worldPos = u_model * vec4(a_pos, 1.0);\n" +
+			"gl_Position = u_viewProj * worldPos;\n" +
 			"v_tc = vec2(a_mtl.x, 1.0 - a_mtl.y);\n" +
-			"vec3 normal = (transform * vec4(a_normal, 0.0)).xyz;\n" +
-			"float brightness = max((dot(normal, u_lightVec) + 1.0) / 2.0, 0.0);\n" +
-			"vec3 color = (u_lightColor * brightness);\n" +
+			"vec3 normal = normalize((u_model * vec4(a_normal, 0.0)).xyz);\n" +
+			"vec3 color = computeLighting(worldPos.xyz, normal);\n" +
 			
 			"v_lightColor = min(color, vec3(1.0));\n";
 	
@@ -71,8 +69,7 @@ public class TexturedMaterial extends Material {
 		attachAttrib(a_normal, 3);
 		attachAttrib(a_mtl, 2);
 		
-		texture.use(0, ShaderLib.S_BASEMAP,
-				this.program.getHandle());
+		bindTexture(0, texture, ShaderLib.SLOT_S_BASEMAP);
 	}
 	
 	@Override
@@ -82,6 +79,11 @@ public class TexturedMaterial extends Material {
 		loadArrayToVbo(obj.mtl, vbo, 2, vertCount);
 	}
 	
+	@Override
+	public String getVertexLayout() {
+		return "pnt";
+	}
+	
 	@Override
 	public void makeProgram() {
 		final ProgramSource prog = new ProgramSource(VARYINGS, null, VERT_VARS,
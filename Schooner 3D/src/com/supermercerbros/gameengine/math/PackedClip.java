@@ -0,0 +1,431 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.math;
+
+import java.util.Arrays;
+
+/**
+ * Stores the piecewise Bezier curves of an animation clip, one per channel, in
+ * a single array. Each channel's points are stored as a run of times and a run
+ * of values, found through tables of offsets, so sampling a clip does not
+ * chase one object per curve. Channels with the same keyframe times, such as
+ * the four rotation curves of a bone, share one run of times. The points can
+ * optionally be quantized to 16 bits, relative to the range of each run.
+ *
+ * <p>
+ * Channels are sampled exactly as {@link BezierCurve} does, except that the
+ * keyframe is found by binary search, and that
+ * {@link #sample(int, int, float, float[], int)} solves for the curve
+ * parameter once for channels that share their times.
+ * </p>
+ */
+public class PackedClip {
+	private final int[] timeOffsets;
+	private final int[] valueOffsets;
+	private final int[] counts;
+	private final float[] data;
+	private final short[] packed;
+	/**
+	 * If quantized, the time offset, time scale, value offset, and value scale
+	 * of each channel.
+	 */
+	private final float[] ranges;
+
+	/**
+	 * Builds a PackedClip channel by channel.
+	 */
+	public static class Builder {
+		private final int[] offsets;
+		private final int[] counts;
+		private float[] points = new float[256];
+		private int size = 0;
+
+		/**
+		 * @param channelCount
+		 *            The number of channels in the clip. Channels that are not
+		 *            added are empty.
+		 */
+		public Builder(int channelCount) {
+			offsets = new int[channelCount];
+			counts = new int[channelCount];
+			Arrays.fill(offsets, -1);
+		}
+
+		/**
+		 * Adds a channel. Its points must then be written to
+		 * {@link #getPoints()}, as (time, value) pairs, starting at the
+		 * returned offset.
+		 *
+		 * @param channel
+		 *            The index of the channel.
+		 * @param pointCount
+		 *            The number of points in the channel. One more than a
+		 *            multiple of three.
+		 * @return The offset to write the points at.
+		 */
+		public int addChannel(int channel, int pointCount) {
+			if ((pointCount - 1) % 3 != 0 || pointCount < 1) {
+				throw new IllegalArgumentException(
+						"(pointCount - 1) % 3 must equal zero.");
+			}
+			if (offsets[channel] != -1) {
+				throw new IllegalStateException("Channel " + channel
+						+ " was already added.");
+			}
+			if (size + pointCount * 2 > points.length) {
+				points = Arrays.copyOf(points, Math.max(points.length * 2,
+						size + pointCount * 2));
+			}
+			offsets[channel] = size;
+			counts[channel] = pointCount;
+			size += pointCount * 2;
+			return offsets[channel];
+		}
+
+		/**
+		 * @return The array to write points to. It changes when channels are
+		 *         added.
+		 */
+		public float[] getPoints() {
+			return points;
+		}
+
+		/**
+		 * @param quantize
+		 *            true to store the points in 16 bits each.
+		 * @return The PackedClip.
+		 */
+		public PackedClip build(boolean quantize) {
+			return new PackedClip(this, quantize);
+		}
+	}
+
+	private PackedClip(Builder builder, boolean quantize) {
+		final int channelCount = builder.offsets.length;
+		timeOffsets = new int[channelCount];
+		valueOffsets = new int[channelCount];
+		counts = builder.counts.clone();
+		Arrays.fill(timeOffsets, -1);
+		Arrays.fill(valueOffsets, -1);
+
+		// Find the channels that can share the times of an earlier channel
+		final float[] points = builder.points;
+		final int[] timeSources = new int[channelCount];
+		int size = 0;
+		for (int c = 0; c < channelCount; c++) {
+			timeSources[c] = c;
+			if (builder.offsets[c] == -1) {
+				continue;
+			}
+			for (int s = 0; s < c; s++) {
+				if (timeSources[s] == s && builder.offsets[s] != -1
+						&& sameTimes(points, builder.offsets[s],
+								builder.offsets[c], counts[c], counts[s])) {
+					timeSources[c] = s;
+					break;
+				}
+			}
+			size += timeSources[c] == c ? counts[c] * 2 : counts[c];
+		}
+
+		if (quantize) {
+			data = null;
+			packed = new short[size];
+			ranges = new float[channelCount * 4];
+		} else {
+			data = new float[size];
+			packed = null;
+			ranges = null;
+		}
+
+		// Split each channel's (time, value) pairs into times and values
+		int offset = 0;
+		for (int c = 0; c < channelCount; c++) {
+			final int in = builder.offsets[c];
+			final int count = counts[c];
+			if (in == -1) {
+				continue;
+			}
+			final int source = timeSources[c];
+			if (source == c) {
+				timeOffsets[c] = offset;
+				store(points, in, count, 0, offset, c * 4);
+				offset += count;
+			} else {
+				timeOffsets[c] = timeOffsets[source];
+				if (quantize) {
+					ranges[c * 4] = ranges[source * 4];
+					ranges[c * 4 + 1] = ranges[source * 4 + 1];
+				}
+			}
+			valueOffsets[c] = offset;
+			store(points, in, count, 1, offset, c * 4 + 2);
+			offset += count;
+		}
+	}
+
+	private static boolean sameTimes(float[] points, int a, int b,
+			int countA, int countB) {
+		if (countA != countB) {
+			return false;
+		}
+		for (int i = 0; i < countA; i++) {
+			if (points[a + i * 2] != points[b + i * 2]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stores one half of a channel's (time, value) pairs, quantizing them if
+	 * needed.
+	 */
+	private void store(float[] points, int in, int count, int half,
+			int outOffset, int range) {
+		if (data != null) {
+			for (int i = 0; i < count; i++) {
+				data[outOffset + i] = points[in + i * 2 + half];
+			}
+			return;
+		}
+
+		float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			final float f = points[in + i * 2 + half];
+			min = Math.min(min, f);
+			max = Math.max(max, f);
+		}
+		final float scale = (max - min) / 65535;
+		ranges[range] = min;
+		ranges[range + 1] = scale;
+		for (int i = 0; i < count; i++) {
+			final float f = points[in + i * 2 + half];
+			packed[outOffset + i] = (short) (scale != 0 ? Math
+					.round((f - min) / scale) : 0);
+		}
+	}
+
+	public int getChannelCount() {
+		return counts.length;
+	}
+
+	public boolean hasChannel(int channel) {
+		return valueOffsets[channel] != -1;
+	}
+
+	/**
+	 * @return The number of points in the given channel, or 0 if it is empty.
+	 */
+	public int getPointCount(int channel) {
+		return counts[channel];
+	}
+
+	public boolean isQuantized() {
+		return packed != null;
+	}
+
+	/**
+	 * @return The size of the clip's arrays, in bytes.
+	 */
+	public int getByteSize() {
+		int bytes = counts.length * 12;
+		if (data != null) {
+			bytes += data.length * 4;
+		} else {
+			bytes += packed.length * 2 + ranges.length * 4;
+		}
+		return bytes;
+	}
+
+	private float time(int channel, int point) {
+		final int index = timeOffsets[channel] + point;
+		if (data != null) {
+			return data[index];
+		}
+		return ranges[channel * 4] + (packed[index] & 0x0000FFFF)
+				* ranges[channel * 4 + 1];
+	}
+
+	private float value(int channel, int point) {
+		final int index = valueOffsets[channel] + point;
+		if (data != null) {
+			return data[index];
+		}
+		return ranges[channel * 4 + 2] + (packed[index] & 0x0000FFFF)
+				* ranges[channel * 4 + 3];
+	}
+
+	/**
+	 * @return The value of the first keyframe of the given channel.
+	 */
+	public float getStartValue(int channel) {
+		return value(channel, 0);
+	}
+
+	/**
+	 * Samples a channel.
+	 *
+	 * @param channel
+	 *            The index of the channel, which must not be empty.
+	 * @param x
+	 *            The elapsed fraction of the channel.
+	 * @return The value of the channel at that fraction.
+	 */
+	public float sample(int channel, float x) {
+		final int lastIndex = counts[channel] - 1;
+		if (x >= 1 || lastIndex == 0) {
+			return value(channel, lastIndex);
+		} else if (x <= 0) {
+			return value(channel, 0);
+		}
+		final int p = findKeyframe(channel, x);
+		return solveValue(channel, p, solveT(channel, p, x));
+	}
+
+	/**
+	 * Samples consecutive channels at once. Channels that share their times
+	 * with the channel before them reuse its keyframe and curve parameter.
+	 *
+	 * @param channel
+	 *            The index of the first channel. The channels must not be
+	 *            empty.
+	 * @param channelCount
+	 *            The number of channels to sample.
+	 * @param x
+	 *            The elapsed fraction of the channels.
+	 * @param out
+	 *            The array to store the values in.
+	 * @param outOffset
+	 *            The index of <code>out</code> to store the first value at.
+	 */
+	public void sample(int channel, int channelCount, float x, float[] out,
+			int outOffset) {
+		int p = 0;
+		float t = 0;
+		for (int c = channel; c < channel + channelCount; c++) {
+			final int lastIndex = counts[c] - 1;
+			if (x >= 1 || lastIndex == 0) {
+				out[outOffset++] = value(c, lastIndex);
+			} else if (x <= 0) {
+				out[outOffset++] = value(c, 0);
+			} else {
+				if (c == channel || timeOffsets[c] != timeOffsets[c - 1]) {
+					p = findKeyframe(c, x);
+					t = solveT(c, p, x);
+				}
+				out[outOffset++] = solveValue(c, p, t);
+			}
+		}
+	}
+
+	/**
+	 * @return The index of the first point of the keyframe that ends at or
+	 *         after the given fraction of the channel.
+	 */
+	private int findKeyframe(int channel, float x) {
+		final int lastIndex = counts[channel] - 1;
+		final float frame = x * time(channel, lastIndex);
+		int lo = 0, hi = lastIndex / 3 - 1;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (frame > time(channel, (mid + 1) * 3)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo * 3;
+	}
+
+	/**
+	 * @return The curve parameter of the keyframe starting at point
+	 *         <code>p</code> at the given fraction of the channel.
+	 */
+	private float solveT(int channel, int p, float x) {
+		final float frame = x * time(channel, counts[channel] - 1);
+
+		final float fp0 = time(channel, p);
+		final float fp1 = time(channel, p + 1);
+		final float fp2 = time(channel, p + 2);
+		final float fp3 = time(channel, p + 3);
+
+		// Estimate T given X
+		float lowerT = 0;
+		float upperT = 1;
+		float tGuess = (fp0 - frame) / (fp0 - fp3);
+
+		for (int i = 1; i <= 5; i++) {
+			final float frameGuess = solve(fp0, fp1, fp2, fp3, tGuess);
+			if (frameGuess < frame) {
+				lowerT = tGuess;
+			} else if (frameGuess > frame) {
+				upperT = tGuess;
+			} else {
+				return tGuess;
+			}
+
+			tGuess = (lowerT + upperT) / 2;
+		}
+
+		final float lowerFrame = solve(fp0, fp1, fp2, fp3, lowerT);
+		final float upperFrame = solve(fp0, fp1, fp2, fp3, upperT);
+		final float alpha = (lowerFrame - frame) / (lowerFrame - upperFrame);
+		return lowerT + (upperT - lowerT) * alpha;
+	}
+
+	private float solveValue(int channel, int p, float t) {
+		return solve(value(channel, p), value(channel, p + 1),
+				value(channel, p + 2), value(channel, p + 3), t);
+	}
+
+	private static float solve(final float p0, final float p1, final float p2,
+			final float p3, final float t) {
+		if (t == 0.0) {
+			return p0;
+		} else if (t == 1.0) {
+			return p3;
+		}
+
+		final float d = 1 - t;
+		return (d * d * d * p0) +
+				(3 * d * d * t * p1) +
+				(3 * d * t * t * p2) +
+				(t * t * t * p3);
+	}
+
+	/**
+	 * @return A Curve that samples the given channel, or null if the channel is
+	 *         empty.
+	 */
+	public Curve getCurve(final int channel) {
+		if (!hasChannel(channel)) {
+			return null;
+		}
+		return new Curve() {
+			@Override
+			public float getInterpolation(float x) {
+				return sample(channel, x);
+			}
+
+			@Override
+			public float getStartValue() {
+				return PackedClip.this.getStartValue(channel);
+			}
+		};
+	}
+}
@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 
 import android.opengl.Matrix;
+import android.util.FloatMath;
 
 import com.supermercerbros.gameengine.collision.Bounds;
 import com.supermercerbros.gameengine.collision.Collider;
@@ -69,6 +70,15 @@ public class GameObject implements Collider {
 	 */
 	public final short[][] doubles;
 	
+	/**
+	 * Contains the vertex data of this <code>GameObject</code> pre-interleaved
+	 * in {@link #vertexLayout}, as loaded from a version 2 mesh, or null. A
+	 * Material with the same {@link Material#getVertexLayout() layout} copies
+	 * it to the VBO as it is.
+	 */
+	public final float[] vertexBlock;
+	public final String vertexLayout;
+	
 	/**
 	 * The Metadata about this GameObject.
 	 */
@@ -113,6 +123,8 @@ public class GameObject implements Collider {
 		this.mtl = uvs;
 		this.normals = (normals != null) ? normals : new float[verts.length];
 		this.doubles = doubles;
+		this.vertexBlock = null;
+		this.vertexLayout = null;
 		
 		// Instance information
 		this.isInstance = false;
@@ -144,9 +156,15 @@ public class GameObject implements Collider {
 		this.verts = data.verts;
 		this.indices = data.indices;
 		this.mtl = data.uvs;
-		this.normals = new float[verts.length];
 		this.doubles = data.doubles;
-		Normals.calculate(this);
+		this.vertexBlock = data.vertexBlock;
+		this.vertexLayout = data.vertexLayout;
+		if (data.normals != null) {
+			this.normals = data.normals;
+		} else {
+			this.normals = new float[verts.length];
+			Normals.calculate(this);
+		}
 		
 		// Instance information
 		this.parent = data.parent;
@@ -225,7 +243,9 @@ public class GameObject implements Collider {
 	 * @return
 	 */
 	protected GameObject getInstance(Material material) {
-		PreObjectData preData = new PreObjectData(verts, indices, mtl, doubles, null, null);
+		// Share the geometry, including the normals, with the instance
+		PreObjectData preData = new PreObjectData(verts, indices, mtl, doubles,
+				null, null, normals, vertexBlock, vertexLayout);
 		preData.parent = this;
 		return new GameObject(preData, material);
 	}
@@ -280,6 +300,23 @@ public class GameObject implements Collider {
 		info.isVisible = visible;
 	}
 	
+	/**
+	 * @return true if this GameObject is static.
+	 * @see #setStatic(boolean)
+	 */
+	public boolean isStatic() {
+		return isStatic;
+	}
+	
+	/**
+	 * Marks this GameObject as static, meaning that it never moves or deforms,
+	 * so the Engine does not update its vertices or matrix every frame. Should
+	 * only be called before the GameObject is added to the Engine.
+	 */
+	public void setStatic(boolean isStatic) {
+		this.isStatic = isStatic;
+	}
+	
 	/**
 	 * Sets and starts the Movement that is used to animate this GameObject's
 	 * location.
@@ -304,6 +341,7 @@ public class GameObject implements Collider {
 	
 	private final HashMap<Collision, Collider> collisions;
 	private Bounds bounds;
+	private boolean isStatic = false;
 	
 	@Override
 	public Bounds getBounds() {
@@ -343,4 +381,79 @@ public class GameObject implements Collider {
 		System.arraycopy(modelMatrix, 0, matrixArray, 0, 16);
 	}
 	
+	/**
+	 * The object-space bounding sphere, as { x, y, z, radius }. Calculated
+	 * when first needed.
+	 */
+	private float[] localSphere;
+	
+	/**
+	 * Writes this GameObject's world-space bounding sphere to the given array,
+	 * as <code>{ x, y, z, radius }</code>. This is based on the object-space
+	 * vertices as they were first loaded, transformed by the model matrix.
+	 * 
+	 * @param sphere
+	 *            The array to write to. Must have a length of at least 4.
+	 */
+	public void getBoundingSphere(float[] sphere) {
+		if (localSphere == null) {
+			localSphere = calculateBoundingSphere(verts);
+		}
+		final float[] m = modelMatrix;
+		final float x = localSphere[0], y = localSphere[1], z = localSphere[2];
+		sphere[0] = m[0] * x + m[4] * y + m[8] * z + m[12];
+		sphere[1] = m[1] * x + m[5] * y + m[9] * z + m[13];
+		sphere[2] = m[2] * x + m[6] * y + m[10] * z + m[14];
+		
+		// Scale the radius by the largest axis scale
+		final float sx = m[0] * m[0] + m[1] * m[1] + m[2] * m[2];
+		final float sy = m[4] * m[4] + m[5] * m[5] + m[6] * m[6];
+		final float sz = m[8] * m[8] + m[9] * m[9] + m[10] * m[10];
+		sphere[3] = localSphere[3]
+				* FloatMath.sqrt(Math.max(sx, Math.max(sy, sz)));
+	}
+	
+	/**
+	 * Sets the object-space bounding sphere, instead of having it calculated
+	 * from the vertices when first needed.
+	 */
+	public void setBoundingSphere(float x, float y, float z, float radius) {
+		localSphere = new float[] { x, y, z, radius };
+	}
+	
+	private static float[] calculateBoundingSphere(float[] verts) {
+		final float[] sphere = new float[4];
+		if (verts.length < 3) {
+			return sphere;
+		}
+		
+		// Center of the bounding box
+		float minX = verts[0], minY = verts[1], minZ = verts[2];
+		float maxX = minX, maxY = minY, maxZ = minZ;
+		for (int i = 3; i < verts.length; i += 3) {
+			minX = Math.min(minX, verts[i]);
+			maxX = Math.max(maxX, verts[i]);
+			minY = Math.min(minY, verts[i + 1]);
+			maxY = Math.max(maxY, verts[i + 1]);
+			minZ = Math.min(minZ, verts[i + 2]);
+			maxZ = Math.max(maxZ, verts[i + 2]);
+		}
+		final float cx = (minX + maxX) / 2;
+		final float cy = (minY + maxY) / 2;
+		final float cz = (minZ + maxZ) / 2;
+		
+		float maxDistSq = 0;
+		for (int i = 0; i < verts.length; i += 3) {
+			final float dx = verts[i] - cx;
+			final float dy = verts[i + 1] - cy;
+			final float dz = verts[i + 2] - cz;
+			maxDistSq = Math.max(maxDistSq, dx * dx + dy * dy + dz * dz);
+		}
+		sphere[0] = cx;
+		sphere[1] = cy;
+		sphere[2] = cz;
+		sphere[3] = FloatMath.sqrt(maxDistSq);
+		return sphere;
+	}
+	
 }
@@ -0,0 +1,457 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.parsers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import android.opengl.GLException;
+import android.util.Log;
+
+import com.supermercerbros.gameengine.armature.Action;
+import com.supermercerbros.gameengine.armature.Skeleton;
+import com.supermercerbros.gameengine.engine.shaders.Material;
+import com.supermercerbros.gameengine.engine.shaders.Program;
+import com.supermercerbros.gameengine.motion.CurveMovement;
+import com.supermercerbros.gameengine.objects.GameObject;
+import com.supermercerbros.gameengine.texture.Texture;
+
+/**
+ * Loads meshes, skeletons, Actions, and movements in parallel, and bakes
+ * GameObjects from them, without the state of a {@link GameFactory}.
+ *
+ * <p>
+ * Every load returns a Future at once. Loads run on a pool with one thread
+ * per core, and a bake runs as soon as the loads it depends on are done, so a
+ * scene can start all of its loads up front and wait only for the
+ * GameObjects. A failed load fails the bakes that depend on it, with the same
+ * cause.
+ * </p>
+ *
+ * <p>
+ * Work that needs the GL context is queued for the GL thread, which does it in
+ * batches in {@link #update()}: the programs of baked Materials are compiled,
+ * and {@link #prefetch(Texture) prefetched} Textures start decoding, to be
+ * uploaded by the {@link com.supermercerbros.gameengine.texture.TextureLoader
+ * TextureLoader}.
+ * </p>
+ */
+public class AssetLoader {
+	private static final String TAG = "AssetLoader";
+
+	/**
+	 * The default time the GL thread may spend on queued work per frame, in
+	 * nanoseconds.
+	 */
+	public static final long DEFAULT_GL_BUDGET = 4000000L;
+
+	private static ExecutorService pool;
+	private static final ConcurrentLinkedQueue<Runnable> glTasks = new ConcurrentLinkedQueue<Runnable>();
+	private static volatile long glBudget = DEFAULT_GL_BUDGET;
+
+	/**
+	 * A Skeleton and its Actions, which are stored in the same file.
+	 */
+	private static class SkeletonFile {
+		final Skeleton skeleton;
+		final HashMap<String, Action> actions;
+
+		SkeletonFile(Skeleton skeleton, HashMap<String, Action> actions) {
+			this.skeleton = skeleton;
+			this.actions = actions;
+		}
+	}
+
+	/**
+	 * A node in the load graph: a FutureTask that is started once the Tasks it
+	 * depends on are done.
+	 */
+	static class Task<T> extends FutureTask<T> {
+		private ArrayList<Task<?>> dependents = new ArrayList<Task<?>>();
+		// Starts at one, which start() releases
+		private int waitingFor = 1;
+
+		Task(Callable<T> callable) {
+			super(callable);
+		}
+
+		/**
+		 * Makes this Task wait for the given Task. Must be called before
+		 * {@link #start()}.
+		 */
+		void dependOn(Task<?> dependency) {
+			// Counted before this Task is published to the dependency, which
+			// may finish, and count it down, as soon as it is
+			synchronized (this) {
+				waitingFor++;
+			}
+			synchronized (dependency) {
+				if (dependency.dependents != null) {
+					dependency.dependents.add(this);
+					return;
+				}
+			}
+			// Already done. start() has not been called, so this cannot
+			// reach zero.
+			synchronized (this) {
+				waitingFor--;
+			}
+		}
+
+		/**
+		 * Starts this Task once its dependencies are done.
+		 */
+		void start() {
+			onDependencyDone();
+		}
+
+		private void onDependencyDone() {
+			synchronized (this) {
+				if (--waitingFor > 0) {
+					return;
+				}
+			}
+			getPool().execute(this);
+		}
+
+		@Override
+		protected void done() {
+			final ArrayList<Task<?>> ready;
+			synchronized (this) {
+				ready = dependents;
+				dependents = null;
+			}
+			for (Task<?> dependent : ready) {
+				dependent.onDependencyDone();
+			}
+		}
+	}
+
+	private final GameFactory factory;
+	private final HashMap<String, Task<SkeletonFile>> skeletons = new HashMap<String, Task<SkeletonFile>>();
+
+	/**
+	 * Creates a new AssetLoader that reads files the way the given GameFactory
+	 * does, from its assets, resources, and {@link AssetPack}. The
+	 * GameFactory's own state is not used.
+	 *
+	 * @param factory
+	 *            The GameFactory to read files with.
+	 */
+	public AssetLoader(GameFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * @return The pool that loads run on, which {@link CompressedAsset} also
+	 *         decodes blocks on.
+	 */
+	static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			final int threads = Runtime.getRuntime().availableProcessors();
+			pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				private int count = 0;
+
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread t = new Thread(r, "AssetLoader-" + count++);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Replaces the pool that loads run on, so tests can run with few threads.
+	 * The previous pool is shut down once its work is done.
+	 *
+	 * @param executor
+	 *            The new pool, or null to create the default pool when it is
+	 *            next needed.
+	 */
+	static synchronized void setPool(ExecutorService executor) {
+		if (pool != null) {
+			pool.shutdown();
+		}
+		pool = executor;
+	}
+
+	/**
+	 * Starts the given work once the given dependencies are done.
+	 *
+	 * @param dependencies
+	 *            Futures returned by this class, or null.
+	 */
+	static <T> Task<T> submit(Callable<T> callable,
+			Future<?>... dependencies) {
+		final Task<T> task = new Task<T>(callable);
+		for (Future<?> dependency : dependencies) {
+			if (dependency == null) {
+				continue;
+			}
+			if (!(dependency instanceof Task)) {
+				throw new IllegalArgumentException(
+						"Dependencies must come from an AssetLoader");
+			}
+			task.dependOn((Task<?>) dependency);
+		}
+		task.start();
+		return task;
+	}
+
+	/**
+	 * Gets the result of a finished dependency, rethrowing its failure.
+	 */
+	private static <T> T result(Future<T> dependency) throws Exception {
+		if (dependency == null) {
+			return null;
+		}
+		try {
+			return dependency.get();
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Loads a mesh from an asset, through the {@link MeshCache}.
+	 *
+	 * @param filename
+	 *            The asset path of the mesh.
+	 * @return The future mesh data.
+	 */
+	public Future<PreObjectData> loadMesh(final String filename) {
+		return submit(new Callable<PreObjectData>() {
+			@Override
+			public PreObjectData call() throws Exception {
+				return new PreObjectData(factory.readMesh(filename));
+			}
+		});
+	}
+
+	/**
+	 * Loads a mesh from a raw resource, through the {@link MeshCache}.
+	 *
+	 * @param resId
+	 *            The resource identifier of the mesh.
+	 * @return The future mesh data.
+	 */
+	public Future<PreObjectData> loadMesh(final int resId) {
+		return submit(new Callable<PreObjectData>() {
+			@Override
+			public PreObjectData call() throws Exception {
+				return new PreObjectData(factory.readMesh(resId));
+			}
+		});
+	}
+
+	/**
+	 * @return The Task parsing the given skeleton file, started if needed.
+	 */
+	private synchronized Task<SkeletonFile> loadSkeletonFile(
+			final String filename) {
+		Task<SkeletonFile> task = skeletons.get(filename);
+		if (task == null) {
+			task = submit(new Callable<SkeletonFile>() {
+				@Override
+				public SkeletonFile call() throws Exception {
+					final HashMap<String, Action> actions = new HashMap<String, Action>();
+					final Skeleton skeleton = factory.readSkeleton(filename,
+							actions);
+					return new SkeletonFile(skeleton, actions);
+				}
+			});
+			skeletons.put(filename, task);
+		}
+		return task;
+	}
+
+	/**
+	 * Loads a skeleton. Its file is parsed once for this and
+	 * {@link #loadActions(String)}.
+	 *
+	 * @param filename
+	 *            The asset path of the skeleton.
+	 * @return The future Skeleton.
+	 */
+	public Future<Skeleton> loadSkeleton(String filename) {
+		final Task<SkeletonFile> file = loadSkeletonFile(filename);
+		return submit(new Callable<Skeleton>() {
+			@Override
+			public Skeleton call() throws Exception {
+				return result(file).skeleton;
+			}
+		}, file);
+	}
+
+	/**
+	 * Loads the Actions stored with a skeleton.
+	 *
+	 * @param filename
+	 *            The asset path of the skeleton.
+	 * @return The future Actions, by name.
+	 */
+	public Future<HashMap<String, Action>> loadActions(String filename) {
+		final Task<SkeletonFile> file = loadSkeletonFile(filename);
+		return submit(new Callable<HashMap<String, Action>>() {
+			@Override
+			public HashMap<String, Action> call() throws Exception {
+				return result(file).actions;
+			}
+		}, file);
+	}
+
+	/**
+	 * Loads movements.
+	 *
+	 * @param filename
+	 *            The asset path of the movements.
+	 * @return The future movements, by name.
+	 */
+	public Future<HashMap<String, CurveMovement>> loadMovements(
+			final String filename) {
+		return submit(new Callable<HashMap<String, CurveMovement>>() {
+			@Override
+			public HashMap<String, CurveMovement> call() throws Exception {
+				return factory.getMovements(filename);
+			}
+		});
+	}
+
+	/**
+	 * Bakes a GameObject once its mesh, and skeleton if any, are loaded, as
+	 * {@link GameFactory#bakeGameObject()} does. The Material's programs are
+	 * then queued to be compiled on the GL thread.
+	 *
+	 * @param mesh
+	 *            The mesh, from {@link #loadMesh(String)}.
+	 * @param skeleton
+	 *            The skeleton, from {@link #loadSkeleton(String)}, or null.
+	 * @param material
+	 *            The Material of the GameObject, used by no other GameObject.
+	 * @return The future GameObject, which is a BonedObject if a skeleton was
+	 *         given and the mesh has bone weights.
+	 */
+	public Future<GameObject> bake(final Future<PreObjectData> mesh,
+			final Future<Skeleton> skeleton, final Material material) {
+		return submit(new Callable<GameObject>() {
+			@Override
+			public GameObject call() throws Exception {
+				final GameObject object = GameFactory.bake(result(mesh),
+						result(skeleton), material);
+				queueProgramLoad(material);
+				return object;
+			}
+		}, mesh, skeleton);
+	}
+
+	/**
+	 * Queues a Texture to start decoding on the GL thread, so that it is
+	 * uploaded before it is first drawn.
+	 *
+	 * @param texture
+	 *            The Texture to prefetch.
+	 */
+	public void prefetch(final Texture texture) {
+		runOnGLThread(new Runnable() {
+			@Override
+			public void run() {
+				texture.prefetch();
+			}
+		});
+	}
+
+	private static void queueProgramLoad(final Material material) {
+		runOnGLThread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i <= material.getMaxLights(); i++) {
+					final Program program = material.getProgram(i);
+					if (program != null) {
+						try {
+							program.load();
+						} catch (GLException e) {
+							// Reported again when the program is first used
+							Log.e(TAG, "Program could not be loaded.", e);
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Queues work to be done on the GL thread by {@link #update()}.
+	 */
+	public static void runOnGLThread(Runnable task) {
+		glTasks.add(task);
+	}
+
+	/**
+	 * Sets the time the GL thread may spend on queued work per frame. At
+	 * least one piece of work is done per frame, even if it takes longer.
+	 *
+	 * @param nanos
+	 *            The budget, in nanoseconds.
+	 */
+	public static void setGLBudget(long nanos) {
+		if (nanos < 0) {
+			throw new IllegalArgumentException("nanos < 0");
+		}
+		glBudget = nanos;
+	}
+
+	public static long getGLBudget() {
+		return glBudget;
+	}
+
+	/**
+	 * @return The number of pieces of work waiting for the GL thread.
+	 */
+	public static int getPendingGLTaskCount() {
+		return glTasks.size();
+	}
+
+	/**
+	 * Does queued GL work, within the budget. This is called by the
+	 * GameRenderer at the start of every frame.
+	 */
+	public static void update() {
+		final long end = System.nanoTime() + glBudget;
+		Runnable task;
+		while ((task = glTasks.poll()) != null) {
+			task.run();
+			if (System.nanoTime() >= end) {
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.parsers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+/**
+ * A read-only archive of Schooner 3D files, built by the
+ * <code>AssetPacker</code> tool. A pack is one file holding a table of
+ * contents, sorted by the hash of each name, and the uncompressed files, each
+ * aligned to 16 bytes. Packs are memory-mapped, so files are parsed straight
+ * from the mapping, without streams or intermediate copies.
+ *
+ * <p>
+ * The layout is described in <code>spec_pack.txt</code>. All values are
+ * big-endian, like the files it holds.
+ * </p>
+ */
+public class AssetPack {
+	/**
+	 * The magic number at the start of every pack, "S3DP".
+	 */
+	public static final int MAGIC = 0x53334450;
+	public static final int VERSION = 1;
+
+	/**
+	 * The alignment of the table of contents and every file, in bytes.
+	 */
+	public static final int ALIGNMENT = 16;
+
+	static final int HEADER_SIZE = 16;
+	static final int ENTRY_SIZE = 16;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer buffer;
+	private final int entryCount;
+	private final int namesOffset;
+
+	/**
+	 * Opens an asset as a pack. The asset must be stored uncompressed in the
+	 * APK, for example by giving it an extension that <code>aapt</code> does
+	 * not compress, or by listing its extension with <code>-0</code>.
+	 *
+	 * @param am
+	 *            The AssetManager to open the asset with.
+	 * @param path
+	 *            The asset path of the pack.
+	 * @return The memory-mapped pack.
+	 * @throws IOException
+	 *             If the asset cannot be mapped, because it does not exist or
+	 *             is compressed, or if it is not a valid pack.
+	 */
+	public static AssetPack open(AssetManager am, String path)
+			throws IOException {
+		final AssetFileDescriptor afd = am.openFd(path);
+		try {
+			final FileInputStream in = afd.createInputStream();
+			try {
+				return new AssetPack(in.getChannel().map(
+						FileChannel.MapMode.READ_ONLY, afd.getStartOffset(),
+						afd.getLength()));
+			} finally {
+				in.close();
+			}
+		} finally {
+			afd.close();
+		}
+	}
+
+	/**
+	 * Opens a file as a pack.
+	 *
+	 * @param file
+	 *            The pack file.
+	 * @return The memory-mapped pack.
+	 * @throws IOException
+	 *             If the file cannot be mapped, or is not a valid pack.
+	 */
+	public static AssetPack open(File file) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			return new AssetPack(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size()));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a pack from a buffer, from its position to its limit.
+	 *
+	 * @param buffer
+	 *            The buffer holding the pack. It is not copied.
+	 * @throws IOException
+	 *             If the buffer does not hold a valid pack.
+	 */
+	public AssetPack(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+		final int size = this.buffer.limit();
+		if (size < HEADER_SIZE || this.buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not an asset pack");
+		}
+		final int version = this.buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IOException("Unsupported asset pack version " + version);
+		}
+		entryCount = this.buffer.getInt(8);
+		namesOffset = this.buffer.getInt(12);
+		if (entryCount < 0
+				|| namesOffset < HEADER_SIZE + (long) entryCount * ENTRY_SIZE
+				|| namesOffset > size) {
+			throw new IOException("Corrupt asset pack table of contents");
+		}
+		for (int i = 0; i < entryCount; i++) {
+			final int offset = getDataOffset(i);
+			final int length = getDataLength(i);
+			if (offset < namesOffset || length < 0
+					|| (long) offset + length > size
+					|| getNameOffset(i) < 0
+					|| namesOffset + getNameOffset(i) >= size) {
+				throw new IOException("Corrupt asset pack entry " + i);
+			}
+		}
+	}
+
+	/**
+	 * Calculates the hash of a name, as stored in the table of contents. This
+	 * is the 32-bit FNV-1a hash of the name's UTF-8 bytes.
+	 */
+	public static int hash(String name) {
+		final byte[] bytes = name.getBytes(UTF_8);
+		int hash = 0x811C9DC5;
+		for (byte b : bytes) {
+			hash ^= b & 0xFF;
+			hash *= 0x01000193;
+		}
+		return hash;
+	}
+
+	/**
+	 * @param name
+	 *            The name of a file, as given to the packer.
+	 * @return A big-endian view of the file, shared with the mapping, or null
+	 *         if the pack does not have it.
+	 */
+	public ByteBuffer get(String name) {
+		final int index = indexOf(name);
+		if (index == -1) {
+			return null;
+		}
+		final ByteBuffer view = buffer.duplicate();
+		view.limit(getDataOffset(index) + getDataLength(index));
+		view.position(getDataOffset(index));
+		return view.slice().order(ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * @param name
+	 *            The name of a file, as given to the packer.
+	 * @return An InputStream of the file.
+	 * @throws FileNotFoundException
+	 *             If the pack does not have the file.
+	 */
+	public InputStream openStream(String name) throws FileNotFoundException {
+		final ByteBuffer data = get(name);
+		if (data == null) {
+			throw new FileNotFoundException(name + " is not in the asset pack");
+		}
+		return new ByteBufferInputStream(data);
+	}
+
+	public boolean contains(String name) {
+		return indexOf(name) != -1;
+	}
+
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * @return The name of the given entry. Entries are in hash order.
+	 */
+	public String getName(int index) {
+		final int start = namesOffset + getNameOffset(index);
+		int end = start;
+		while (end < buffer.limit() && buffer.get(end) != 0) {
+			end++;
+		}
+		final byte[] bytes = new byte[end - start];
+		final ByteBuffer view = buffer.duplicate();
+		view.position(start);
+		view.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Finds an entry by binary search on the hash, then compares names among
+	 * the entries with that hash.
+	 */
+	private int indexOf(String name) {
+		final int hash = hash(name);
+		int lo = 0, hi = entryCount - 1;
+		while (lo <= hi) {
+			final int mid = (lo + hi) >>> 1;
+			final int midHash = getHash(mid);
+			if (midHash < hash) {
+				lo = mid + 1;
+			} else if (midHash > hash) {
+				hi = mid - 1;
+			} else {
+				// Scan back to the first entry with this hash
+				int i = mid;
+				while (i > 0 && getHash(i - 1) == hash) {
+					i--;
+				}
+				for (; i < entryCount && getHash(i) == hash; i++) {
+					if (nameEquals(i, name)) {
+						return i;
+					}
+				}
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private boolean nameEquals(int index, String name) {
+		final byte[] bytes = name.getBytes(UTF_8);
+		final int start = namesOffset + getNameOffset(index);
+		if (start + bytes.length >= buffer.limit()) {
+			return false;
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			if (buffer.get(start + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return buffer.get(start + bytes.length) == 0;
+	}
+
+	private int getHash(int index) {
+		return buffer.getInt(HEADER_SIZE + index * ENTRY_SIZE);
+	}
+
+	private int getNameOffset(int index) {
+		return buffer.getInt(HEADER_SIZE + index * ENTRY_SIZE + 4);
+	}
+
+	private int getDataOffset(int index) {
+		return buffer.getInt(HEADER_SIZE + index * ENTRY_SIZE + 8);
+	}
+
+	private int getDataLength(int index) {
+		return buffer.getInt(HEADER_SIZE + index * ENTRY_SIZE + 12);
+	}
+
+	/**
+	 * Reads a ByteBuffer as a stream, for loaders that only take streams.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer data;
+
+		ByteBufferInputStream(ByteBuffer data) {
+			this.data = data;
+		}
+
+		@Override
+		public int read() {
+			return data.hasRemaining() ? data.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!data.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, data.remaining());
+			data.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return data.remaining();
+		}
+
+		@Override
+		public long skip(long n) {
+			final int count = (int) Math.max(0, Math.min(n, data.remaining()));
+			data.position(data.position() + count);
+			return count;
+		}
+	}
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.parsers;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+
+import com.supermercerbros.gameengine.util.LZ4;
+
+/**
+ * Reads Schooner 3D files stored in the compressed container written by the
+ * <code>AssetCompressor</code> tool. The container splits a file into blocks
+ * that are compressed with LZ4 independently, each with a CRC32 checksum, so
+ * they can be decoded in any order, and in parallel.
+ *
+ * <p>
+ * Streams are decoded one block at a time, as the parser reads them. Files
+ * with more than one block have the next blocks decoded ahead on the
+ * {@link AssetLoader}'s threads while the parser works on the current one.
+ * Files in an {@link AssetPack} are decoded all at once, with every block in
+ * parallel.
+ * </p>
+ *
+ * <p>
+ * Compressed files should be stored uncompressed in the APK, since they do not
+ * compress any further. The layout is described in
+ * <code>spec_compressed.txt</code>.
+ * </p>
+ */
+public class CompressedAsset {
+	/**
+	 * The magic number at the start of every container, "S3DZ".
+	 */
+	public static final int MAGIC = 0x5333445A;
+	public static final int VERSION = 1;
+
+	/**
+	 * The largest block size a container may have, in bytes.
+	 */
+	public static final int MAX_BLOCK_SIZE = 4 * 1024 * 1024;
+
+	static final int HEADER_SIZE = 16;
+	static final int BLOCK_HEADER_SIZE = 8;
+
+	/**
+	 * Set in a block's stored length if the block is stored uncompressed.
+	 */
+	private static final int RAW = 0x80000000;
+
+	/**
+	 * The most an LZ4 block can expand by. Only matches expand, and each byte
+	 * of a match length adds at most 255 bytes to the output.
+	 */
+	private static final int MAX_RATIO = 255;
+
+	private CompressedAsset() {
+	}
+
+	/**
+	 * @return true if the given buffer holds a compressed container, from its
+	 *         position.
+	 */
+	public static boolean isCompressed(ByteBuffer data) {
+		return data.remaining() >= HEADER_SIZE
+				&& data.duplicate().order(ByteOrder.BIG_ENDIAN)
+						.getInt(data.position()) == MAGIC;
+	}
+
+	/**
+	 * Opens a stream that decompresses the given stream if it holds a
+	 * compressed container, and otherwise passes it through.
+	 *
+	 * @param in
+	 *            The stream to read.
+	 * @return A stream of the uncompressed file.
+	 * @throws IOException
+	 *             If the stream cannot be read, or has a corrupt header.
+	 */
+	public static InputStream open(InputStream in) throws IOException {
+		final PushbackInputStream pushback = new PushbackInputStream(in,
+				HEADER_SIZE);
+		final byte[] header = new byte[HEADER_SIZE];
+		int count = 0;
+		while (count < HEADER_SIZE) {
+			final int read = pushback.read(header, count, HEADER_SIZE - count);
+			if (read < 0) {
+				break;
+			}
+			count += read;
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(header, 0, count);
+		if (!isCompressed(buffer)) {
+			pushback.unread(header, 0, count);
+			return pushback;
+		}
+		return new BlockInputStream(pushback, new Header(buffer));
+	}
+
+	/**
+	 * Decompresses a compressed container, decoding its blocks in parallel.
+	 *
+	 * @param data
+	 *            The container, from its position to its limit.
+	 * @return A big-endian buffer of the uncompressed file.
+	 * @throws IOException
+	 *             If the container is corrupt.
+	 */
+	public static ByteBuffer decode(ByteBuffer data) throws IOException {
+		final ByteBuffer in = data.slice().order(ByteOrder.BIG_ENDIAN);
+		final Header header = new Header(in);
+
+		// Walk the block table before allocating anything from the header, so
+		// that a corrupt length fails here rather than running out of memory.
+		// Every block has a header, so a container this size cannot hold more.
+		final int blockCount = header.blockCount;
+		if ((long) blockCount * BLOCK_HEADER_SIZE > in.limit() - HEADER_SIZE) {
+			throw new EOFException("Truncated compressed asset");
+		}
+		final int[] offsets = new int[blockCount];
+		int offset = HEADER_SIZE;
+		for (int i = 0; i < blockCount; i++) {
+			if (in.limit() - offset < BLOCK_HEADER_SIZE) {
+				throw new EOFException("Truncated compressed block " + i);
+			}
+			final int storedLength = header.checkStoredLength(i,
+					in.getInt(offset));
+			if (in.limit() - offset - BLOCK_HEADER_SIZE < storedLength) {
+				throw new EOFException("Truncated compressed block " + i);
+			}
+			offsets[i] = offset;
+			offset += BLOCK_HEADER_SIZE + storedLength;
+		}
+
+		// Every block is present, and checkStoredLength() has bounded the
+		// length each decodes to, so the sum of those, the length, is sane
+		final byte[] out = new byte[header.length];
+		final ArrayList<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>(
+				blockCount);
+		for (int i = 0; i < blockCount; i++) {
+			final int stored = in.getInt(offsets[i]);
+			final int checksum = in.getInt(offsets[i] + 4);
+			final int storedLength = stored & ~RAW;
+			final int start = offsets[i] + BLOCK_HEADER_SIZE;
+			final int outOffset = i * header.blockSize;
+			final int rawLength = header.getRawLength(i);
+			final int index = i;
+			tasks.add(new FutureTask<Void>(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					final ByteBuffer view = in.duplicate();
+					view.position(start);
+					if ((stored & RAW) != 0) {
+						view.get(out, outOffset, rawLength);
+						check(index, out, outOffset, rawLength, checksum);
+					} else {
+						final byte[] block = new byte[storedLength];
+						view.get(block);
+						check(index, block, 0, storedLength, checksum);
+						LZ4.decompress(block, 0, storedLength, out, outOffset,
+								rawLength);
+					}
+					return null;
+				}
+			}));
+		}
+
+		// This thread decodes the first block, and any the pool has not begun
+		for (int i = 1; i < tasks.size(); i++) {
+			AssetLoader.getPool().execute(tasks.get(i));
+		}
+		for (FutureTask<Void> task : tasks) {
+			await(task);
+		}
+		return ByteBuffer.wrap(out).order(ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Waits for a block to be decoded, decoding it on this thread if no other
+	 * thread has started it, so that a loader thread never waits on work
+	 * queued behind it.
+	 */
+	private static void await(FutureTask<Void> task) throws IOException {
+		task.run(); // Does nothing if the task has already started
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while decompressing");
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Could not decompress: " + cause);
+		}
+	}
+
+	private static void check(int index, byte[] data, int offset, int length,
+			int checksum) throws IOException {
+		final CRC32 crc = new CRC32();
+		crc.update(data, offset, length);
+		if ((int) crc.getValue() != checksum) {
+			throw new IOException("Compressed block " + index
+					+ " failed its checksum");
+		}
+	}
+
+	/**
+	 * The header of a container.
+	 */
+	private static class Header {
+		final int blockSize;
+		final int length;
+		final int blockCount;
+
+		Header(ByteBuffer data) throws IOException {
+			final int start = data.position();
+			if (data.getInt(start) != MAGIC) {
+				throw new IOException("Not a compressed asset");
+			}
+			final int version = data.getInt(start + 4);
+			if (version != VERSION) {
+				throw new IOException("Unsupported compressed asset version "
+						+ version);
+			}
+			blockSize = data.getInt(start + 8);
+			length = data.getInt(start + 12);
+			if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE || length < 0) {
+				throw new IOException("Corrupt compressed asset header");
+			}
+			blockCount = (int) (((long) length + blockSize - 1) / blockSize);
+		}
+
+		/**
+		 * @return The length of the given block once decoded.
+		 */
+		int getRawLength(int block) {
+			return Math.min(blockSize, length - block * blockSize);
+		}
+
+		/**
+		 * @return The number of bytes stored for the given block.
+		 */
+		int checkStoredLength(int block, int stored) throws IOException {
+			final int storedLength = stored & ~RAW;
+			final int rawLength = getRawLength(block);
+			if ((stored & RAW) != 0 ? storedLength != rawLength
+					: storedLength > LZ4.maxCompressedLength(rawLength)
+							|| (long) storedLength * MAX_RATIO < rawLength) {
+				throw new IOException("Corrupt compressed block " + block);
+			}
+			return storedLength;
+		}
+	}
+
+	/**
+	 * A block of a stream, read but possibly not yet decoded. Its arrays are
+	 * allocated when a block is first read into it, so a header that promises
+	 * more blocks than the stream holds does not allocate for them.
+	 */
+	private static class Block {
+		byte[] stored;
+		byte[] decoded;
+		FutureTask<Void> task;
+		int length;
+	}
+
+	/**
+	 * Decodes a container one block at a time, as it is read.
+	 */
+	private static class BlockInputStream extends InputStream {
+		private final InputStream in;
+		private final Header header;
+		// The blocks being decoded ahead, by block index modulo their count
+		private final Block[] blocks;
+
+		private int nextRead = 0;
+		private int current = -1;
+		private byte[] buffer;
+		private int position = 0;
+		private int limit = 0;
+
+		BlockInputStream(InputStream in, Header header) {
+			this.in = in;
+			this.header = header;
+			final int ahead = header.blockCount > 1 ? Math.min(Runtime
+					.getRuntime().availableProcessors(), header.blockCount - 1)
+					: 0;
+			final int count = Math.min(ahead + 1, Math.max(header.blockCount, 1));
+			blocks = new Block[count];
+			for (int i = 0; i < count; i++) {
+				blocks[i] = new Block();
+			}
+		}
+
+		/**
+		 * Moves on to the next block, reading and queueing the blocks after it.
+		 *
+		 * @return false if there are no more blocks.
+		 */
+		private boolean nextBlock() throws IOException {
+			if (current + 1 >= header.blockCount) {
+				return false;
+			}
+			current++;
+			final int ahead = blocks.length - 1;
+			while (nextRead < header.blockCount && nextRead <= current + ahead) {
+				final Block block = blocks[nextRead % blocks.length];
+				read(nextRead, block);
+				if (ahead > 0 && nextRead > current) {
+					AssetLoader.getPool().execute(block.task);
+				}
+				nextRead++;
+			}
+
+			final Block block = blocks[current % blocks.length];
+			await(block.task);
+			buffer = block.decoded;
+			position = 0;
+			limit = block.length;
+			return true;
+		}
+
+		/**
+		 * Reads a block from the stream and prepares the task that decodes it.
+		 */
+		private void read(final int index, final Block block)
+				throws IOException {
+			final byte[] blockHeader = new byte[BLOCK_HEADER_SIZE];
+			readFully(blockHeader, 0, BLOCK_HEADER_SIZE);
+			final ByteBuffer view = ByteBuffer.wrap(blockHeader);
+			final int stored = view.getInt(0);
+			final int checksum = view.getInt(4);
+			final int storedLength = header.checkStoredLength(index, stored);
+			final int rawLength = header.getRawLength(index);
+			final boolean raw = (stored & RAW) != 0;
+			if (block.decoded == null) {
+				block.stored = new byte[LZ4.maxCompressedLength(header.blockSize)];
+				block.decoded = new byte[header.blockSize];
+			}
+			readFully(raw ? block.decoded : block.stored, 0, storedLength);
+			block.length = rawLength;
+			block.task = new FutureTask<Void>(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					if (raw) {
+						check(index, block.decoded, 0, rawLength, checksum);
+					} else {
+						check(index, block.stored, 0, storedLength, checksum);
+						LZ4.decompress(block.stored, 0, storedLength,
+								block.decoded, 0, rawLength);
+					}
+					return null;
+				}
+			});
+		}
+
+		private void readFully(byte[] b, int offset, int length)
+				throws IOException {
+			while (length > 0) {
+				final int read = in.read(b, offset, length);
+				if (read < 0) {
+					throw new EOFException("Truncated compressed asset");
+				}
+				offset += read;
+				length -= read;
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (position == limit && !nextBlock()) {
+				return -1;
+			}
+			return buffer[position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (position == limit && !nextBlock()) {
+				return -1;
+			}
+			final int count = Math.min(length, limit - position);
+			System.arraycopy(buffer, position, b, offset, count);
+			position += count;
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return limit - position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -17,6 +17,8 @@
 package com.supermercerbros.gameengine.parsers;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 
 import android.content.Context;
@@ -24,6 +26,7 @@ import android.content.res.AssetManager;
 import android.content.res.Resources;
 import android.util.Log;
 
+import com.supermercerbros.gameengine.Schooner3D;
 import com.supermercerbros.gameengine.armature.Action;
 import com.supermercerbros.gameengine.armature.Skeleton;
 import com.supermercerbros.gameengine.engine.shaders.Material;
@@ -38,6 +41,7 @@ public class GameFactory {
 	private static final String TAG = GameFactory.class.getSimpleName();
 	private final AssetManager am;
 	private final Resources res;
+	private AssetPack pack;
 
 	private HashMap<String, Action> actions;
 	private PreObjectData data;
@@ -54,6 +58,41 @@ public class GameFactory {
 		this.res = context.getResources();
 	}
 
+	/**
+	 * Sets the AssetPack to load files from. Files that are not in the pack
+	 * are loaded from the assets.
+	 * 
+	 * @param pack
+	 *            The AssetPack, or null to only load from the assets.
+	 */
+	public void setAssetPack(AssetPack pack) {
+		this.pack = pack;
+	}
+
+	public AssetPack getAssetPack() {
+		return pack;
+	}
+
+	/**
+	 * @return The file with the given name from the AssetPack, or null if
+	 *         there is no pack or it does not have the file.
+	 */
+	private ByteBuffer fromPack(String fileName) throws IOException {
+		final ByteBuffer data = pack != null ? pack.get(fileName) : null;
+		if (data != null && CompressedAsset.isCompressed(data)) {
+			return CompressedAsset.decode(data);
+		}
+		return data;
+	}
+
+	/**
+	 * Opens an asset, decompressing it as it is read if it is a
+	 * {@link CompressedAsset}.
+	 */
+	private InputStream openAsset(String fileName) throws IOException {
+		return CompressedAsset.open(am.open(fileName));
+	}
+
 	protected void setActions(HashMap<String, Action> actions) {
 		this.actions = actions;
 	}
@@ -68,21 +107,124 @@ public class GameFactory {
 	 */
 	public HashMap<String, CurveMovement> getMovements(String fileName)
 			throws IOException {
-		return Sch3D.parseMovements(am.open(fileName));
+		final ByteBuffer packed = fromPack(fileName);
+		if (packed != null) {
+			return Sch3D.parseMovements(packed);
+		}
+		return Sch3D.parseMovements(openAsset(fileName));
 	}
 
+	/**
+	 * Opens a scene from the AssetPack, or from the assets. Mesh paths in the
+	 * scene are relative to its directory.
+	 * 
+	 * @param filename
+	 *            The asset path of the scene.
+	 * @return The scene, ready to {@link SceneFile#load load}.
+	 * @throws IOException
+	 *             If an error occurs opening or reading the file.
+	 */
+	public SceneFile openScene(String filename) throws IOException {
+		final ByteBuffer packed = fromPack(filename);
+		if (packed != null) {
+			return new SceneFile(packed, filename.substring(0,
+					filename.lastIndexOf('/') + 1));
+		}
+		return SceneFile.open(am, filename);
+	}
+
+	/**
+	 * Sets the mesh to bake, from an asset. Meshes are shared through the
+	 * {@link MeshCache}, so the file is only parsed the first time.
+	 * 
+	 * @param filename
+	 *            The asset path of the mesh.
+	 * @throws IOException
+	 *             If an error occurs opening or reading the file.
+	 */
 	public void setObjectData(String filename) throws IOException {
-		data = Sch3D.parseMesh(am.open(filename));
+		data = new PreObjectData(readMesh(filename));
 	}
 
+	/**
+	 * Sets the mesh to bake, from a raw resource. Meshes are shared through
+	 * the {@link MeshCache}, so the resource is only parsed the first time.
+	 * 
+	 * @param resId
+	 *            The resource identifier of the mesh.
+	 * @throws IOException
+	 *             If an error occurs opening or reading the resource.
+	 */
 	public void setObjectData(int resId) throws IOException {
-		data = Sch3D.parseMesh(res.openRawResource(resId));
+		data = new PreObjectData(readMesh(resId));
+	}
+
+	/**
+	 * @return The cached mesh from the given asset, parsed if needed.
+	 */
+	PreObjectData readMesh(String filename) throws IOException {
+		final String key = MeshCache.assetKey(filename);
+		PreObjectData mesh = MeshCache.get(key);
+		if (mesh == null) {
+			final ByteBuffer packed = fromPack(filename);
+			if (packed != null) {
+				mesh = MeshCache.put(key,
+						prepare(Sch3D.parseMesh(packed), filename));
+			} else {
+				mesh = MeshCache.put(key,
+						prepare(Sch3D.parseMesh(openAsset(filename)), filename));
+			}
+		}
+		return mesh;
+	}
+
+	/**
+	 * @return The cached mesh from the given raw resource, parsed if needed.
+	 */
+	PreObjectData readMesh(int resId) throws IOException {
+		final String key = MeshCache.resourceKey(resId);
+		PreObjectData mesh = MeshCache.get(key);
+		if (mesh == null) {
+			mesh = MeshCache.put(key, prepare(Sch3D.parseMesh(CompressedAsset
+					.open(res.openRawResource(resId))), key));
+		}
+		return mesh;
+	}
+
+	/**
+	 * Optimizes a newly parsed mesh, if {@link Schooner3D#optimizeMeshes} is
+	 * set.
+	 */
+	private static PreObjectData prepare(PreObjectData mesh, String name) {
+		return Schooner3D.optimizeMeshes ? MeshOptimizer.optimize(mesh, name)
+				: mesh;
+	}
+
+	/**
+	 * Parses a skeleton without changing the state of this GameFactory.
+	 * 
+	 * @param actions
+	 *            The map to put the skeleton's Actions in.
+	 */
+	Skeleton readSkeleton(String filename, HashMap<String, Action> actions)
+			throws IOException {
+		final ByteBuffer packed = fromPack(filename);
+		if (packed != null) {
+			return Sch3D.parseSkeleton(packed, "@a:" + filename, actions);
+		}
+		return Sch3D.parseSkeleton(openAsset(filename), "@a:" + filename,
+				actions);
 	}
 
 	public Skeleton setSkeleton(String filename) throws IOException {
 		if (filename != null) {
-			skeleton = Sch3D.parseSkeleton(this, am.open(filename), "@a:"
-					+ filename);
+			final ByteBuffer packed = fromPack(filename);
+			if (packed != null) {
+				skeleton = Sch3D.parseSkeleton(this, packed, "@a:" + filename);
+			} else {
+				skeleton = Sch3D.parseSkeleton(this, openAsset(filename), "@a:"
+						+ filename);
+			}
 		} else {
 			skeleton = null;
 		}
@@ -109,6 +251,15 @@ public class GameFactory {
 	 *         includes bone weights and indices.
 	 */
 	public GameObject bakeGameObject() {
+		return bake(data, skeleton, material);
+	}
+
+	/**
+	 * Bakes a GameObject, or a BonedObject if a skeleton is given and the mesh
+	 * has bone weights and indices.
+	 */
+	static GameObject bake(PreObjectData data, Skeleton skeleton,
+			Material material) {
 		if (skeleton != null && data.boneIndices != null) {
 			Log.i(TAG, "Baking BonedObject");
 			BonedObject object = new BonedObject(data, material, skeleton);
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.parsers;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+
+import com.supermercerbros.gameengine.engine.Normals;
+
+/**
+ * Caches parsed meshes by their source, so that a mesh used by many
+ * GameObjects is parsed, and has its normals calculated, only once. The
+ * GameObjects share the cached arrays, which must not be modified.
+ *
+ * <p>
+ * Meshes are held by soft references, so a mesh stays cached while memory
+ * allows, even after the GameObjects using it are gone, and is parsed again
+ * if it was collected.
+ * </p>
+ */
+public class MeshCache {
+
+	private static class Entry extends SoftReference<PreObjectData> {
+		final String key;
+
+		Entry(String key, PreObjectData mesh,
+				ReferenceQueue<PreObjectData> queue) {
+			super(mesh, queue);
+			this.key = key;
+		}
+	}
+
+	private static final HashMap<String, Entry> meshes = new HashMap<String, Entry>();
+	private static final ReferenceQueue<PreObjectData> queue = new ReferenceQueue<PreObjectData>();
+
+	// Statistics
+	private static int hits = 0;
+	private static int misses = 0;
+
+	private MeshCache() {
+	}
+
+	/**
+	 * @return The cache key of an asset, or of a file in an {@link AssetPack}.
+	 */
+	public static String assetKey(String path) {
+		return "@a:" + path;
+	}
+
+	/**
+	 * @return The cache key of a raw resource.
+	 */
+	public static String resourceKey(int id) {
+		return "@r:" + id;
+	}
+
+	/**
+	 * @param key
+	 *            The key of the mesh, from {@link #assetKey(String)} or
+	 *            {@link #resourceKey(int)}.
+	 * @return The cached mesh, or null if it is not cached.
+	 */
+	public static synchronized PreObjectData get(String key) {
+		expunge();
+		final Entry entry = meshes.get(key);
+		final PreObjectData mesh = entry != null ? entry.get() : null;
+		if (mesh != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return mesh;
+	}
+
+	/**
+	 * Caches a newly parsed mesh, calculating its normals if it does not have
+	 * them. If the mesh was cached by another thread in the meantime, that
+	 * mesh is kept instead.
+	 *
+	 * @param key
+	 *            The key of the mesh.
+	 * @param mesh
+	 *            The parsed mesh.
+	 * @return The cached mesh, which should be used instead of
+	 *         <code>mesh</code>.
+	 */
+	public static PreObjectData put(String key, PreObjectData mesh) {
+		// Calculate normals outside of the lock
+		if (mesh.normals == null) {
+			final float[] normals = new float[mesh.verts.length];
+			Normals.calculate(normals, mesh.verts, mesh.indices, mesh.doubles);
+			mesh = new PreObjectData(mesh.verts, mesh.indices, mesh.uvs,
+					mesh.doubles, mesh.boneIndices, mesh.boneWeights, normals,
+					mesh.vertexBlock, mesh.vertexLayout);
+		}
+
+		synchronized (MeshCache.class) {
+			expunge();
+			final Entry entry = meshes.get(key);
+			final PreObjectData cached = entry != null ? entry.get() : null;
+			if (cached != null) {
+				return cached;
+			}
+			meshes.put(key, new Entry(key, mesh, queue));
+			return mesh;
+		}
+	}
+
+	/**
+	 * Removes a mesh from the cache. GameObjects using it are not affected.
+	 */
+	public static synchronized void remove(String key) {
+		meshes.remove(key);
+	}
+
+	/**
+	 * Removes every mesh from the cache.
+	 */
+	public static synchronized void clear() {
+		meshes.clear();
+		expunge();
+	}
+
+	/**
+	 * @return The number of meshes in the cache, including any that have been
+	 *         collected but not yet removed.
+	 */
+	public static synchronized int size() {
+		expunge();
+		return meshes.size();
+	}
+
+	/**
+	 * @return The number of times a requested mesh was cached.
+	 */
+	public static synchronized int getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of times a requested mesh had to be parsed.
+	 */
+	public static synchronized int getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Removes the entries of meshes that have been collected.
+	 */
+	private static void expunge() {
+		Entry entry;
+		while ((entry = (Entry) queue.poll()) != null) {
+			if (meshes.get(entry.key) == entry) {
+				meshes.remove(entry.key);
+			}
+		}
+	}
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.parsers;
+
+import java.util.Arrays;
+
+import android.util.Log;
+
+/**
+ * Reorders meshes for the GPU. Triangles are reordered for the post-transform
+ * vertex cache, with Tom Forsyth's linear-speed algorithm, then vertices are
+ * renumbered in the order the triangles first use them, so that vertex fetches
+ * walk through the VBO. Every per-vertex array is remapped to match.
+ *
+ * <p>
+ * Cache efficiency is measured as the ACMR (average cache miss ratio): the
+ * number of vertices transformed per triangle with a FIFO cache, from 3 for no
+ * reuse down to about 0.5 for a regular grid.
+ * </p>
+ */
+public class MeshOptimizer {
+	private static final String TAG = "MeshOptimizer";
+
+	/**
+	 * The size of the LRU cache the triangle order is optimized for.
+	 */
+	public static final int CACHE_SIZE = 32;
+
+	/**
+	 * The size of the FIFO cache used to report the ACMR, which is typical of
+	 * mobile GPUs.
+	 */
+	public static final int ACMR_CACHE_SIZE = 16;
+
+	// Forsyth's scoring constants
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRI_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+	private static final int MAX_VALENCE = 32;
+
+	private static final float[] CACHE_SCORES = new float[CACHE_SIZE];
+	private static final float[] VALENCE_SCORES = new float[MAX_VALENCE + 1];
+	static {
+		for (int i = 0; i < CACHE_SIZE; i++) {
+			if (i < 3) {
+				// The last triangle's vertices score the same, so that the
+				// order it was added in does not matter
+				CACHE_SCORES[i] = LAST_TRI_SCORE;
+			} else {
+				final float scaler = 1.0f / (CACHE_SIZE - 3);
+				CACHE_SCORES[i] = (float) Math.pow(1.0f - (i - 3) * scaler,
+						CACHE_DECAY_POWER);
+			}
+		}
+		for (int i = 1; i <= MAX_VALENCE; i++) {
+			// Favor vertices with few triangles left, to finish them off
+			VALENCE_SCORES[i] = VALENCE_BOOST_SCALE
+					* (float) Math.pow(i, -VALENCE_BOOST_POWER);
+		}
+	}
+
+	private MeshOptimizer() {
+	}
+
+	/**
+	 * Optimizes a mesh and logs its ACMR before and after.
+	 *
+	 * @param mesh
+	 *            The mesh to optimize. It is not modified.
+	 * @param name
+	 *            The name of the mesh, for the log.
+	 * @return The optimized mesh.
+	 */
+	public static PreObjectData optimize(PreObjectData mesh, String name) {
+		final int vertCount = mesh.verts.length / 3;
+		final float before = getACMR(mesh.indices, vertCount, ACMR_CACHE_SIZE);
+		final long start = System.nanoTime();
+		final PreObjectData optimized = optimize(mesh);
+		final long time = System.nanoTime() - start;
+		final float after = getACMR(optimized.indices, vertCount,
+				ACMR_CACHE_SIZE);
+		Log.i(TAG, name + ": ACMR " + before + " -> " + after + " ("
+				+ (mesh.indices.length / 3) + " triangles, " + (time / 1000000)
+				+ " ms)");
+		return optimized;
+	}
+
+	/**
+	 * Reorders a mesh's triangles for the vertex cache, and its vertices for
+	 * fetch locality.
+	 *
+	 * @param mesh
+	 *            The mesh to optimize. It is not modified.
+	 * @return The optimized mesh, with every per-vertex array remapped.
+	 */
+	public static PreObjectData optimize(PreObjectData mesh) {
+		final int vertCount = mesh.verts.length / 3;
+		final short[] indices = reorderTriangles(mesh.indices, vertCount);
+		final int[] remap = reorderVertices(indices, vertCount);
+
+		final float[] verts = remap(mesh.verts, remap, 3);
+		final float[] uvs = remap(mesh.uvs, remap, 2);
+		final float[] normals = remap(mesh.normals, remap, 3);
+		final float[] vertexBlock = mesh.vertexBlock != null ? remap(
+				mesh.vertexBlock, remap, mesh.vertexBlock.length / vertCount)
+				: null;
+
+		byte[][] boneIndices = null;
+		float[][] boneWeights = null;
+		if (mesh.boneIndices != null) {
+			boneIndices = new byte[vertCount][];
+			boneWeights = new float[vertCount][];
+			for (int i = 0; i < vertCount; i++) {
+				boneIndices[remap[i]] = mesh.boneIndices[i];
+				boneWeights[remap[i]] = mesh.boneWeights[i];
+			}
+		}
+
+		short[][] doubles = null;
+		if (mesh.doubles != null) {
+			// Keep the pairs ordered, as Sch3D makes them
+			final int pairCount = mesh.doubles[0].length;
+			final long[] pairs = new long[pairCount];
+			for (int i = 0; i < pairCount; i++) {
+				final int a = remap[mesh.doubles[0][i] & 0x0000FFFF];
+				final int b = remap[mesh.doubles[1][i] & 0x0000FFFF];
+				pairs[i] = (long) Math.min(a, b) << 16 | Math.max(a, b);
+			}
+			Arrays.sort(pairs);
+			doubles = new short[2][pairCount];
+			for (int i = 0; i < pairCount; i++) {
+				doubles[0][i] = (short) (pairs[i] >>> 16);
+				doubles[1][i] = (short) pairs[i];
+			}
+		}
+
+		final PreObjectData optimized = new PreObjectData(verts, indices, uvs,
+				doubles, boneIndices, boneWeights, normals, vertexBlock,
+				mesh.vertexLayout);
+		optimized.parent = mesh.parent;
+		optimized.matrix = mesh.matrix;
+		return optimized;
+	}
+
+	/**
+	 * Calculates the average cache miss ratio of a triangle list.
+	 *
+	 * @param indices
+	 *            The triangle indices.
+	 * @param vertCount
+	 *            The number of vertices.
+	 * @param cacheSize
+	 *            The number of entries in the simulated FIFO cache.
+	 * @return The number of cache misses per triangle.
+	 */
+	public static float getACMR(short[] indices, int vertCount, int cacheSize) {
+		if (indices.length < 3) {
+			return 0;
+		}
+		// A vertex is cached if it was added within the last cacheSize misses
+		final int[] addedAt = new int[vertCount];
+		Arrays.fill(addedAt, Integer.MIN_VALUE);
+		int misses = 0;
+		for (short index : indices) {
+			final int v = index & 0x0000FFFF;
+			if (addedAt[v] < misses - cacheSize) {
+				addedAt[v] = misses++;
+			}
+		}
+		return misses / (float) (indices.length / 3);
+	}
+
+	/**
+	 * Reorders triangles for the vertex cache with Forsyth's algorithm: the
+	 * next triangle is the one whose vertices score highest, by how recently
+	 * they were used and how few triangles they have left. When no cached
+	 * vertex has triangles left, the next triangle in the input order is
+	 * taken, from a cursor that only moves forward, so the whole reorder stays
+	 * linear.
+	 *
+	 * @param indices
+	 *            The triangle indices. They are not modified.
+	 * @param vertCount
+	 *            The number of vertices.
+	 * @return The reordered triangle indices.
+	 */
+	public static short[] reorderTriangles(short[] indices, int vertCount) {
+		final int triCount = indices.length / 3;
+
+		// The triangles that use each vertex, and are not yet added
+		final int[] activeCount = new int[vertCount];
+		for (short index : indices) {
+			activeCount[index & 0x0000FFFF]++;
+		}
+		final int[] offsets = new int[vertCount + 1];
+		for (int v = 0; v < vertCount; v++) {
+			offsets[v + 1] = offsets[v] + activeCount[v];
+		}
+		final int[] triList = new int[indices.length];
+		final int[] fill = new int[vertCount];
+		for (int i = 0; i < triCount * 3; i++) {
+			final int v = indices[i] & 0x0000FFFF;
+			triList[offsets[v] + fill[v]++] = i / 3;
+		}
+
+		final int[] cachePos = new int[vertCount];
+		Arrays.fill(cachePos, -1);
+		final float[] vertScores = new float[vertCount];
+		for (int v = 0; v < vertCount; v++) {
+			vertScores[v] = score(-1, activeCount[v]);
+		}
+
+		final boolean[] added = new boolean[triCount];
+		int[] cache = new int[CACHE_SIZE + 3];
+		int[] newCache = new int[CACHE_SIZE + 3];
+		int cacheCount = 0;
+
+		final short[] out = new short[triCount * 3];
+		int bestTri = -1;
+		int firstUnadded = 0;
+		for (int n = 0; n < triCount; n++) {
+			if (bestTri == -1) {
+				// Nothing in the cache has triangles left, so start over at the
+				// first remaining triangle
+				while (added[firstUnadded]) {
+					firstUnadded++;
+				}
+				bestTri = firstUnadded;
+			}
+
+			// Add the triangle
+			added[bestTri] = true;
+			int newCount = 0;
+			for (int i = 0; i < 3; i++) {
+				final short index = indices[bestTri * 3 + i];
+				out[n * 3 + i] = index;
+				final int v = index & 0x0000FFFF;
+
+				final int start = offsets[v];
+				final int last = start + --activeCount[v];
+				for (int j = start; j <= last; j++) {
+					if (triList[j] == bestTri) {
+						triList[j] = triList[last];
+						triList[last] = bestTri;
+						break;
+					}
+				}
+
+				if (newCount == 0 || (newCache[0] != v
+						&& (newCount == 1 || newCache[1] != v))) {
+					newCache[newCount++] = v;
+				}
+			}
+
+			// Move the triangle's vertices to the front of the cache
+			for (int i = 0; i < cacheCount; i++) {
+				final int v = cache[i];
+				if (v != newCache[0] && (newCount < 2 || v != newCache[1])
+						&& (newCount < 3 || v != newCache[2])) {
+					newCache[newCount++] = v;
+				}
+			}
+
+			// Rescore the cached vertices and their triangles
+			for (int i = 0; i < newCount; i++) {
+				final int v = newCache[i];
+				cachePos[v] = i < CACHE_SIZE ? i : -1;
+				vertScores[v] = score(cachePos[v], activeCount[v]);
+			}
+			bestTri = -1;
+			float bestScore = -1;
+			for (int i = 0; i < newCount; i++) {
+				final int v = newCache[i];
+				final int start = offsets[v];
+				final int end = start + activeCount[v];
+				for (int j = start; j < end; j++) {
+					final int t = triList[j];
+					final float score = vertScores[indices[t * 3] & 0x0000FFFF]
+							+ vertScores[indices[t * 3 + 1] & 0x0000FFFF]
+							+ vertScores[indices[t * 3 + 2] & 0x0000FFFF];
+					if (score > bestScore) {
+						bestScore = score;
+						bestTri = t;
+					}
+				}
+			}
+
+			final int[] swap = cache;
+			cache = newCache;
+			newCache = swap;
+			cacheCount = Math.min(newCount, CACHE_SIZE);
+		}
+		return out;
+	}
+
+	private static float score(int cachePos, int activeCount) {
+		if (activeCount == 0) {
+			return -1; // Never needed again
+		}
+		final float cacheScore = cachePos >= 0 ? CACHE_SCORES[cachePos] : 0;
+		return cacheScore + VALENCE_SCORES[Math.min(activeCount, MAX_VALENCE)];
+	}
+
+	/**
+	 * Renumbers vertices in the order the triangles first use them. Unused
+	 * vertices go last, in their original order.
+	 *
+	 * @param indices
+	 *            The triangle indices, which are rewritten with the new
+	 *            numbers.
+	 * @param vertCount
+	 *            The number of vertices.
+	 * @return The new number of each vertex, by old number.
+	 */
+	public static int[] reorderVertices(short[] indices, int vertCount) {
+		final int[] remap = new int[vertCount];
+		Arrays.fill(remap, -1);
+		int next = 0;
+		for (int i = 0; i < indices.length; i++) {
+			final int v = indices[i] & 0x0000FFFF;
+			if (remap[v] == -1) {
+				remap[v] = next++;
+			}
+			indices[i] = (short) remap[v];
+		}
+		for (int v = 0; v < vertCount; v++) {
+			if (remap[v] == -1) {
+				remap[v] = next++;
+			}
+		}
+		return remap;
+	}
+
+	/**
+	 * @return A copy of the given per-vertex array, with the vertices moved to
+	 *         their new numbers, or null if the array is null.
+	 */
+	private static float[] remap(float[] data, int[] remap, int size) {
+		if (data == null) {
+			return null;
+		}
+		final float[] out = new float[data.length];
+		for (int v = 0; v < remap.length; v++) {
+			System.arraycopy(data, v * size, out, remap[v] * size, size);
+		}
+		return out;
+	}
+}
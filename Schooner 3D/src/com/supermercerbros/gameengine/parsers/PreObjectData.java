@@ -29,17 +29,48 @@ public class PreObjectData {
 	
 	public final byte[][] boneIndices;
 	public final float[][] boneWeights;
+	
+	/**
+	 * Normals precomputed by the exporter, or null if they must be calculated.
+	 */
+	public final float[] normals;
+	/**
+	 * Vertex data interleaved by the exporter in {@link #vertexLayout}, or
+	 * null.
+	 */
+	public final float[] vertexBlock;
+	public final String vertexLayout;
 	public GameObject parent;
 	
 	public float[] matrix;
 	
+	/**
+	 * Creates PreObjectData that shares the geometry of the given
+	 * PreObjectData, without its parent or matrix.
+	 */
+	public PreObjectData(PreObjectData mesh) {
+		this(mesh.verts, mesh.indices, mesh.uvs, mesh.doubles,
+				mesh.boneIndices, mesh.boneWeights, mesh.normals,
+				mesh.vertexBlock, mesh.vertexLayout);
+	}
+	
 	public PreObjectData(float[] verts, short[] indices, float[] uvs,
 			short[][] doubles, byte[][] boneIndices, float[][] boneWeights) {
+		this(verts, indices, uvs, doubles, boneIndices, boneWeights, null,
+				null, null);
+	}
+	
+	public PreObjectData(float[] verts, short[] indices, float[] uvs,
+			short[][] doubles, byte[][] boneIndices, float[][] boneWeights,
+			float[] normals, float[] vertexBlock, String vertexLayout) {
 		this.verts = verts;
 		this.doubles = doubles;
 		this.indices = indices;
 		this.uvs = uvs;
 		this.boneIndices = boneIndices;
 		this.boneWeights = boneWeights;
+		this.normals = normals;
+		this.vertexBlock = vertexBlock;
+		this.vertexLayout = vertexLayout;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.parsers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import com.supermercerbros.gameengine.collision.SphereBounds;
+import com.supermercerbros.gameengine.engine.shaders.Material;
+import com.supermercerbros.gameengine.objects.GameObject;
+
+/**
+ * A binary scene, exported from Blender, that places the GameObjects of a
+ * level: the mesh and Material of each, its model matrix, visibility, static
+ * and collider flags, bounding sphere, and the object it is an instance of.
+ * Objects are stored as fixed-size records, so scene files are
+ * memory-mapped and read in place.
+ *
+ * <p>
+ * {@link #load(GameFactory, MaterialFactory)} creates the whole scene in one
+ * pass. Each mesh is parsed once, through the {@link MeshCache}, with the
+ * meshes parsed in parallel on the {@link AssetLoader}'s threads. A Scene can
+ * then add the objects in its <code>loadObjects()</code>:
+ * </p>
+ *
+ * <pre>
+ * engine.addAllObjects(Arrays.asList(factory.openScene(&quot;level1.sch3Dscene&quot;)
+ * 		.load(factory, materials)));
+ * </pre>
+ *
+ * <p>
+ * The layout is described in <code>spec_scene.txt</code>. All values are
+ * big-endian.
+ * </p>
+ */
+public class SceneFile {
+	/**
+	 * The magic number at the start of every scene, "S3DS".
+	 */
+	public static final int MAGIC = 0x53334453;
+	public static final int VERSION = 1;
+
+	public static final int FLAG_VISIBLE = 0x01;
+	public static final int FLAG_STATIC = 0x02;
+	public static final int FLAG_COLLIDER = 0x04;
+
+	static final int HEADER_SIZE = 32;
+	static final int RECORD_SIZE = 96;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Creates the Materials of a scene's objects.
+	 */
+	public interface MaterialFactory {
+		/**
+		 * Creates a Material for an object. This is called once per object,
+		 * since GameObjects do not share Materials.
+		 *
+		 * @param name
+		 *            The name of the Material in the scene.
+		 * @return A new Material.
+		 */
+		public Material newMaterial(String name);
+	}
+
+	private final ByteBuffer buffer;
+	private final String basePath;
+	private final int meshCount;
+	private final int materialCount;
+	private final int objectCount;
+	private final int objectsOffset;
+	private final int stringsOffset;
+
+	/**
+	 * Opens an asset as a scene. The asset is memory-mapped if it is stored
+	 * uncompressed in the APK, and read into memory otherwise. Mesh paths are
+	 * relative to the directory of the scene.
+	 *
+	 * @param am
+	 *            The AssetManager to open the asset with.
+	 * @param path
+	 *            The asset path of the scene.
+	 * @return The scene.
+	 * @throws IOException
+	 *             If the asset cannot be read, or is not a valid scene.
+	 */
+	public static SceneFile open(AssetManager am, String path)
+			throws IOException {
+		final String basePath = path.substring(0, path.lastIndexOf('/') + 1);
+		final AssetFileDescriptor afd;
+		try {
+			afd = am.openFd(path);
+		} catch (IOException e) {
+			// Compressed in the APK, so it cannot be mapped
+			return new SceneFile(readFully(CompressedAsset.open(am.open(path))),
+					basePath);
+		}
+		try {
+			final FileInputStream in = afd.createInputStream();
+			try {
+				return new SceneFile(in.getChannel().map(
+						FileChannel.MapMode.READ_ONLY, afd.getStartOffset(),
+						afd.getLength()), basePath);
+			} finally {
+				in.close();
+			}
+		} finally {
+			afd.close();
+		}
+	}
+
+	/**
+	 * Opens a file as a scene. Mesh paths are relative to the given base path.
+	 *
+	 * @param file
+	 *            The scene file.
+	 * @param basePath
+	 *            The prefix of the scene's mesh paths, such as an asset
+	 *            directory ending with <code>/</code>.
+	 * @return The memory-mapped scene.
+	 * @throws IOException
+	 *             If the file cannot be mapped, or is not a valid scene.
+	 */
+	public static SceneFile open(File file, String basePath) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			return new SceneFile(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size()), basePath);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static ByteBuffer readFully(InputStream in) throws IOException {
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(
+					Math.max(in.available(), 4096));
+			final byte[] chunk = new byte[8192];
+			int read;
+			while ((read = in.read(chunk)) >= 0) {
+				out.write(chunk, 0, read);
+			}
+			return ByteBuffer.wrap(out.toByteArray());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a scene from a buffer, from its position to its limit.
+	 *
+	 * @param buffer
+	 *            The buffer holding the scene. It is not copied.
+	 * @param basePath
+	 *            The prefix of the scene's mesh paths.
+	 * @throws IOException
+	 *             If the buffer does not hold a valid scene.
+	 */
+	public SceneFile(ByteBuffer buffer, String basePath) throws IOException {
+		this.buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+		this.basePath = basePath;
+		final int size = this.buffer.limit();
+		if (size < HEADER_SIZE || this.buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a scene");
+		}
+		final int version = this.buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IOException("Unsupported scene version " + version);
+		}
+		meshCount = this.buffer.getInt(8);
+		materialCount = this.buffer.getInt(12);
+		objectCount = this.buffer.getInt(16);
+		objectsOffset = this.buffer.getInt(20);
+		stringsOffset = this.buffer.getInt(24);
+		if (meshCount < 0 || materialCount < 0 || objectCount < 0
+				|| objectsOffset % 16 != 0
+				|| objectsOffset < HEADER_SIZE + 4L * (meshCount + materialCount)
+				|| stringsOffset < objectsOffset + (long) objectCount * RECORD_SIZE
+				|| stringsOffset > size) {
+			throw new IOException("Corrupt scene header");
+		}
+		for (int i = 0; i < meshCount; i++) {
+			checkString(getInt(HEADER_SIZE + i * 4));
+		}
+		for (int i = 0; i < materialCount; i++) {
+			checkString(getInt(HEADER_SIZE + (meshCount + i) * 4));
+		}
+		for (int i = 0; i < objectCount; i++) {
+			final int mesh = getMesh(i);
+			final int material = getMaterial(i);
+			final int parent = getParent(i);
+			if (mesh < 0 || mesh >= meshCount || material < 0
+					|| material >= materialCount || parent < -1 || parent >= i) {
+				throw new IOException("Corrupt scene object " + i);
+			}
+		}
+	}
+
+	private int getInt(int offset) {
+		return buffer.getInt(offset);
+	}
+
+	private void checkString(int offset) throws IOException {
+		if (offset < 0 || stringsOffset + (long) offset >= buffer.limit()) {
+			throw new IOException("Corrupt scene string table");
+		}
+	}
+
+	private String getString(int offset) {
+		final int start = stringsOffset + offset;
+		int end = start;
+		while (end < buffer.limit() && buffer.get(end) != 0) {
+			end++;
+		}
+		final byte[] bytes = new byte[end - start];
+		final ByteBuffer view = buffer.duplicate();
+		view.position(start);
+		view.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	public int getMeshCount() {
+		return meshCount;
+	}
+
+	/**
+	 * @return The path of the given mesh, relative to the scene.
+	 */
+	public String getMeshPath(int mesh) {
+		return getString(getInt(HEADER_SIZE + mesh * 4));
+	}
+
+	public int getMaterialCount() {
+		return materialCount;
+	}
+
+	public String getMaterialName(int material) {
+		return getString(getInt(HEADER_SIZE + (meshCount + material) * 4));
+	}
+
+	public int getObjectCount() {
+		return objectCount;
+	}
+
+	private int record(int object) {
+		return objectsOffset + object * RECORD_SIZE;
+	}
+
+	/**
+	 * @return The index of the given object's mesh.
+	 */
+	public int getMesh(int object) {
+		return getInt(record(object));
+	}
+
+	/**
+	 * @return The index of the given object's Material.
+	 */
+	public int getMaterial(int object) {
+		return getInt(record(object) + 4);
+	}
+
+	/**
+	 * @return The index of the object that the given object is an instance
+	 *         of, which is always an earlier object, or -1.
+	 */
+	public int getParent(int object) {
+		return getInt(record(object) + 8);
+	}
+
+	/**
+	 * @return The flags of the given object: {@link #FLAG_VISIBLE},
+	 *         {@link #FLAG_STATIC}, and {@link #FLAG_COLLIDER}.
+	 */
+	public int getFlags(int object) {
+		return getInt(record(object) + 12);
+	}
+
+	/**
+	 * Reads the model matrix of an object, in column-major order.
+	 */
+	public void getMatrix(int object, float[] matrix, int offset) {
+		getFloats(record(object) + 16, matrix, offset, 16);
+	}
+
+	/**
+	 * Reads the object-space bounding sphere of an object, as
+	 * <code>{ x, y, z, radius }</code>.
+	 */
+	public void getBoundingSphere(int object, float[] sphere, int offset) {
+		getFloats(record(object) + 80, sphere, offset, 4);
+	}
+
+	private void getFloats(int byteOffset, float[] out, int offset, int count) {
+		final FloatBuffer floats = buffer.asFloatBuffer();
+		floats.position(byteOffset / 4);
+		floats.get(out, offset, count);
+	}
+
+	/**
+	 * Creates every object in the scene.
+	 *
+	 * @param factory
+	 *            The GameFactory to read meshes with, from its assets or
+	 *            {@link AssetPack}.
+	 * @param materials
+	 *            The MaterialFactory to create the objects' Materials with.
+	 * @return The objects, in the order they are stored.
+	 * @throws IOException
+	 *             If a mesh cannot be read.
+	 */
+	public GameObject[] load(final GameFactory factory,
+			MaterialFactory materials) throws IOException {
+		// Parse every mesh that is not only used by instances, in parallel
+		final boolean[] used = new boolean[meshCount];
+		for (int i = 0; i < objectCount; i++) {
+			if (getParent(i) == -1) {
+				used[getMesh(i)] = true;
+			}
+		}
+		final ArrayList<FutureTask<PreObjectData>> meshes = new ArrayList<FutureTask<PreObjectData>>(
+				meshCount);
+		for (int i = 0; i < meshCount; i++) {
+			if (!used[i]) {
+				meshes.add(null);
+				continue;
+			}
+			final String path = basePath + getMeshPath(i);
+			final FutureTask<PreObjectData> mesh = new FutureTask<PreObjectData>(
+					new Callable<PreObjectData>() {
+						@Override
+						public PreObjectData call() throws IOException {
+							return factory.readMesh(path);
+						}
+					});
+			meshes.add(mesh);
+			AssetLoader.getPool().execute(mesh);
+		}
+
+		final GameObject[] objects = new GameObject[objectCount];
+		final float[] sphere = new float[4];
+		final FloatBuffer floats = buffer.asFloatBuffer();
+		for (int i = 0; i < objectCount; i++) {
+			final int record = record(i);
+			final int parent = getInt(record + 8);
+			final int flags = getInt(record + 12);
+			final Material material = materials
+					.newMaterial(getMaterialName(getInt(record + 4)));
+
+			final GameObject object;
+			floats.position((record + 16) / 4);
+			if (parent == -1) {
+				final PreObjectData data = new PreObjectData(
+						await(meshes.get(getInt(record))));
+				data.matrix = new float[16];
+				floats.get(data.matrix);
+				object = new GameObject(data, material);
+				material.makeProgram();
+			} else {
+				object = objects[parent].instance(material);
+				floats.get(object.modelMatrix);
+			}
+
+			floats.get(sphere);
+			object.setBoundingSphere(sphere[0], sphere[1], sphere[2],
+					sphere[3]);
+			if ((flags & FLAG_COLLIDER) != 0) {
+				object.setBounds(new SphereBounds(sphere[3], sphere[0],
+						sphere[1], sphere[2]));
+			}
+			object.setVisible((flags & FLAG_VISIBLE) != 0);
+			object.setStatic((flags & FLAG_STATIC) != 0);
+			objects[i] = object;
+		}
+		return objects;
+	}
+
+	/**
+	 * Waits for a mesh, parsing it on this thread if no other thread has
+	 * started it, so that loading a scene from a loader thread cannot wait on
+	 * work queued behind it.
+	 */
+	private static PreObjectData await(FutureTask<PreObjectData> mesh)
+			throws IOException {
+		mesh.run(); // Does nothing if the task has already started
+		try {
+			return mesh.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading the scene");
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Could not load a mesh: " + cause);
+		}
+	}
+}
@@ -18,21 +18,21 @@ package com.supermercerbros.gameengine.parsers;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 
-import android.util.Log;
-import android.util.SparseArray;
-
+import com.supermercerbros.gameengine.Schooner3D;
 import com.supermercerbros.gameengine.armature.Action;
 import com.supermercerbros.gameengine.armature.Bone;
 import com.supermercerbros.gameengine.armature.Skeleton;
-import com.supermercerbros.gameengine.math.BezierCurve;
+import com.supermercerbros.gameengine.engine.Welds;
+import com.supermercerbros.gameengine.engine.shaders.Material;
 import com.supermercerbros.gameengine.math.Curve;
+import com.supermercerbros.gameengine.math.PackedClip;
 import com.supermercerbros.gameengine.motion.CurveMovement;
-import com.supermercerbros.gameengine.util.BetterDataInputStream;
+import com.supermercerbros.gameengine.util.BufferedDataReader;
 import com.supermercerbros.gameengine.util.Utils;
 
 /**
@@ -40,12 +40,22 @@ import com.supermercerbros.gameengine.util.Utils;
  * sch3Dmovements, sch3Darmature).
  */
 public class Sch3D {
-	private static final String TAG = Sch3D.class.getSimpleName();
-	
 	public static PreObjectData parseMesh(InputStream is)
 			throws IOException {
-		BetterDataInputStream data = new BetterDataInputStream(is);
-		
+		return parseMesh(new BufferedDataReader(is));
+	}
+	
+	/**
+	 * Parses a mesh straight from a buffer, such as a file in an
+	 * {@link AssetPack}.
+	 */
+	public static PreObjectData parseMesh(ByteBuffer buffer)
+			throws IOException {
+		return parseMesh(new BufferedDataReader(buffer));
+	}
+	
+	private static PreObjectData parseMesh(final BufferedDataReader data)
+			throws IOException {
 		final int version = data.readInt();
 		if (version == 1) {
 			final byte flags = data.readByte();
@@ -54,7 +64,7 @@ public class Sch3D {
 			final boolean armatureIndexed = Utils.checkBit(flags, 2);
 			
 			final int faceCount = data.readShort() & 0x0000FFFF;
-			final short vertCount = data.readShort();
+			final int vertCount = data.readShort() & 0x0000FFFF;
 			
 			final short[] indices;
 			if (tris) {
@@ -91,66 +101,10 @@ public class Sch3D {
 			final short[][] doubles;
 			final float[] uvs;
 			if (textured) {
-				final short sharpCount = data.readShort();
-				if (sharpCount > 0) {
-					final short[] sharpVerts = new short[sharpCount];
-					data.readShortArray(sharpVerts, 0, sharpCount);
-					
-					final LinkedList<Short> doublesList = new LinkedList<Short>();
-					
-					int sharpArrayIndex1 = 0;
-					for (short v1 = 0; v1 < vertCount - 1; v1++) {
-						if (sharpArrayIndex1 < sharpCount && sharpVerts[sharpArrayIndex1] == v1) {
-							sharpArrayIndex1++;
-							continue;
-						}
-						
-						int sharpArrayIndex2 = sharpArrayIndex1;
-						for (short v2 = (short) (v1 + 1); v2 < vertCount; v2++) {
-							if (sharpArrayIndex2 < sharpCount && sharpVerts[sharpArrayIndex2] == v2) {
-								sharpArrayIndex2++;
-								continue;
-							}
-							
-							final boolean coincident = 
-									verts[v1 * 3 + 0] == verts[v2 * 3 + 0] &&
-									verts[v1 * 3 + 1] == verts[v2 * 3 + 1] &&
-									verts[v1 * 3 + 2] == verts[v2 * 3 + 2];
-							if (coincident) {
-								doublesList.add(v1);
-								doublesList.add(v2);
-							}
-						}
-					}
-					
-					int pairCount = doublesList.size() / 2;
-					doubles = new short[2][pairCount];
-					for (int i = 0; i < pairCount; i++) {
-						doubles[0][i] = doublesList.get(i * 2);
-						doubles[1][i] = doublesList.get(i * 2 + 1);
-					}
-				} else {
-					final LinkedList<Short> doublesList = new LinkedList<Short>();
-					for (short v1 = 0; v1 < vertCount - 1; v1++) {
-						for (short v2 = (short) (v1 + 1); v2 < vertCount; v2++) {
-							final boolean coincident = 
-									verts[v1 * 3 + 0] == verts[v2 * 3 + 0] &&
-									verts[v1 * 3 + 1] == verts[v2 * 3 + 1] &&
-									verts[v1 * 3 + 2] == verts[v2 * 3 + 2];
-							if (coincident) {
-								doublesList.add(v1);
-								doublesList.add(v2);
-							}
-						}
-					}
-					
-					int pairCount = doublesList.size() / 2;
-					doubles = new short[2][pairCount];
-					for (int i = 0; i < pairCount; i++) {
-						doubles[0][i] = doublesList.get(i * 2);
-						doubles[1][i] = doublesList.get(i * 2 + 1);
-					}
-				}
+				final int sharpCount = data.readShort() & 0x0000FFFF;
+				final short[] sharpVerts = new short[sharpCount];
+				data.readShortArray(sharpVerts, 0, sharpCount);
+				doubles = Welds.find(verts, vertCount, sharpVerts);
 				uvs = new float[vertCount * 2];
 				data.readFloatArray(uvs, 0, vertCount * 2);
 			} else {
@@ -178,15 +132,194 @@ public class Sch3D {
 			data.close();
 			return new PreObjectData(verts, indices, uvs, doubles,
 					boneIndices, boneWeights);
+		} else if (version == 2) {
+			try {
+				return parseMeshV2(data);
+			} finally {
+				data.close();
+			}
 		} else {
 			data.close();
 			throw new IOException("File version is incorrect.");
 		}
 	}
 	
+	/**
+	 * Parses the body of a version 2 mesh, which the exporter has already
+	 * triangulated, welded, and optionally quantized or interleaved.
+	 */
+	private static PreObjectData parseMeshV2(final BufferedDataReader data)
+			throws IOException {
+		final byte flags = data.readByte();
+		final boolean textured = Utils.checkBit(flags, 0);
+		final boolean armatureIndexed = Utils.checkBit(flags, 1);
+		final boolean hasNormals = Utils.checkBit(flags, 2);
+		final boolean hasWelds = Utils.checkBit(flags, 3);
+		final boolean quantized = Utils.checkBit(flags, 4);
+		final boolean interleaved = Utils.checkBit(flags, 5);
+		
+		final int triCount = data.readShort() & 0x0000FFFF;
+		final int vertCount = data.readShort() & 0x0000FFFF;
+		
+		final short[] indices = new short[triCount * 3];
+		data.readShortArray(indices, 0, triCount * 3);
+		
+		final float[] verts = new float[vertCount * 3];
+		float[] normals = null;
+		float[] uvs = null;
+		float[] vertexBlock = null;
+		String vertexLayout = null;
+		if (interleaved) {
+			vertexLayout = data.readString();
+			final int stride = getLayoutStride(vertexLayout);
+			vertexBlock = new float[vertCount * stride];
+			data.readFloatArray(vertexBlock, 0, vertCount * stride);
+			
+			// The engine still needs the separate arrays, for bounds,
+			// collisions, and Materials with other layouts.
+			int offset = 0;
+			for (int a = 0; a < vertexLayout.length(); a++) {
+				final char attrib = vertexLayout.charAt(a);
+				final int size = getAttribSize(attrib);
+				final float[] array;
+				if (attrib == Material.ATTRIB_POSITION) {
+					array = verts;
+				} else if (attrib == Material.ATTRIB_NORMAL) {
+					array = normals = new float[vertCount * 3];
+				} else { // getAttribSize() rejects anything but uvs
+					array = uvs = new float[vertCount * 2];
+				}
+				for (int i = 0; i < vertCount; i++) {
+					System.arraycopy(vertexBlock, i * stride + offset, array,
+							i * size, size);
+				}
+				offset += size;
+			}
+			if (vertexLayout.indexOf(Material.ATTRIB_POSITION) == -1) {
+				throw new IOException("Vertex layout has no positions.");
+			}
+		} else if (quantized) {
+			readQuantized(data, verts, 3);
+			if (hasNormals) {
+				final byte[] packed = new byte[vertCount * 3];
+				data.readByteArray(packed, 0, vertCount * 3);
+				normals = new float[vertCount * 3];
+				for (int i = 0; i < vertCount * 3; i += 3) {
+					final float x = packed[i] / 127.0f;
+					final float y = packed[i + 1] / 127.0f;
+					final float z = packed[i + 2] / 127.0f;
+					final float length = (float) Math.sqrt(x * x + y * y + z * z);
+					if (length != 0) {
+						normals[i] = x / length;
+						normals[i + 1] = y / length;
+						normals[i + 2] = z / length;
+					}
+				}
+			}
+			if (textured) {
+				uvs = new float[vertCount * 2];
+				readQuantized(data, uvs, 2);
+			}
+		} else {
+			data.readFloatArray(verts, 0, vertCount * 3);
+			if (hasNormals) {
+				normals = new float[vertCount * 3];
+				data.readFloatArray(normals, 0, vertCount * 3);
+			}
+			if (textured) {
+				uvs = new float[vertCount * 2];
+				data.readFloatArray(uvs, 0, vertCount * 2);
+			}
+		}
+		
+		final short[][] doubles;
+		if (hasWelds) {
+			final int pairCount = data.readShort() & 0x0000FFFF;
+			doubles = new short[2][pairCount];
+			data.readShortArray(doubles[0], 0, pairCount);
+			data.readShortArray(doubles[1], 0, pairCount);
+		} else {
+			doubles = null;
+		}
+		
+		final byte[][] boneIndices;
+		final float[][] boneWeights;
+		if (armatureIndexed) {
+			boneIndices = new byte[vertCount][];
+			boneWeights = new float[vertCount][];
+			for (int i = 0; i < vertCount; i++) {
+				final byte boneCount = data.readByte();
+				boneIndices[i] = new byte[boneCount];
+				boneWeights[i] = new float[boneCount];
+				data.readByteArray(boneIndices[i], 0, boneCount);
+				data.readFloatArray(boneWeights[i], 0, boneCount);
+			}
+		} else {
+			boneIndices = null;
+			boneWeights = null;
+		}
+		
+		return new PreObjectData(verts, indices, uvs, doubles, boneIndices,
+				boneWeights, normals, vertexBlock, vertexLayout);
+	}
+	
+	/**
+	 * Reads an array of unsigned shorts quantized to the bounds that precede
+	 * them, as floats.
+	 * 
+	 * @param size
+	 *            The number of components per vertex.
+	 */
+	private static void readQuantized(final BufferedDataReader data,
+			float[] out, int size) throws IOException {
+		final float[] offset = new float[size];
+		final float[] scale = new float[size];
+		data.readFloatArray(offset, 0, size);
+		data.readFloatArray(scale, 0, size);
+		final short[] packed = new short[out.length];
+		data.readShortArray(packed, 0, packed.length);
+		for (int i = 0; i < out.length; i++) {
+			final int c = i % size;
+			out[i] = offset[c] + (packed[i] & 0x0000FFFF) * scale[c];
+		}
+	}
+	
+	private static int getAttribSize(char attrib) throws IOException {
+		switch (attrib) {
+		case Material.ATTRIB_POSITION:
+		case Material.ATTRIB_NORMAL:
+			return 3;
+		case Material.ATTRIB_UV:
+			return 2;
+		default:
+			throw new IOException("Unknown vertex attribute: " + attrib);
+		}
+	}
+	
+	private static int getLayoutStride(String layout) throws IOException {
+		int stride = 0;
+		for (int i = 0; i < layout.length(); i++) {
+			stride += getAttribSize(layout.charAt(i));
+		}
+		return stride;
+	}
+	
 	public static HashMap<String, CurveMovement> parseMovements(
 			InputStream is) throws IOException {
-		final BetterDataInputStream data = new BetterDataInputStream(is);
+		return parseMovements(new BufferedDataReader(is));
+	}
+	
+	/**
+	 * Parses movements straight from a buffer, such as a file in an
+	 * {@link AssetPack}.
+	 */
+	public static HashMap<String, CurveMovement> parseMovements(
+			ByteBuffer buffer) throws IOException {
+		return parseMovements(new BufferedDataReader(buffer));
+	}
+	
+	private static HashMap<String, CurveMovement> parseMovements(
+			final BufferedDataReader data) throws IOException {
 		final HashMap<String, CurveMovement> map = new HashMap<String, CurveMovement>();
 		
 		final int version = data.readInt();
@@ -205,19 +338,56 @@ public class Sch3D {
 	}
 
 	public static Skeleton parseSkeleton(GameFactory gf, InputStream is, String id) throws IOException {
-		final BetterDataInputStream data = new BetterDataInputStream(is);
+		return parseSkeleton(gf, new BufferedDataReader(is), id);
+	}
+	
+	/**
+	 * Parses a skeleton without a GameFactory, putting its Actions in the
+	 * given map.
+	 */
+	public static Skeleton parseSkeleton(InputStream is, String id,
+			HashMap<String, Action> actions) throws IOException {
+		return parseSkeleton(new BufferedDataReader(is), id, actions);
+	}
+	
+	/**
+	 * Parses a skeleton straight from a buffer without a GameFactory, putting
+	 * its Actions in the given map.
+	 */
+	public static Skeleton parseSkeleton(ByteBuffer buffer, String id,
+			HashMap<String, Action> actions) throws IOException {
+		return parseSkeleton(new BufferedDataReader(buffer), id, actions);
+	}
+	
+	/**
+	 * Parses a skeleton straight from a buffer, such as a file in an
+	 * {@link AssetPack}.
+	 */
+	public static Skeleton parseSkeleton(GameFactory gf, ByteBuffer buffer, String id) throws IOException {
+		return parseSkeleton(gf, new BufferedDataReader(buffer), id);
+	}
+	
+	private static Skeleton parseSkeleton(GameFactory gf, final BufferedDataReader data, String id) throws IOException {
+		final HashMap<String, Action> actions = new HashMap<String, Action>();
+		final Skeleton skeleton = parseSkeleton(data, id, actions);
+		gf.setActions(actions);
+		return skeleton;
+	}
+	
+	private static Skeleton parseSkeleton(final BufferedDataReader data,
+			String id, HashMap<String, Action> actions) throws IOException {
 		final int version = data.readInt();
 		if (version == 1) {
 			
 			// Parse Skeleton
-			final short boneCount = (short) (((short) data.readByteDebug()) + 1);
+			final short boneCount = (short) (((short) data.readByte()) + 1);
 			ArrayList<PreBoneData> preBones = new ArrayList<PreBoneData>();
 			for (byte i = 0; i < boneCount; i++) {
-				final float x = data.readFloatDebug(),
-						y = data.readFloatDebug(),
-						z = data.readFloatDebug();
+				final float x = data.readFloat(),
+						y = data.readFloat(),
+						z = data.readFloat();
 				preBones.add(new PreBoneData(i, x, y, z, 
-						(byte) (data.readByteDebug() - 1)));
+						(byte) (data.readByte() - 1)));
 			}
 			
 			// connect parents to children
@@ -239,37 +409,30 @@ public class Sch3D {
 			final Skeleton skeleton = new Skeleton(id, roots);
 			
 			// Parse Actions
-			final HashMap<String, Action> actions = new HashMap<String, Action>();
 			while (data.hasNext()) {
 				final String name = data.readString();
-				Log.d(TAG, "NAME: " + name);
 				
 				CurveMovement movement = readMovement(data);
 				
 				// Parse Action
-				SparseArray<Curve> curves = new SparseArray<Curve>();
+				final PackedClip.Builder clip = new PackedClip.Builder(boneCount * 4);
 				for (byte i = 0; i < boneCount; i++) {
 					// For each bone
 					final int offset = i * 4;
 					
 					for(int j = 0; j < 4; j++) {
 						// For each curve
-						final int pointCount = (data.readByteDebug() & 0x00FF) * 3 - 2;
+						final int pointCount = (data.readByte() & 0x00FF) * 3 - 2;
 						
 						if (pointCount > 0) { // If the curve has keyframes
-							final float[] frames = new float[pointCount], values = new float[pointCount];
-							for (int index = 0; index < pointCount; index++) {
-								frames[index] = data.readFloatDebug();
-								values[index] = data.readFloatDebug();
-							}
-							curves.append(offset + j, new BezierCurve(frames, values));
+							readChannel(data, clip, offset + j, pointCount);
 						}
 					}
 				}
-				actions.put(name, new Action(movement, curves));
+				actions.put(name, new Action(movement,
+						clip.build(Schooner3D.quantizeClips)));
 			}
 			data.close();
-			gf.setActions(actions);
 			return skeleton;
 		} else {
 			data.close();
@@ -277,142 +440,98 @@ public class Sch3D {
 		}
 	}
 
+	/**
+	 * Reads a curve's keyframes, stored as interleaved (frame, value) pairs,
+	 * into a channel of a PackedClip.
+	 * 
+	 * @param data
+	 *            The reader to read from.
+	 * @param clip
+	 *            The PackedClip to read into.
+	 * @param channel
+	 *            The channel of the curve.
+	 * @param pointCount
+	 *            The number of points in the curve.
+	 * @throws IOException
+	 */
+	private static void readChannel(final BufferedDataReader data,
+			final PackedClip.Builder clip, final int channel,
+			final int pointCount) throws IOException {
+		final int offset = clip.addChannel(channel, pointCount);
+		data.readFloatArray(clip.getPoints(), offset, pointCount * 2);
+	}
+	
+	/**
+	 * Reads a group of curves that share a point count.
+	 * 
+	 * @return The index of the channel after the group.
+	 * @throws IOException
+	 */
+	private static int readChannels(final BufferedDataReader data,
+			final PackedClip.Builder clip, final int channel,
+			final int channelCount) throws IOException {
+		final int pointCount = (data.readByte() & 0x00FF) * 3 - 2;
+		if (pointCount > 0) {
+			for (int i = 0; i < channelCount; i++) {
+				readChannel(data, clip, channel + i, pointCount);
+			}
+		}
+		return channel + channelCount;
+	}
+	
 	/**
 	 * @param data
-	 * @return
+	 * @return The movement, or null if there is none.
 	 * @throws IOException
 	 */
-	private static CurveMovement readMovement(final BetterDataInputStream data)
+	private static CurveMovement readMovement(final BufferedDataReader data)
 			throws IOException {
-		CurveMovement movement;
-		final byte flagsByte = data.readByteDebug();
+		final byte flagsByte = data.readByte();
+		if (flagsByte == 0) {
+			return null; // No Movement for this Action
+		}
 		
 		// Parse Movement
-		if (flagsByte != 0) { // If Movement exists for this Action...
-			boolean[] flags = Utils.checkBits(flagsByte, 4);
-			Log.d(TAG, "FLAGS: " + Arrays.toString(flags));
-			
-			int curveCount = 0;
-			final boolean moveLoc = flags[0];
-			final boolean moveRot = flags[1];
-			final boolean moveScale = flags[2];
-			final boolean moveScaleAxis = flags[3];
-			if (moveLoc) {
-				curveCount += 3;
-			}
-			if (moveRot) {
-				curveCount += 4;
-			}
-			if (moveScale) {
-				curveCount += 1;
-			} else if (moveScaleAxis) {
-				curveCount += 3;
-			}
-			Log.d(TAG, "CURVE COUNT: " + curveCount);
-			
-			Curve[] curves = new Curve[curveCount];
-			int curveIndex = 0;
-			// Parse location curves
-			if (moveLoc) {
-				final int pointCount = (data.readByteDebug() & 0xFFFF) * 3 - 2;
-				if (pointCount > 0) {
-					Log.d(TAG, "Location curves have "+ pointCount + " points.");
-					for (int i = 0; i < 3; i++) { 
-						float[] frames = new float[pointCount];
-						float[] values = new float[pointCount];
-						
-						for (int pointIndex = 0; pointIndex < pointCount; pointIndex++) {
-							frames[pointIndex] = data.readFloatDebug();
-							values[pointIndex] = data.readFloatDebug();
-						}
-						curves[curveIndex + i] = new BezierCurve(frames, values);
-					}
-				} else {
-					curves[curveIndex] = null;
-					curves[curveIndex + 1] = null;
-					curves[curveIndex + 2] = null;
-					Log.d(TAG, "Location curves have 0 points.");
-				}
-				curveIndex += 3;
-			}
-			// Parse rotation curves
-			if (moveRot) {
-				final int pointCount = (data.readByteDebug() & 0xFFFF)* 3 - 2;
-				if (pointCount > 0) {
-					Log.d(TAG, "Rotation curves have "+ pointCount + " points.");
-					for (int i = 0; i < 4; i++) { 
-						float[] frames = new float[pointCount];
-						float[] values = new float[pointCount];
-						
-						for (int pointIndex = 0; pointIndex < pointCount; pointIndex++) {
-							frames[pointIndex] = data.readFloatDebug();
-							values[pointIndex] = data.readFloatDebug();
-							Log.d(TAG, "(" + frames[pointIndex] + ", " + values[pointIndex] + ")");
-						}
-						
-						curves[curveIndex + i] = new BezierCurve(frames, values);
-					}
-				} else {
-					curves[curveIndex] = null;
-					curves[curveIndex + 1] = null;
-					curves[curveIndex + 2] = null;
-					curves[curveIndex + 3] = null;
-					Log.d(TAG, "Rotation curves have 0 points.");
-				}
-				curveIndex += 4;
-			}
-			// Parse scale curves
-			if (moveScale) {
-				// Uniform scale (1 curve)
-				final int pointCount = (data.readByteDebug() & 0xFFFF) * 3 - 2;
-				if (pointCount > 0) {
-					Log.d(TAG, "Scale curve (uniform) has "+ pointCount + " points.");
-					float[] frames = new float[pointCount];
-					float[] values = new float[pointCount];
-
-					for (int pointIndex = 0; pointIndex < pointCount; pointIndex++) {
-						frames[pointIndex] = data.readFloatDebug();
-						values[pointIndex] = data.readFloatDebug();
-						Log.d(TAG, "(" + frames[pointIndex] + ", " + values[pointIndex] + ")");
-					}
-
-					curves[curveIndex] = new BezierCurve(frames, values);
-				} else {
-					curves[curveIndex] = null;
-					Log.d(TAG, "Scale curve (uniform) has 0 points.");
-				}
-				//curveIndex += 1; Don't need to increment after last curve
-			} else if (moveScaleAxis) {
-				// Per-axis scale (3 curves)
-				final int pointCount = (data.readByteDebug() & 0xFFFF) * 3 - 2;
-				if (pointCount > 0) {
-					Log.d(TAG, "Scale curves (per-axis) have "+ pointCount + " points.");
-					for (int i = 0; i < 3; i++) {
-						float[] frames = new float[pointCount];
-						float[] values = new float[pointCount];
-						
-						for (int pointIndex = 0; pointIndex < pointCount; pointIndex++) {
-							frames[pointIndex] = data.readFloatDebug();
-							values[pointIndex] = data.readFloatDebug();
-							Log.d(TAG, "(" + frames[pointIndex] + ", " + values[pointIndex] + ")");
-						}
-						
-						curves[curveIndex + i] = new BezierCurve(frames, values);
-					}
-				} else {
-					curves[curveIndex] = null;
-					curves[curveIndex + 1] = null;
-					curves[curveIndex + 2] = null;
-					Log.d(TAG, "Scale curves (per-axis) have 0 points.");
-				}
-				//curveIndex += 3; Don't need to increment after last curves
-			}
-			
-			movement = new CurveMovement(flagsByte, curves);
-		} else {
-			Log.d(TAG, "No movement curves.");
-			movement = null;
+		boolean[] flags = Utils.checkBits(flagsByte, 4);
+		
+		int curveCount = 0;
+		final boolean moveLoc = flags[0];
+		final boolean moveRot = flags[1];
+		final boolean moveScale = flags[2];
+		final boolean moveScaleAxis = flags[3];
+		if (moveLoc) {
+			curveCount += 3;
+		}
+		if (moveRot) {
+			curveCount += 4;
+		}
+		if (moveScale) {
+			curveCount += 1;
+		} else if (moveScaleAxis) {
+			curveCount += 3;
+		}
+		
+		final PackedClip.Builder builder = new PackedClip.Builder(curveCount);
+		int curveIndex = 0;
+		if (moveLoc) {
+			curveIndex = readChannels(data, builder, curveIndex, 3);
+		}
+		if (moveRot) {
+			curveIndex = readChannels(data, builder, curveIndex, 4);
+		}
+		if (moveScale) {
+			// Uniform scale (1 curve)
+			curveIndex = readChannels(data, builder, curveIndex, 1);
+		} else if (moveScaleAxis) {
+			// Per-axis scale (3 curves)
+			curveIndex = readChannels(data, builder, curveIndex, 3);
+		}
+		
+		final PackedClip clip = builder.build(Schooner3D.quantizeClips);
+		final Curve[] curves = new Curve[curveCount];
+		for (int i = 0; i < curveCount; i++) {
+			curves[i] = clip.getCurve(i);
 		}
-		return movement;
+		return new CurveMovement(flagsByte, curves);
 	}
 }
\ No newline at end of file
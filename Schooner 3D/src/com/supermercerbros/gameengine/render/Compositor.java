@@ -15,183 +15,158 @@
  */
 package com.supermercerbros.gameengine.render;
 
-import static android.opengl.GLES20.*;
-
 import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 import java.util.Scanner;
 
-import android.opengl.GLES20;
-import android.util.Log;
-
-import com.supermercerbros.gameengine.engine.GameRenderer;
 import com.supermercerbros.gameengine.engine.shaders.Program;
-import com.supermercerbros.gameengine.engine.shaders.ShaderLib;
+import com.supermercerbros.gameengine.shaders.ProgramSource;
 
 /**
- * Represents a compositor that can perform post-processing on the scene by
- * rendering it off-screen and then rendering that (with any changes) to a
- * full-screen quad.
+ * Represents one post-processing pass. Compositors are run by a
+ * {@link CompositorChain}, which renders the scene off-screen and then renders
+ * each pass, in order, as a full-screen quad that samples the output of the
+ * previous one.
+ * 
+ * <p>
+ * A Compositor either supplies a complete fragment shader, by overriding
+ * {@link #getFragmentShader()}, or a color function, by overriding
+ * {@link #getColorFunction(String)}. Passes that only change the color of each
+ * pixel should use a color function: adjacent color functions are fused into a
+ * single shader, so they cost one full-screen pass instead of one each.
+ * </p>
  */
 public abstract class Compositor {
-	private static final String TAG = "Compositor";
-
 	public static final String SAMPLER_UNIFORM_NAME = "us_image";
-
-	private int texture = -1;
-	private int renderbuffer = -1;
-	private int framebuffer = -1;
-	private int arrayBuffer = -1;
-
-	private Program p;
-
-	public void onSurfaceChanged(int width, int height) {
-		int[] handle = new int[1];
-
-		// Init texture
-		if (!glIsTexture(texture)) {
-			// Get texture handle
-			glGenTextures(1, handle, 0);
-			texture = handle[0];
-			glBindTexture(GL_TEXTURE_2D, texture);
-			glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB, width, height, 0, GL_RGB,
-					GL_UNSIGNED_SHORT_5_6_5, null);
-			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
-			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
-			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
-			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
-		}
-
-		// Init renderbuffer
-		if (!glIsRenderbuffer(renderbuffer)) {
-			// Get renderbuffer handle
-			glGenRenderbuffers(1, handle, 0);
-			renderbuffer = handle[0];
-
-			glBindRenderbuffer(GL_RENDERBUFFER, renderbuffer);
-			glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT16, width,
-					height);
-		}
-
-		// Init framebuffer
-		if (!glIsFramebuffer(framebuffer)) {
-			// Get framebuffer handle
-			glGenFramebuffers(1, handle, 0);
-			framebuffer = handle[0];
-		}
-		glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
-		glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0,
-				GL_TEXTURE_2D, texture, 0);
-		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT,
-				GL_RENDERBUFFER, renderbuffer);
-
-		// Init vertex buffer
-		if (!glIsBuffer(arrayBuffer)) {
-			// Get buffer handle
-			glGenBuffers(1, handle, 0);
-			arrayBuffer = handle[0];
-
-			glBindBuffer(GL_ARRAY_BUFFER, arrayBuffer);
-
-			float[] data = { 0f, 0f, 1f, 0f, 0f, 1f, 1f, 1f };
-			FloatBuffer buf = ByteBuffer.allocateDirect(32).order(
-					ByteOrder.nativeOrder()).asFloatBuffer();
-			buf.put(data);
-			buf.rewind();
-
-			glBufferData(GL_ARRAY_BUFFER, data.length * 4, buf, GL_STATIC_DRAW);
-		}
-		
-		// Init program
-		String vert = getVertexShader();
-		String frag = getFragmentShader();
-		Log.i("Vert shader", vert);
-		Log.i("Frag shader", frag);
-		if (!frag.contains("varying vec2 v_texCoord;")) {
-			Log.e(TAG, "The fragment shader does not contain \"varying vec2 v_texCoord;\"");
-		}
-		if (!frag.contains("uniform sampler2D " + SAMPLER_UNIFORM_NAME + ";")) {
-			Log.e(TAG, "The fragment shader does not contain \"uniform sampler2D " + SAMPLER_UNIFORM_NAME + ";\"");
-		}
-		p = new Program(vert, frag);
-		if (!p.isLoaded()) {
-			glUseProgram(p.load());
-			int samplerLocation = p.getUniformLocation(SAMPLER_UNIFORM_NAME);
-			glActiveTexture(GLES20.GL_TEXTURE0);
-			glBindTexture(GLES20.GL_TEXTURE_2D, texture);
-			glUniform1i(samplerLocation, 0);
-			loadUniforms(p); 
-		}
-	}
-
-	public void preDraw() {
-		glBindFramebuffer(GL_FRAMEBUFFER, framebuffer); // Bind texture buffer
-	}
-
-	public void postDraw() {
-		glBindFramebuffer(GL_FRAMEBUFFER, 0); // Bind screen buffer
-		
-		glClearColor(1.0f, 0.0f, 0.0f, 1.0f);
-		glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-		
-		glDisable(GL_DEPTH_TEST);
-		glDisable(GL_CULL_FACE);
-		glDisable(GL_BLEND);
-
-		// Bind full-screen quad buffer
-		glBindBuffer(GLES20.GL_ARRAY_BUFFER, arrayBuffer);
-
-		// Use Program
-		glUseProgram(p.load());
-
-		// Attach a_pos attribute
-		int a_pos = p.getAttribLocation("a_pos");
-		glEnableVertexAttribArray(a_pos);
-		glVertexAttribPointer(a_pos, 2, GL_FLOAT, false, 8, 0);
-		attachExtraAttribs(p);
-
-		glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
-		GameRenderer.logError("Compositor render");
-	}
+	/**
+	 * The name of the <code>vec2</code> uniform that holds the fraction of
+	 * the input image that is in use. The default vertex shader multiplies
+	 * <code>v_texCoord</code> by it.
+	 */
+	public static final String TEX_SCALE_UNIFORM_NAME = "u_texScale";
+	
+	private static final String COLOR_FUNCTION_PREFIX = "compose";
+	
+	private static String defaultVertexShader;
 
 	/**
-	 * @return The vertex shader source
+	 * @return The vertex shader source. This must declare
+	 *         <code>attribute vec2 a_pos;</code>, which ranges from (0, 0) to
+	 *         (1, 1) over the screen, and should scale the texture
+	 *         coordinates by <code>uniform vec2 u_texScale;</code> to support
+	 *         {@link DynamicResolution}.
 	 */
 	protected String getVertexShader() {
-		StringBuilder sb = new StringBuilder();
+		return getDefaultVertexShader();
+	}
 
-		InputStream in = Compositor.class.getResourceAsStream(
-				"compositor_vertex_shader.txt");
-		Scanner scan = new Scanner(in);
-		while (scan.hasNext()) {
-			sb.append(scan.nextLine());
-			sb.append("\n");
+	/**
+	 * Returns the fragment shader source. It must declare
+	 * <code>varying vec2 v_texCoord;</code> and
+	 * <code>uniform sampler2D us_image;</code>, which holds the output of the
+	 * previous pass.
+	 * 
+	 * <p>
+	 * The default implementation builds a shader from
+	 * {@link #getColorFunction(String)}. Subclasses must override one of the
+	 * two.
+	 * </p>
+	 * 
+	 * @return The fragment shader source
+	 */
+	protected String getFragmentShader() {
+		final String function = getColorFunction(getFunctionName(0));
+		if (function == null) {
+			throw new IllegalStateException(getClass().getName()
+					+ " overrides neither getFragmentShader() nor getColorFunction()");
 		}
-		scan.close();
-
-		return sb.toString();
+		return buildFusedShader(new String[] { function });
 	}
 
 	/**
-	 * @return The fragment shader source
+	 * Returns this pass as a GLSL function that maps the color of a pixel to a
+	 * new color, without sampling the image itself. Such passes can be fused
+	 * with their neighbors by a {@link CompositorChain}. The default
+	 * implementation returns null, which means this pass cannot be fused.
+	 * 
+	 * <p>
+	 * Uniforms declared by the function share a shader with the other fused
+	 * passes, so their names must be unique to this Compositor.
+	 * </p>
+	 * 
+	 * @param name
+	 *            The name that the function must have.
+	 * @return GLSL source that declares
+	 *         <code>vec4 <i>name</i>(vec4 color)</code>, or null.
 	 */
-	protected abstract String getFragmentShader();
+	protected String getColorFunction(String name) {
+		return null;
+	}
 
 	/**
-	 * This is called in {@link #postDraw()}, to attach any extra attributes.
-	 * The default implementation does nothing.
+	 * This is called before each time this pass is drawn, to attach any extra
+	 * attributes. The default implementation does nothing.
 	 */
 	protected void attachExtraAttribs(Program p) {
 		// Nothing by default
 	}
 
 	/**
-	 * This is called in {@link #onSurfaceChanged(int, int)}, to load any
-	 * uniforms for the shader. The default implementation does nothing.
+	 * This is called after the shader is loaded, to load any uniforms for the
+	 * shader. The default implementation does nothing.
 	 */
 	protected void loadUniforms(Program p) {
 		// Nothing by default
 	}
+
+	/**
+	 * @param functions
+	 *            The color functions to apply, in order. The <i>i</i>th
+	 *            function must have the name given by {@link #getFunctionName(int)}.
+	 * @return A fragment shader that samples the image and applies the given
+	 *         color functions to it.
+	 */
+	static String buildFusedShader(String[] functions) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(ProgramSource.PRECISION_MEDIUM);
+		sb.append("varying vec2 v_texCoord;\n");
+		sb.append("uniform sampler2D ").append(SAMPLER_UNIFORM_NAME).append(";\n");
+		for (String function : functions) {
+			sb.append(function).append("\n");
+		}
+		sb.append(ProgramSource.MAIN_HEADER);
+		sb.append("vec4 color = texture2D(").append(SAMPLER_UNIFORM_NAME)
+				.append(", v_texCoord);\n");
+		for (int i = 0; i < functions.length; i++) {
+			sb.append("color = ").append(getFunctionName(i)).append("(color);\n");
+		}
+		sb.append("gl_FragColor = color;\n");
+		sb.append(ProgramSource.MAIN_FOOTER);
+		return sb.toString();
+	}
+
+	/**
+	 * @return The name of the <code>index</code>th color function in a fused
+	 *         shader.
+	 */
+	static String getFunctionName(int index) {
+		return COLOR_FUNCTION_PREFIX + index;
+	}
+
+	static synchronized String getDefaultVertexShader() {
+		if (defaultVertexShader == null) {
+			StringBuilder sb = new StringBuilder();
+	
+			InputStream in = Compositor.class.getResourceAsStream(
+					"compositor_vertex_shader.txt");
+			Scanner scan = new Scanner(in);
+			while (scan.hasNext()) {
+				sb.append(scan.nextLine());
+				sb.append("\n");
+			}
+			scan.close();
+			
+			defaultVertexShader = sb.toString();
+		}
+		return defaultVertexShader;
+	}
 }
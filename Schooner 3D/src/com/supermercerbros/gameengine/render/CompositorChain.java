@@ -0,0 +1,425 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.render;
+
+import static android.opengl.GLES20.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import android.util.Log;
+
+import com.supermercerbros.gameengine.Schooner3D;
+import com.supermercerbros.gameengine.engine.GameRenderer;
+import com.supermercerbros.gameengine.engine.shaders.Program;
+
+/**
+ * An ordered list of {@link Compositor}s that post-process the scene.
+ *
+ * <p>
+ * The scene is rendered into an off-screen target at {@link #getRenderScale()}
+ * times the size of the surface. Each pass then samples the previous pass's
+ * output and renders into the other of two ping-pong targets, except for the
+ * last pass, which renders to the screen at full size. Adjacent passes that
+ * supply a color function (see {@link Compositor#getColorFunction(String)})
+ * are fused into a single shader and drawn as one pass.
+ * </p>
+ *
+ * <p>
+ * If a {@link DynamicResolution} controller is set, the targets are allocated
+ * at its maximum scale, and the scene and intermediate passes are rendered
+ * into the part of them given by its current scale. Changing the scale only
+ * changes the viewport, so it never reallocates.
+ * </p>
+ *
+ * <p>
+ * If there are no Compositors, no DynamicResolution, and the render scale is
+ * 1, the chain is inactive and the scene is rendered directly to the screen. Compositors can be added
+ * and removed from any thread; the change takes effect on the next frame.
+ * </p>
+ */
+public class CompositorChain {
+	private static final String TAG = "CompositorChain";
+
+	private final ArrayList<Compositor> compositors = new ArrayList<Compositor>();
+	private float renderScale = 1.0f;
+	private DynamicResolution dynamicResolution;
+	private volatile boolean changed = true;
+
+	// Only accessed on the GL thread
+	private final RenderTarget[] targets = { new RenderTarget(true),
+			new RenderTarget(false) };
+	private final ArrayList<Stage> stages = new ArrayList<Stage>();
+	private final GpuBuffer quad = createQuad();
+	private int surfaceWidth, surfaceHeight;
+	private float scale = 1.0f;
+	private boolean active = false;
+	private boolean sized = false;
+	private DynamicResolution dynamic;
+	private float viewportFraction = 1.0f;
+	private int sceneWidth, sceneHeight;
+	private final float[] texScale = new float[2];
+	// The Stage whose uniforms each Program holds, since Stages with the same
+	// shaders share a Program
+	private final IdentityHashMap<Program, Stage> uniformsLoaded = new IdentityHashMap<Program, Stage>();
+
+	/**
+	 * A single full-screen draw, which runs one or more fused Compositors.
+	 */
+	private static class Stage {
+		final Program program;
+		final Compositor[] passes;
+		// The link of the Program that this Stage's uniforms were loaded into
+		int linkCount = 0;
+		int texScaleLocation = -1;
+
+		Stage(Program program, Compositor[] passes) {
+			this.program = program;
+			this.passes = passes;
+		}
+	}
+
+	/**
+	 * Adds a Compositor to the end of this chain.
+	 *
+	 * @param c
+	 *            The Compositor to add.
+	 */
+	public synchronized void add(Compositor c) {
+		if (c == null) {
+			throw new NullPointerException("c == null");
+		}
+		compositors.add(c);
+		changed = true;
+	}
+
+	/**
+	 * Removes a Compositor from this chain.
+	 *
+	 * @param c
+	 *            The Compositor to remove.
+	 * @return true if the Compositor was in this chain.
+	 */
+	public synchronized boolean remove(Compositor c) {
+		final boolean removed = compositors.remove(c);
+		changed |= removed;
+		return removed;
+	}
+
+	/**
+	 * Removes all Compositors from this chain.
+	 */
+	public synchronized void clear() {
+		compositors.clear();
+		changed = true;
+	}
+
+	/**
+	 * @return The number of Compositors in this chain.
+	 */
+	public synchronized int size() {
+		return compositors.size();
+	}
+
+	/**
+	 * Sets the size of the scene, relative to the size of the surface. The
+	 * scene is upscaled to the size of the surface by the last pass.
+	 *
+	 * @param scale
+	 *            The render scale, greater than 0 and at most 1.
+	 */
+	public synchronized void setRenderScale(float scale) {
+		if (!(scale > 0.0f && scale <= 1.0f)) {
+			throw new IllegalArgumentException("scale must be in (0, 1]: "
+					+ scale);
+		}
+		renderScale = scale;
+		changed = true;
+	}
+
+	/**
+	 * @return The size of the scene, relative to the size of the surface.
+	 */
+	public synchronized float getRenderScale() {
+		return renderScale;
+	}
+
+	/**
+	 * Sets a controller that adjusts the size of the scene to hold a target
+	 * frame time. While a controller is set, it overrides the render scale.
+	 *
+	 * @param controller
+	 *            The DynamicResolution controller, or null to use the fixed
+	 *            render scale.
+	 */
+	public synchronized void setDynamicResolution(DynamicResolution controller) {
+		dynamicResolution = controller;
+		changed = true;
+	}
+
+	/**
+	 * @return The DynamicResolution controller, or null if there is none.
+	 */
+	public synchronized DynamicResolution getDynamicResolution() {
+		return dynamicResolution;
+	}
+
+	/**
+	 * Called by the GameRenderer at the end of every frame.
+	 *
+	 * @param frameTime
+	 *            The time the frame took to render, in nanoseconds. See
+	 *            {@link DynamicResolution#onFrame(long)}.
+	 */
+	public void onFrameFinished(long frameTime) {
+		if (active && dynamic != null) {
+			setViewportFraction(dynamic.onFrame(frameTime) / scale);
+		}
+	}
+
+	private void setViewportFraction(float fraction) {
+		viewportFraction = Math.min(fraction, 1.0f);
+		sceneWidth = Math.max(1, Math.round(targets[0].getWidth() * viewportFraction));
+		sceneHeight = Math.max(1, Math.round(targets[0].getHeight() * viewportFraction));
+	}
+
+	/**
+	 * Called by the GameRenderer when the surface changes.
+	 */
+	public void onSurfaceChanged(int width, int height) {
+		surfaceWidth = width;
+		surfaceHeight = height;
+		sized = false;
+		changed = true;
+	}
+
+	/**
+	 * Called by the GameRenderer before the scene is rendered. If the chain
+	 * is active, this binds the scene's target and sets the viewport to its
+	 * size.
+	 *
+	 * @return true if the chain is active, in which case
+	 *         {@link #postDraw()} must be called after the scene is rendered.
+	 */
+	public boolean preDraw() {
+		if (changed) {
+			update();
+		}
+		if (!active) {
+			return false;
+		}
+		targets[0].bind();
+		Schooner3D.renderBackend.glViewport(0, 0, sceneWidth, sceneHeight);
+		return true;
+	}
+
+	/**
+	 * Called by the GameRenderer after the scene is rendered. Runs every pass,
+	 * leaving the screen bound with a full-size viewport.
+	 */
+	public void postDraw() {
+		final RenderBackend gl = Schooner3D.renderBackend;
+		gl.glDisable(GL_DEPTH_TEST);
+		gl.glDisable(GL_CULL_FACE);
+		gl.glDisable(GL_BLEND);
+
+		// Bind full-screen quad buffer
+		quad.bind();
+
+		final float texScaleX = sceneWidth / (float) targets[0].getWidth();
+		final float texScaleY = sceneHeight / (float) targets[0].getHeight();
+		int source = 0;
+		final int last = stages.size() - 1;
+		for (int i = 0; i <= last; i++) {
+			if (i == last) {
+				gl.glBindFramebuffer(GL_FRAMEBUFFER, 0); // Bind screen buffer
+				gl.glViewport(0, 0, surfaceWidth, surfaceHeight);
+				gl.glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+			} else {
+				targets[1 - source].bind();
+				gl.glClear(GL_COLOR_BUFFER_BIT);
+			}
+			gl.glActiveTexture(GL_TEXTURE0);
+			gl.glBindTexture(GL_TEXTURE_2D, targets[source].getTexture());
+			draw(gl, stages.get(i), texScaleX, texScaleY);
+			source = 1 - source;
+		}
+		GameRenderer.logError("Compositor render");
+	}
+
+	private void draw(RenderBackend gl, Stage stage, float texScaleX,
+			float texScaleY) {
+		final Program p = stage.program;
+		gl.glUseProgram(p.load());
+		if (p.getLinkCount() != stage.linkCount
+				|| uniformsLoaded.get(p) != stage) {
+			stage.linkCount = p.getLinkCount();
+			uniformsLoaded.put(p, stage);
+			gl.glUniform1i(p.getUniformLocation(Compositor.SAMPLER_UNIFORM_NAME), 0);
+			stage.texScaleLocation = p.getUniformLocation(Compositor.TEX_SCALE_UNIFORM_NAME);
+			for (Compositor c : stage.passes) {
+				c.loadUniforms(p);
+			}
+		}
+
+		if (stage.texScaleLocation != -1) {
+			texScale[0] = texScaleX;
+			texScale[1] = texScaleY;
+			gl.glUniform2fv(stage.texScaleLocation, 1, texScale, 0);
+		}
+
+		// Attach a_pos attribute
+		int a_pos = p.getAttribLocation("a_pos");
+		gl.glEnableVertexAttribArray(a_pos);
+		gl.glVertexAttribPointer(a_pos, 2, GL_FLOAT, false, 8, 0);
+		for (Compositor c : stage.passes) {
+			c.attachExtraAttribs(p);
+		}
+
+		gl.glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
+	}
+
+	/**
+	 * Applies changes to the Compositors, render scale, or surface size.
+	 */
+	private void update() {
+		final Compositor[] passes;
+		final DynamicResolution newDynamic;
+		final float newScale;
+		synchronized (this) {
+			passes = compositors.toArray(new Compositor[compositors.size()]);
+			newDynamic = dynamicResolution;
+			// Targets are allocated at the largest size that will be used
+			newScale = newDynamic != null ? newDynamic.getMaxScale()
+					: renderScale;
+			changed = false;
+		}
+		dynamic = newDynamic;
+
+		active = surfaceWidth > 0
+				&& (passes.length > 0 || newScale < 1.0f || newDynamic != null);
+		if (!active) {
+			return;
+		}
+
+		if (!sized || newScale != scale) {
+			final int width = Math.max(1, Math.round(surfaceWidth * newScale));
+			final int height = Math.max(1, Math.round(surfaceHeight * newScale));
+			final boolean linear = newScale < 1.0f || newDynamic != null;
+			targets[0].resize(width, height, linear);
+			targets[1].resize(width, height, linear);
+			scale = newScale;
+			sized = true;
+		}
+		setViewportFraction(dynamic != null ? dynamic.getScale() / scale : 1.0f);
+		buildStages(passes);
+	}
+
+	private static GpuBuffer createQuad() {
+		final float[] data = { 0f, 0f, 1f, 0f, 0f, 1f, 1f, 1f };
+		final FloatBuffer buf = ByteBuffer.allocateDirect(data.length * 4)
+				.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		buf.put(data);
+		buf.rewind();
+		final GpuBuffer quad = new GpuBuffer(GL_ARRAY_BUFFER, data.length * 4,
+				buf, GL_STATIC_DRAW);
+		ResourceManager.retain(quad);
+		return quad;
+	}
+
+	/**
+	 * Groups the Compositors into Stages, fusing runs of color functions.
+	 * Stages whose Compositors are unchanged keep their Programs.
+	 */
+	private void buildStages(Compositor[] passes) {
+		final ArrayList<Stage> oldStages = new ArrayList<Stage>(stages);
+		stages.clear();
+		uniformsLoaded.clear();
+
+		final ArrayList<Compositor> run = new ArrayList<Compositor>();
+		final ArrayList<String> functions = new ArrayList<String>();
+		for (Compositor c : passes) {
+			final String function = c.getColorFunction(Compositor
+					.getFunctionName(run.size()));
+			if (function != null) {
+				run.add(c);
+				functions.add(function);
+				continue;
+			}
+			if (!run.isEmpty()) {
+				addFusedStage(run, functions, oldStages);
+			}
+			addStage(new Compositor[] { c }, null, oldStages);
+		}
+		if (!run.isEmpty() || stages.isEmpty()) {
+			// An empty run is a plain copy, used to upscale the scene
+			addFusedStage(run, functions, oldStages);
+		}
+
+		// Programs of unused Stages stay cached by the ResourceManager
+		for (Stage old : oldStages) {
+			ResourceManager.release(old.program);
+		}
+	}
+
+	private void addFusedStage(ArrayList<Compositor> run,
+			ArrayList<String> functions, ArrayList<Stage> oldStages) {
+		final String frag = Compositor.buildFusedShader(functions
+				.toArray(new String[functions.size()]));
+		addStage(run.toArray(new Compositor[run.size()]), frag, oldStages);
+		run.clear();
+		functions.clear();
+	}
+
+	/**
+	 * @param frag
+	 *            The fused fragment shader, or null to use the single
+	 *            Compositor's own shaders.
+	 */
+	private void addStage(Compositor[] passes, String frag,
+			ArrayList<Stage> oldStages) {
+		for (Stage old : oldStages) {
+			if (Arrays.equals(old.passes, passes)) {
+				stages.add(old);
+				oldStages.remove(old);
+				return;
+			}
+		}
+
+		final String vert;
+		if (frag == null) {
+			final Compositor c = passes[0];
+			vert = c.getVertexShader();
+			frag = c.getFragmentShader();
+			if (!frag.contains("varying vec2 v_texCoord;")) {
+				Log.e(TAG, "The fragment shader does not contain \"varying vec2 v_texCoord;\"");
+			}
+			if (!frag.contains("uniform sampler2D " + Compositor.SAMPLER_UNIFORM_NAME + ";")) {
+				Log.e(TAG, "The fragment shader does not contain \"uniform sampler2D " + Compositor.SAMPLER_UNIFORM_NAME + ";\"");
+			}
+		} else {
+			vert = Compositor.getDefaultVertexShader();
+			if (passes.length > 1) {
+				Log.i(TAG, "Fused " + passes.length + " compositor passes");
+			}
+		}
+		stages.add(new Stage(ResourceManager.acquireProgram(vert, frag), passes));
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.render;
+
+import android.util.FloatMath;
+
+/**
+ * Adjusts the render scale of a {@link CompositorChain} to hold a target frame
+ * time.
+ *
+ * <p>
+ * Frame times are the time each frame took to render, not the time between
+ * frames, which includes waiting for the Engine and for vsync. They are
+ * averaged over a window of frames. If the average is more than
+ * {@link #setHysteresis(float, int) the down margin} over the target, the
+ * scale is lowered at once, in proportion to how far over the target it is.
+ * The scale is only raised again, one step at a time, after the target has
+ * been met for a number of consecutive windows. Every time a raise is
+ * followed by a miss, the number of windows needed before the next raise is
+ * doubled, so the scale does not oscillate around the limit of the device.
+ * </p>
+ *
+ * <p>
+ * Changing the scale never reallocates anything: the CompositorChain
+ * allocates its render targets at {@link #getMaxScale()} and renders into
+ * part of them.
+ * </p>
+ */
+public class DynamicResolution {
+	private static final int DEFAULT_WINDOW = 30;
+	private static final float DEFAULT_STEP = 0.05f;
+	private static final float DEFAULT_DOWN_MARGIN = 0.1f;
+	private static final int DEFAULT_UP_DELAY = 4;
+	private static final int MAX_UP_DELAY = 64;
+
+	private final float minScale;
+	private final float maxScale;
+	private final long targetFrameTime;
+
+	private int window = DEFAULT_WINDOW;
+	private float step = DEFAULT_STEP;
+	private float downMargin = DEFAULT_DOWN_MARGIN;
+	private int baseUpDelay = DEFAULT_UP_DELAY;
+
+	// Controller state, only accessed on the GL thread
+	private long windowTime = 0;
+	private int windowFrames = 0;
+	private int goodWindows = 0;
+	private int upDelay = DEFAULT_UP_DELAY;
+	private boolean justRaised = false;
+
+	// Metrics
+	private volatile float scale;
+	private volatile long averageFrameTime = 0;
+	private volatile int scaleUps = 0;
+	private volatile int scaleDowns = 0;
+	private volatile int missedWindows = 0;
+	private volatile int skippedFrames = 0;
+
+	/**
+	 * Constructs a new DynamicResolution controller.
+	 *
+	 * @param minScale
+	 *            The lowest render scale to use, greater than 0.
+	 * @param maxScale
+	 *            The highest render scale to use, at most 1. This is also the
+	 *            starting scale.
+	 * @param targetFps
+	 *            The frame rate to hold.
+	 */
+	public DynamicResolution(float minScale, float maxScale, float targetFps) {
+		if (!(minScale > 0.0f && minScale <= maxScale && maxScale <= 1.0f)) {
+			throw new IllegalArgumentException(
+					"Must have 0 < minScale <= maxScale <= 1");
+		}
+		if (!(targetFps > 0.0f)) {
+			throw new IllegalArgumentException("targetFps must be positive");
+		}
+		this.minScale = minScale;
+		this.maxScale = maxScale;
+		this.targetFrameTime = (long) (1000000000.0 / targetFps);
+		this.scale = maxScale;
+	}
+
+	/**
+	 * Sets the number of frames that are averaged before each decision.
+	 *
+	 * @param frames
+	 *            The window size, in frames.
+	 */
+	public void setWindow(int frames) {
+		if (frames < 1) {
+			throw new IllegalArgumentException("frames < 1");
+		}
+		window = frames;
+	}
+
+	/**
+	 * Sets how much the scale is raised by in each step.
+	 */
+	public void setStep(float step) {
+		if (!(step > 0.0f)) {
+			throw new IllegalArgumentException("step must be positive");
+		}
+		this.step = step;
+	}
+
+	/**
+	 * Sets the hysteresis of the controller.
+	 *
+	 * @param downMargin
+	 *            How far over the target frame time the average can be, as a
+	 *            fraction of the target, before the scale is lowered.
+	 * @param upDelay
+	 *            The number of consecutive windows that must meet the target
+	 *            before the scale is raised.
+	 */
+	public void setHysteresis(float downMargin, int upDelay) {
+		if (downMargin < 0.0f || upDelay < 1) {
+			throw new IllegalArgumentException("downMargin < 0 or upDelay < 1");
+		}
+		this.downMargin = downMargin;
+		this.baseUpDelay = upDelay;
+		this.upDelay = upDelay;
+	}
+
+	/**
+	 * Called by the GameRenderer at the end of every frame.
+	 *
+	 * @param frameTime
+	 *            The time the frame took to render, in nanoseconds. The
+	 *            GameRenderer measures from the start of
+	 *            <code>onDrawFrame</code> to its end, less the time spent
+	 *            waiting for the Engine, so waits for the Engine and for vsync
+	 *            are not counted. This is CPU time, since GL calls return
+	 *            before the GPU runs them, except in
+	 *            {@link com.supermercerbros.gameengine.engine.GLDebug#MODE_STRICT
+	 *            strict GLDebug mode}, where <code>glFinish</code> is called
+	 *            before the end of the frame is timed.
+	 * @return The render scale to use for the next frame.
+	 */
+	public float onFrame(long frameTime) {
+		// Ignore stalls, such as compiling programs for newly loaded assets
+		if (frameTime > targetFrameTime * 4) {
+			skippedFrames++;
+			return scale;
+		}
+		windowTime += frameTime;
+		if (++windowFrames < window) {
+			return scale;
+		}
+
+		final long average = windowTime / windowFrames;
+		windowTime = 0;
+		windowFrames = 0;
+		averageFrameTime = average;
+
+		if (average > targetFrameTime + (long) (targetFrameTime * downMargin)) {
+			missedWindows++;
+			goodWindows = 0;
+			if (justRaised) {
+				// The last raise was too far; wait longer before the next one
+				upDelay = Math.min(upDelay * 2, MAX_UP_DELAY);
+			}
+			justRaised = false;
+
+			// Pixel cost goes with the square of the scale
+			final float newScale = Math.max(minScale, scale
+					* FloatMath.sqrt(targetFrameTime / (float) average));
+			if (newScale < scale) {
+				scale = newScale;
+				scaleDowns++;
+			}
+		} else {
+			if (justRaised) {
+				upDelay = baseUpDelay;
+			}
+			justRaised = false;
+			if (++goodWindows >= upDelay && scale < maxScale) {
+				scale = Math.min(maxScale, scale + step);
+				scaleUps++;
+				goodWindows = 0;
+				justRaised = true;
+			}
+		}
+		return scale;
+	}
+
+	/**
+	 * @return The current render scale.
+	 */
+	public float getScale() {
+		return scale;
+	}
+
+	public float getMinScale() {
+		return minScale;
+	}
+
+	public float getMaxScale() {
+		return maxScale;
+	}
+
+	/**
+	 * @return The target frame time, in nanoseconds.
+	 */
+	public long getTargetFrameTime() {
+		return targetFrameTime;
+	}
+
+	/**
+	 * @return The average frame time of the last complete window, in
+	 *         nanoseconds.
+	 */
+	public long getAverageFrameTime() {
+		return averageFrameTime;
+	}
+
+	/**
+	 * @return The number of times the scale has been raised.
+	 */
+	public int getScaleUps() {
+		return scaleUps;
+	}
+
+	/**
+	 * @return The number of times the scale has been lowered.
+	 */
+	public int getScaleDowns() {
+		return scaleDowns;
+	}
+
+	/**
+	 * @return The number of windows whose average missed the target.
+	 */
+	public int getMissedWindows() {
+		return missedWindows;
+	}
+
+	/**
+	 * @return The number of frames that were ignored as stalls.
+	 */
+	public int getSkippedFrames() {
+		return skippedFrames;
+	}
+
+	@Override
+	public String toString() {
+		return "DynamicResolution[scale=" + scale + ", avg="
+				+ (averageFrameTime / 1000000f) + "ms, target="
+				+ (targetFrameTime / 1000000f) + "ms, ups=" + scaleUps
+				+ ", downs=" + scaleDowns + ", missed=" + missedWindows + "]";
+	}
+}
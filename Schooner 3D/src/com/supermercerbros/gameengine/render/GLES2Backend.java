@@ -0,0 +1,384 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.render;
+
+import java.nio.Buffer;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import com.supermercerbros.gameengine.util.GLES2;
+
+/**
+ * The default {@link RenderBackend}, which passes every call on to
+ * {@link GLES20} (or the patched methods in {@link GLES2}).
+ */
+public class GLES2Backend implements RenderBackend {
+
+	@Override
+	public void beginFrame() {
+		// Nothing to do
+	}
+
+	@Override
+	public void glActiveTexture(int texture) {
+		GLES20.glActiveTexture(texture);
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		GLES20.glBindTexture(target, texture);
+	}
+
+	@Override
+	public void glGenTextures(int n, int[] textures, int offset) {
+		GLES20.glGenTextures(n, textures, offset);
+	}
+
+	@Override
+	public void glDeleteTextures(int n, int[] textures, int offset) {
+		GLES20.glDeleteTextures(n, textures, offset);
+	}
+
+	@Override
+	public boolean glIsTexture(int texture) {
+		return GLES20.glIsTexture(texture);
+	}
+
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+		GLES20.glTexParameteri(target, pname, param);
+	}
+
+	@Override
+	public void glTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int format, int type,
+			Buffer pixels) {
+		GLES20.glTexImage2D(target, level, internalformat, width, height,
+				border, format, type, pixels);
+	}
+
+	@Override
+	public void glTexSubImage2D(int target, int level, int xoffset,
+			int yoffset, int width, int height, int format, int type,
+			Buffer pixels) {
+		GLES20.glTexSubImage2D(target, level, xoffset, yoffset, width, height,
+				format, type, pixels);
+	}
+
+	@Override
+	public void texImage2D(int target, int level, Bitmap bitmap, int border) {
+		GLUtils.texImage2D(target, level, bitmap, border);
+	}
+
+	@Override
+	public void glCompressedTexImage2D(int target, int level,
+			int internalformat, int width, int height, int border,
+			int imageSize, Buffer data) {
+		GLES20.glCompressedTexImage2D(target, level, internalformat, width,
+				height, border, imageSize, data);
+	}
+
+	@Override
+	public void glGenerateMipmap(int target) {
+		GLES20.glGenerateMipmap(target);
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		GLES20.glBindBuffer(target, buffer);
+	}
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		GLES20.glGenBuffers(n, buffers, offset);
+	}
+
+	@Override
+	public void glDeleteBuffers(int n, int[] buffers, int offset) {
+		GLES20.glDeleteBuffers(n, buffers, offset);
+	}
+
+	@Override
+	public boolean glIsBuffer(int buffer) {
+		return GLES20.glIsBuffer(buffer);
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+		GLES20.glBufferData(target, size, data, usage);
+	}
+
+	@Override
+	public void glBufferSubData(int target, int offset, int size, Buffer data) {
+		GLES20.glBufferSubData(target, offset, size, data);
+	}
+
+	@Override
+	public void glBindFramebuffer(int target, int framebuffer) {
+		GLES20.glBindFramebuffer(target, framebuffer);
+	}
+
+	@Override
+	public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+		GLES20.glGenFramebuffers(n, framebuffers, offset);
+	}
+
+	@Override
+	public boolean glIsFramebuffer(int framebuffer) {
+		return GLES20.glIsFramebuffer(framebuffer);
+	}
+
+	@Override
+	public void glFramebufferTexture2D(int target, int attachment,
+			int textarget, int texture, int level) {
+		GLES20.glFramebufferTexture2D(target, attachment, textarget, texture,
+				level);
+	}
+
+	@Override
+	public void glFramebufferRenderbuffer(int target, int attachment,
+			int renderbuffertarget, int renderbuffer) {
+		GLES20.glFramebufferRenderbuffer(target, attachment,
+				renderbuffertarget, renderbuffer);
+	}
+
+	@Override
+	public void glBindRenderbuffer(int target, int renderbuffer) {
+		GLES20.glBindRenderbuffer(target, renderbuffer);
+	}
+
+	@Override
+	public void glGenRenderbuffers(int n, int[] renderbuffers, int offset) {
+		GLES20.glGenRenderbuffers(n, renderbuffers, offset);
+	}
+
+	@Override
+	public boolean glIsRenderbuffer(int renderbuffer) {
+		return GLES20.glIsRenderbuffer(renderbuffer);
+	}
+
+	@Override
+	public void glRenderbufferStorage(int target, int internalformat,
+			int width, int height) {
+		GLES20.glRenderbufferStorage(target, internalformat, width, height);
+	}
+
+	@Override
+	public int glCreateShader(int type) {
+		return GLES20.glCreateShader(type);
+	}
+
+	@Override
+	public void glShaderSource(int shader, String source) {
+		GLES20.glShaderSource(shader, source);
+	}
+
+	@Override
+	public void glCompileShader(int shader) {
+		GLES20.glCompileShader(shader);
+	}
+
+	@Override
+	public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+		GLES20.glGetShaderiv(shader, pname, params, offset);
+	}
+
+	@Override
+	public String glGetShaderInfoLog(int shader) {
+		return GLES20.glGetShaderInfoLog(shader);
+	}
+
+	@Override
+	public void glDeleteShader(int shader) {
+		GLES20.glDeleteShader(shader);
+	}
+
+	@Override
+	public int glCreateProgram() {
+		return GLES20.glCreateProgram();
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader) {
+		GLES20.glAttachShader(program, shader);
+	}
+
+	@Override
+	public void glLinkProgram(int program) {
+		GLES20.glLinkProgram(program);
+	}
+
+	@Override
+	public void glGetProgramiv(int program, int pname, int[] params,
+			int offset) {
+		GLES20.glGetProgramiv(program, pname, params, offset);
+	}
+
+	@Override
+	public String glGetProgramInfoLog(int program) {
+		return GLES20.glGetProgramInfoLog(program);
+	}
+
+	@Override
+	public void glDeleteProgram(int program) {
+		GLES20.glDeleteProgram(program);
+	}
+
+	@Override
+	public boolean glIsProgram(int program) {
+		return GLES20.glIsProgram(program);
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		GLES20.glUseProgram(program);
+	}
+
+	@Override
+	public int glGetAttribLocation(int program, String name) {
+		return GLES20.glGetAttribLocation(program, name);
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, String name) {
+		return GLES20.glGetUniformLocation(program, name);
+	}
+
+	@Override
+	public void glUniform1i(int location, int x) {
+		GLES20.glUniform1i(location, x);
+	}
+
+	@Override
+	public void glUniform1fv(int location, int count, float[] v, int offset) {
+		GLES20.glUniform1fv(location, count, v, offset);
+	}
+
+	@Override
+	public void glUniform2fv(int location, int count, float[] v, int offset) {
+		GLES20.glUniform2fv(location, count, v, offset);
+	}
+
+	@Override
+	public void glUniform3fv(int location, int count, float[] v, int offset) {
+		GLES20.glUniform3fv(location, count, v, offset);
+	}
+
+	@Override
+	public void glUniform4fv(int location, int count, float[] v, int offset) {
+		GLES20.glUniform4fv(location, count, v, offset);
+	}
+
+	@Override
+	public void glUniformMatrix4fv(int location, int count, boolean transpose,
+			float[] value, int offset) {
+		GLES20.glUniformMatrix4fv(location, count, transpose, value, offset);
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		GLES20.glEnableVertexAttribArray(index);
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		GLES20.glDisableVertexAttribArray(index);
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, int offset) {
+		GLES2.glVertexAttribPointer(index, size, type, normalized, stride,
+				offset);
+	}
+
+	@Override
+	public void glVertexAttrib1fv(int index, float[] values, int offset) {
+		GLES20.glVertexAttrib1fv(index, values, offset);
+	}
+
+	@Override
+	public void glVertexAttrib2fv(int index, float[] values, int offset) {
+		GLES20.glVertexAttrib2fv(index, values, offset);
+	}
+
+	@Override
+	public void glVertexAttrib3fv(int index, float[] values, int offset) {
+		GLES20.glVertexAttrib3fv(index, values, offset);
+	}
+
+	@Override
+	public void glVertexAttrib4fv(int index, float[] values, int offset) {
+		GLES20.glVertexAttrib4fv(index, values, offset);
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, int offset) {
+		GLES2.glDrawElements(mode, count, type, offset);
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		GLES20.glDrawArrays(mode, first, count);
+	}
+
+	@Override
+	public void glEnable(int cap) {
+		GLES20.glEnable(cap);
+	}
+
+	@Override
+	public void glDisable(int cap) {
+		GLES20.glDisable(cap);
+	}
+
+	@Override
+	public void glDepthMask(boolean flag) {
+		GLES20.glDepthMask(flag);
+	}
+
+	@Override
+	public void glBlendFunc(int sfactor, int dfactor) {
+		GLES20.glBlendFunc(sfactor, dfactor);
+	}
+
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+		GLES20.glViewport(x, y, width, height);
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		GLES20.glClearColor(red, green, blue, alpha);
+	}
+
+	@Override
+	public void glClear(int mask) {
+		GLES20.glClear(mask);
+	}
+
+	@Override
+	public void glFinish() {
+		GLES20.glFinish();
+	}
+
+	@Override
+	public int glGetError() {
+		return GLES20.glGetError();
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.render;
+
+import java.nio.Buffer;
+
+import com.supermercerbros.gameengine.Schooner3D;
+import com.supermercerbros.gameengine.engine.EGLContextLostHandler;
+import com.supermercerbros.gameengine.engine.EGLContextLostHandler.EGLContextLostListener;
+
+/**
+ * A vertex or index buffer that creates itself on the GPU when it is bound,
+ * from a client-side copy of its data. If the buffer is evicted or the GL
+ * context is lost, it is recreated from that copy the next time it is bound.
+ */
+public class GpuBuffer implements GpuResource, EGLContextLostListener {
+	private final int target;
+	private final int size;
+	private final Buffer data;
+	private final int usage;
+	private int handle = -1;
+	private final ResourceManager.Usage resourceUsage = new ResourceManager.Usage();
+
+	/**
+	 * Constructs a new GpuBuffer. Nothing is created until it is bound.
+	 *
+	 * @param target
+	 *            {@link android.opengl.GLES20#GL_ARRAY_BUFFER} or
+	 *            {@link android.opengl.GLES20#GL_ELEMENT_ARRAY_BUFFER}.
+	 * @param size
+	 *            The size of the buffer, in bytes.
+	 * @param data
+	 *            The client-side copy of the buffer's contents, which is
+	 *            uploaded from its start whenever the buffer is created. The
+	 *            owner must keep it up to date.
+	 * @param usage
+	 *            The usage hint, such as
+	 *            {@link android.opengl.GLES20#GL_STATIC_DRAW}.
+	 */
+	public GpuBuffer(int target, int size, Buffer data, int usage) {
+		this.target = target;
+		this.size = size;
+		this.data = data;
+		this.usage = usage;
+		EGLContextLostHandler.addListener(this);
+	}
+
+	/**
+	 * Binds this buffer to its target, creating it first if needed. Must be
+	 * called on the GL thread.
+	 *
+	 * @return The handle of the buffer.
+	 */
+	public int bind() {
+		final RenderBackend gl = Schooner3D.renderBackend;
+		if (handle == -1) {
+			final int[] handles = new int[1];
+			gl.glGenBuffers(1, handles, 0);
+			handle = handles[0];
+			gl.glBindBuffer(target, handle);
+
+			final int position = data.position();
+			data.position(0);
+			gl.glBufferData(target, size, data, usage);
+			data.position(position);
+		} else {
+			gl.glBindBuffer(target, handle);
+		}
+		ResourceManager.touch(this);
+		return handle;
+	}
+
+	/**
+	 * @return The handle of the buffer, or -1 if it has not been created.
+	 */
+	public int getHandle() {
+		return handle;
+	}
+
+	@Override
+	public ResourceManager.Usage getUsage() {
+		return resourceUsage;
+	}
+
+	@Override
+	public int getResourceType() {
+		return TYPE_BUFFER;
+	}
+
+	@Override
+	public int getGpuBytes() {
+		return size;
+	}
+
+	@Override
+	public boolean isResident() {
+		return handle != -1;
+	}
+
+	@Override
+	public void evict() {
+		if (handle != -1) {
+			Schooner3D.renderBackend.glDeleteBuffers(1, new int[] { handle },
+					0);
+			handle = -1;
+		}
+	}
+
+	@Override
+	public void onContextLost() {
+		if (handle != -1 && !Schooner3D.renderBackend.glIsBuffer(handle)) {
+			handle = -1;
+		}
+	}
+}
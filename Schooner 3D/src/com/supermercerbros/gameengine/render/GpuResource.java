@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.render;
+
+/**
+ * An object that owns GPU memory, such as a texture, program, or buffer.
+ * GpuResources are tracked by the {@link ResourceManager}, which may evict
+ * them when they are not referenced. An evicted GpuResource must reload
+ * itself the next time it is used.
+ */
+public interface GpuResource {
+	public static final int TYPE_TEXTURE = 0;
+	public static final int TYPE_PROGRAM = 1;
+	public static final int TYPE_BUFFER = 2;
+
+	/**
+	 * @return {@link #TYPE_TEXTURE}, {@link #TYPE_PROGRAM}, or
+	 *         {@link #TYPE_BUFFER}.
+	 */
+	public int getResourceType();
+
+	/**
+	 * @return The estimated GPU memory used by this resource when it is
+	 *         resident, in bytes.
+	 */
+	public int getGpuBytes();
+
+	/**
+	 * @return true if this resource is currently loaded on the GPU.
+	 */
+	public boolean isResident();
+
+	/**
+	 * Frees this resource's GPU memory. Called on the GL thread.
+	 */
+	public void evict();
+
+	/**
+	 * @return The object that the ResourceManager records this resource's use
+	 *         in. A resource creates one, and always returns the same one.
+	 */
+	public ResourceManager.Usage getUsage();
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.render;
+
+import java.nio.Buffer;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+
+/**
+ * A {@link RenderBackend} that does nothing. Use this to measure the CPU cost
+ * of the render path without a GPU.
+ *
+ * <p>
+ * Object creation calls return increasing non-zero handles, and the
+ * corresponding <code>glIs*</code> calls return true for any handle that has
+ * been generated. Shaders always compile, programs always link, every uniform
+ * and attribute location is 0, and {@link #glGetError()} always returns
+ * {@link GLES20#GL_NO_ERROR}.
+ * </p>
+ */
+public class NullBackend implements RenderBackend {
+	private int nextHandle = 1;
+
+	private void genHandles(int n, int[] handles, int offset) {
+		for (int i = 0; i < n; i++) {
+			handles[offset + i] = nextHandle++;
+		}
+	}
+
+	private boolean isHandle(int handle) {
+		return handle > 0 && handle < nextHandle;
+	}
+
+	@Override
+	public void beginFrame() {
+	}
+
+	@Override
+	public void glActiveTexture(int texture) {
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+	}
+
+	@Override
+	public void glGenTextures(int n, int[] textures, int offset) {
+		genHandles(n, textures, offset);
+	}
+
+	@Override
+	public void glDeleteTextures(int n, int[] textures, int offset) {
+	}
+
+	@Override
+	public boolean glIsTexture(int texture) {
+		return isHandle(texture);
+	}
+
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+	}
+
+	@Override
+	public void glTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int format, int type,
+			Buffer pixels) {
+	}
+
+	@Override
+	public void glTexSubImage2D(int target, int level, int xoffset,
+			int yoffset, int width, int height, int format, int type,
+			Buffer pixels) {
+	}
+
+	@Override
+	public void texImage2D(int target, int level, Bitmap bitmap, int border) {
+	}
+
+	@Override
+	public void glCompressedTexImage2D(int target, int level,
+			int internalformat, int width, int height, int border,
+			int imageSize, Buffer data) {
+	}
+
+	@Override
+	public void glGenerateMipmap(int target) {
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+	}
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		genHandles(n, buffers, offset);
+	}
+
+	@Override
+	public void glDeleteBuffers(int n, int[] buffers, int offset) {
+	}
+
+	@Override
+	public boolean glIsBuffer(int buffer) {
+		return isHandle(buffer);
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+	}
+
+	@Override
+	public void glBufferSubData(int target, int offset, int size, Buffer data) {
+	}
+
+	@Override
+	public void glBindFramebuffer(int target, int framebuffer) {
+	}
+
+	@Override
+	public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+		genHandles(n, framebuffers, offset);
+	}
+
+	@Override
+	public boolean glIsFramebuffer(int framebuffer) {
+		return isHandle(framebuffer);
+	}
+
+	@Override
+	public void glFramebufferTexture2D(int target, int attachment,
+			int textarget, int texture, int level) {
+	}
+
+	@Override
+	public void glFramebufferRenderbuffer(int target, int attachment,
+			int renderbuffertarget, int renderbuffer) {
+	}
+
+	@Override
+	public void glBindRenderbuffer(int target, int renderbuffer) {
+	}
+
+	@Override
+	public void glGenRenderbuffers(int n, int[] renderbuffers, int offset) {
+		genHandles(n, renderbuffers, offset);
+	}
+
+	@Override
+	public boolean glIsRenderbuffer(int renderbuffer) {
+		return isHandle(renderbuffer);
+	}
+
+	@Override
+	public void glRenderbufferStorage(int target, int internalformat,
+			int width, int height) {
+	}
+
+	@Override
+	public int glCreateShader(int type) {
+		return nextHandle++;
+	}
+
+	@Override
+	public void glShaderSource(int shader, String source) {
+	}
+
+	@Override
+	public void glCompileShader(int shader) {
+	}
+
+	@Override
+	public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+		params[offset] = GLES20.GL_TRUE;
+	}
+
+	@Override
+	public String glGetShaderInfoLog(int shader) {
+		return "";
+	}
+
+	@Override
+	public void glDeleteShader(int shader) {
+	}
+
+	@Override
+	public int glCreateProgram() {
+		return nextHandle++;
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader) {
+	}
+
+	@Override
+	public void glLinkProgram(int program) {
+	}
+
+	@Override
+	public void glGetProgramiv(int program, int pname, int[] params,
+			int offset) {
+		params[offset] = GLES20.GL_TRUE;
+	}
+
+	@Override
+	public String glGetProgramInfoLog(int program) {
+		return "";
+	}
+
+	@Override
+	public void glDeleteProgram(int program) {
+	}
+
+	@Override
+	public boolean glIsProgram(int program) {
+		return isHandle(program);
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+	}
+
+	@Override
+	public int glGetAttribLocation(int program, String name) {
+		return 0;
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, String name) {
+		return 0;
+	}
+
+	@Override
+	public void glUniform1i(int location, int x) {
+	}
+
+	@Override
+	public void glUniform1fv(int location, int count, float[] v, int offset) {
+	}
+
+	@Override
+	public void glUniform2fv(int location, int count, float[] v, int offset) {
+	}
+
+	@Override
+	public void glUniform3fv(int location, int count, float[] v, int offset) {
+	}
+
+	@Override
+	public void glUniform4fv(int location, int count, float[] v, int offset) {
+	}
+
+	@Override
+	public void glUniformMatrix4fv(int location, int count, boolean transpose,
+			float[] value, int offset) {
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, int offset) {
+	}
+
+	@Override
+	public void glVertexAttrib1fv(int index, float[] values, int offset) {
+	}
+
+	@Override
+	public void glVertexAttrib2fv(int index, float[] values, int offset) {
+	}
+
+	@Override
+	public void glVertexAttrib3fv(int index, float[] values, int offset) {
+	}
+
+	@Override
+	public void glVertexAttrib4fv(int index, float[] values, int offset) {
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, int offset) {
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+	}
+
+	@Override
+	public void glEnable(int cap) {
+	}
+
+	@Override
+	public void glDisable(int cap) {
+	}
+
+	@Override
+	public void glDepthMask(boolean flag) {
+	}
+
+	@Override
+	public void glBlendFunc(int sfactor, int dfactor) {
+	}
+
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+	}
+
+	@Override
+	public void glClear(int mask) {
+	}
+
+	@Override
+	public void glFinish() {
+	}
+
+	@Override
+	public int glGetError() {
+		return GLES20.GL_NO_ERROR;
+	}
+}
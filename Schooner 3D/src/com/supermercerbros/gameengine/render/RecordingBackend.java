@@ -0,0 +1,655 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.render;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import android.graphics.Bitmap;
+
+/**
+ * A {@link RenderBackend} that counts and (optionally) logs every call with its
+ * arguments before passing it on to another backend. By default, calls are
+ * passed on to a {@link NullBackend}, so a RecordingBackend can be used to test
+ * the render path without a GPU.
+ *
+ * <p>
+ * In addition to the total number of calls made to each method, the number of
+ * draw calls, state changes, uniform updates and uploaded bytes are counted for
+ * each frame. These counters are reset by {@link #beginFrame()}.
+ * </p>
+ */
+public class RecordingBackend implements RenderBackend {
+	private final RenderBackend delegate;
+	private final HashMap<String, int[]> callCounts = new HashMap<String, int[]>();
+	private final ArrayList<String> log = new ArrayList<String>();
+	private boolean logging = false;
+
+	private int frames;
+	private int frameDrawCalls;
+	private int frameStateChanges;
+	private int frameUniforms;
+	private int frameUploadBytes;
+
+	/**
+	 * Constructs a new RecordingBackend that passes calls on to a
+	 * {@link NullBackend}.
+	 */
+	public RecordingBackend() {
+		this(new NullBackend());
+	}
+
+	/**
+	 * Constructs a new RecordingBackend.
+	 * 
+	 * @param delegate
+	 *            The RenderBackend to pass calls on to.
+	 */
+	public RecordingBackend(RenderBackend delegate) {
+		if (delegate == null) {
+			throw new NullPointerException("delegate == null");
+		}
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Sets whether calls are logged. Logging is disabled by default.
+	 * 
+	 * @param logging
+	 *            true to add every call (and its arguments) to the log.
+	 */
+	public void setLogging(boolean logging) {
+		this.logging = logging;
+	}
+
+	/**
+	 * @return The logged calls, in the order they were made, formatted as
+	 *         <code>glName(arg0, arg1, ...)</code>.
+	 */
+	public List<String> getLog() {
+		return log;
+	}
+
+	/**
+	 * Clears the log and all counters.
+	 */
+	public void reset() {
+		log.clear();
+		callCounts.clear();
+		frames = 0;
+		frameDrawCalls = 0;
+		frameStateChanges = 0;
+		frameUniforms = 0;
+		frameUploadBytes = 0;
+	}
+
+	/**
+	 * @param name
+	 *            The name of a RenderBackend method, such as
+	 *            <code>"glDrawElements"</code>.
+	 * @return The number of times the given method has been called since this
+	 *         RenderBackend was created or last reset.
+	 */
+	public int getCallCount(String name) {
+		final int[] count = callCounts.get(name);
+		return count == null ? 0 : count[0];
+	}
+
+	/**
+	 * @return The number of frames begun since this RenderBackend was created
+	 *         or last reset.
+	 */
+	public int getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * @return The number of draw calls made in the current frame.
+	 */
+	public int getDrawCalls() {
+		return frameDrawCalls;
+	}
+
+	/**
+	 * @return The number of state changes (binds, enables, disables, etc.)
+	 *         made in the current frame.
+	 */
+	public int getStateChanges() {
+		return frameStateChanges;
+	}
+
+	/**
+	 * @return The number of uniforms set in the current frame.
+	 */
+	public int getUniformUpdates() {
+		return frameUniforms;
+	}
+
+	/**
+	 * @return The number of bytes uploaded to buffers and textures in the
+	 *         current frame.
+	 */
+	public int getUploadBytes() {
+		return frameUploadBytes;
+	}
+
+	private void record(String name, Object... args) {
+		final int[] count = callCounts.get(name);
+		if (count == null) {
+			callCounts.put(name, new int[] { 1 });
+		} else {
+			count[0]++;
+		}
+
+		if (logging) {
+			final StringBuilder sb = new StringBuilder(name);
+			sb.append('(');
+			for (int i = 0; i < args.length; i++) {
+				if (i > 0) {
+					sb.append(", ");
+				}
+				final Object arg = args[i];
+				if (arg instanceof int[]) {
+					sb.append(Arrays.toString((int[]) arg));
+				} else if (arg instanceof float[]) {
+					sb.append(Arrays.toString((float[]) arg));
+				} else {
+					sb.append(arg);
+				}
+			}
+			sb.append(')');
+			log.add(sb.toString());
+		}
+	}
+
+	private static int bytesPerElement(Buffer buffer) {
+		if (buffer instanceof ByteBuffer) {
+			return 1;
+		} else if (buffer instanceof ShortBuffer
+				|| buffer instanceof CharBuffer) {
+			return 2;
+		} else {
+			return 4;
+		}
+	}
+
+	@Override
+	public void beginFrame() {
+		record("beginFrame");
+		frames++;
+		frameDrawCalls = 0;
+		frameStateChanges = 0;
+		frameUniforms = 0;
+		frameUploadBytes = 0;
+		delegate.beginFrame();
+	}
+
+	@Override
+	public void glActiveTexture(int texture) {
+		record("glActiveTexture", texture);
+		frameStateChanges++;
+		delegate.glActiveTexture(texture);
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		record("glBindTexture", target, texture);
+		frameStateChanges++;
+		delegate.glBindTexture(target, texture);
+	}
+
+	@Override
+	public void glGenTextures(int n, int[] textures, int offset) {
+		record("glGenTextures", n, textures, offset);
+		delegate.glGenTextures(n, textures, offset);
+	}
+
+	@Override
+	public void glDeleteTextures(int n, int[] textures, int offset) {
+		record("glDeleteTextures", n, textures, offset);
+		delegate.glDeleteTextures(n, textures, offset);
+	}
+
+	@Override
+	public boolean glIsTexture(int texture) {
+		record("glIsTexture", texture);
+		return delegate.glIsTexture(texture);
+	}
+
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+		record("glTexParameteri", target, pname, param);
+		delegate.glTexParameteri(target, pname, param);
+	}
+
+	@Override
+	public void glTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int format, int type,
+			Buffer pixels) {
+		record("glTexImage2D", target, level, internalformat, width, height,
+				border, format, type, pixels);
+		if (pixels != null) {
+			frameUploadBytes += pixels.remaining() * bytesPerElement(pixels);
+		}
+		delegate.glTexImage2D(target, level, internalformat, width, height,
+				border, format, type, pixels);
+	}
+
+	@Override
+	public void glTexSubImage2D(int target, int level, int xoffset,
+			int yoffset, int width, int height, int format, int type,
+			Buffer pixels) {
+		record("glTexSubImage2D", target, level, xoffset, yoffset, width,
+				height, format, type, pixels);
+		frameUploadBytes += pixels.remaining() * bytesPerElement(pixels);
+		delegate.glTexSubImage2D(target, level, xoffset, yoffset, width,
+				height, format, type, pixels);
+	}
+
+	@Override
+	public void texImage2D(int target, int level, Bitmap bitmap, int border) {
+		record("texImage2D", target, level, bitmap, border);
+		frameUploadBytes += bitmap.getRowBytes() * bitmap.getHeight();
+		delegate.texImage2D(target, level, bitmap, border);
+	}
+
+	@Override
+	public void glCompressedTexImage2D(int target, int level,
+			int internalformat, int width, int height, int border,
+			int imageSize, Buffer data) {
+		record("glCompressedTexImage2D", target, level, internalformat,
+				width, height, border, imageSize, data);
+		frameUploadBytes += imageSize;
+		delegate.glCompressedTexImage2D(target, level, internalformat, width,
+				height, border, imageSize, data);
+	}
+
+	@Override
+	public void glGenerateMipmap(int target) {
+		record("glGenerateMipmap", target);
+		delegate.glGenerateMipmap(target);
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		record("glBindBuffer", target, buffer);
+		frameStateChanges++;
+		delegate.glBindBuffer(target, buffer);
+	}
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		record("glGenBuffers", n, buffers, offset);
+		delegate.glGenBuffers(n, buffers, offset);
+	}
+
+	@Override
+	public void glDeleteBuffers(int n, int[] buffers, int offset) {
+		record("glDeleteBuffers", n, buffers, offset);
+		delegate.glDeleteBuffers(n, buffers, offset);
+	}
+
+	@Override
+	public boolean glIsBuffer(int buffer) {
+		record("glIsBuffer", buffer);
+		return delegate.glIsBuffer(buffer);
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+		record("glBufferData", target, size, data, usage);
+		frameUploadBytes += size;
+		delegate.glBufferData(target, size, data, usage);
+	}
+
+	@Override
+	public void glBufferSubData(int target, int offset, int size, Buffer data) {
+		record("glBufferSubData", target, offset, size, data);
+		frameUploadBytes += size;
+		delegate.glBufferSubData(target, offset, size, data);
+	}
+
+	@Override
+	public void glBindFramebuffer(int target, int framebuffer) {
+		record("glBindFramebuffer", target, framebuffer);
+		frameStateChanges++;
+		delegate.glBindFramebuffer(target, framebuffer);
+	}
+
+	@Override
+	public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+		record("glGenFramebuffers", n, framebuffers, offset);
+		delegate.glGenFramebuffers(n, framebuffers, offset);
+	}
+
+	@Override
+	public boolean glIsFramebuffer(int framebuffer) {
+		record("glIsFramebuffer", framebuffer);
+		return delegate.glIsFramebuffer(framebuffer);
+	}
+
+	@Override
+	public void glFramebufferTexture2D(int target, int attachment,
+			int textarget, int texture, int level) {
+		record("glFramebufferTexture2D", target, attachment, textarget,
+				texture, level);
+		delegate.glFramebufferTexture2D(target, attachment, textarget, texture,
+				level);
+	}
+
+	@Override
+	public void glFramebufferRenderbuffer(int target, int attachment,
+			int renderbuffertarget, int renderbuffer) {
+		record("glFramebufferRenderbuffer", target, attachment,
+				renderbuffertarget, renderbuffer);
+		delegate.glFramebufferRenderbuffer(target, attachment,
+				renderbuffertarget, renderbuffer);
+	}
+
+	@Override
+	public void glBindRenderbuffer(int target, int renderbuffer) {
+		record("glBindRenderbuffer", target, renderbuffer);
+		frameStateChanges++;
+		delegate.glBindRenderbuffer(target, renderbuffer);
+	}
+
+	@Override
+	public void glGenRenderbuffers(int n, int[] renderbuffers, int offset) {
+		record("glGenRenderbuffers", n, renderbuffers, offset);
+		delegate.glGenRenderbuffers(n, renderbuffers, offset);
+	}
+
+	@Override
+	public boolean glIsRenderbuffer(int renderbuffer) {
+		record("glIsRenderbuffer", renderbuffer);
+		return delegate.glIsRenderbuffer(renderbuffer);
+	}
+
+	@Override
+	public void glRenderbufferStorage(int target, int internalformat,
+			int width, int height) {
+		record("glRenderbufferStorage", target, internalformat, width, height);
+		delegate.glRenderbufferStorage(target, internalformat, width, height);
+	}
+
+	@Override
+	public int glCreateShader(int type) {
+		record("glCreateShader", type);
+		return delegate.glCreateShader(type);
+	}
+
+	@Override
+	public void glShaderSource(int shader, String source) {
+		record("glShaderSource", shader, source);
+		delegate.glShaderSource(shader, source);
+	}
+
+	@Override
+	public void glCompileShader(int shader) {
+		record("glCompileShader", shader);
+		delegate.glCompileShader(shader);
+	}
+
+	@Override
+	public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+		record("glGetShaderiv", shader, pname, params, offset);
+		delegate.glGetShaderiv(shader, pname, params, offset);
+	}
+
+	@Override
+	public String glGetShaderInfoLog(int shader) {
+		record("glGetShaderInfoLog", shader);
+		return delegate.glGetShaderInfoLog(shader);
+	}
+
+	@Override
+	public void glDeleteShader(int shader) {
+		record("glDeleteShader", shader);
+		delegate.glDeleteShader(shader);
+	}
+
+	@Override
+	public int glCreateProgram() {
+		record("glCreateProgram");
+		return delegate.glCreateProgram();
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader) {
+		record("glAttachShader", program, shader);
+		delegate.glAttachShader(program, shader);
+	}
+
+	@Override
+	public void glLinkProgram(int program) {
+		record("glLinkProgram", program);
+		delegate.glLinkProgram(program);
+	}
+
+	@Override
+	public void glGetProgramiv(int program, int pname, int[] params,
+			int offset) {
+		record("glGetProgramiv", program, pname, params, offset);
+		delegate.glGetProgramiv(program, pname, params, offset);
+	}
+
+	@Override
+	public String glGetProgramInfoLog(int program) {
+		record("glGetProgramInfoLog", program);
+		return delegate.glGetProgramInfoLog(program);
+	}
+
+	@Override
+	public void glDeleteProgram(int program) {
+		record("glDeleteProgram", program);
+		delegate.glDeleteProgram(program);
+	}
+
+	@Override
+	public boolean glIsProgram(int program) {
+		record("glIsProgram", program);
+		return delegate.glIsProgram(program);
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		record("glUseProgram", program);
+		frameStateChanges++;
+		delegate.glUseProgram(program);
+	}
+
+	@Override
+	public int glGetAttribLocation(int program, String name) {
+		record("glGetAttribLocation", program, name);
+		return delegate.glGetAttribLocation(program, name);
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, String name) {
+		record("glGetUniformLocation", program, name);
+		return delegate.glGetUniformLocation(program, name);
+	}
+
+	@Override
+	public void glUniform1i(int location, int x) {
+		record("glUniform1i", location, x);
+		frameUniforms++;
+		delegate.glUniform1i(location, x);
+	}
+
+	@Override
+	public void glUniform1fv(int location, int count, float[] v, int offset) {
+		record("glUniform1fv", location, count, v, offset);
+		frameUniforms++;
+		delegate.glUniform1fv(location, count, v, offset);
+	}
+
+	@Override
+	public void glUniform2fv(int location, int count, float[] v, int offset) {
+		record("glUniform2fv", location, count, v, offset);
+		frameUniforms++;
+		delegate.glUniform2fv(location, count, v, offset);
+	}
+
+	@Override
+	public void glUniform3fv(int location, int count, float[] v, int offset) {
+		record("glUniform3fv", location, count, v, offset);
+		frameUniforms++;
+		delegate.glUniform3fv(location, count, v, offset);
+	}
+
+	@Override
+	public void glUniform4fv(int location, int count, float[] v, int offset) {
+		record("glUniform4fv", location, count, v, offset);
+		frameUniforms++;
+		delegate.glUniform4fv(location, count, v, offset);
+	}
+
+	@Override
+	public void glUniformMatrix4fv(int location, int count, boolean transpose,
+			float[] value, int offset) {
+		record("glUniformMatrix4fv", location, count, transpose, value, offset);
+		frameUniforms++;
+		delegate.glUniformMatrix4fv(location, count, transpose, value, offset);
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		record("glEnableVertexAttribArray", index);
+		frameStateChanges++;
+		delegate.glEnableVertexAttribArray(index);
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		record("glDisableVertexAttribArray", index);
+		frameStateChanges++;
+		delegate.glDisableVertexAttribArray(index);
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, int offset) {
+		record("glVertexAttribPointer", index, size, type, normalized, stride,
+				offset);
+		delegate.glVertexAttribPointer(index, size, type, normalized, stride,
+				offset);
+	}
+
+	@Override
+	public void glVertexAttrib1fv(int index, float[] values, int offset) {
+		record("glVertexAttrib1fv", index, values, offset);
+		delegate.glVertexAttrib1fv(index, values, offset);
+	}
+
+	@Override
+	public void glVertexAttrib2fv(int index, float[] values, int offset) {
+		record("glVertexAttrib2fv", index, values, offset);
+		delegate.glVertexAttrib2fv(index, values, offset);
+	}
+
+	@Override
+	public void glVertexAttrib3fv(int index, float[] values, int offset) {
+		record("glVertexAttrib3fv", index, values, offset);
+		delegate.glVertexAttrib3fv(index, values, offset);
+	}
+
+	@Override
+	public void glVertexAttrib4fv(int index, float[] values, int offset) {
+		record("glVertexAttrib4fv", index, values, offset);
+		delegate.glVertexAttrib4fv(index, values, offset);
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, int offset) {
+		record("glDrawElements", mode, count, type, offset);
+		frameDrawCalls++;
+		delegate.glDrawElements(mode, count, type, offset);
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		record("glDrawArrays", mode, first, count);
+		frameDrawCalls++;
+		delegate.glDrawArrays(mode, first, count);
+	}
+
+	@Override
+	public void glEnable(int cap) {
+		record("glEnable", cap);
+		frameStateChanges++;
+		delegate.glEnable(cap);
+	}
+
+	@Override
+	public void glDisable(int cap) {
+		record("glDisable", cap);
+		frameStateChanges++;
+		delegate.glDisable(cap);
+	}
+
+	@Override
+	public void glDepthMask(boolean flag) {
+		record("glDepthMask", flag);
+		frameStateChanges++;
+		delegate.glDepthMask(flag);
+	}
+
+	@Override
+	public void glBlendFunc(int sfactor, int dfactor) {
+		record("glBlendFunc", sfactor, dfactor);
+		frameStateChanges++;
+		delegate.glBlendFunc(sfactor, dfactor);
+	}
+
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+		record("glViewport", x, y, width, height);
+		frameStateChanges++;
+		delegate.glViewport(x, y, width, height);
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		record("glClearColor", red, green, blue, alpha);
+		frameStateChanges++;
+		delegate.glClearColor(red, green, blue, alpha);
+	}
+
+	@Override
+	public void glClear(int mask) {
+		record("glClear", mask);
+		delegate.glClear(mask);
+	}
+
+	@Override
+	public void glFinish() {
+		record("glFinish");
+		delegate.glFinish();
+	}
+
+	@Override
+	public int glGetError() {
+		record("glGetError");
+		return delegate.glGetError();
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.render;
+
+import java.nio.Buffer;
+
+import android.graphics.Bitmap;
+
+/**
+ * The set of OpenGL ES 2.0 calls used by the renderer. All rendering code
+ * (GameRenderer, Materials, Programs, Textures, Compositors and the HUD) goes
+ * through the current backend, {@link com.supermercerbros.gameengine.Schooner3D#renderBackend},
+ * instead of calling {@link android.opengl.GLES20} directly. This allows the
+ * render path to run without a GPU, for example to measure its CPU cost with a
+ * {@link NullBackend} or to inspect its calls with a {@link RecordingBackend}.
+ *
+ * <p>
+ * Methods have the same names, arguments, and semantics as their
+ * {@link android.opengl.GLES20} counterparts, and use the same constants.
+ * </p>
+ */
+public interface RenderBackend {
+
+	/**
+	 * Called by the GameRenderer at the start of every frame, before any other
+	 * calls are made for that frame.
+	 */
+	public void beginFrame();
+
+	// Textures
+	public void glActiveTexture(int texture);
+
+	public void glBindTexture(int target, int texture);
+
+	public void glGenTextures(int n, int[] textures, int offset);
+
+	public void glDeleteTextures(int n, int[] textures, int offset);
+
+	public boolean glIsTexture(int texture);
+
+	public void glTexParameteri(int target, int pname, int param);
+
+	public void glTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int format, int type,
+			Buffer pixels);
+
+	public void glTexSubImage2D(int target, int level, int xoffset,
+			int yoffset, int width, int height, int format, int type,
+			Buffer pixels);
+
+	/**
+	 * Equivalent to {@link android.opengl.GLUtils#texImage2D(int, int, Bitmap, int)}.
+	 */
+	public void texImage2D(int target, int level, Bitmap bitmap, int border);
+
+	public void glCompressedTexImage2D(int target, int level,
+			int internalformat, int width, int height, int border,
+			int imageSize, Buffer data);
+
+	public void glGenerateMipmap(int target);
+
+	// Buffers
+	public void glBindBuffer(int target, int buffer);
+
+	public void glGenBuffers(int n, int[] buffers, int offset);
+
+	public void glDeleteBuffers(int n, int[] buffers, int offset);
+
+	public boolean glIsBuffer(int buffer);
+
+	public void glBufferData(int target, int size, Buffer data, int usage);
+
+	public void glBufferSubData(int target, int offset, int size, Buffer data);
+
+	// Framebuffers
+	public void glBindFramebuffer(int target, int framebuffer);
+
+	public void glGenFramebuffers(int n, int[] framebuffers, int offset);
+
+	public boolean glIsFramebuffer(int framebuffer);
+
+	public void glFramebufferTexture2D(int target, int attachment,
+			int textarget, int texture, int level);
+
+	public void glFramebufferRenderbuffer(int target, int attachment,
+			int renderbuffertarget, int renderbuffer);
+
+	public void glBindRenderbuffer(int target, int renderbuffer);
+
+	public void glGenRenderbuffers(int n, int[] renderbuffers, int offset);
+
+	public boolean glIsRenderbuffer(int renderbuffer);
+
+	public void glRenderbufferStorage(int target, int internalformat,
+			int width, int height);
+
+	// Shaders and programs
+	public int glCreateShader(int type);
+
+	public void glShaderSource(int shader, String source);
+
+	public void glCompileShader(int shader);
+
+	public void glGetShaderiv(int shader, int pname, int[] params, int offset);
+
+	public String glGetShaderInfoLog(int shader);
+
+	public void glDeleteShader(int shader);
+
+	public int glCreateProgram();
+
+	public void glAttachShader(int program, int shader);
+
+	public void glLinkProgram(int program);
+
+	public void glGetProgramiv(int program, int pname, int[] params, int offset);
+
+	public String glGetProgramInfoLog(int program);
+
+	public void glDeleteProgram(int program);
+
+	public boolean glIsProgram(int program);
+
+	public void glUseProgram(int program);
+
+	public int glGetAttribLocation(int program, String name);
+
+	public int glGetUniformLocation(int program, String name);
+
+	// Uniforms
+	public void glUniform1i(int location, int x);
+
+	public void glUniform1fv(int location, int count, float[] v, int offset);
+
+	public void glUniform2fv(int location, int count, float[] v, int offset);
+
+	public void glUniform3fv(int location, int count, float[] v, int offset);
+
+	public void glUniform4fv(int location, int count, float[] v, int offset);
+
+	public void glUniformMatrix4fv(int location, int count, boolean transpose,
+			float[] value, int offset);
+
+	// Vertex attributes
+	public void glEnableVertexAttribArray(int index);
+
+	public void glDisableVertexAttribArray(int index);
+
+	public void glVertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, int offset);
+
+	public void glVertexAttrib1fv(int index, float[] values, int offset);
+
+	public void glVertexAttrib2fv(int index, float[] values, int offset);
+
+	public void glVertexAttrib3fv(int index, float[] values, int offset);
+
+	public void glVertexAttrib4fv(int index, float[] values, int offset);
+
+	// Drawing and state
+	public void glDrawElements(int mode, int count, int type, int offset);
+
+	public void glDrawArrays(int mode, int first, int count);
+
+	public void glEnable(int cap);
+
+	public void glDisable(int cap);
+
+	public void glDepthMask(boolean flag);
+
+	public void glBlendFunc(int sfactor, int dfactor);
+
+	public void glViewport(int x, int y, int width, int height);
+
+	public void glClearColor(float red, float green, float blue, float alpha);
+
+	public void glClear(int mask);
+
+	public void glFinish();
+
+	public int glGetError();
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.render;
+
+import static android.opengl.GLES20.*;
+
+import com.supermercerbros.gameengine.Schooner3D;
+
+/**
+ * An off-screen color buffer, backed by a texture, with an optional depth
+ * buffer. Must only be used on the GL thread.
+ */
+public class RenderTarget {
+	private final boolean hasDepth;
+
+	private int texture = -1;
+	private int renderbuffer = -1;
+	private int framebuffer = -1;
+
+	private int width;
+	private int height;
+
+	/**
+	 * Constructs a new RenderTarget. No GL objects are created until
+	 * {@link #resize(int, int, boolean)} is called.
+	 *
+	 * @param hasDepth
+	 *            true if this RenderTarget needs a depth buffer.
+	 */
+	public RenderTarget(boolean hasDepth) {
+		this.hasDepth = hasDepth;
+	}
+
+	/**
+	 * Creates the GL objects of this RenderTarget if they do not exist (for
+	 * example, after the EGL context was lost), and allocates their storage at
+	 * the given size.
+	 *
+	 * @param width
+	 *            The width, in pixels.
+	 * @param height
+	 *            The height, in pixels.
+	 * @param linear
+	 *            true to sample the texture with linear filtering, which is
+	 *            needed when it is drawn at a different size.
+	 */
+	public void resize(int width, int height, boolean linear) {
+		final RenderBackend gl = Schooner3D.renderBackend;
+		final int[] handle = new int[1];
+
+		// Init texture
+		if (!gl.glIsTexture(texture)) {
+			gl.glGenTextures(1, handle, 0);
+			texture = handle[0];
+		}
+		final int filter = linear ? GL_LINEAR : GL_NEAREST;
+		gl.glBindTexture(GL_TEXTURE_2D, texture);
+		gl.glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB, width, height, 0, GL_RGB,
+				GL_UNSIGNED_SHORT_5_6_5, null);
+		gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, filter);
+		gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, filter);
+
+		// Init renderbuffer
+		if (hasDepth) {
+			if (!gl.glIsRenderbuffer(renderbuffer)) {
+				gl.glGenRenderbuffers(1, handle, 0);
+				renderbuffer = handle[0];
+			}
+			gl.glBindRenderbuffer(GL_RENDERBUFFER, renderbuffer);
+			gl.glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT16,
+					width, height);
+		}
+
+		// Init framebuffer
+		if (!gl.glIsFramebuffer(framebuffer)) {
+			gl.glGenFramebuffers(1, handle, 0);
+			framebuffer = handle[0];
+		}
+		gl.glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+		gl.glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0,
+				GL_TEXTURE_2D, texture, 0);
+		if (hasDepth) {
+			gl.glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT,
+					GL_RENDERBUFFER, renderbuffer);
+		}
+		gl.glBindFramebuffer(GL_FRAMEBUFFER, 0);
+
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Binds this RenderTarget's framebuffer. This does not set the viewport.
+	 */
+	public void bind() {
+		Schooner3D.renderBackend.glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+	}
+
+	/**
+	 * @return The handle of the color texture.
+	 */
+	public int getTexture() {
+		return texture;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+}
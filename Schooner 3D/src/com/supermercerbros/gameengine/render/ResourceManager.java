@@ -0,0 +1,434 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.render;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import android.content.res.Resources;
+import android.util.Log;
+
+import com.supermercerbros.gameengine.engine.shaders.Program;
+import com.supermercerbros.gameengine.texture.BitmapTexture;
+import com.supermercerbros.gameengine.texture.ETC1CompressedTexture;
+
+/**
+ * Tracks the GPU memory used by textures, programs, and buffers, and keeps it
+ * under a budget.
+ *
+ * <p>
+ * Resources obtained from the <code>acquire</code> methods are deduplicated
+ * by their source, and reference-counted: each <code>acquire</code> (or
+ * {@link #retain(GpuResource)}) must be matched by a
+ * {@link #release(GpuResource)}. Resources that are used without being
+ * acquired are tracked too, with no references. Resources are tracked weakly,
+ * so one that is dropped without being acquired is forgotten once it is
+ * garbage collected.
+ * </p>
+ *
+ * <p>
+ * Binding a resource only stamps its {@link Usage} with the current frame. At
+ * the end of every frame, if the resident resources use more than the budget,
+ * unreferenced resources that were not used in that frame are evicted, least
+ * recently used first. Evicted resources reload themselves when they are next
+ * used.
+ * </p>
+ */
+public class ResourceManager {
+	private static final String TAG = "ResourceManager";
+
+	/**
+	 * The default GPU memory budget, in bytes.
+	 */
+	public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+	/**
+	 * Where the ResourceManager records the use of a resource. Each
+	 * GpuResource creates one, and returns it from
+	 * {@link GpuResource#getUsage()}.
+	 */
+	public static final class Usage {
+		// Written whenever the resource is bound, without locking
+		volatile long lastUsedFrame = -1;
+		// Set once the resource is tracked
+		volatile Record record;
+	}
+
+	private static class Record extends WeakReference<GpuResource> {
+		final Usage usage;
+		final int type;
+		Object key = null;
+		int references = 0;
+		int bytes = 0;
+		boolean evicted = false;
+
+		Record(GpuResource resource, ReferenceQueue<GpuResource> queue) {
+			super(resource, queue);
+			this.usage = resource.getUsage();
+			this.type = resource.getResourceType();
+		}
+	}
+
+	private static long budget = DEFAULT_BUDGET;
+	private static volatile long frame = 0;
+
+	private static final HashSet<Record> records = new HashSet<Record>();
+	private static final ReferenceQueue<GpuResource> collected = new ReferenceQueue<GpuResource>();
+	private static final HashMap<Object, GpuResource> bySource = new HashMap<Object, GpuResource>();
+
+	// Statistics
+	private static long residentBytes = 0;
+	private static final long[] residentBytesByType = new long[3];
+	private static int hits = 0;
+	private static int misses = 0;
+	private static int evictions = 0;
+	private static int reloads = 0;
+
+	private ResourceManager() {
+	}
+
+	/**
+	 * Sets the GPU memory budget. Referenced resources and resources used in
+	 * the current frame are never evicted, so the budget can be exceeded.
+	 *
+	 * @param bytes
+	 *            The budget, in bytes.
+	 */
+	public static synchronized void setBudget(long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("bytes < 0");
+		}
+		budget = bytes;
+	}
+
+	public static synchronized long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Gets the BitmapTexture for the given resource, creating it if needed.
+	 *
+	 * @param res
+	 *            The Resources to load the image from.
+	 * @param id
+	 *            The resource identifier of the image.
+	 * @param useMipmaps
+	 *            true if mipmaps should be used.
+	 * @return The shared BitmapTexture, with a new reference.
+	 */
+	public static synchronized BitmapTexture acquireBitmapTexture(
+			Resources res, int id, boolean useMipmaps) {
+		final String key = "BitmapTexture:" + id + ":" + useMipmaps;
+		BitmapTexture texture = (BitmapTexture) lookup(key);
+		if (texture == null) {
+			texture = new BitmapTexture(res, id, useMipmaps);
+			add(key, texture);
+		}
+		return texture;
+	}
+
+	/**
+	 * Gets the ETC1CompressedTexture for the given resource, creating it if
+	 * needed.
+	 *
+	 * @param res
+	 *            The Resources to load the file from.
+	 * @param id
+	 *            The resource identifier of the file.
+	 * @param useMipmaps
+	 *            true if mipmaps should be used.
+	 * @return The shared ETC1CompressedTexture, with a new reference.
+	 */
+	public static synchronized ETC1CompressedTexture acquireETC1Texture(
+			Resources res, int id, boolean useMipmaps) {
+		final String key = "ETC1CompressedTexture:" + id + ":" + useMipmaps;
+		ETC1CompressedTexture texture = (ETC1CompressedTexture) lookup(key);
+		if (texture == null) {
+			texture = new ETC1CompressedTexture(res, id, useMipmaps);
+			add(key, texture);
+		}
+		return texture;
+	}
+
+	/**
+	 * Gets the Program with the given sources, creating it if needed.
+	 *
+	 * @param vert
+	 *            The source of the vertex shader.
+	 * @param frag
+	 *            The source of the fragment shader.
+	 * @return The shared Program, with a new reference.
+	 */
+	public static synchronized Program acquireProgram(String vert, String frag) {
+		final String key = "Program:" + vert + "\0" + frag;
+		Program program = (Program) lookup(key);
+		if (program == null) {
+			program = new Program(vert, frag);
+			add(key, program);
+		}
+		return program;
+	}
+
+	private static GpuResource lookup(Object key) {
+		final GpuResource resource = bySource.get(key);
+		if (resource != null) {
+			getRecord(resource).references++;
+			hits++;
+		}
+		return resource;
+	}
+
+	private static void add(Object key, GpuResource resource) {
+		final Record record = getRecord(resource);
+		record.key = key;
+		record.references = 1;
+		bySource.put(key, resource);
+		misses++;
+	}
+
+	/**
+	 * Adds a reference to the given resource, so that it will not be evicted.
+	 */
+	public static synchronized void retain(GpuResource resource) {
+		getRecord(resource).references++;
+	}
+
+	/**
+	 * Removes a reference to the given resource. A resource that was not
+	 * acquired by source is evicted when its last reference is released;
+	 * other resources stay cached until they are evicted.
+	 */
+	public static synchronized void release(GpuResource resource) {
+		final Record record = resource.getUsage().record;
+		if (record == null || record.references == 0) {
+			throw new IllegalStateException("Released unreferenced resource "
+					+ resource);
+		}
+		record.references--;
+		if (record.references == 0 && record.key == null) {
+			sync(resource, record);
+			evict(resource, record);
+		}
+	}
+
+	/**
+	 * Marks the given resource as used in the current frame. Resources call
+	 * this whenever they are bound, on the GL thread. This does not lock,
+	 * except the first time a resource is used.
+	 */
+	public static void touch(GpuResource resource) {
+		final Usage usage = resource.getUsage();
+		usage.lastUsedFrame = frame;
+		if (usage.record == null) {
+			track(resource);
+		}
+	}
+
+	private static synchronized void track(GpuResource resource) {
+		getRecord(resource);
+	}
+
+	private static Record getRecord(GpuResource resource) {
+		final Usage usage = resource.getUsage();
+		Record record = usage.record;
+		if (record == null) {
+			record = new Record(resource, collected);
+			records.add(record);
+			usage.record = record;
+		}
+		return record;
+	}
+
+	/**
+	 * Forgets the resources that have been garbage collected.
+	 */
+	private static void expunge() {
+		Reference<? extends GpuResource> ref;
+		while ((ref = collected.poll()) != null) {
+			final Record record = (Record) ref;
+			if (records.remove(record)) {
+				addBytes(record.type, -record.bytes);
+			}
+		}
+	}
+
+	private static void addBytes(int type, int bytes) {
+		residentBytes += bytes;
+		residentBytesByType[type] += bytes;
+	}
+
+	/**
+	 * Updates the resident size of a resource.
+	 */
+	private static void sync(GpuResource resource, Record record) {
+		final int bytes = resource.isResident() ? resource.getGpuBytes() : 0;
+		if (bytes != record.bytes) {
+			addBytes(record.type, bytes - record.bytes);
+			record.bytes = bytes;
+		}
+		if (record.evicted && resource.isResident()) {
+			record.evicted = false;
+			reloads++;
+		}
+	}
+
+	private static void evict(GpuResource resource, Record record) {
+		if (resource.isResident()) {
+			resource.evict();
+			evictions++;
+		}
+		record.evicted = true;
+		sync(resource, record);
+	}
+
+	/**
+	 * Evicts least-recently-used resources until the budget is met. Called by
+	 * the GameRenderer at the end of every frame.
+	 */
+	public static synchronized void trim() {
+		expunge();
+		final long now = frame;
+		for (Record record : records) {
+			final GpuResource resource = record.get();
+			if (resource != null) {
+				sync(resource, record);
+			}
+		}
+
+		if (residentBytes > budget) {
+			final ArrayList<Record> candidates = new ArrayList<Record>();
+			for (Record record : records) {
+				if (record.references == 0 && record.bytes > 0
+						&& record.usage.lastUsedFrame != now) {
+					candidates.add(record);
+				}
+			}
+			Collections.sort(candidates, LEAST_RECENTLY_USED);
+			for (Record record : candidates) {
+				if (residentBytes <= budget) {
+					break;
+				}
+				final GpuResource resource = record.get();
+				if (resource != null) {
+					evict(resource, record);
+				}
+			}
+			if (residentBytes > budget) {
+				Log.w(TAG, "Over budget: " + residentBytes + " of " + budget
+						+ " bytes are in use");
+			}
+		}
+		frame = now + 1;
+	}
+
+	private static final Comparator<Record> LEAST_RECENTLY_USED = new Comparator<Record>() {
+		@Override
+		public int compare(Record lhs, Record rhs) {
+			final long l = lhs.usage.lastUsedFrame;
+			final long r = rhs.usage.lastUsedFrame;
+			return l < r ? -1 : (l == r ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Called by the GameRenderer when the GL context is lost, after the
+	 * resources have been notified.
+	 */
+	public static synchronized void onContextLost() {
+		expunge();
+		for (Record record : records) {
+			final GpuResource resource = record.get();
+			if (resource != null) {
+				sync(resource, record);
+			}
+		}
+	}
+
+	/**
+	 * @return The estimated GPU memory used by resident resources, in bytes.
+	 */
+	public static synchronized long getResidentBytes() {
+		return residentBytes;
+	}
+
+	/**
+	 * @param type
+	 *            A {@link GpuResource} type.
+	 * @return The estimated GPU memory used by resident resources of the given
+	 *         type, in bytes.
+	 */
+	public static synchronized long getResidentBytes(int type) {
+		return residentBytesByType[type];
+	}
+
+	/**
+	 * @return The number of resources being tracked.
+	 */
+	public static synchronized int getResourceCount() {
+		expunge();
+		return records.size();
+	}
+
+	/**
+	 * @return The number of tracked resources that are resident.
+	 */
+	public static synchronized int getResidentCount() {
+		expunge();
+		int count = 0;
+		for (Record record : records) {
+			if (record.bytes > 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return The number of <code>acquire</code> calls that returned an
+	 *         existing resource.
+	 */
+	public static synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of <code>acquire</code> calls that created a
+	 *         resource.
+	 */
+	public static synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of resources that have been evicted.
+	 */
+	public static synchronized int getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return The number of evicted resources that have been reloaded.
+	 */
+	public static synchronized int getReloads() {
+		return reloads;
+	}
+}
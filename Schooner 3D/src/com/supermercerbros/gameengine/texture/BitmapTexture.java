@@ -16,15 +16,16 @@
 
 package com.supermercerbros.gameengine.texture;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
 import android.util.Log;
 
-import com.supermercerbros.gameengine.engine.GameRenderer;
-
 public class BitmapTexture extends Texture {
 	private static final String TAG = "BitmapTexture";
 
@@ -63,31 +64,61 @@ public class BitmapTexture extends Texture {
 	}
 
 	@Override
-	protected void load() {
+	protected DecodedTexture decode() throws IOException {
+		return decode(0);
+	}
+
+	/**
+	 * Decodes the image at a reduced size, so that the largest levels are
+	 * never decoded.
+	 */
+	@Override
+	protected DecodedTexture decode(int firstLevel) throws IOException {
+		if (!useMipmaps) {
+			firstLevel = 0;
+		}
 		final BitmapFactory.Options opts = new BitmapFactory.Options();
 		opts.inScaled = false;
+		opts.inSampleSize = 1 << firstLevel;
 		opts.inPreferredConfig = Bitmap.Config.ARGB_8888;
 		final Bitmap bmp = BitmapFactory.decodeResource(res, resID, opts);
-		handle = genTextureHandle();
-		Log.d(TAG, "glGenTextures generated handle: " + handle);
-
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handle);
-		GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bmp, 0);
+		if (bmp == null) {
+			throw new IOException("Could not decode resource " + resID);
+		}
 
+		// Build mip levels here, instead of with glGenerateMipmap
+		int width = bmp.getWidth();
+		int height = bmp.getHeight();
+		int levelCount = 1;
 		if (useMipmaps) {
-			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
-					GLES20.GL_TEXTURE_MIN_FILTER,
-					GLES20.GL_LINEAR_MIPMAP_NEAREST);
-		} else {
-			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
-					GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+			for (int size = Math.max(width, height); size > 1; size /= 2) {
+				levelCount++;
+			}
 		}
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
-				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-		if (useMipmaps) {
-			GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+		final DecodedTexture data = new DecodedTexture(levelCount,
+				GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 4);
+		data.setBaseLevel(firstLevel);
+		Bitmap level = bmp;
+		for (int i = 0; i < levelCount; i++) {
+			final ByteBuffer pixels = ByteBuffer.allocateDirect(
+					width * height * 4).order(ByteOrder.nativeOrder());
+			level.copyPixelsToBuffer(pixels);
+			pixels.rewind();
+			data.setLevel(i, width, height, pixels);
+
+			if (i + 1 < levelCount) {
+				width = Math.max(width / 2, 1);
+				height = Math.max(height / 2, 1);
+				final Bitmap next = Bitmap.createScaledBitmap(level, width,
+						height, true);
+				level.recycle();
+				level = next;
+			}
 		}
-		GameRenderer.logError("BitmapTexture.load()");
+		level.recycle();
+		Log.d(TAG, "Decoded resource " + resID + " with " + levelCount
+				+ " levels");
+		return data;
 	}
 
 }
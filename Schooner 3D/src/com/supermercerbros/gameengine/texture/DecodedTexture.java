@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.texture;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The decoded mip levels of a {@link Texture}, ready to be uploaded. A
+ * DecodedTexture is made by {@link Texture#decode()} off the GL thread, and
+ * uploaded a piece at a time by the {@link TextureLoader}.
+ *
+ * <p>
+ * Level 0 is the largest level that was decoded. This is the full-size image
+ * unless the DecodedTexture has a base level, as it does when a streamed
+ * Texture is decoded below full resolution. Uncompressed rows must be tightly
+ * packed, and each row must be a multiple of 4 bytes, the default unpack
+ * alignment.
+ * </p>
+ */
+public class DecodedTexture {
+	private final boolean compressed;
+	private final int format;
+	private final int type;
+	private final int bytesPerPixel;
+
+	private final int[] widths;
+	private final int[] heights;
+	private final ByteBuffer[] data;
+	private int baseLevel = 0;
+
+	/**
+	 * Constructs a new uncompressed DecodedTexture.
+	 *
+	 * @param levelCount
+	 *            The number of mip levels.
+	 * @param format
+	 *            The pixel format, such as {@link android.opengl.GLES20#GL_RGBA}.
+	 *            This is also used as the internal format.
+	 * @param type
+	 *            The pixel type, such as
+	 *            {@link android.opengl.GLES20#GL_UNSIGNED_BYTE}.
+	 * @param bytesPerPixel
+	 *            The size of a pixel, in bytes.
+	 */
+	public DecodedTexture(int levelCount, int format, int type,
+			int bytesPerPixel) {
+		this(levelCount, false, format, type, bytesPerPixel);
+	}
+
+	/**
+	 * Constructs a new compressed DecodedTexture. Compressed levels are always
+	 * uploaded whole.
+	 *
+	 * @param levelCount
+	 *            The number of mip levels.
+	 * @param internalFormat
+	 *            The compressed format, such as
+	 *            {@link ETC1Container#GL_ETC1_RGB8_OES}.
+	 */
+	public DecodedTexture(int levelCount, int internalFormat) {
+		this(levelCount, true, internalFormat, 0, 0);
+	}
+
+	private DecodedTexture(int levelCount, boolean compressed, int format,
+			int type, int bytesPerPixel) {
+		if (levelCount < 1) {
+			throw new IllegalArgumentException("levelCount < 1");
+		}
+		this.compressed = compressed;
+		this.format = format;
+		this.type = type;
+		this.bytesPerPixel = bytesPerPixel;
+		this.widths = new int[levelCount];
+		this.heights = new int[levelCount];
+		this.data = new ByteBuffer[levelCount];
+	}
+
+	/**
+	 * Sets the data of a mip level.
+	 *
+	 * @param level
+	 *            The level to set.
+	 * @param width
+	 *            The width of the level.
+	 * @param height
+	 *            The height of the level.
+	 * @param data
+	 *            The data of the level, from its position to its limit. For
+	 *            uploads to be split, this must be a direct buffer.
+	 */
+	public void setLevel(int level, int width, int height, ByteBuffer data) {
+		if (!compressed && data.remaining() != width * height * bytesPerPixel) {
+			throw new IllegalArgumentException("Level " + level + " has "
+					+ data.remaining() + " bytes, expected "
+					+ (width * height * bytesPerPixel));
+		}
+		this.widths[level] = width;
+		this.heights[level] = height;
+		this.data[level] = data;
+	}
+
+	/**
+	 * Sets the level of the full mip chain that level 0 of this
+	 * DecodedTexture corresponds to. Decoders that decode a reduced image
+	 * directly must call this.
+	 * 
+	 * @param baseLevel
+	 *            The base level, which is 0 for a full-size image.
+	 */
+	public void setBaseLevel(int baseLevel) {
+		if (baseLevel < 0) {
+			throw new IllegalArgumentException("baseLevel < 0");
+		}
+		this.baseLevel = baseLevel;
+	}
+
+	/**
+	 * @return The level of the full mip chain that level 0 of this
+	 *         DecodedTexture corresponds to.
+	 */
+	public int getBaseLevel() {
+		return baseLevel;
+	}
+
+	/**
+	 * Makes a DecodedTexture without the given number of largest levels. The
+	 * remaining levels share their data with this one.
+	 * 
+	 * @param count
+	 *            The number of levels to drop. At least one level is always
+	 *            kept.
+	 * @return The reduced DecodedTexture, or this one if count is 0.
+	 */
+	public DecodedTexture dropLevels(int count) {
+		count = Math.min(count, data.length - 1);
+		if (count <= 0) {
+			return this;
+		}
+		final DecodedTexture reduced = new DecodedTexture(data.length - count,
+				compressed, format, type, bytesPerPixel);
+		System.arraycopy(widths, count, reduced.widths, 0, reduced.widths.length);
+		System.arraycopy(heights, count, reduced.heights, 0,
+				reduced.heights.length);
+		System.arraycopy(data, count, reduced.data, 0, reduced.data.length);
+		reduced.baseLevel = baseLevel + count;
+		return reduced;
+	}
+
+	public int getLevelCount() {
+		return data.length;
+	}
+
+	public int getWidth(int level) {
+		return widths[level];
+	}
+
+	public int getHeight(int level) {
+		return heights[level];
+	}
+
+	/**
+	 * @return A view of the data of the given level.
+	 */
+	ByteBuffer getData(int level) {
+		return data[level].duplicate();
+	}
+
+	/**
+	 * @return A view of the given rows of an uncompressed level.
+	 */
+	ByteBuffer getRows(int level, int firstRow, int rowCount) {
+		final int rowBytes = widths[level] * bytesPerPixel;
+		final ByteBuffer rows = data[level].duplicate();
+		rows.position(rows.position() + firstRow * rowBytes);
+		rows.limit(rows.position() + rowCount * rowBytes);
+		return rows;
+	}
+
+	/**
+	 * @return The size of the given level, in bytes.
+	 */
+	public int getByteCount(int level) {
+		return data[level].remaining();
+	}
+
+	/**
+	 * @return The size of all levels, in bytes.
+	 */
+	public int getByteCount() {
+		int bytes = 0;
+		for (ByteBuffer level : data) {
+			bytes += level.remaining();
+		}
+		return bytes;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * @return The pixel format, or the internal format if this is compressed.
+	 */
+	public int getFormat() {
+		return format;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public int getBytesPerPixel() {
+		return bytesPerPixel;
+	}
+}
@@ -16,14 +16,30 @@
 
 package com.supermercerbros.gameengine.texture;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 import android.content.res.Resources;
+import android.util.Log;
 
+/**
+ * A Texture loaded from an ETC1-compressed PKM or KTX file. The file is
+ * uploaded as-is with glCompressedTexImage2D, so it uses a sixth of the memory
+ * of an RGBA8888 texture. If the file contains a complete mip chain, the
+ * levels are uploaded from the file instead of being generated at runtime.
+ * 
+ * <p>
+ * ETC1 has no alpha channel, so ETC1CompressedTextures are opaque. Textures
+ * that need alpha should be loaded as {@link BitmapTexture}s.
+ * </p>
+ * 
+ * @see ETC1Container
+ */
 public class ETC1CompressedTexture extends Texture {
-	@SuppressWarnings("unused")
+	private static final String TAG = "ETC1CompressedTexture";
+
 	private final Resources res;
-	@SuppressWarnings("unused")
 	private final int resID;
-	@SuppressWarnings("unused")
 	private final boolean mipmaps;
 
 	/**
@@ -47,17 +63,40 @@ public class ETC1CompressedTexture extends Texture {
 	 * @param id
 	 *            The resource identifier of the file.
 	 * @param useMipmaps
-	 *            true if mipmaps should be used, false if not.
+	 *            true if mipmaps should be used, false if not. Mipmaps are
+	 *            only used if the file has a complete mip chain.
 	 */
 	public ETC1CompressedTexture(Resources res, int id, boolean useMipmaps) {
 		this.res = res;
 		this.resID = id;
-		mipmaps = useMipmaps;
+		this.mipmaps = useMipmaps;
 	}
 
 	@Override
-	protected void load() {
-		// TODO write ETC1 loading code and remove @SuppressWarnings
+	protected DecodedTexture decode() throws IOException {
+		final ETC1Container container;
+		final InputStream in = res.openRawResource(resID);
+		try {
+			container = ETC1Container.parse(ETC1Container.readFully(in));
+		} finally {
+			in.close();
+		}
+
+		// An incomplete mip chain would make the texture incomplete, so only
+		// level 0 is used in that case.
+		final boolean useMipmaps = mipmaps && container.hasCompleteMipChain();
+		if (mipmaps && !useMipmaps) {
+			Log.w(TAG, "ETC1 texture " + resID
+					+ " has no complete mip chain; mipmaps disabled");
+		}
+		final int levelCount = useMipmaps ? container.getLevelCount() : 1;
+		final DecodedTexture data = new DecodedTexture(levelCount,
+				ETC1Container.GL_ETC1_RGB8_OES);
+		for (int level = 0; level < levelCount; level++) {
+			data.setLevel(level, container.getWidth(level),
+					container.getHeight(level), container.getData(level));
+		}
+		return data;
 	}
 
 }
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.texture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * Parses ETC1-compressed images, with their mip levels, from PKM and KTX
+ * files. This class does not use any Android APIs, so it can be used on the
+ * JVM.
+ *
+ * <p>
+ * A PKM file holds one level, so a mip chain is stored as consecutive PKM
+ * images, largest first. A KTX file must have an internal format of
+ * {@link #GL_ETC1_RGB8_OES}, one face, and no array elements.
+ * </p>
+ *
+ * <p>
+ * Level data is returned as slices of the parsed buffer, so nothing is copied.
+ * </p>
+ */
+public class ETC1Container {
+	/**
+	 * The OpenGL internal format of ETC1 images.
+	 */
+	public static final int GL_ETC1_RGB8_OES = 0x8D64;
+
+	private static final int PKM_HEADER_SIZE = 16;
+	private static final int PKM_ETC1_RGB_NO_MIPMAPS = 0;
+	private static final byte[] PKM_MAGIC = { 'P', 'K', 'M', ' ' };
+
+	private static final int KTX_HEADER_SIZE = 64;
+	private static final byte[] KTX_MAGIC = { (byte) 0xAB, 'K', 'T', 'X', ' ',
+			'1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n' };
+	private static final int KTX_ENDIANNESS = 0x04030201;
+
+	private final int[] widths;
+	private final int[] heights;
+	private final ByteBuffer[] levels;
+
+	private ETC1Container(ArrayList<int[]> sizes, ArrayList<ByteBuffer> data) {
+		final int count = sizes.size();
+		widths = new int[count];
+		heights = new int[count];
+		levels = data.toArray(new ByteBuffer[count]);
+		for (int i = 0; i < count; i++) {
+			widths[i] = sizes.get(i)[0];
+			heights[i] = sizes.get(i)[1];
+		}
+	}
+
+	/**
+	 * Parses a PKM or KTX file.
+	 *
+	 * @param data
+	 *            The contents of the file, from its position to its limit.
+	 * @return The parsed ETC1Container.
+	 * @throws IOException
+	 *             If the data is not a valid ETC1 PKM or KTX file.
+	 */
+	public static ETC1Container parse(ByteBuffer data) throws IOException {
+		if (startsWith(data, KTX_MAGIC)) {
+			return parseKTX(data);
+		} else if (startsWith(data, PKM_MAGIC)) {
+			return parsePKM(data);
+		} else {
+			throw new IOException("Not a PKM or KTX file");
+		}
+	}
+
+	/**
+	 * Parses one or more consecutive PKM images. Each image after the first
+	 * must be the next mip level of the one before it.
+	 *
+	 * @param data
+	 *            The contents of the file, from its position to its limit.
+	 * @return The parsed ETC1Container.
+	 * @throws IOException
+	 *             If the data is not a valid PKM file.
+	 */
+	public static ETC1Container parsePKM(ByteBuffer data) throws IOException {
+		final ByteBuffer buf = data.slice().order(ByteOrder.BIG_ENDIAN);
+		final ArrayList<int[]> sizes = new ArrayList<int[]>();
+		final ArrayList<ByteBuffer> levels = new ArrayList<ByteBuffer>();
+		while (buf.hasRemaining()) {
+			if (buf.remaining() < PKM_HEADER_SIZE || !startsWith(buf, PKM_MAGIC)) {
+				throw new IOException("Invalid PKM header at offset "
+						+ buf.position());
+			}
+			buf.position(buf.position() + 6); // Skip magic and version
+			final int type = buf.getShort() & 0xFFFF;
+			final int extendedWidth = buf.getShort() & 0xFFFF;
+			final int extendedHeight = buf.getShort() & 0xFFFF;
+			final int width = buf.getShort() & 0xFFFF;
+			final int height = buf.getShort() & 0xFFFF;
+			if (type != PKM_ETC1_RGB_NO_MIPMAPS) {
+				throw new IOException("Unsupported PKM data type: " + type);
+			}
+			if (width == 0 || height == 0 || extendedWidth < width
+					|| extendedHeight < height || (extendedWidth & 3) != 0
+					|| (extendedHeight & 3) != 0) {
+				throw new IOException("Invalid PKM size: " + width + "x"
+						+ height + " (" + extendedWidth + "x" + extendedHeight
+						+ ")");
+			}
+			final int size = getEncodedDataSize(width, height);
+			addLevel(sizes, levels, buf, width, height, size);
+		}
+		return new ETC1Container(sizes, levels);
+	}
+
+	/**
+	 * Parses a KTX file.
+	 *
+	 * @param data
+	 *            The contents of the file, from its position to its limit.
+	 * @return The parsed ETC1Container.
+	 * @throws IOException
+	 *             If the data is not a valid ETC1 KTX file.
+	 */
+	public static ETC1Container parseKTX(ByteBuffer data) throws IOException {
+		final ByteBuffer buf = data.slice();
+		if (buf.remaining() < KTX_HEADER_SIZE || !startsWith(buf, KTX_MAGIC)) {
+			throw new IOException("Invalid KTX header");
+		}
+		buf.position(KTX_MAGIC.length);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		final int endianness = buf.getInt();
+		if (endianness != KTX_ENDIANNESS) {
+			buf.order(ByteOrder.BIG_ENDIAN);
+			if (Integer.reverseBytes(endianness) != KTX_ENDIANNESS) {
+				throw new IOException("Invalid KTX endianness");
+			}
+		}
+		buf.getInt(); // glType
+		buf.getInt(); // glTypeSize
+		buf.getInt(); // glFormat
+		final int internalFormat = buf.getInt();
+		buf.getInt(); // glBaseInternalFormat
+		final int width = buf.getInt();
+		final int height = buf.getInt();
+		final int depth = buf.getInt();
+		final int arrayElements = buf.getInt();
+		final int faces = buf.getInt();
+		final int levelCount = Math.max(buf.getInt(), 1);
+		final int keyValueBytes = buf.getInt();
+
+		if (internalFormat != GL_ETC1_RGB8_OES) {
+			throw new IOException("Not an ETC1 KTX file (internal format 0x"
+					+ Integer.toHexString(internalFormat) + ")");
+		}
+		if (width <= 0 || height <= 0 || depth > 1 || arrayElements > 0
+				|| faces != 1) {
+			throw new IOException(
+					"Only single 2D ETC1 KTX images are supported");
+		}
+		if ((width + 3L) / 4 * ((height + 3L) / 4) * 8 > Integer.MAX_VALUE) {
+			throw new IOException("KTX image is too large: " + width + "x"
+					+ height);
+		}
+		if (keyValueBytes < 0 || keyValueBytes > buf.remaining()) {
+			throw new IOException("Invalid KTX key/value data size");
+		}
+		buf.position(buf.position() + keyValueBytes);
+
+		final ArrayList<int[]> sizes = new ArrayList<int[]>();
+		final ArrayList<ByteBuffer> levels = new ArrayList<ByteBuffer>();
+		int w = width, h = height;
+		for (int i = 0; i < levelCount; i++) {
+			if (buf.remaining() < 4) {
+				throw new IOException("Truncated KTX file at level " + i);
+			}
+			final int size = buf.getInt();
+			if (size != getEncodedDataSize(w, h)) {
+				throw new IOException("Invalid KTX image size at level " + i
+						+ ": " + size);
+			}
+			addLevel(sizes, levels, buf, w, h, size);
+			// Skip mip padding
+			buf.position(Math.min(buf.limit(), (buf.position() + 3) & ~3));
+			w = Math.max(w / 2, 1);
+			h = Math.max(h / 2, 1);
+		}
+		return new ETC1Container(sizes, levels);
+	}
+
+	private static void addLevel(ArrayList<int[]> sizes,
+			ArrayList<ByteBuffer> levels, ByteBuffer buf, int width,
+			int height, int size) throws IOException {
+		if (!levels.isEmpty()) {
+			final int[] previous = sizes.get(sizes.size() - 1);
+			if (width != Math.max(previous[0] / 2, 1)
+					|| height != Math.max(previous[1] / 2, 1)) {
+				throw new IOException("Level " + levels.size() + " is "
+						+ width + "x" + height + ", which does not follow "
+						+ previous[0] + "x" + previous[1]);
+			}
+		}
+		if (buf.remaining() < size) {
+			throw new IOException("Truncated image data at level "
+					+ levels.size());
+		}
+		final ByteBuffer level = buf.slice();
+		level.limit(size);
+		buf.position(buf.position() + size);
+		sizes.add(new int[] { width, height });
+		levels.add(level);
+	}
+
+	private static boolean startsWith(ByteBuffer buf, byte[] magic) {
+		if (buf.remaining() < magic.length) {
+			return false;
+		}
+		final int start = buf.position();
+		for (int i = 0; i < magic.length; i++) {
+			if (buf.get(start + i) != magic[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the given stream into a direct ByteBuffer, which can be passed to
+	 * {@link #parse(ByteBuffer)} and then to OpenGL. The stream is not closed.
+	 */
+	public static ByteBuffer readFully(InputStream in) throws IOException {
+		byte[] bytes = new byte[Math.max(in.available(), 4096)];
+		int length = 0;
+		int read;
+		while ((read = in.read(bytes, length, bytes.length - length)) != -1) {
+			length += read;
+			if (length == bytes.length) {
+				final byte[] grown = new byte[bytes.length * 2];
+				System.arraycopy(bytes, 0, grown, 0, length);
+				bytes = grown;
+			}
+		}
+		final ByteBuffer buf = ByteBuffer.allocateDirect(length).order(
+				ByteOrder.nativeOrder());
+		buf.put(bytes, 0, length);
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * @return The size, in bytes, of an ETC1 image of the given size.
+	 */
+	public static int getEncodedDataSize(int width, int height) {
+		return ((width + 3) / 4) * ((height + 3) / 4) * 8;
+	}
+
+	/**
+	 * @return The number of mip levels in this container, at least 1.
+	 */
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+	/**
+	 * @return true if the levels go all the way down to 1x1, as OpenGL
+	 *         requires for mipmapped filtering.
+	 */
+	public boolean hasCompleteMipChain() {
+		final int last = levels.length - 1;
+		return widths[last] == 1 && heights[last] == 1;
+	}
+
+	public int getWidth(int level) {
+		return widths[level];
+	}
+
+	public int getHeight(int level) {
+		return heights[level];
+	}
+
+	/**
+	 * @return The compressed data of the given level. This is a slice of the
+	 *         buffer that was parsed.
+	 */
+	public ByteBuffer getData(int level) {
+		return levels[level].duplicate();
+	}
+
+	/**
+	 * @return The size of the compressed data of the given level, in bytes.
+	 */
+	public int getDataSize(int level) {
+		return levels[level].remaining();
+	}
+}
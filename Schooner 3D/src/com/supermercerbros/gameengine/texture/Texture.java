@@ -16,9 +16,15 @@
 
 package com.supermercerbros.gameengine.texture;
 
+import java.io.IOException;
+
+import com.supermercerbros.gameengine.Schooner3D;
 import com.supermercerbros.gameengine.engine.EGLContextLostHandler;
 import com.supermercerbros.gameengine.engine.GameRenderer;
 import com.supermercerbros.gameengine.engine.EGLContextLostHandler.EGLContextLostListener;
+import com.supermercerbros.gameengine.render.GpuResource;
+import com.supermercerbros.gameengine.render.RenderBackend;
+import com.supermercerbros.gameengine.render.ResourceManager;
 
 import android.opengl.GLES20;
 
@@ -28,11 +34,25 @@ import android.opengl.GLES20;
  * or environment map. (Note that these maps would require specialized
  * materials, which Schooner does not include at the current time.)
  * 
+ * <p>
+ * Textures are loaded the first time they are used. Subclasses that implement
+ * {@link #decode()} are decoded in the background by the
+ * {@link TextureLoader}, and a placeholder is bound until they are uploaded.
+ * Subclasses that only implement {@link #load()} are loaded synchronously at
+ * the start of the next frame.
+ * </p>
+ * 
+ * <p>
+ * When the {@link TextureStreamer} is enabled, Textures with mip levels only
+ * keep the levels that their on-screen size needs. Levels are added or dropped
+ * by decoding the Texture again and uploading it to a new handle, since GLES2
+ * cannot limit which levels of a texture are sampled.
+ * </p>
  */
-public abstract class Texture implements EGLContextLostListener {
+public abstract class Texture implements EGLContextLostListener, GpuResource {
 	protected static int genTextureHandle() {
 		int[] handle = { 0 };
-		GLES20.glGenTextures(1, handle, 0);
+		Schooner3D.renderBackend.glGenTextures(1, handle, 0);
 		return handle[0];
 	}
 
@@ -42,13 +62,93 @@ public abstract class Texture implements EGLContextLostListener {
 	protected int handle = -1;
 	protected boolean loaded = false;
 
+	// Background loading, managed by the TextureLoader on the GL thread
+	private static final int STATE_UNLOADED = 0;
+	private static final int STATE_DECODING = 1;
+	private static final int STATE_UPLOADING = 2;
+	private static final int STATE_LOADED = 3;
+	private static final int STATE_FAILED = 4;
+	private int state = STATE_UNLOADED;
+	private DecodedTexture decoded;
+	private int uploadHandle = -1;
+	private int uploadLevel;
+	private int uploadRow;
+	private int gpuBytes = 0;
+	private final ResourceManager.Usage resourceUsage = new ResourceManager.Usage();
+
+	// Streaming, managed by the TextureStreamer on the GL thread
+	private int decodeLevel = 0;
+	private int baseLevel = 0;
+	private int fullLevelCount = 0;
+	private int fullSize = 0;
+	boolean streamed = false;
+
+	// The largest size this Texture is drawn at, in pixels, set by the Engine
+	volatile float screenSize = 0;
+	float pendingScreenSize;
+	boolean sizeRequested = false;
+
+	// Set by the decoder thread
+	private volatile DecodedTexture decodeResult;
+	private volatile boolean decodeFailed;
+
 	private int wrapU = GLES20.GL_CLAMP_TO_EDGE;
 	private int wrapV = GLES20.GL_CLAMP_TO_EDGE;
 
 	/**
-	 * This is called to load the Texture into the OpenGL context.
+	 * Decodes this Texture's data. This is called on a background thread, so it
+	 * must not make any GL calls.
+	 * 
+	 * @return The decoded mip levels, or null if this Texture does not
+	 *         support background decoding, in which case {@link #load()} is
+	 *         called on the GL thread instead.
+	 * @throws IOException
+	 *             If the data could not be read.
+	 */
+	protected DecodedTexture decode() throws IOException {
+		return null;
+	}
+
+	/**
+	 * Decodes this Texture's data, without its largest levels. By default,
+	 * this decodes every level with {@link #decode()} and drops the ones that
+	 * are not needed. Subclasses that can decode a reduced image more cheaply
+	 * should override this.
+	 * 
+	 * @param firstLevel
+	 *            The largest level that is needed.
+	 * @return The decoded mip levels, with a base level of
+	 *         <code>firstLevel</code> if this Texture has that many levels, or
+	 *         null if this Texture does not support background decoding.
+	 * @throws IOException
+	 *             If the data could not be read.
+	 */
+	protected DecodedTexture decode(int firstLevel) throws IOException {
+		final DecodedTexture data = decode();
+		return data != null ? data.dropLevels(firstLevel) : null;
+	}
+
+	/**
+	 * This is called to load the Texture into the OpenGL context. It must
+	 * generate {@link #handle} and upload the texture. By default, it decodes
+	 * the texture with {@link #decode()} and uploads all of it at once.
 	 */
-	protected abstract void load();
+	protected void load() {
+		final DecodedTexture data;
+		try {
+			data = decode();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not decode " + this, e);
+		}
+		if (data == null) {
+			throw new IllegalStateException(getClass().getName()
+					+ " must implement load() or decode()");
+		}
+		decoded = data;
+		restartUpload();
+		upload(Integer.MAX_VALUE, true);
+		onUploaded(data);
+	}
 
 	/**
 	 * This is called during rendering.
@@ -59,30 +159,287 @@ public abstract class Texture implements EGLContextLostListener {
 	 * @param programHandle
 	 */
 	public void use(int glTexture, String samplerName, int programHandle) {
-		GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + glTexture);
-		GameRenderer.logError("ActiveTexture(GL_TEXTURE" + glTexture + ")");
-		if (!loaded) {
+		int samplerLoc = Schooner3D.renderBackend.glGetUniformLocation(
+				programHandle, samplerName);
+		GameRenderer.logError("Texture.java: GetUniformLocation");
+		use(glTexture, samplerLoc);
+	}
+
+	/**
+	 * This is called during rendering.
+	 * 
+	 * @param glTexture
+	 *            The index of the GL texture to bind to.
+	 * @param samplerLocation
+	 *            The location of the sampler uniform in the current program,
+	 *            or -1 if the sampler uniform should not be set.
+	 */
+	public void use(int glTexture, int samplerLocation) {
+		final RenderBackend gl = Schooner3D.renderBackend;
+		gl.glActiveTexture(GLES20.GL_TEXTURE0 + glTexture);
+		GameRenderer.logError("ActiveTexture");
+		prefetch();
+
+		gl.glBindTexture(GLES20.GL_TEXTURE_2D,
+				loaded ? handle : TextureLoader.getPlaceholder());
+		GameRenderer.logError("BindTexture");
+
+		if (samplerLocation != -1) {
+			gl.glUniform1i(samplerLocation, glTexture);
+			GameRenderer.logError("Uniform1i");
+		}
+		ResourceManager.touch(this);
+	}
+
+	/**
+	 * Starts decoding this Texture in the background if it is not loaded, so
+	 * that it can be ready before it is first drawn. Must be called on the GL
+	 * thread.
+	 */
+	public void prefetch() {
+		if (!loaded && state == STATE_UNLOADED) {
+			state = STATE_DECODING;
+			decodeLevel = 0;
+			TextureLoader.requestDecode(this);
+		}
+	}
+
+	/**
+	 * @return The largest level to decode.
+	 */
+	int getDecodeLevel() {
+		return decodeLevel;
+	}
+
+	/**
+	 * Called on a decoder thread with the result of {@link #decode(int)}.
+	 */
+	void setDecodeResult(DecodedTexture data, boolean failed) {
+		decodeResult = data;
+		decodeFailed = failed;
+	}
+
+	/**
+	 * Called on the GL thread after this Texture has been decoded. Textures
+	 * without background decoding are loaded here.
+	 * 
+	 * @return true if this Texture needs to be uploaded.
+	 */
+	boolean onDecoded() {
+		final DecodedTexture data = decodeResult;
+		decodeResult = null;
+		if (state != STATE_DECODING) {
+			return false; // Unloaded while decoding
+		}
+		if (decodeFailed) {
+			// A streamed Texture keeps the levels it has
+			state = loaded ? STATE_LOADED : STATE_FAILED;
+			return false;
+		}
+		if (data == null) {
 			load();
-			loaded = true;
-			EGLContextLostHandler.addListener(this);
-			// If problems arise, move this back to BitmapTexture.load
-			// (right after texImage2D)
-			synchronized (this) {
-				GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
-						GLES20.GL_TEXTURE_WRAP_S, wrapU);
-				GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
-						GLES20.GL_TEXTURE_WRAP_T, wrapV);
+			onLoaded();
+			return false;
+		}
+		if (!loaded && TextureStreamer.isEnabled()) {
+			// Only upload the levels that are needed now
+			final int fullLevels = data.getBaseLevel() + data.getLevelCount();
+			final int size = Math.max(data.getWidth(0), data.getHeight(0)) << data
+					.getBaseLevel();
+			decoded = data.dropLevels(TextureStreamer.getRequiredLevel(this,
+					fullLevels, size) - data.getBaseLevel());
+		} else {
+			decoded = data;
+		}
+		state = STATE_UPLOADING;
+		restartUpload();
+		return true;
+	}
+
+	/**
+	 * @return true if this Texture has been decoded, but not completely
+	 *         uploaded.
+	 */
+	boolean isUploading() {
+		return state == STATE_UPLOADING;
+	}
+
+	/**
+	 * @return true if this Texture is being decoded or uploaded again to
+	 *         change its levels, while its current levels stay bound.
+	 */
+	boolean isRestreaming() {
+		return loaded && (state == STATE_DECODING || state == STATE_UPLOADING);
+	}
+
+	/**
+	 * Starts decoding this Texture again with the given level as its largest.
+	 * Its current levels are used until the new ones are uploaded.
+	 */
+	void restream(int level) {
+		if (state != STATE_LOADED) {
+			return;
+		}
+		state = STATE_DECODING;
+		decodeLevel = level;
+		TextureLoader.requestDecode(this);
+	}
+
+	/**
+	 * @return The level of the full mip chain that is level 0 of the loaded
+	 *         texture.
+	 */
+	int getBaseLevel() {
+		return baseLevel;
+	}
+
+	/**
+	 * @return The number of levels in the full mip chain, or 0 if it is not
+	 *         known yet.
+	 */
+	int getFullLevelCount() {
+		return fullLevelCount;
+	}
+
+	/**
+	 * @return The larger dimension of the full-size image, in pixels.
+	 */
+	int getFullSize() {
+		return fullSize;
+	}
+
+	/**
+	 * Starts uploading this Texture from its smallest level, with a new
+	 * handle.
+	 */
+	void restartUpload() {
+		uploadHandle = -1;
+		uploadLevel = decoded != null ? decoded.getLevelCount() - 1 : 0;
+		uploadRow = 0;
+	}
+
+	/**
+	 * Uploads the next pieces of this Texture, smallest level first.
+	 * Compressed levels are uploaded whole; uncompressed levels may be split
+	 * into strips of rows.
+	 * 
+	 * @param budget
+	 *            The number of bytes that may be uploaded.
+	 * @param force
+	 *            true to upload at least one piece even if it is larger than
+	 *            the budget.
+	 * @return The number of bytes uploaded.
+	 */
+	int upload(int budget, boolean force) {
+		final RenderBackend gl = Schooner3D.renderBackend;
+		final DecodedTexture data = decoded;
+		if (uploadHandle == -1) {
+			uploadHandle = genTextureHandle();
+		}
+		gl.glBindTexture(GLES20.GL_TEXTURE_2D, uploadHandle);
+
+		int bytes = 0;
+		while (uploadLevel >= 0) {
+			final int level = uploadLevel;
+			final int width = data.getWidth(level);
+			final int height = data.getHeight(level);
+			final int size = data.getByteCount(level);
+			final boolean fits = bytes + size <= budget
+					|| (force && bytes == 0);
+			if (data.isCompressed()) {
+				if (!fits) {
+					break;
+				}
+				gl.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, level,
+						data.getFormat(), width, height, 0, size,
+						data.getData(level));
+				bytes += size;
+				uploadLevel--;
+			} else if (uploadRow == 0 && fits) {
+				gl.glTexImage2D(GLES20.GL_TEXTURE_2D, level, data.getFormat(),
+						width, height, 0, data.getFormat(), data.getType(),
+						data.getData(level));
+				bytes += size;
+				uploadLevel--;
+			} else {
+				// Upload as many rows as fit, at least one if forced
+				final int rowBytes = width * data.getBytesPerPixel();
+				int rows = Math.min((budget - bytes) / rowBytes, height
+						- uploadRow);
+				if (rows == 0 && force && bytes == 0) {
+					rows = 1;
+				}
+				if (rows <= 0) {
+					break;
+				}
+				if (uploadRow == 0) {
+					gl.glTexImage2D(GLES20.GL_TEXTURE_2D, level,
+							data.getFormat(), width, height, 0,
+							data.getFormat(), data.getType(), null);
+				}
+				gl.glTexSubImage2D(GLES20.GL_TEXTURE_2D, level, 0, uploadRow,
+						width, rows, data.getFormat(), data.getType(),
+						data.getRows(level, uploadRow, rows));
+				bytes += rows * rowBytes;
+				uploadRow += rows;
+				if (uploadRow == height) {
+					uploadRow = 0;
+					uploadLevel--;
+				}
 			}
 		}
 
-		int samplerLoc = GLES20
-				.glGetUniformLocation(programHandle, samplerName);
-		GameRenderer.logError("Texture.java: GetUniformLocation");
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handle);
-		GameRenderer.logError("BindTexture");
+		if (uploadLevel < 0) {
+			gl.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_MIN_FILTER,
+					data.getLevelCount() > 1 ? GLES20.GL_LINEAR_MIPMAP_NEAREST
+							: GLES20.GL_LINEAR);
+			gl.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+			if (state == STATE_UPLOADING) {
+				onUploaded(data);
+				onLoaded();
+			}
+		}
+		return bytes;
+	}
 
-		GLES20.glUniform1i(samplerLoc, glTexture);
-		GameRenderer.logError("Uniform1i");
+	/**
+	 * Replaces the current handle with the one just uploaded, and records the
+	 * levels it holds.
+	 */
+	private void onUploaded(DecodedTexture data) {
+		if (handle != -1 && handle != uploadHandle) {
+			Schooner3D.renderBackend.glDeleteTextures(1, new int[] { handle },
+					0);
+		}
+		handle = uploadHandle;
+		uploadHandle = -1;
+		decoded = null;
+		gpuBytes = data.getByteCount();
+		baseLevel = data.getBaseLevel();
+		fullLevelCount = baseLevel + data.getLevelCount();
+		fullSize = Math.max(data.getWidth(0), data.getHeight(0)) << baseLevel;
+	}
+
+	/**
+	 * Marks this Texture as loaded, and applies its wrap modes.
+	 */
+	private void onLoaded() {
+		final RenderBackend gl = Schooner3D.renderBackend;
+		loaded = true;
+		state = STATE_LOADED;
+		EGLContextLostHandler.addListener(this);
+		if (fullLevelCount > 1) {
+			TextureStreamer.add(this);
+		}
+		gl.glBindTexture(GLES20.GL_TEXTURE_2D, handle);
+		synchronized (this) {
+			gl.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_WRAP_S, wrapU);
+			gl.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_WRAP_T, wrapV);
+		}
 	}
 
 	/**
@@ -124,17 +481,62 @@ public abstract class Texture implements EGLContextLostListener {
 	 * Unloads this texture from the GPU
 	 */
 	public void unload() {
-		int[] tex = { handle };
-		GLES20.glDeleteTextures(1, tex, 0);
+		if (handle != -1) {
+			int[] tex = { handle };
+			Schooner3D.renderBackend.glDeleteTextures(1, tex, 0);
+		}
+		if (uploadHandle != -1 && uploadHandle != handle) {
+			int[] tex = { uploadHandle };
+			Schooner3D.renderBackend.glDeleteTextures(1, tex, 0);
+		}
 		loaded = false;
 		handle = -1;
+		uploadHandle = -1;
+		state = STATE_UNLOADED;
+		decoded = null;
+	}
+
+	@Override
+	public ResourceManager.Usage getUsage() {
+		return resourceUsage;
+	}
+
+	@Override
+	public int getResourceType() {
+		return TYPE_TEXTURE;
+	}
+
+	/**
+	 * @return The size of the decoded mip levels, or 0 if they are not known,
+	 *         as for Textures that implement {@link #load()} directly.
+	 */
+	@Override
+	public int getGpuBytes() {
+		return gpuBytes;
+	}
+
+	@Override
+	public boolean isResident() {
+		return loaded;
+	}
+
+	/**
+	 * Unloads this Texture. It is decoded and uploaded again the next time
+	 * it is used.
+	 */
+	@Override
+	public void evict() {
+		unload();
 	}
 
 	@Override
 	public final void onContextLost() {
-		if (loaded && !GLES20.glIsTexture(handle)) {
+		if (loaded && !Schooner3D.renderBackend.glIsTexture(handle)) {
 			loaded = false;
 			handle = -1;
+			uploadHandle = -1;
+			state = STATE_UNLOADED;
+			decoded = null;
 		}
 	}
 }
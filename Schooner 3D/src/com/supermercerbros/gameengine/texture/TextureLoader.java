@@ -0,0 +1,283 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.texture;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import com.supermercerbros.gameengine.Schooner3D;
+import com.supermercerbros.gameengine.engine.GameRenderer;
+import com.supermercerbros.gameengine.render.RenderBackend;
+
+/**
+ * Loads {@link Texture}s without stalling the GL thread. The first time a
+ * Texture is used, it is decoded on a pool of background threads, and a
+ * placeholder texture is bound in its place. Decoded Textures are then
+ * uploaded by {@link #update()}, a few at a time, so that no more than the
+ * upload budget is sent to the GPU in one frame. Mip levels are uploaded
+ * smallest first, and large uncompressed levels are split into strips of rows.
+ *
+ * <p>
+ * All methods except the metrics getters must be called on the GL thread.
+ * </p>
+ */
+public class TextureLoader {
+	private static final String TAG = "TextureLoader";
+
+	/**
+	 * The default upload budget, in bytes per frame.
+	 */
+	public static final int DEFAULT_UPLOAD_BUDGET = 1024 * 1024;
+
+	/**
+	 * The color of the placeholder texture, as RGBA.
+	 */
+	private static final byte[] PLACEHOLDER_COLOR = { (byte) 0x80, (byte) 0x80,
+			(byte) 0x80, (byte) 0xFF };
+
+	private static int uploadBudget = DEFAULT_UPLOAD_BUDGET;
+	private static int placeholder = -1;
+
+	private static ExecutorService decoder;
+	private static final ConcurrentLinkedQueue<Texture> decoded = new ConcurrentLinkedQueue<Texture>();
+	private static final ArrayList<Texture> uploads = new ArrayList<Texture>();
+
+	// Metrics
+	private static final AtomicInteger pendingDecodes = new AtomicInteger();
+	private static final AtomicInteger decodeCount = new AtomicInteger();
+	private static final AtomicLong decodeTime = new AtomicLong();
+	private static volatile long uploadTime;
+	private static volatile long uploadBytes;
+	private static volatile int uploadCount;
+	private static volatile long frameUploadTime;
+	private static volatile int frameUploadBytes;
+
+	private TextureLoader() {
+	}
+
+	/**
+	 * Sets the number of bytes that may be uploaded per frame. At least one
+	 * row of an uncompressed level, or one compressed level, is uploaded per
+	 * frame even if it is larger than this.
+	 *
+	 * @param bytes
+	 *            The upload budget, in bytes.
+	 */
+	public static void setUploadBudget(int bytes) {
+		if (bytes < 1) {
+			throw new IllegalArgumentException("bytes < 1");
+		}
+		uploadBudget = bytes;
+	}
+
+	public static int getUploadBudget() {
+		return uploadBudget;
+	}
+
+	/**
+	 * Queues the given Texture to be decoded in the background.
+	 */
+	static void requestDecode(final Texture texture) {
+		if (decoder == null) {
+			final int threads = Math.max(1, Runtime.getRuntime()
+					.availableProcessors() - 1);
+			decoder = Executors.newFixedThreadPool(threads,
+					new ThreadFactory() {
+						private int count = 0;
+
+						@Override
+						public Thread newThread(Runnable r) {
+							final Thread t = new Thread(r, "TextureDecoder-"
+									+ count++);
+							t.setDaemon(true);
+							t.setPriority(Thread.MIN_PRIORITY);
+							return t;
+						}
+					});
+		}
+		pendingDecodes.incrementAndGet();
+		decoder.execute(new Runnable() {
+			@Override
+			public void run() {
+				final long start = System.nanoTime();
+				try {
+					texture.setDecodeResult(
+							texture.decode(texture.getDecodeLevel()), false);
+				} catch (Exception e) {
+					Log.e(TAG, "Could not decode " + texture, e);
+					texture.setDecodeResult(null, true);
+				}
+				decodeTime.addAndGet(System.nanoTime() - start);
+				decodeCount.incrementAndGet();
+				pendingDecodes.decrementAndGet();
+				decoded.add(texture);
+			}
+		});
+	}
+
+	/**
+	 * Uploads decoded Textures, up to the upload budget. This is called by the
+	 * GameRenderer at the start of every frame.
+	 */
+	public static void update() {
+		final long start = System.nanoTime();
+
+		Texture texture;
+		while ((texture = decoded.poll()) != null) {
+			if (texture.onDecoded()) {
+				uploads.add(texture);
+			}
+		}
+
+		int bytes = 0;
+		while (!uploads.isEmpty() && bytes < uploadBudget) {
+			texture = uploads.get(0);
+			if (texture.isUploading()) {
+				final int uploaded = texture.upload(uploadBudget - bytes,
+						bytes == 0);
+				GameRenderer.logError("TextureLoader.update()");
+				if (uploaded == 0 && texture.isUploading()) {
+					break; // The next piece does not fit in this frame
+				}
+				bytes += uploaded;
+			}
+			if (!texture.isUploading()) {
+				uploads.remove(0);
+				if (texture.loaded) {
+					uploadCount++;
+				}
+			}
+		}
+
+		if (bytes > 0) {
+			final long time = System.nanoTime() - start;
+			uploadTime += time;
+			uploadBytes += bytes;
+			frameUploadTime = time;
+		} else {
+			frameUploadTime = 0;
+		}
+		frameUploadBytes = bytes;
+	}
+
+	/**
+	 * Called when the GL context is lost. Partly uploaded Textures are started
+	 * over, from their decoded data.
+	 */
+	public static void onContextLost() {
+		placeholder = -1;
+		for (Texture texture : uploads) {
+			texture.restartUpload();
+		}
+	}
+
+	/**
+	 * @return The handle of the placeholder texture, which is bound in place
+	 *         of Textures that are not loaded yet. It is created if needed.
+	 */
+	static int getPlaceholder() {
+		if (placeholder == -1) {
+			final RenderBackend gl = Schooner3D.renderBackend;
+			placeholder = Texture.genTextureHandle();
+			gl.glBindTexture(GLES20.GL_TEXTURE_2D, placeholder);
+			final ByteBuffer pixel = ByteBuffer.allocateDirect(4).order(
+					ByteOrder.nativeOrder());
+			pixel.put(PLACEHOLDER_COLOR).flip();
+			gl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 1, 1, 0,
+					GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixel);
+			gl.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+			gl.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+		}
+		return placeholder;
+	}
+
+	/**
+	 * @return The number of Textures waiting to be decoded, or being decoded.
+	 */
+	public static int getPendingDecodes() {
+		return pendingDecodes.get();
+	}
+
+	/**
+	 * @return The number of Textures decoded but not completely uploaded.
+	 */
+	public static int getPendingUploads() {
+		return uploads.size() + decoded.size();
+	}
+
+	/**
+	 * @return The number of Textures that have been decoded.
+	 */
+	public static int getDecodeCount() {
+		return decodeCount.get();
+	}
+
+	/**
+	 * @return The total time spent decoding Textures, in nanoseconds, summed
+	 *         over all decoder threads.
+	 */
+	public static long getDecodeTime() {
+		return decodeTime.get();
+	}
+
+	/**
+	 * @return The number of Textures that have been completely uploaded.
+	 */
+	public static int getUploadCount() {
+		return uploadCount;
+	}
+
+	/**
+	 * @return The total time spent uploading Textures, in nanoseconds.
+	 */
+	public static long getUploadTime() {
+		return uploadTime;
+	}
+
+	/**
+	 * @return The total number of bytes uploaded.
+	 */
+	public static long getUploadBytes() {
+		return uploadBytes;
+	}
+
+	/**
+	 * @return The time spent uploading Textures in the last frame, in
+	 *         nanoseconds.
+	 */
+	public static long getFrameUploadTime() {
+		return frameUploadTime;
+	}
+
+	/**
+	 * @return The number of bytes uploaded in the last frame.
+	 */
+	public static int getFrameUploadBytes() {
+		return frameUploadBytes;
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.texture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import android.util.Log;
+
+/**
+ * Streams the mip levels of {@link Texture}s by their size on screen. Every
+ * frame, the Engine reports the projected size of each textured draw, and the
+ * largest size each Texture is drawn at decides the largest mip level it needs:
+ * one texel per pixel, assuming that the Texture covers the object once.
+ *
+ * <p>
+ * Textures that need larger levels than they have are decoded again with
+ * those levels, largest on-screen first, as long as the streamed Textures fit
+ * in the budget. To make room, Textures that are drawn smaller than their
+ * levels need, or not drawn at all, are reduced to the levels they need. GLES2
+ * has no <code>GL_TEXTURE_BASE_LEVEL</code> or
+ * <code>GL_TEXTURE_MIN_LOD</code>, so a Texture's levels are changed by
+ * uploading the new levels to a new handle; the old levels stay bound until
+ * the new ones are complete.
+ * </p>
+ *
+ * <p>
+ * Streaming is off by default, in which case every Texture loads all of its
+ * levels.
+ * </p>
+ */
+public class TextureStreamer {
+	private static final String TAG = "TextureStreamer";
+
+	/**
+	 * The default memory budget for streamed Textures, in bytes.
+	 */
+	public static final long DEFAULT_BUDGET = 32L * 1024 * 1024;
+
+	/**
+	 * The maximum number of Textures that are decoded or uploaded again at
+	 * once.
+	 */
+	private static final int MAX_RESTREAMS = 4;
+
+	private static volatile boolean enabled = false;
+	private static volatile long budget = DEFAULT_BUDGET;
+	private static volatile float bias = 0;
+
+	// Engine thread
+	private static ArrayList<Texture> requested = new ArrayList<Texture>();
+	private static ArrayList<Texture> lastRequested = new ArrayList<Texture>();
+
+	// GL thread
+	private static final ArrayList<Texture> streamed = new ArrayList<Texture>();
+	private static final ArrayList<Texture> upgrades = new ArrayList<Texture>();
+	private static final ArrayList<Texture> victims = new ArrayList<Texture>();
+	private static volatile long streamedBytes = 0;
+	private static volatile int restreamCount = 0;
+	private static boolean overBudget = false;
+
+	/**
+	 * Sorts Textures by their size on screen, largest first.
+	 */
+	private static final Comparator<Texture> LARGEST_FIRST = new Comparator<Texture>() {
+		@Override
+		public int compare(Texture a, Texture b) {
+			return Float.compare(b.screenSize, a.screenSize);
+		}
+	};
+
+	private TextureStreamer() {
+	}
+
+	/**
+	 * Turns mip streaming on or off. Textures that are already loaded keep
+	 * their levels until they are streamed again.
+	 */
+	public static void setEnabled(boolean enabled) {
+		TextureStreamer.enabled = enabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Sets the memory budget for streamed Textures. Textures that are drawn
+	 * larger than their levels need are not reduced to meet it, so it can be
+	 * exceeded.
+	 *
+	 * @param bytes
+	 *            The budget, in bytes.
+	 */
+	public static void setBudget(long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("bytes < 0");
+		}
+		budget = bytes;
+	}
+
+	public static long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Sets the bias added to the required mip level of every Texture.
+	 * Positive values stream smaller levels, and negative values larger ones.
+	 *
+	 * @param levels
+	 *            The bias, in mip levels.
+	 */
+	public static void setBias(float levels) {
+		bias = levels;
+	}
+
+	public static float getBias() {
+		return bias;
+	}
+
+	/**
+	 * Reports that the given Texture is drawn at the given size in the frame
+	 * being recorded. Called by the Engine thread.
+	 *
+	 * @param texture
+	 *            The Texture.
+	 * @param pixels
+	 *            The projected diameter of the draw's bounding sphere, in
+	 *            pixels.
+	 */
+	public static void requestSize(Texture texture, float pixels) {
+		if (!texture.sizeRequested) {
+			texture.sizeRequested = true;
+			texture.pendingScreenSize = pixels;
+			requested.add(texture);
+		} else if (pixels > texture.pendingScreenSize) {
+			texture.pendingScreenSize = pixels;
+		}
+	}
+
+	/**
+	 * Publishes the sizes reported for the frame that was just recorded.
+	 * Textures that were not drawn in it get a size of zero. Called by the
+	 * Engine thread.
+	 */
+	public static void endFrame() {
+		for (Texture texture : lastRequested) {
+			if (!texture.sizeRequested) {
+				texture.screenSize = 0;
+			}
+		}
+		for (Texture texture : requested) {
+			texture.screenSize = texture.pendingScreenSize;
+			texture.sizeRequested = false;
+		}
+		final ArrayList<Texture> swap = lastRequested;
+		lastRequested = requested;
+		requested = swap;
+		requested.clear();
+	}
+
+	/**
+	 * Adds a loaded Texture to the streamed Textures, if it is not already.
+	 */
+	static void add(Texture texture) {
+		if (!texture.streamed) {
+			texture.streamed = true;
+			streamed.add(texture);
+		}
+	}
+
+	/**
+	 * Calculates the largest mip level the given Texture needs, from its size
+	 * on screen.
+	 *
+	 * @param texture
+	 *            The Texture.
+	 * @param levelCount
+	 *            The number of levels in the Texture's full mip chain.
+	 * @param size
+	 *            The larger dimension of the Texture's full-size image.
+	 * @return The required level, or the smallest level if the Texture is not
+	 *         on screen.
+	 */
+	static int getRequiredLevel(Texture texture, int levelCount, int size) {
+		final float pixels = texture.screenSize;
+		if (pixels <= 0) {
+			return levelCount - 1;
+		}
+		final double level = Math.log(size / pixels) / Math.log(2) + bias;
+		return Math.max(0, Math.min((int) Math.floor(level), levelCount - 1));
+	}
+
+	private static int getRequiredLevel(Texture texture) {
+		return getRequiredLevel(texture, texture.getFullLevelCount(),
+				texture.getFullSize());
+	}
+
+	/**
+	 * Estimates the size of a Texture with the given level as its largest,
+	 * from the size of its current levels. Each level is about four times the
+	 * size of the next.
+	 */
+	private static long estimateBytes(Texture texture, int level) {
+		final int shift = 2 * (texture.getBaseLevel() - level);
+		final long bytes = texture.getGpuBytes();
+		return shift >= 0 ? bytes << shift : bytes >> -shift;
+	}
+
+	/**
+	 * Adds and drops mip levels of the streamed Textures. Called by the
+	 * GameRenderer at the start of every frame, after the {@link TextureLoader}
+	 * has uploaded.
+	 */
+	public static void update() {
+		if (!enabled) {
+			return;
+		}
+
+		long bytes = 0;
+		int restreaming = 0;
+		for (int i = streamed.size() - 1; i >= 0; i--) {
+			final Texture texture = streamed.get(i);
+			if (!texture.loaded) {
+				texture.streamed = false;
+				streamed.remove(i);
+				continue;
+			}
+			bytes += texture.getGpuBytes();
+			if (texture.isRestreaming()) {
+				restreaming++;
+				continue;
+			}
+			final int required = getRequiredLevel(texture);
+			if (required < texture.getBaseLevel()) {
+				upgrades.add(texture);
+			} else if (required > texture.getBaseLevel()) {
+				victims.add(texture);
+			}
+		}
+		streamedBytes = bytes;
+
+		// Drop levels from the smallest on screen first
+		Collections.sort(victims, LARGEST_FIRST);
+		int nextVictim = victims.size() - 1;
+
+		Collections.sort(upgrades, LARGEST_FIRST);
+		for (Texture texture : upgrades) {
+			if (restreaming >= MAX_RESTREAMS) {
+				break;
+			}
+			final int base = texture.getBaseLevel();
+			int level = getRequiredLevel(texture);
+			long cost = estimateBytes(texture, level) - texture.getGpuBytes();
+			while (level < base && bytes + cost > budget) {
+				if (nextVictim >= 0
+						&& victims.get(nextVictim).screenSize < texture.screenSize
+						&& restreaming < MAX_RESTREAMS - 1) {
+					final Texture victim = victims.get(nextVictim--);
+					bytes -= drop(victim);
+					restreaming++;
+				} else {
+					level++;
+					cost = estimateBytes(texture, level) - texture.getGpuBytes();
+				}
+			}
+			if (level < base) {
+				texture.restream(level);
+				bytes += cost;
+				restreaming++;
+			}
+		}
+
+		// Meet the budget if it was lowered
+		while (bytes > budget && nextVictim >= 0 && restreaming < MAX_RESTREAMS) {
+			bytes -= drop(victims.get(nextVictim--));
+			restreaming++;
+		}
+		final boolean over = bytes > budget && restreaming == 0;
+		if (over && !overBudget) {
+			Log.w(TAG, "Over budget: " + bytes + " of " + budget
+					+ " bytes are needed");
+		}
+		overBudget = over;
+
+		upgrades.clear();
+		victims.clear();
+		restreamCount = restreaming;
+	}
+
+	/**
+	 * Reduces a Texture to the levels it needs.
+	 *
+	 * @return The estimated number of bytes freed.
+	 */
+	private static long drop(Texture texture) {
+		final int level = getRequiredLevel(texture);
+		final long saved = texture.getGpuBytes() - estimateBytes(texture, level);
+		texture.restream(level);
+		return saved;
+	}
+
+	/**
+	 * @return The number of Textures being streamed.
+	 */
+	public static int getStreamedCount() {
+		return streamed.size();
+	}
+
+	/**
+	 * @return The size of the loaded levels of the streamed Textures, as of
+	 *         the last update, in bytes.
+	 */
+	public static long getStreamedBytes() {
+		return streamedBytes;
+	}
+
+	/**
+	 * @return The number of Textures that were being decoded or uploaded again
+	 *         after the last update.
+	 */
+	public static int getRestreamCount() {
+		return restreamCount;
+	}
+}
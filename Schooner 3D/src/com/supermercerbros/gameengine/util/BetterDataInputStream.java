@@ -16,15 +16,23 @@
 
 package com.supermercerbros.gameengine.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 
 /**
  * Subclass of {@link DataInputStream} that adds array-reading functions.
+ * Parsers that read large arrays should use a {@link BufferedDataReader}
+ * instead, which converts them from a reusable chunk buffer.
  */
 public class BetterDataInputStream extends DataInputStream {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private final byte[] scratch = new byte[4096];
 
 	public BetterDataInputStream(final InputStream in) {
 		super(in);
@@ -43,9 +51,9 @@ public class BetterDataInputStream extends DataInputStream {
 	}
 	
 	/**
-	 * Reads at most <code>length</code> shorts from this stream and stores them
-	 * in the <code>short</code> array <code>out</code> starting at
-	 * <code>offset</code>. 
+	 * Reads <code>length</code> shorts from this stream and stores them in
+	 * the <code>short</code> array <code>out</code> starting at
+	 * <code>offset</code>.
 	 * 
 	 * @param out
 	 * @param offset
@@ -54,38 +62,30 @@ public class BetterDataInputStream extends DataInputStream {
 	 */
 	public void readShortArray(short[] out, int offset, int length)
 			throws IOException {
-		for (int i = 0; i < length; i++){
-			out[offset+i] = super.readShort();
+		while (length > 0) {
+			final int count = Math.min(length, scratch.length / 2);
+			readFully(scratch, 0, count * 2);
+			ByteBuffer.wrap(scratch, 0, count * 2).asShortBuffer()
+					.get(out, offset, count);
+			offset += count;
+			length -= count;
 		}
 	}
 
 	public void readFloatArray(float[] out, int offset, int length) 
 		throws IOException {
-		for (int i = 0; i < length; i++) {
-			out[offset + i] = super.readFloat();
+		while (length > 0) {
+			final int count = Math.min(length, scratch.length / 4);
+			readFully(scratch, 0, count * 4);
+			ByteBuffer.wrap(scratch, 0, count * 4).asFloatBuffer()
+					.get(out, offset, count);
+			offset += count;
+			length -= count;
 		}
-//		int floatsRead = 0;
-//		int yetToBeRead;
-//		while (floatsRead < length){
-//			yetToBeRead = length - floatsRead;
-//			final int bytesToRead = (yetToBeRead * 4 < array.length) ? yetToBeRead * 4 : array.length;
-//			final int bytesRead = super.read(array, 0, bytesToRead);
-//			final int floats = bytesRead / 4;
-//			for (int i = 0; i < floats; i++) {
-//				out[offset + floatsRead + i] = Float.intBitsToFloat(
-//						(array[i*4] << 24) |
-//						((array[i*4+1] & 0xff) << 16) |
-//						((array[i*4+2] & 0xff) << 8 |
-//								(array[i*4+3] & 0xff)));
-//			}
-//		}
-		return;
 	}
 	
 	public void readByteArray(final byte[] out, final int offset, final int length) throws IOException{
-		for (int i = 0; i < length; i++) {
-			out[offset + i] = super.readByte();
-		}
+		readFully(out, offset, length);
 	}
 	
 	/**
@@ -94,18 +94,16 @@ public class BetterDataInputStream extends DataInputStream {
 	 * @throws IOException
 	 */
 	public String readString() throws IOException{
-		StringBuilder builder = new StringBuilder();
+		final ByteArrayOutputStream builder = new ByteArrayOutputStream();
 		while (true) {
 			byte next = super.readByte();
 			if (next == 0x00) { // If next char is NUL, the String's end has been reached.
 				break;
 			} else {
-				builder.append((char) next);
+				builder.write(next);
 			}
 		}
-		final String string = builder.toString();
-//		System.out.println("#string : " + string);
-		return string;
+		return new String(builder.toByteArray(), UTF_8);
 	}
 	
 	@Override
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Reads big-endian binary data from an InputStream through a reusable chunk
+ * buffer. Arrays are converted from the chunk in bulk, with
+ * {@link ByteBuffer#asFloatBuffer()} and {@link ByteBuffer#asShortBuffer()},
+ * instead of one element at a time as with a {@link java.io.DataInputStream}.
+ * A BufferedDataReader can also read straight from a ByteBuffer, such as a
+ * memory-mapped file, in which case nothing is buffered.
+ *
+ * <p>
+ * A BufferedDataReader is not thread-safe.
+ * </p>
+ */
+public class BufferedDataReader implements Closeable {
+	/**
+	 * The default size of the chunk buffer, in bytes.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final InputStream in;
+	private final byte[] bytes;
+	private final ByteBuffer chunk;
+
+	/**
+	 * Constructs a new BufferedDataReader with the default chunk size.
+	 *
+	 * @param in
+	 *            The InputStream to read from.
+	 */
+	public BufferedDataReader(InputStream in) {
+		this(in, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Constructs a new BufferedDataReader.
+	 *
+	 * @param in
+	 *            The InputStream to read from.
+	 * @param chunkSize
+	 *            The size of the chunk buffer, in bytes. Must be at least 8.
+	 */
+	public BufferedDataReader(InputStream in, int chunkSize) {
+		if (chunkSize < 8) {
+			throw new IllegalArgumentException("chunkSize < 8");
+		}
+		this.in = in;
+		this.bytes = new byte[chunkSize];
+		this.chunk = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
+		chunk.limit(0);
+	}
+
+	/**
+	 * Constructs a new BufferedDataReader that reads from a ByteBuffer, from
+	 * its position to its limit. The buffer's position is not changed.
+	 *
+	 * @param buffer
+	 *            The buffer to read from. It is not copied.
+	 */
+	public BufferedDataReader(ByteBuffer buffer) {
+		this.in = null;
+		this.bytes = null;
+		this.chunk = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Reads from the stream until at least <code>count</code> bytes are
+	 * buffered, or the stream ends.
+	 *
+	 * @param count
+	 *            The number of bytes needed, at most the chunk's capacity.
+	 * @return true if <code>count</code> bytes are buffered, false if the
+	 *         stream ended first.
+	 */
+	private boolean fill(int count) throws IOException {
+		if (chunk.remaining() >= count) {
+			return true;
+		} else if (in == null) {
+			return false;
+		}
+		chunk.compact();
+		try {
+			while (chunk.position() < count) {
+				final int read = in.read(bytes, chunk.position(),
+						chunk.capacity() - chunk.position());
+				if (read < 0) {
+					return false;
+				}
+				chunk.position(chunk.position() + read);
+			}
+			return true;
+		} finally {
+			chunk.flip();
+		}
+	}
+
+	private void require(int count) throws IOException {
+		if (!fill(count)) {
+			throw new EOFException();
+		}
+	}
+
+	public byte readByte() throws IOException {
+		require(1);
+		return chunk.get();
+	}
+
+	public short readShort() throws IOException {
+		require(2);
+		return chunk.getShort();
+	}
+
+	public int readInt() throws IOException {
+		require(4);
+		return chunk.getInt();
+	}
+
+	public float readFloat() throws IOException {
+		require(4);
+		return chunk.getFloat();
+	}
+
+	/**
+	 * Reads <code>length</code> bytes into the given array.
+	 *
+	 * @throws EOFException
+	 *             If the stream ends first.
+	 */
+	public void readByteArray(byte[] out, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			require(1);
+			final int count = Math.min(length, chunk.remaining());
+			chunk.get(out, offset, count);
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Reads <code>length</code> shorts into the given array.
+	 *
+	 * @throws EOFException
+	 *             If the stream ends first.
+	 */
+	public void readShortArray(short[] out, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			require(Math.min(length * 2, chunk.capacity()));
+			final int count = Math.min(length, chunk.remaining() / 2);
+			chunk.asShortBuffer().get(out, offset, count);
+			chunk.position(chunk.position() + count * 2);
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Reads <code>length</code> floats into the given array.
+	 *
+	 * @throws EOFException
+	 *             If the stream ends first.
+	 */
+	public void readFloatArray(float[] out, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			require(Math.min(length * 4, chunk.capacity()));
+			final int count = Math.min(length, chunk.remaining() / 4);
+			chunk.asFloatBuffer().get(out, offset, count);
+			chunk.position(chunk.position() + count * 4);
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Reads a UTF-8 string whose end has been marked with NUL (0x00).
+	 *
+	 * @return The string read, without the NUL.
+	 * @throws EOFException
+	 *             If the stream ends first.
+	 */
+	public String readString() throws IOException {
+		ByteArrayOutputStream spill = null;
+		while (true) {
+			require(1);
+			final int start = chunk.position();
+			final int end = chunk.limit();
+			int nul = start;
+			while (nul < end && chunk.get(nul) != 0x00) {
+				nul++;
+			}
+			final byte[] part = new byte[nul - start];
+			chunk.get(part);
+			if (nul < end) {
+				chunk.get(); // Skip the NUL
+				if (spill == null) {
+					return new String(part, UTF_8);
+				}
+				spill.write(part, 0, part.length);
+				return new String(spill.toByteArray(), UTF_8);
+			}
+
+			// The string continues past this chunk
+			if (spill == null) {
+				spill = new ByteArrayOutputStream();
+			}
+			spill.write(part, 0, part.length);
+		}
+	}
+
+	/**
+	 * @return true if there is more data to read.
+	 */
+	public boolean hasNext() throws IOException {
+		return fill(1);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (in != null) {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.supermercerbros.gameengine.util;
+
+import java.io.IOException;
+
+/**
+ * Decompresses data in the LZ4 block format. Every read is bounds-checked, so
+ * corrupt input fails with an IOException instead of overrunning an array.
+ */
+public class LZ4 {
+	/**
+	 * The shortest match the format can encode.
+	 */
+	private static final int MIN_MATCH = 4;
+
+	/**
+	 * @return The largest size that <code>length</code> bytes can compress
+	 *         to, when they do not compress at all.
+	 */
+	public static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Decompresses one LZ4 block.
+	 *
+	 * @param src
+	 *            The array holding the compressed block.
+	 * @param srcOffset
+	 *            The index of the block in <code>src</code>.
+	 * @param srcLength
+	 *            The length of the compressed block.
+	 * @param dst
+	 *            The array to decompress into.
+	 * @param dstOffset
+	 *            The index in <code>dst</code> to decompress to.
+	 * @param dstLength
+	 *            The exact length of the decompressed block.
+	 * @throws IOException
+	 *             If the block is corrupt, or does not decompress to exactly
+	 *             <code>dstLength</code> bytes.
+	 */
+	public static void decompress(byte[] src, int srcOffset, int srcLength,
+			byte[] dst, int dstOffset, int dstLength) throws IOException {
+		final int srcEnd = srcOffset + srcLength;
+		final int dstEnd = dstOffset + dstLength;
+		int s = srcOffset;
+		int d = dstOffset;
+
+		while (true) {
+			if (s >= srcEnd) {
+				throw new IOException("Truncated LZ4 block");
+			}
+			final int token = src[s++] & 0xFF;
+
+			// Copy the literals
+			int literals = token >>> 4;
+			if (literals == 0x0F) {
+				int b;
+				do {
+					if (s >= srcEnd) {
+						throw new IOException("Truncated LZ4 block");
+					}
+					b = src[s++] & 0xFF;
+					literals += b;
+				} while (b == 0xFF);
+			}
+			if (literals > srcEnd - s || literals > dstEnd - d) {
+				throw new IOException("Corrupt LZ4 literals");
+			}
+			System.arraycopy(src, s, dst, d, literals);
+			s += literals;
+			d += literals;
+
+			if (s == srcEnd) {
+				break; // The last sequence has no match
+			}
+
+			// Copy the match
+			if (srcEnd - s < 2) {
+				throw new IOException("Truncated LZ4 block");
+			}
+			final int offset = (src[s] & 0xFF) | (src[s + 1] & 0xFF) << 8;
+			s += 2;
+			if (offset == 0 || offset > d - dstOffset) {
+				throw new IOException("Corrupt LZ4 match offset");
+			}
+			int length = token & 0x0F;
+			if (length == 0x0F) {
+				int b;
+				do {
+					if (s >= srcEnd) {
+						throw new IOException("Truncated LZ4 block");
+					}
+					b = src[s++] & 0xFF;
+					length += b;
+				} while (b == 0xFF);
+			}
+			length += MIN_MATCH;
+			if (length > dstEnd - d) {
+				throw new IOException("Corrupt LZ4 match length");
+			}
+			int m = d - offset;
+			if (offset >= length) {
+				System.arraycopy(dst, m, dst, d, length);
+				d += length;
+			} else {
+				// The match overlaps the bytes it produces
+				for (int i = 0; i < length; i++) {
+					dst[d++] = dst[m++];
+				}
+			}
+		}
+
+		if (d != dstEnd) {
+			throw new IOException("LZ4 block decompressed to " + (d - dstOffset)
+					+ " bytes instead of " + dstLength);
+		}
+	}
+}
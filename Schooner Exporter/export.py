@@ -173,8 +173,9 @@ class BinFile:
 			print("#int : " + str(i))
 		self.file.write(BinFile.signedInt.pack(i))
 		
-	def writeFloat(self, f):
-		f = clampFloat(f)
+	def writeFloat(self, f, exact=False):
+		if not exact:
+			f = clampFloat(f)
 		if BinFile.DEBUG:
 			print("#float  : " + str(f))
 		self.file.write(BinFile.signedFloat.pack(f))
@@ -203,13 +204,13 @@ class BinFile:
 				self.writeShort(s, signed=signed)
 		BinFile.DEBUG = temp
 	
-	def writeAllFloats(self, floats):
+	def writeAllFloats(self, floats, exact=False):
 		if BinFile.DEBUG:
 			print("#floats : " + str(floats))
 		temp = BinFile.DEBUG
 		BinFile.DEBUG = False
 		for f in floats:
-			self.writeFloat(f)
+			self.writeFloat(f, exact=exact)
 		BinFile.DEBUG = temp
 	
 	def close(self):
@@ -331,7 +332,14 @@ class MeshExporter:
 					break
 				self.bone_weights.append(bones)
 	
-	def export(self, directory, name):
+	def export(self, directory, name, options=None):
+		if options is not None and options.version == 2:
+			self.exportV2(directory, name, options)
+			return
+		
+		if options is not None and options.optimize and self.tris:
+			self.indices = self.optimize(self.indices, name)
+		
 		file = BinFile(directory, name + ".sch3Dmesh")
 		file.writeInt(1)
 		
@@ -371,6 +379,168 @@ class MeshExporter:
 		# close file
 		file.close()
 	
+	def exportV2(self, directory, name, options):
+		vertCount = int(len(self.vertices) / 3)
+		triangles = self.getTriangles()
+		if options.optimize:
+			triangles = self.optimize(triangles, name)
+		welds = self.getWelds() if self.textured else []
+		normals = self.getNormals(triangles, welds) if options.normals else None
+		layout = None
+		if options.interleave:
+			layout = "p"
+			if normals is not None:
+				layout += "n"
+			if self.textured:
+				layout += "t"
+		quantize = options.quantize and layout is None
+		
+		file = BinFile(directory, name + ".sch3Dmesh")
+		file.writeInt(2)
+		
+		# write flags
+		file.writeFlags((self.textured, self.armature_indexed,
+				normals is not None, len(welds) > 0, quantize, layout is not None))
+		
+		# write number of triangles and vertices
+		file.writeShort(int(len(triangles) / 3))
+		file.writeShort(vertCount)
+		
+		# write indices
+		file.writeAllShorts(triangles)
+		
+		if layout is not None:
+			# write interleaved vertex block
+			file.writeString(layout)
+			block = []
+			for i in range(vertCount):
+				block.extend(self.vertices[i * 3:i * 3 + 3])
+				if normals is not None:
+					block.extend(normals[i * 3:i * 3 + 3])
+				if self.textured:
+					block.extend(self.uvs[i * 2:i * 2 + 2])
+			file.writeAllFloats(block)
+		elif quantize:
+			writeQuantized(file, self.vertices, 3)
+			if normals is not None:
+				temp = BinFile.DEBUG
+				BinFile.DEBUG = False
+				for n in normals:
+					file.writeByte(int(round(n * 127)), signed=True)
+				BinFile.DEBUG = temp
+			if self.textured:
+				writeQuantized(file, self.uvs, 2)
+		else:
+			file.writeAllFloats(self.vertices)
+			if normals is not None:
+				file.writeAllFloats(normals)
+			if self.textured:
+				file.writeAllFloats(self.uvs)
+		
+		if len(welds):
+			# write weld pairs
+			file.writeShort(len(welds))
+			file.writeAllShorts([pair[0] for pair in welds])
+			file.writeAllShorts([pair[1] for pair in welds])
+		
+		if self.armature_indexed:
+			# write armature weights
+			for vertex_bones in self.bone_weights:
+				file.writeByte(len(vertex_bones))
+				for index, weight in vertex_bones:
+					file.writeByte(index)
+				for index, weight in vertex_bones:
+					file.writeFloat(weight)
+		
+		# close file
+		file.close()
+	
+	# Reorders triangles for the vertex cache and vertices for fetch locality,
+	# as the engine's MeshOptimizer does, and remaps the per-vertex data.
+	def optimize(self, triangles, name):
+		vertCount = int(len(self.vertices) / 3)
+		before = getACMR(triangles, vertCount)
+		triangles = reorderTriangles(triangles, vertCount)
+		
+		# Renumber vertices in the order they are first used
+		remap = [-1] * vertCount
+		order = []
+		for index in triangles:
+			if remap[index] == -1:
+				remap[index] = len(order)
+				order.append(index)
+		for index in range(vertCount):
+			if remap[index] == -1:
+				remap[index] = len(order)
+				order.append(index)
+		triangles = [remap[index] for index in triangles]
+		
+		self.vertices = [c for old in order for c in self.vertices[old * 3:old * 3 + 3]]
+		if self.textured:
+			self.uvs = [c for old in order for c in self.uvs[old * 2:old * 2 + 2]]
+		if self.armature_indexed:
+			self.bone_weights = [self.bone_weights[old] for old in order]
+		self.sharps = sorted(remap[index] for index in self.sharps)
+		
+		info(name + ": ACMR " + str(round(before, 3)) + " -> "
+				+ str(round(getACMR(triangles, vertCount), 3)))
+		return triangles
+	
+	def getTriangles(self):
+		if self.tris:
+			return self.indices
+		triangles = []
+		for i in range(0, len(self.indices), 4):
+			a, b, c, d = self.indices[i:i + 4]
+			triangles.extend((a, b, c, a, c, d))
+		return triangles
+	
+	# Finds the pairs of coincident vertices that are not sharp, in the same
+	# order as the version 1 parser.
+	def getWelds(self):
+		sharps = set(self.sharps)
+		groups = {}
+		for i in range(int(len(self.vertices) / 3)):
+			if i not in sharps:
+				key = tuple(self.vertices[i * 3:i * 3 + 3])
+				groups.setdefault(key, []).append(i)
+		welds = []
+		for group in groups.values():
+			for a in range(len(group) - 1):
+				for b in range(a + 1, len(group)):
+					welds.append((group[a], group[b]))
+		welds.sort()
+		return welds
+	
+	# Calculates normals as the engine's Normals.calculate() does.
+	def getNormals(self, triangles, welds):
+		verts = self.vertices
+		normals = [0.0] * len(verts)
+		for f in range(0, len(triangles), 3):
+			i0 = triangles[f] * 3
+			i1 = triangles[f + 1] * 3
+			i2 = triangles[f + 2] * 3
+			u = [verts[i2 + k] - verts[i1 + k] for k in range(3)]
+			v = [verts[i0 + k] - verts[i1 + k] for k in range(3)]
+			n = [u[1] * v[2] - u[2] * v[1],
+				u[2] * v[0] - u[0] * v[2],
+				u[0] * v[1] - u[1] * v[0]]
+			length = (n[0] ** 2 + n[1] ** 2 + n[2] ** 2) ** 0.5
+			if length == 0:
+				continue
+			for index in (i0, i1, i2):
+				for k in range(3):
+					normals[index + k] += n[k] / length
+		for a, b in welds:
+			for k in range(3):
+				normals[a * 3 + k] = normals[b * 3 + k] = normals[a * 3 + k] + normals[b * 3 + k]
+		for i in range(0, len(normals), 3):
+			length = (normals[i] ** 2 + normals[i + 1] ** 2 + normals[i + 2] ** 2) ** 0.5
+			if length != 0:
+				for k in range(3):
+					normals[i + k] /= length
+		return normals
+	
 	def getUVs(self, mesh, faceIndex=0, uvIndex=0):
 		#mesh = bpy.context.active_object.to_mesh(bpy.context.scene, True, 'PREVIEW')
 		
@@ -405,6 +575,107 @@ class MeshExporter:
 			bpy.ops.object.mode_set(mode=mode)
 # End class MeshExporter
 
+class MeshOptions:
+	
+	def __init__(self, version=2, normals=True, interleave=True, quantize=False, optimize=True):
+		self.version = version
+		self.normals = normals
+		self.interleave = interleave
+		self.quantize = quantize
+		self.optimize = optimize
+
+# Vertex cache optimization, as in the engine's MeshOptimizer
+CACHE_SIZE = 32
+ACMR_CACHE_SIZE = 16
+
+def vertexScore(cachePos, activeCount):
+	if activeCount == 0:
+		return -1.0
+	score = 0.0
+	if cachePos >= 0:
+		if cachePos < 3:
+			score = 0.75
+		else:
+			score = (1.0 - (cachePos - 3) / (CACHE_SIZE - 3)) ** 1.5
+	return score + 2.0 * min(activeCount, 32) ** -0.5
+
+# Reorders triangles with Tom Forsyth's linear-speed algorithm.
+def reorderTriangles(triangles, vertCount):
+	triCount = int(len(triangles) / 3)
+	active = [[] for v in range(vertCount)]
+	for i, index in enumerate(triangles):
+		active[index].append(int(i / 3))
+	cachePos = [-1] * vertCount
+	vertScores = [vertexScore(-1, len(tris)) for tris in active]
+	triScores = [sum(vertScores[v] for v in triangles[t * 3:t * 3 + 3]) for t in range(triCount)]
+	added = [False] * triCount
+	cache = []
+	out = []
+	best = -1
+	first = 0
+	for n in range(triCount):
+		if best == -1:
+			while added[first]:
+				first += 1
+			best = first
+			for t in range(first + 1, triCount):
+				if not added[t] and triScores[t] > triScores[best]:
+					best = t
+		added[best] = True
+		tri = triangles[best * 3:best * 3 + 3]
+		out.extend(tri)
+		newCache = []
+		for v in tri:
+			active[v].remove(best)
+			if v not in newCache:
+				newCache.append(v)
+		newCache.extend(v for v in cache if v not in newCache)
+		best = -1
+		bestScore = -1.0
+		for i, v in enumerate(newCache):
+			cachePos[v] = i if i < CACHE_SIZE else -1
+			vertScores[v] = vertexScore(cachePos[v], len(active[v]))
+		for v in newCache:
+			for t in active[v]:
+				score = sum(vertScores[u] for u in triangles[t * 3:t * 3 + 3])
+				triScores[t] = score
+				if score > bestScore:
+					bestScore = score
+					best = t
+		cache = newCache[:CACHE_SIZE]
+	return out
+
+# The average cache miss ratio of a triangle list, with a FIFO cache.
+def getACMR(triangles, vertCount):
+	if len(triangles) < 3:
+		return 0.0
+	addedAt = [None] * vertCount
+	misses = 0
+	for index in triangles:
+		if addedAt[index] is None or addedAt[index] < misses - ACMR_CACHE_SIZE:
+			addedAt[index] = misses
+			misses += 1
+	return misses / int(len(triangles) / 3)
+
+# Writes values quantized to unsigned shorts within their bounds, preceded by
+# the offset and scale of each of the size components.
+def writeQuantized(file, values, size):
+	offsets = []
+	scales = []
+	for c in range(size):
+		component = values[c::size]
+		low = min(component) if len(component) else 0.0
+		high = max(component) if len(component) else 0.0
+		offsets.append(low)
+		scales.append((high - low) / 65535.0)
+	file.writeAllFloats(offsets, exact=True)
+	file.writeAllFloats(scales, exact=True) # Scales are usually tiny
+	packed = []
+	for i, value in enumerate(values):
+		scale = scales[i % size]
+		packed.append(int(round((value - offsets[i % size]) / scale)) if scale else 0)
+	file.writeAllShorts(packed)
+
 class ArmatureExporter:
 	def __init__(self, armature_object, actions, exportMovements=True):
 		self.actions = actions
@@ -651,6 +922,107 @@ def writeFCurveToFile(fcurve, file, offset=0.0):
 
 
 # Clamps floats to zero if they are within a certain tolerance.
+# Scene exporter object
+class SceneExporter:
+	MAGIC = 0x53334453
+	VERSION = 1
+	HEADER_SIZE = 32
+	RECORD_SIZE = 96
+	
+	FLAG_VISIBLE = 0x01
+	FLAG_STATIC = 0x02
+	FLAG_COLLIDER = 0x04
+	
+	def __init__(self, scene):
+		self.meshes = []
+		self.materials = []
+		self.objects = []
+		
+		# Objects that share mesh data become instances of the first of them
+		firstUsers = {}
+		for obj in scene.objects:
+			if obj.type != 'MESH':
+				continue
+			mesh = obj.name.rsplit(".",1)[0] + ".sch3Dmesh"
+			if mesh not in self.meshes:
+				self.meshes.append(mesh)
+			material = obj.active_material.name if obj.active_material else ""
+			if material not in self.materials:
+				self.materials.append(material)
+			
+			parent = firstUsers.get(obj.data.name, -1)
+			if parent == -1:
+				firstUsers[obj.data.name] = len(self.objects)
+			
+			# Objects are static unless they have actions, or the "static"
+			# property says otherwise; they collide if "collider" is set
+			flags = 0
+			if not obj.hide:
+				flags |= SceneExporter.FLAG_VISIBLE
+			if obj.get("static", not getActionsOfObject(obj)):
+				flags |= SceneExporter.FLAG_STATIC
+			if obj.get("collider", False):
+				flags |= SceneExporter.FLAG_COLLIDER
+			
+			# Column-major, as OpenGL expects
+			matrix = [obj.matrix_world[row][col] for col in range(4) for row in range(4)]
+			sphere = getBoundingSphere([v.co for v in obj.data.vertices])
+			self.objects.append((self.meshes.index(mesh),
+				self.materials.index(material), parent, flags, matrix, sphere))
+	
+	def export(self, directory, name):
+		# Lay out the string table
+		strings = []
+		stringOffsets = {}
+		stringSize = 0
+		for string in self.meshes + self.materials:
+			if string not in stringOffsets:
+				stringOffsets[string] = stringSize
+				stringSize += len(bytes(string, "UTF-8")) + 1
+				strings.append(string)
+		
+		tableEnd = SceneExporter.HEADER_SIZE + 4 * (len(self.meshes) + len(self.materials))
+		objectsOffset = (tableEnd + 15) // 16 * 16
+		stringsOffset = objectsOffset + SceneExporter.RECORD_SIZE * len(self.objects)
+		
+		file = BinFile(directory, name + ".sch3Dscene")
+		file.writeInt(SceneExporter.MAGIC)
+		file.writeInt(SceneExporter.VERSION)
+		file.writeInt(len(self.meshes))
+		file.writeInt(len(self.materials))
+		file.writeInt(len(self.objects))
+		file.writeInt(objectsOffset)
+		file.writeInt(stringsOffset)
+		file.writeInt(0)
+		for string in self.meshes + self.materials:
+			file.writeInt(stringOffsets[string])
+		for i in range(objectsOffset - tableEnd):
+			file.writeByte(0)
+		
+		for mesh, material, parent, flags, matrix, sphere in self.objects:
+			file.writeInt(mesh)
+			file.writeInt(material)
+			file.writeInt(parent)
+			file.writeInt(flags)
+			file.writeAllFloats(matrix, exact=True)
+			file.writeAllFloats(sphere, exact=True)
+		
+		for string in strings:
+			file.writeString(string)
+		file.close()
+		info("Exported scene " + name + " with " + str(len(self.objects)) + " objects.")
+# End class SceneExporter
+
+def getBoundingSphere(coordinates):
+	# Returns the sphere around the center of the bounding box of the given
+	# coordinates, as [x, y, z, radius]
+	if not coordinates:
+		return [0.0, 0.0, 0.0, 0.0]
+	center = [(min(co[i] for co in coordinates) + max(co[i] for co in coordinates)) / 2
+		for i in range(3)]
+	radius = max(sum((co[i] - center[i]) ** 2 for i in range(3)) for co in coordinates) ** 0.5
+	return center + [radius]
+
 def clampFloat(f):
 	import math
 	if math.fabs(f) < BinFile.roundToZeroWithin:
@@ -723,10 +1095,13 @@ for obj in scene.objects:
 	obj.select=False
 for obj in mesh_objects:
 	exporter = MeshExporter(obj, tris=True, textured=False)
-	exporter.export(directory, obj.name.rsplit(".",1)[0])
+	exporter.export(directory, obj.name.rsplit(".",1)[0], MeshOptions())
 bpy.ops.scene.delete()
 scene = originalScene
 
+# Export the scene, which places the exported meshes.
+SceneExporter(scene).export(directory, blendFileName)
+
 verbose = True
 
 # Export armatures
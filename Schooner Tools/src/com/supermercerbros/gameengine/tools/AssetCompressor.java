@@ -0,0 +1,248 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Compresses Schooner 3D files into the compressed container read by
+ * <code>CompressedAsset</code>. Files keep their names, since the engine
+ * recognizes the container by its magic number.
+ *
+ * <pre>
+ * java com.supermercerbros.gameengine.tools.AssetCompressor [options] in out
+ *   -b kb   Block size, in KB (default 64)
+ *   -all    Compress every file in a directory, not just .sch3D* files
+ * </pre>
+ *
+ * <code>in</code> and <code>out</code> are either two files or two
+ * directories. The compressed files should be stored uncompressed in the APK,
+ * so add their extensions to the <code>-0</code> list of <code>aapt</code>.
+ */
+public class AssetCompressor {
+	// Must match CompressedAsset
+	static final int MAGIC = 0x5333445A;
+	static final int VERSION = 1;
+	static final int MAX_BLOCK_SIZE = 4 * 1024 * 1024;
+	private static final int RAW = 0x80000000;
+
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+	private boolean all = false;
+	private File input;
+	private File output;
+
+	public static void main(String[] args) {
+		final AssetCompressor compressor = new AssetCompressor();
+		try {
+			compressor.parseArgs(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			printUsage();
+			System.exit(2);
+		}
+
+		final ArrayList<File[]> files = new ArrayList<File[]>();
+		if (compressor.input.isDirectory()) {
+			compressor.collect(compressor.input, compressor.output, files);
+		} else {
+			files.add(new File[] { compressor.input, compressor.output });
+		}
+
+		int failures = 0;
+		long totalIn = 0, totalOut = 0;
+		for (File[] file : files) {
+			try {
+				final byte[] data = read(file[0]);
+				final long start = System.nanoTime();
+				final byte[] compressed = compress(data, compressor.blockSize);
+				final long time = System.nanoTime() - start;
+				write(file[1], compressed);
+				totalIn += data.length;
+				totalOut += compressed.length;
+				System.out.println(String.format(Locale.US,
+						"%s: %d -> %d bytes (%.1f%%, %.1f ms)", file[1],
+						data.length, compressed.length, 100.0
+								* compressed.length / Math.max(data.length, 1),
+						time / 1e6));
+			} catch (IOException e) {
+				System.err.println(file[0] + ": " + e.getMessage());
+				failures++;
+			}
+		}
+		if (files.size() > 1) {
+			System.out.println(String.format(Locale.US,
+					"%d files: %d -> %d bytes (%.1f%%)", files.size(), totalIn,
+					totalOut, 100.0 * totalOut / Math.max(totalIn, 1)));
+		}
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: java " + AssetCompressor.class.getName()
+				+ " [options] in out");
+		System.err.println("  -b kb   Block size, in KB (default 64)");
+		System.err.println("  -all    Compress every file in a directory, "
+				+ "not just .sch3D* files");
+	}
+
+	private void parseArgs(String[] args) {
+		final ArrayList<String> paths = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if (arg.equals("-b") && i + 1 < args.length) {
+				try {
+					blockSize = Integer.parseInt(args[++i]) * 1024;
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Bad block size "
+							+ args[i]);
+				}
+				if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+					throw new IllegalArgumentException(
+							"The block size must be from 1 to "
+									+ MAX_BLOCK_SIZE / 1024 + " KB");
+				}
+			} else if (arg.equals("-all")) {
+				all = true;
+			} else if (arg.startsWith("-")) {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			} else {
+				paths.add(arg);
+			}
+		}
+		if (paths.size() != 2) {
+			throw new IllegalArgumentException(
+					"Expected an input and an output");
+		}
+		input = new File(paths.get(0));
+		output = new File(paths.get(1));
+		if (!input.exists()) {
+			throw new IllegalArgumentException(input + " does not exist");
+		}
+	}
+
+	/**
+	 * Adds the files in the given directory, and its subdirectories, with the
+	 * files to write them to.
+	 */
+	private void collect(File dir, File outDir, ArrayList<File[]> files) {
+		final File[] children = dir.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			final File out = new File(outDir, child.getName());
+			if (child.isDirectory()) {
+				collect(child, out, files);
+			} else if (all || AssetPacker.isSch3D(child.getName())) {
+				files.add(new File[] { child, out });
+			}
+		}
+	}
+
+	/**
+	 * Compresses a file into a container. Blocks that do not get smaller are
+	 * stored uncompressed.
+	 *
+	 * @param data
+	 *            The file.
+	 * @param blockSize
+	 *            The number of bytes per block.
+	 * @return The container.
+	 */
+	public static byte[] compress(byte[] data, int blockSize) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				data.length / 2 + 64);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		final LZ4Compressor lz4 = new LZ4Compressor();
+		final byte[] block = new byte[LZ4Compressor
+				.maxCompressedLength(blockSize)];
+		final CRC32 crc = new CRC32();
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(blockSize);
+			out.writeInt(data.length);
+			for (int offset = 0; offset < data.length; offset += blockSize) {
+				final int length = Math.min(blockSize, data.length - offset);
+				final int compressed = lz4.compress(data, offset, length, block);
+				crc.reset();
+				if (compressed < length) {
+					crc.update(block, 0, compressed);
+					out.writeInt(compressed);
+					out.writeInt((int) crc.getValue());
+					out.write(block, 0, compressed);
+				} else {
+					crc.update(data, offset, length);
+					out.writeInt(length | RAW);
+					out.writeInt((int) crc.getValue());
+					out.write(data, offset, length);
+				}
+			}
+		} catch (IOException e) {
+			throw new AssertionError(e); // ByteArrayOutputStream does not throw
+		}
+		return bytes.toByteArray();
+	}
+
+	static byte[] read(File file) throws IOException {
+		final long length = file.length();
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("The file is larger than 2 GB");
+		}
+		final byte[] data = new byte[(int) length];
+		final InputStream in = new FileInputStream(file);
+		try {
+			int count = 0;
+			while (count < data.length) {
+				final int read = in.read(data, count, data.length - count);
+				if (read < 0) {
+					throw new IOException("The file changed while reading");
+				}
+				count += read;
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+
+	private static void write(File file, byte[] data) throws IOException {
+		final File parent = file.getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Cannot create " + parent);
+		}
+		final OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+}
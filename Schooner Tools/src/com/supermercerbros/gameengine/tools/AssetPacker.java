@@ -0,0 +1,292 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Packs a directory of Schooner 3D files into an asset pack for
+ * <code>AssetPack</code>. Files are named by their path relative to the
+ * directory, with <code>/</code> separators, which is the name that
+ * <code>GameFactory</code> looks them up by.
+ *
+ * <pre>
+ * java com.supermercerbros.gameengine.tools.AssetPacker [options] dir out.s3dpack
+ *   -all    Pack every file, not just .sch3D* files
+ *   -lz4    Store each file in the compressed container of
+ *           AssetCompressor, which CompressedAsset decodes when it is loaded
+ * </pre>
+ *
+ * The pack must be stored uncompressed in the APK to be memory-mapped, so add
+ * its extension to the <code>-0</code> list of <code>aapt</code>.
+ */
+public class AssetPacker {
+	// Must match AssetPack
+	static final int MAGIC = 0x53334450;
+	static final int VERSION = 1;
+	static final int ALIGNMENT = 16;
+	static final int HEADER_SIZE = 16;
+	static final int ENTRY_SIZE = 16;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static class Entry {
+		final String name;
+		final byte[] nameBytes;
+		final File file;
+		final int hash;
+		// The compressed file, if the pack is compressed
+		byte[] data;
+		int nameOffset;
+		int dataOffset;
+		int dataLength;
+
+		Entry(String name, File file) {
+			this.name = name;
+			this.nameBytes = name.getBytes(UTF_8);
+			this.file = file;
+			this.hash = hash(nameBytes);
+		}
+	}
+
+	/**
+	 * Sorts entries by signed hash, then by name, as AssetPack searches them.
+	 */
+	private static final Comparator<Entry> HASH_ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			if (a.hash != b.hash) {
+				return a.hash < b.hash ? -1 : 1;
+			}
+			return a.name.compareTo(b.name);
+		}
+	};
+
+	private boolean all = false;
+	private boolean compress = false;
+	private File inputDir;
+	private File output;
+
+	public static void main(String[] args) {
+		final AssetPacker packer = new AssetPacker();
+		try {
+			packer.parseArgs(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			printUsage();
+			System.exit(2);
+		}
+
+		try {
+			packer.pack();
+		} catch (IOException e) {
+			System.err.println(packer.output + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: java " + AssetPacker.class.getName()
+				+ " [options] dir out.s3dpack");
+		System.err.println("  -all    Pack every file, not just .sch3D* files");
+		System.err.println("  -lz4    Compress each file");
+	}
+
+	private void parseArgs(String[] args) {
+		final ArrayList<String> paths = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.equals("-all")) {
+				all = true;
+			} else if (arg.equals("-lz4")) {
+				compress = true;
+			} else if (arg.startsWith("-")) {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			} else {
+				paths.add(arg);
+			}
+		}
+		if (paths.size() != 2) {
+			throw new IllegalArgumentException(
+					"Expected an input directory and an output file");
+		}
+		inputDir = new File(paths.get(0));
+		output = new File(paths.get(1));
+		if (!inputDir.isDirectory()) {
+			throw new IllegalArgumentException(inputDir
+					+ " is not a directory");
+		}
+	}
+
+	private void pack() throws IOException {
+		final long start = System.nanoTime();
+		final ArrayList<Entry> entries = new ArrayList<Entry>();
+		collect(inputDir, "", entries);
+		if (entries.isEmpty()) {
+			throw new IOException("No files to pack in " + inputDir);
+		}
+		Collections.sort(entries, HASH_ORDER);
+		for (int i = 1; i < entries.size(); i++) {
+			if (entries.get(i).hash == entries.get(i - 1).hash) {
+				// Still found by name, just with a slower lookup
+				System.err.println("Warning: " + entries.get(i - 1).name
+						+ " and " + entries.get(i).name + " have the same hash");
+			}
+		}
+
+		// Lay out the table of contents, names, and aligned data
+		final int namesOffset = HEADER_SIZE + entries.size() * ENTRY_SIZE;
+		int nameSize = 0;
+		for (Entry entry : entries) {
+			entry.nameOffset = nameSize;
+			nameSize += entry.nameBytes.length + 1;
+		}
+		long offset = align(namesOffset + nameSize);
+		for (Entry entry : entries) {
+			if (compress) {
+				entry.data = AssetCompressor.compress(
+						AssetCompressor.read(entry.file),
+						AssetCompressor.DEFAULT_BLOCK_SIZE);
+			}
+			final long length = entry.data != null ? entry.data.length
+					: entry.file.length();
+			if (offset + length > Integer.MAX_VALUE) {
+				throw new IOException("The pack would be larger than 2 GB");
+			}
+			entry.dataOffset = (int) offset;
+			entry.dataLength = (int) length;
+			offset = align(offset + length);
+		}
+
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(output), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			out.writeInt(namesOffset);
+			for (Entry entry : entries) {
+				out.writeInt(entry.hash);
+				out.writeInt(entry.nameOffset);
+				out.writeInt(entry.dataOffset);
+				out.writeInt(entry.dataLength);
+			}
+			for (Entry entry : entries) {
+				out.write(entry.nameBytes);
+				out.write(0);
+			}
+			for (Entry entry : entries) {
+				pad(out, entry.dataOffset - out.size());
+				if (entry.data != null) {
+					out.write(entry.data);
+				} else {
+					copy(entry.file, out, entry.dataLength);
+				}
+			}
+			pad(out, (int) (align(out.size()) - out.size()));
+		} finally {
+			out.close();
+		}
+
+		final long time = System.nanoTime() - start;
+		long payload = 0;
+		for (Entry entry : entries) {
+			payload += entry.dataLength;
+		}
+		System.out.println(String.format(Locale.US,
+				"%s: %d files, %d bytes of data, %d bytes total (%.1f ms)",
+				output, entries.size(), payload, output.length(), time / 1e6));
+	}
+
+	/**
+	 * Adds the files in the given directory, and its subdirectories.
+	 */
+	private void collect(File dir, String prefix, ArrayList<Entry> entries)
+			throws IOException {
+		final File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list " + dir);
+		}
+		for (File file : files) {
+			final String name = prefix + file.getName();
+			if (file.isDirectory()) {
+				collect(file, name + "/", entries);
+			} else if (all || isSch3D(file.getName())) {
+				entries.add(new Entry(name, file));
+			}
+		}
+	}
+
+	static boolean isSch3D(String name) {
+		final int dot = name.lastIndexOf('.');
+		return dot != -1
+				&& name.substring(dot + 1).toLowerCase(Locale.US)
+						.startsWith("sch3d");
+	}
+
+	/**
+	 * The 32-bit FNV-1a hash, as calculated by AssetPack.
+	 */
+	static int hash(byte[] bytes) {
+		int hash = 0x811C9DC5;
+		for (byte b : bytes) {
+			hash ^= b & 0xFF;
+			hash *= 0x01000193;
+		}
+		return hash;
+	}
+
+	private static long align(long offset) {
+		return (offset + ALIGNMENT - 1) & ~(long) (ALIGNMENT - 1);
+	}
+
+	private static void pad(DataOutputStream out, int count)
+			throws IOException {
+		for (int i = 0; i < count; i++) {
+			out.write(0);
+		}
+	}
+
+	private static void copy(File file, DataOutputStream out, int length)
+			throws IOException {
+		final InputStream in = new FileInputStream(file);
+		try {
+			final byte[] buffer = new byte[65536];
+			int remaining = length;
+			while (remaining > 0) {
+				final int read = in.read(buffer, 0,
+						Math.min(buffer.length, remaining));
+				if (read < 0) {
+					throw new IOException(file + " changed while packing");
+				}
+				out.write(buffer, 0, read);
+				remaining -= read;
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
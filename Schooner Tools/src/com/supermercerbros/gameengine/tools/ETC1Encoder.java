@@ -0,0 +1,519 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.tools;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Encodes images to ETC1. Each 4x4 block is tried with both sub-block
+ * orientations and both the individual and differential color modes, and the
+ * combination with the least squared RGB error is kept.
+ *
+ * <p>
+ * The quality level sets how far from each sub-block's average color the
+ * encoder searches for a base color: {@link #QUALITY_FAST} only tries the
+ * average itself, and higher levels try every color within 1 or 2 quantization
+ * steps of it. That is 27 or 125 base colors instead of 1, so
+ * {@link #QUALITY_MEDIUM} is about 20 times slower than {@link #QUALITY_FAST},
+ * and {@link #QUALITY_HIGH} about 90 times, for typically under 0.5 dB of
+ * PSNR.
+ * </p>
+ */
+public class ETC1Encoder {
+	public static final int QUALITY_FAST = 0;
+	public static final int QUALITY_MEDIUM = 1;
+	public static final int QUALITY_HIGH = 2;
+
+	/**
+	 * The size of an encoded block, in bytes.
+	 */
+	public static final int BLOCK_SIZE = 8;
+
+	/**
+	 * The ETC1 modifier tables. Each table is { small, large }; a pixel may
+	 * use +small, +large, -small, or -large.
+	 */
+	private static final int[][] MODIFIERS = { { 2, 8 }, { 5, 17 },
+			{ 9, 29 }, { 13, 42 }, { 18, 60 }, { 24, 80 }, { 33, 106 },
+			{ 47, 183 } };
+
+	/**
+	 * The number of block rows given to each encoding task.
+	 */
+	private static final int ROWS_PER_TASK = 4;
+
+	private final int radius;
+
+	/**
+	 * Constructs a new ETC1Encoder.
+	 *
+	 * @param quality
+	 *            {@link #QUALITY_FAST}, {@link #QUALITY_MEDIUM}, or
+	 *            {@link #QUALITY_HIGH}.
+	 */
+	public ETC1Encoder(int quality) {
+		if (quality < QUALITY_FAST || quality > QUALITY_HIGH) {
+			throw new IllegalArgumentException("Invalid quality: " + quality);
+		}
+		this.radius = quality;
+	}
+
+	/**
+	 * @return The size, in bytes, of an ETC1 image of the given size.
+	 */
+	public static int getEncodedDataSize(int width, int height) {
+		return ((width + 3) / 4) * ((height + 3) / 4) * BLOCK_SIZE;
+	}
+
+	/**
+	 * Encodes an image. Rows of blocks are encoded in parallel on the given
+	 * executor.
+	 *
+	 * @param argb
+	 *            The pixels of the image, row by row. Alpha is ignored.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param executor
+	 *            The ExecutorService to encode on.
+	 * @return The encoded blocks, row by row.
+	 */
+	public byte[] encode(final int[] argb, final int width, final int height,
+			ExecutorService executor) throws InterruptedException {
+		final int blocksWide = (width + 3) / 4;
+		final int blocksHigh = (height + 3) / 4;
+		final byte[] out = new byte[blocksWide * blocksHigh * BLOCK_SIZE];
+
+		final ArrayList<Future<?>> tasks = new ArrayList<Future<?>>();
+		for (int row = 0; row < blocksHigh; row += ROWS_PER_TASK) {
+			final int firstRow = row;
+			final int lastRow = Math.min(row + ROWS_PER_TASK, blocksHigh);
+			tasks.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					final int[] block = new int[16];
+					final Search search = new Search();
+					for (int by = firstRow; by < lastRow; by++) {
+						for (int bx = 0; bx < blocksWide; bx++) {
+							readBlock(argb, width, height, bx * 4, by * 4,
+									block);
+							encodeBlock(block, search, out,
+									(by * blocksWide + bx) * BLOCK_SIZE);
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return out;
+	}
+
+	/**
+	 * Decodes an ETC1 image.
+	 *
+	 * @param data
+	 *            The encoded blocks, row by row.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @return The decoded pixels, as opaque ARGB.
+	 */
+	public static int[] decode(byte[] data, int width, int height) {
+		final int blocksWide = (width + 3) / 4;
+		final int[] out = new int[width * height];
+		final int[] block = new int[16];
+		for (int by = 0; by * 4 < height; by++) {
+			for (int bx = 0; bx < blocksWide; bx++) {
+				decodeBlock(data, (by * blocksWide + bx) * BLOCK_SIZE, block);
+				for (int y = 0; y < 4 && by * 4 + y < height; y++) {
+					for (int x = 0; x < 4 && bx * 4 + x < width; x++) {
+						out[(by * 4 + y) * width + bx * 4 + x] = block[y * 4 + x];
+					}
+				}
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Copies a 4x4 block of pixels, clamping to the edges of the image.
+	 */
+	private static void readBlock(int[] argb, int width, int height, int x0,
+			int y0, int[] block) {
+		for (int y = 0; y < 4; y++) {
+			final int row = Math.min(y0 + y, height - 1) * width;
+			for (int x = 0; x < 4; x++) {
+				block[y * 4 + x] = argb[row + Math.min(x0 + x, width - 1)];
+			}
+		}
+	}
+
+	/**
+	 * Per-thread scratch space for encoding blocks.
+	 */
+	private static class Search {
+		final int[][] r = new int[2][8];
+		final int[][] g = new int[2][8];
+		final int[][] b = new int[2][8];
+
+		// Candidate base colors of each sub-block, as { r, g, b, table, error }
+		final int[][][] candidates = new int[2][125][5];
+		final int[] candidateCounts = new int[2];
+	}
+
+	/**
+	 * Encodes one block.
+	 *
+	 * @param block
+	 *            The 16 pixels of the block, row by row.
+	 */
+	private void encodeBlock(int[] block, Search s, byte[] out, int offset) {
+		int bestError = Integer.MAX_VALUE;
+		long bestBits = 0;
+		for (int flip = 0; flip <= 1; flip++) {
+			splitBlock(block, flip, s);
+
+			// Individual mode: 4-bit colors, chosen independently
+			int error = 0;
+			final int[][] colors = new int[2][];
+			for (int sub = 0; sub < 2; sub++) {
+				searchColors(s, sub, 4, bestError - error);
+				colors[sub] = best(s, sub);
+				error += colors[sub] == null ? Integer.MAX_VALUE / 2
+						: colors[sub][4];
+			}
+			if (error < bestError) {
+				bestError = error;
+				bestBits = packHeader(colors[0], colors[1], false, flip);
+			}
+
+			// Differential mode: 5-bit colors, which must be within
+			// [-4, 3] of each other. A sub-block alone can't beat the best
+			// block so far if its own error is already worse.
+			searchColors(s, 0, 5, bestError);
+			searchColors(s, 1, 5, bestError);
+			final int[][] pair = bestDifferentialPair(s);
+			if (pair != null) {
+				error = pair[0][4] + pair[1][4];
+				if (error < bestError) {
+					bestError = error;
+					bestBits = packHeader(pair[0], pair[1], true, flip);
+				}
+			}
+		}
+		bestBits |= packIndices(block, bestBits);
+
+		for (int i = 0; i < 8; i++) {
+			out[offset + i] = (byte) (bestBits >>> (56 - i * 8));
+		}
+	}
+
+	/**
+	 * Splits a block into its two sub-blocks.
+	 */
+	private static void splitBlock(int[] block, int flip, Search s) {
+		final int[] counts = new int[2];
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				final int sub = getSubBlock(x, y, flip);
+				final int pixel = block[y * 4 + x];
+				final int n = counts[sub]++;
+				s.r[sub][n] = (pixel >> 16) & 0xFF;
+				s.g[sub][n] = (pixel >> 8) & 0xFF;
+				s.b[sub][n] = pixel & 0xFF;
+			}
+		}
+	}
+
+	private static int getSubBlock(int x, int y, int flip) {
+		return flip == 0 ? x >> 1 : y >> 1;
+	}
+
+	/**
+	 * Finds the best table for each base color near the average of a
+	 * sub-block.
+	 *
+	 * @param bits
+	 *            4 for individual mode, 5 for differential mode.
+	 * @param limit
+	 *            Candidates with an error of at least this are not kept.
+	 */
+	private void searchColors(Search s, int sub, int bits, int limit) {
+		final int max = (1 << bits) - 1;
+		float sumR = 0, sumG = 0, sumB = 0;
+		for (int i = 0; i < 8; i++) {
+			sumR += s.r[sub][i];
+			sumG += s.g[sub][i];
+			sumB += s.b[sub][i];
+		}
+		final int qr = Math.round(sumR / 8 * max / 255);
+		final int qg = Math.round(sumG / 8 * max / 255);
+		final int qb = Math.round(sumB / 8 * max / 255);
+
+		int count = 0;
+		final int[] result = new int[2];
+		for (int cr = Math.max(qr - radius, 0); cr <= Math.min(qr + radius,
+				max); cr++) {
+			for (int cg = Math.max(qg - radius, 0); cg <= Math.min(qg + radius,
+					max); cg++) {
+				for (int cb = Math.max(qb - radius, 0); cb <= Math.min(qb
+						+ radius, max); cb++) {
+					bestTable(s.r[sub], s.g[sub], s.b[sub], expand(cr, bits),
+							expand(cg, bits), expand(cb, bits), limit, result);
+					if (result[1] < limit) {
+						final int[] c = s.candidates[sub][count++];
+						c[0] = cr;
+						c[1] = cg;
+						c[2] = cb;
+						c[3] = result[0];
+						c[4] = result[1];
+					}
+				}
+			}
+		}
+		s.candidateCounts[sub] = count;
+	}
+
+	/**
+	 * @return The candidate of the given sub-block with the least error, or
+	 *         null if there are none.
+	 */
+	private static int[] best(Search s, int sub) {
+		int[] best = null;
+		for (int i = 0; i < s.candidateCounts[sub]; i++) {
+			final int[] c = s.candidates[sub][i];
+			if (best == null || c[4] < best[4]) {
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return The pair of 5-bit candidates with the least total error that can
+	 *         be stored in differential mode, or null if there is none.
+	 */
+	private static int[][] bestDifferentialPair(Search s) {
+		final int[] best0 = best(s, 0);
+		final int[] best1 = best(s, 1);
+		if (best0 != null && best1 != null && canDiffer(best0, best1)) {
+			return new int[][] { best0, best1 };
+		}
+
+		// The best colors are too far apart, so try every pair
+		int[][] pair = null;
+		int pairError = Integer.MAX_VALUE;
+		for (int i = 0; i < s.candidateCounts[0]; i++) {
+			final int[] c0 = s.candidates[0][i];
+			for (int j = 0; j < s.candidateCounts[1]; j++) {
+				final int[] c1 = s.candidates[1][j];
+				if (c0[4] + c1[4] < pairError && canDiffer(c0, c1)) {
+					pair = new int[][] { c0, c1 };
+					pairError = c0[4] + c1[4];
+				}
+			}
+		}
+		return pair;
+	}
+
+	private static boolean canDiffer(int[] c0, int[] c1) {
+		for (int i = 0; i < 3; i++) {
+			final int d = c1[i] - c0[i];
+			if (d < -4 || d > 3) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the modifier table that best fits a sub-block to a base color.
+	 *
+	 * @param result
+	 *            Receives { table, error }. If no table has an error less
+	 *            than <code>limit</code>, the error is at least
+	 *            <code>limit</code>.
+	 */
+	private static void bestTable(int[] r, int[] g, int[] b, int baseR,
+			int baseG, int baseB, int limit, int[] result) {
+		int bestError = limit;
+		int bestTable = 0;
+		for (int t = 0; t < MODIFIERS.length; t++) {
+			int error = 0;
+			for (int i = 0; i < 8 && error < bestError; i++) {
+				error += pixelError(r[i], g[i], b[i], baseR, baseG, baseB, t,
+						null);
+			}
+			if (error < bestError) {
+				bestError = error;
+				bestTable = t;
+			}
+		}
+		result[0] = bestTable;
+		result[1] = bestError;
+	}
+
+	/**
+	 * @param index
+	 *            If not null, receives the pixel index of the best modifier.
+	 * @return The least squared error of the pixel with any modifier of the
+	 *         given table.
+	 */
+	private static int pixelError(int r, int g, int b, int baseR, int baseG,
+			int baseB, int table, int[] index) {
+		int best = Integer.MAX_VALUE;
+		// Pixel indices 0-3 select +small, +large, -small, and -large
+		for (int m = 0; m < 4; m++) {
+			final int mod = getModifier(table, m);
+			final int dr = clamp(baseR + mod) - r;
+			final int dg = clamp(baseG + mod) - g;
+			final int db = clamp(baseB + mod) - b;
+			final int error = dr * dr + dg * dg + db * db;
+			if (error < best) {
+				best = error;
+				if (index != null) {
+					index[0] = m;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return The modifier selected by the given pixel index.
+	 */
+	private static int getModifier(int table, int index) {
+		final int value = MODIFIERS[table][index & 1];
+		return (index & 2) == 0 ? value : -value;
+	}
+
+	/**
+	 * Packs the colors, tables, and mode bits of a block.
+	 */
+	private static long packHeader(int[] c0, int[] c1, boolean differential,
+			int flip) {
+		long bits = 0;
+		for (int i = 0; i < 3; i++) {
+			final int shift = 59 - i * 8;
+			if (differential) {
+				bits |= (long) c0[i] << shift;
+				bits |= (long) ((c1[i] - c0[i]) & 7) << (shift - 3);
+			} else {
+				bits |= (long) c0[i] << (shift + 1);
+				bits |= (long) c1[i] << (shift - 3);
+			}
+		}
+		bits |= (long) c0[3] << 37;
+		bits |= (long) c1[3] << 34;
+		bits |= (differential ? 1L : 0L) << 33;
+		bits |= (long) flip << 32;
+		return bits;
+	}
+
+	/**
+	 * @return The pixel index bits of a block, given its header.
+	 */
+	private static long packIndices(int[] block, long header) {
+		final int[][] colors = unpackColors(header);
+		final int flip = (int) (header >>> 32) & 1;
+		final int[] index = new int[1];
+		long bits = 0;
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				final int[] c = colors[getSubBlock(x, y, flip)];
+				final int pixel = block[y * 4 + x];
+				pixelError((pixel >> 16) & 0xFF, (pixel >> 8) & 0xFF,
+						pixel & 0xFF, c[0], c[1], c[2], c[3], index);
+				final int bit = x * 4 + y;
+				bits |= (long) (index[0] >> 1) << (bit + 16);
+				bits |= (long) (index[0] & 1) << bit;
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * @return The expanded base colors and tables of a block, as two arrays of
+	 *         { r, g, b, table }.
+	 */
+	private static int[][] unpackColors(long bits) {
+		final boolean differential = ((bits >>> 33) & 1) != 0;
+		final int[][] colors = new int[2][4];
+		for (int i = 0; i < 3; i++) {
+			final int shift = 59 - i * 8;
+			if (differential) {
+				final int c0 = (int) (bits >>> shift) & 31;
+				int d = (int) (bits >>> (shift - 3)) & 7;
+				d = d >= 4 ? d - 8 : d;
+				colors[0][i] = expand(c0, 5);
+				colors[1][i] = expand((c0 + d) & 31, 5);
+			} else {
+				colors[0][i] = expand((int) (bits >>> (shift + 1)) & 15, 4);
+				colors[1][i] = expand((int) (bits >>> (shift - 3)) & 15, 4);
+			}
+		}
+		colors[0][3] = (int) (bits >>> 37) & 7;
+		colors[1][3] = (int) (bits >>> 34) & 7;
+		return colors;
+	}
+
+	/**
+	 * Decodes one block.
+	 *
+	 * @param out
+	 *            Receives the 16 pixels of the block, row by row.
+	 */
+	private static void decodeBlock(byte[] data, int offset, int[] out) {
+		long bits = 0;
+		for (int i = 0; i < 8; i++) {
+			bits = (bits << 8) | (data[offset + i] & 0xFF);
+		}
+		final int[][] colors = unpackColors(bits);
+		final int flip = (int) (bits >>> 32) & 1;
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				final int[] c = colors[getSubBlock(x, y, flip)];
+				final int bit = x * 4 + y;
+				final int index = (int) ((bits >>> (bit + 16)) & 1) << 1
+						| (int) ((bits >>> bit) & 1);
+				final int mod = getModifier(c[3], index);
+				out[y * 4 + x] = 0xFF000000 | clamp(c[0] + mod) << 16
+						| clamp(c[1] + mod) << 8 | clamp(c[2] + mod);
+			}
+		}
+	}
+
+	private static int expand(int value, int bits) {
+		return bits == 4 ? value << 4 | value : value << 3 | value >> 2;
+	}
+
+	private static int clamp(int value) {
+		return value < 0 ? 0 : value > 255 ? 255 : value;
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Converts PNGs to ETC1 textures for
+ * <code>ETC1CompressedTexture</code>. Each image is written with a
+ * gamma-correct mip chain. ETC1 has no alpha channel, so any transparency is
+ * dropped, with a warning; such images should stay PNGs.
+ *
+ * <pre>
+ * java com.supermercerbros.gameengine.tools.ETC1Tool [options] image.png...
+ *   -q fast|medium|high  Encoding quality (default fast)
+ *   -f pkm|ktx           Output format (default pkm)
+ *   -o dir               Output directory (default: next to each image)
+ *   -j threads           Encoding threads (default: one per core)
+ *   -nomips              Only write level 0
+ *   -linear              Filter mips without gamma correction (normal maps)
+ * </pre>
+ *
+ * For each image, the size of the output (against RGBA8888 with the same
+ * mips), the encoding throughput, and the PSNR of level 0 are printed.
+ *
+ * <p>
+ * Medium quality takes about 20 times as long as fast, and high about 90
+ * times, for typically under 0.5 dB of PSNR.
+ * </p>
+ */
+public class ETC1Tool {
+	private int quality = ETC1Encoder.QUALITY_FAST;
+	private boolean ktx = false;
+	private File outputDir = null;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private boolean mipmaps = true;
+	private boolean gammaCorrect = true;
+	private final ArrayList<File> inputs = new ArrayList<File>();
+
+	public static void main(String[] args) {
+		final ETC1Tool tool = new ETC1Tool();
+		try {
+			tool.parseArgs(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			printUsage();
+			System.exit(2);
+		}
+
+		final ExecutorService executor = Executors
+				.newFixedThreadPool(tool.threads);
+		int failures = 0;
+		try {
+			for (File input : tool.inputs) {
+				try {
+					tool.convert(input, executor);
+				} catch (IOException e) {
+					System.err.println(input + ": " + e.getMessage());
+					failures++;
+				}
+			}
+		} catch (InterruptedException e) {
+			System.err.println("Interrupted");
+			failures++;
+		} finally {
+			executor.shutdownNow();
+		}
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: ETC1Tool [-q fast|medium|high] [-f pkm|ktx] "
+				+ "[-o dir] [-j threads] [-nomips] [-linear] image.png...");
+		System.err.println("  -q  Encoding quality (default fast). medium is about "
+				+ "20x slower than fast, and high about 90x,");
+		System.err.println("      for typically under 0.5 dB of PSNR.");
+	}
+
+	private void parseArgs(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if (arg.equals("-nomips")) {
+				mipmaps = false;
+			} else if (arg.equals("-linear")) {
+				gammaCorrect = false;
+			} else if (arg.equals("-q") || arg.equals("-f")
+					|| arg.equals("-o") || arg.equals("-j")) {
+				if (++i == args.length) {
+					throw new IllegalArgumentException("Missing value for "
+							+ arg);
+				}
+				final String value = args[i];
+				if (arg.equals("-q")) {
+					quality = parseQuality(value);
+				} else if (arg.equals("-f")) {
+					if (!value.equals("pkm") && !value.equals("ktx")) {
+						throw new IllegalArgumentException("Unknown format: "
+								+ value);
+					}
+					ktx = value.equals("ktx");
+				} else if (arg.equals("-o")) {
+					outputDir = new File(value);
+				} else {
+					try {
+						threads = Integer.parseInt(value);
+					} catch (NumberFormatException e) {
+						threads = 0;
+					}
+					if (threads < 1) {
+						throw new IllegalArgumentException(
+								"Invalid thread count: " + value);
+					}
+				}
+			} else if (arg.startsWith("-")) {
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			} else {
+				inputs.add(new File(arg));
+			}
+		}
+		if (inputs.isEmpty()) {
+			throw new IllegalArgumentException("No input images");
+		}
+	}
+
+	private static int parseQuality(String value) {
+		if (value.equals("fast")) {
+			return ETC1Encoder.QUALITY_FAST;
+		} else if (value.equals("medium")) {
+			return ETC1Encoder.QUALITY_MEDIUM;
+		} else if (value.equals("high")) {
+			return ETC1Encoder.QUALITY_HIGH;
+		}
+		throw new IllegalArgumentException("Unknown quality: " + value);
+	}
+
+	/**
+	 * Converts one image, and prints its report.
+	 */
+	private void convert(File input, ExecutorService executor)
+			throws IOException, InterruptedException {
+		final BufferedImage image = ImageIO.read(input);
+		if (image == null) {
+			throw new IOException("Not a readable image");
+		}
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		final int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+
+		final String name = stripExtension(input.getName());
+		final File dir = outputDir != null ? outputDir : input
+				.getAbsoluteFile().getParentFile();
+		final String ext = ktx ? ".ktx" : ".pkm";
+		final ETC1Encoder encoder = new ETC1Encoder(quality);
+
+		final Result color = encodeChain(argb, width, height, encoder,
+				executor, new File(dir, name + ext));
+
+		final long rawBytes = color.pixels * 4;
+		if (hasAlpha(argb)) {
+			System.err.println(input.getName()
+					+ ": warning: transparency dropped, since ETC1 is opaque");
+		}
+
+		System.out.println(String.format(Locale.US,
+				"%s: %dx%d, %d levels, %d KB -> %d KB, %.2f Mpixel/s, "
+						+ "PSNR %.2f dB", input.getName(), width, height,
+				color.levels, rawBytes / 1024,
+				color.bytes / 1024, color.pixels / (color.nanos / 1000.0),
+				color.psnr));
+	}
+
+	/**
+	 * The statistics of one encoded file.
+	 */
+	private static class Result {
+		int levels;
+		long bytes;
+		long pixels;
+		long nanos;
+		double psnr;
+	}
+
+	/**
+	 * Builds the mip chain of an image, encodes it, and writes it to the
+	 * given file.
+	 */
+	private Result encodeChain(int[] argb, int width, int height,
+			ETC1Encoder encoder, ExecutorService executor, File output)
+			throws IOException, InterruptedException {
+		final MipChain chain = new MipChain(argb, width, height, mipmaps,
+				gammaCorrect);
+		final Result result = new Result();
+		result.levels = chain.getLevelCount();
+		final byte[][] levels = new byte[chain.getLevelCount()][];
+		for (int i = 0; i < levels.length; i++) {
+			final int w = chain.getWidth(i), h = chain.getHeight(i);
+			final long start = System.nanoTime();
+			levels[i] = encoder.encode(chain.getPixels(i), w, h, executor);
+			result.nanos += System.nanoTime() - start;
+			result.pixels += (long) w * h;
+			result.bytes += levels[i].length;
+		}
+		result.psnr = psnr(argb, ETC1Encoder.decode(levels[0], width, height));
+
+		final OutputStream out = new BufferedOutputStream(new FileOutputStream(
+				output));
+		try {
+			if (ktx) {
+				ETC1Writer.writeKTX(out, chain, levels);
+			} else {
+				ETC1Writer.writePKM(out, chain, levels);
+			}
+		} finally {
+			out.close();
+		}
+		return result;
+	}
+
+	/**
+	 * @return The peak signal-to-noise ratio of the RGB channels of the given
+	 *         images, in decibels, or infinity if they are identical.
+	 */
+	private static double psnr(int[] original, int[] decoded) {
+		double sum = 0;
+		for (int i = 0; i < original.length; i++) {
+			for (int shift = 16; shift >= 0; shift -= 8) {
+				final int d = (original[i] >> shift & 0xFF)
+						- (decoded[i] >> shift & 0xFF);
+				sum += d * d;
+			}
+		}
+		final double mse = sum / (original.length * 3.0);
+		return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math
+				.log10(255 * 255 / mse);
+	}
+
+	private static boolean hasAlpha(int[] argb) {
+		for (int pixel : argb) {
+			if (pixel >>> 24 != 0xFF) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String stripExtension(String name) {
+		final int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+}
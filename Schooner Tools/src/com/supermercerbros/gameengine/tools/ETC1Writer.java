@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.tools;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes encoded ETC1 mip chains in the file layouts that the engine's
+ * <code>ETC1Container</code> reads.
+ */
+public class ETC1Writer {
+	private static final int GL_ETC1_RGB8_OES = 0x8D64;
+	private static final int GL_RGB = 0x1907;
+	private static final byte[] KTX_MAGIC = { (byte) 0xAB, 'K', 'T', 'X', ' ',
+			'1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n' };
+
+	private ETC1Writer() {
+	}
+
+	/**
+	 * Writes each level as a PKM image, largest first.
+	 *
+	 * @param out
+	 *            The stream to write to.
+	 * @param chain
+	 *            The mip chain, for the sizes of the levels.
+	 * @param levels
+	 *            The encoded levels.
+	 */
+	public static void writePKM(OutputStream out, MipChain chain,
+			byte[][] levels) throws IOException {
+		final DataOutputStream data = new DataOutputStream(out);
+		for (int i = 0; i < levels.length; i++) {
+			final int width = chain.getWidth(i);
+			final int height = chain.getHeight(i);
+			data.writeBytes("PKM 10");
+			data.writeShort(0); // ETC1_RGB_NO_MIPMAPS
+			data.writeShort((width + 3) & ~3);
+			data.writeShort((height + 3) & ~3);
+			data.writeShort(width);
+			data.writeShort(height);
+			data.write(levels[i]);
+		}
+		data.flush();
+	}
+
+	/**
+	 * Writes the levels as a little-endian KTX file.
+	 *
+	 * @param out
+	 *            The stream to write to.
+	 * @param chain
+	 *            The mip chain, for the sizes of the levels.
+	 * @param levels
+	 *            The encoded levels.
+	 */
+	public static void writeKTX(OutputStream out, MipChain chain,
+			byte[][] levels) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(64).order(
+				ByteOrder.LITTLE_ENDIAN);
+		header.put(KTX_MAGIC);
+		header.putInt(0x04030201); // endianness
+		header.putInt(0); // glType
+		header.putInt(1); // glTypeSize
+		header.putInt(0); // glFormat
+		header.putInt(GL_ETC1_RGB8_OES);
+		header.putInt(GL_RGB);
+		header.putInt(chain.getWidth(0));
+		header.putInt(chain.getHeight(0));
+		header.putInt(0); // pixelDepth
+		header.putInt(0); // numberOfArrayElements
+		header.putInt(1); // numberOfFaces
+		header.putInt(levels.length);
+		header.putInt(0); // bytesOfKeyValueData
+		out.write(header.array());
+
+		final ByteBuffer size = ByteBuffer.allocate(4).order(
+				ByteOrder.LITTLE_ENDIAN);
+		for (byte[] level : levels) {
+			size.clear();
+			size.putInt(level.length);
+			out.write(size.array());
+			// ETC1 levels are multiples of 8 bytes, so no mip padding is needed
+			out.write(level);
+		}
+		out.flush();
+	}
+}
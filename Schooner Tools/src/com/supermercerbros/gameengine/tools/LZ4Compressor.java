@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.tools;
+
+import java.util.Arrays;
+
+/**
+ * Compresses data in the LZ4 block format, with a greedy matcher over a hash
+ * table of recent positions, like the reference fast compressor. The output
+ * can be decompressed by any LZ4 block decoder, including the engine's.
+ */
+public class LZ4Compressor {
+	private static final int MIN_MATCH = 4;
+	private static final int MAX_OFFSET = 0xFFFF;
+	/**
+	 * The last match must start at least this many bytes before the end.
+	 */
+	private static final int MF_LIMIT = 12;
+	/**
+	 * The last bytes are always literals.
+	 */
+	private static final int LAST_LITERALS = 5;
+
+	private static final int HASH_BITS = 16;
+
+	private final int[] table = new int[1 << HASH_BITS];
+
+	/**
+	 * @return The largest size that <code>length</code> bytes can compress
+	 *         to.
+	 */
+	public static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compresses one block.
+	 *
+	 * @param src
+	 *            The array holding the data.
+	 * @param offset
+	 *            The index of the data in <code>src</code>.
+	 * @param length
+	 *            The length of the data.
+	 * @param dst
+	 *            The array to compress into, with room for
+	 *            {@link #maxCompressedLength(int)} bytes.
+	 * @return The length of the compressed block.
+	 */
+	public int compress(byte[] src, int offset, int length, byte[] dst) {
+		Arrays.fill(table, -1);
+		final int end = offset + length;
+		final int matchLimit = end - LAST_LITERALS;
+		final int mfLimit = end - MF_LIMIT;
+		int anchor = offset;
+		int s = offset;
+		int d = 0;
+
+		while (s < mfLimit) {
+			final int sequence = readInt(src, s);
+			final int h = hash(sequence);
+			final int ref = table[h];
+			table[h] = s;
+			if (ref < offset || s - ref > MAX_OFFSET
+					|| readInt(src, ref) != sequence) {
+				s++;
+				continue;
+			}
+
+			// Extend the match backwards, then forwards
+			int start = s, from = ref;
+			while (start > anchor && from > offset
+					&& src[start - 1] == src[from - 1]) {
+				start--;
+				from--;
+			}
+			int matchLength = MIN_MATCH + (s - start);
+			while (start + matchLength < matchLimit
+					&& src[start + matchLength] == src[from + matchLength]) {
+				matchLength++;
+			}
+
+			d = writeSequence(src, anchor, start - anchor, start - from,
+					matchLength, dst, d);
+			s = start + matchLength;
+			anchor = s;
+			if (s - 2 >= offset && s - 2 < mfLimit) {
+				table[hash(readInt(src, s - 2))] = s - 2;
+			}
+		}
+
+		// The last literals
+		return writeSequence(src, anchor, end - anchor, 0, 0, dst, d);
+	}
+
+	/**
+	 * Writes a sequence of literals followed by a match, or by nothing if the
+	 * match length is 0.
+	 */
+	private static int writeSequence(byte[] src, int literalStart,
+			int literals, int matchOffset, int matchLength, byte[] dst, int d) {
+		final int tokenIndex = d++;
+		int token = Math.min(literals, 0x0F) << 4;
+		if (literals >= 0x0F) {
+			d = writeLength(literals - 0x0F, dst, d);
+		}
+		System.arraycopy(src, literalStart, dst, d, literals);
+		d += literals;
+
+		if (matchLength > 0) {
+			dst[d++] = (byte) matchOffset;
+			dst[d++] = (byte) (matchOffset >>> 8);
+			final int length = matchLength - MIN_MATCH;
+			token |= Math.min(length, 0x0F);
+			if (length >= 0x0F) {
+				d = writeLength(length - 0x0F, dst, d);
+			}
+		}
+		dst[tokenIndex] = (byte) token;
+		return d;
+	}
+
+	private static int writeLength(int length, byte[] dst, int d) {
+		while (length >= 0xFF) {
+			dst[d++] = (byte) 0xFF;
+			length -= 0xFF;
+		}
+		dst[d++] = (byte) length;
+		return d;
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16
+				| (b[i + 3] & 0xFF) << 24;
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_BITS);
+	}
+}
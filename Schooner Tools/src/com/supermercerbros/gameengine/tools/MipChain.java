@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 Dan Mercer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.supermercerbros.gameengine.tools;
+
+import java.util.ArrayList;
+
+/**
+ * A full mip chain of an ARGB image, down to 1x1. Each level is half the size
+ * of the one before it, rounded down, which is the layout that the engine's
+ * ETC1 loader expects.
+ *
+ * <p>
+ * Colors are averaged in linear space, so bright and dark detail does not
+ * darken as the image shrinks. Images that are not colors, such as normal
+ * maps, should be filtered with gamma correction off.
+ * </p>
+ */
+public class MipChain {
+	private static final float[] SRGB_TO_LINEAR = new float[256];
+	private static final int LINEAR_TO_SRGB_SIZE = 4096;
+	private static final int[] LINEAR_TO_SRGB = new int[LINEAR_TO_SRGB_SIZE + 1];
+	static {
+		for (int i = 0; i < 256; i++) {
+			final double c = i / 255.0;
+			SRGB_TO_LINEAR[i] = (float) (c <= 0.04045 ? c / 12.92 : Math.pow(
+					(c + 0.055) / 1.055, 2.4));
+		}
+		for (int i = 0; i <= LINEAR_TO_SRGB_SIZE; i++) {
+			final double l = i / (double) LINEAR_TO_SRGB_SIZE;
+			final double c = l <= 0.0031308 ? l * 12.92 : 1.055 * Math.pow(l,
+					1 / 2.4) - 0.055;
+			LINEAR_TO_SRGB[i] = (int) Math.round(c * 255);
+		}
+	}
+
+	private final ArrayList<int[]> levels = new ArrayList<int[]>();
+	private final ArrayList<int[]> sizes = new ArrayList<int[]>();
+
+	/**
+	 * Builds a mip chain.
+	 *
+	 * @param argb
+	 *            The pixels of the full-size image, row by row. This is used
+	 *            as level 0.
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param mipmaps
+	 *            false to only include level 0.
+	 * @param gammaCorrect
+	 *            true to filter colors in linear space.
+	 */
+	public MipChain(int[] argb, int width, int height, boolean mipmaps,
+			boolean gammaCorrect) {
+		levels.add(argb);
+		sizes.add(new int[] { width, height });
+		while (mipmaps && (width > 1 || height > 1)) {
+			final int w = Math.max(width / 2, 1);
+			final int h = Math.max(height / 2, 1);
+			argb = downsample(argb, width, height, w, h, gammaCorrect);
+			levels.add(argb);
+			sizes.add(new int[] { w, h });
+			width = w;
+			height = h;
+		}
+	}
+
+	/**
+	 * Box-filters an image to half its size. Each destination pixel averages
+	 * the 2x2 source pixels under it, clamped to the edges of the source.
+	 */
+	private static int[] downsample(int[] src, int srcWidth, int srcHeight,
+			int width, int height, boolean gammaCorrect) {
+		final int[] dst = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			final int y0 = Math.min(y * 2, srcHeight - 1);
+			final int y1 = Math.min(y * 2 + 1, srcHeight - 1);
+			for (int x = 0; x < width; x++) {
+				final int x0 = Math.min(x * 2, srcWidth - 1);
+				final int x1 = Math.min(x * 2 + 1, srcWidth - 1);
+				final int p00 = src[y0 * srcWidth + x0];
+				final int p01 = src[y0 * srcWidth + x1];
+				final int p10 = src[y1 * srcWidth + x0];
+				final int p11 = src[y1 * srcWidth + x1];
+
+				final int a = ((p00 >>> 24) + (p01 >>> 24) + (p10 >>> 24)
+						+ (p11 >>> 24) + 2) >> 2;
+				int pixel = a << 24;
+				for (int shift = 16; shift >= 0; shift -= 8) {
+					pixel |= average(p00 >> shift & 0xFF, p01 >> shift & 0xFF,
+							p10 >> shift & 0xFF, p11 >> shift & 0xFF,
+							gammaCorrect) << shift;
+				}
+				dst[y * width + x] = pixel;
+			}
+		}
+		return dst;
+	}
+
+	private static int average(int c0, int c1, int c2, int c3,
+			boolean gammaCorrect) {
+		if (!gammaCorrect) {
+			return (c0 + c1 + c2 + c3 + 2) >> 2;
+		}
+		final float linear = (SRGB_TO_LINEAR[c0] + SRGB_TO_LINEAR[c1]
+				+ SRGB_TO_LINEAR[c2] + SRGB_TO_LINEAR[c3]) * 0.25f;
+		return LINEAR_TO_SRGB[Math.round(linear * LINEAR_TO_SRGB_SIZE)];
+	}
+
+	/**
+	 * @return The number of levels.
+	 */
+	public int getLevelCount() {
+		return levels.size();
+	}
+
+	/**
+	 * @return The pixels of the given level, row by row.
+	 */
+	public int[] getPixels(int level) {
+		return levels.get(level);
+	}
+
+	public int getWidth(int level) {
+		return sizes.get(level)[0];
+	}
+
+	public int getHeight(int level) {
+		return sizes.get(level)[1];
+	}
+}